@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A fixed size thread pool with a bounded queue and a configurable @OverflowPolicy,
+ * so producers are never stalled indefinitely and memory use stays bounded when 
+ * the workers fall behind. Tasks that are discarded are counted rather than raising an error.
+ * Discarded tasks that are themselves a @Future (as returned by submit) are cancelled so
+ * anything waiting on them is released.
+ */
+public class BoundedExecutor extends ThreadPoolExecutor {
+	private static final Logger LOG = LoggerFactory.getLogger(BoundedExecutor.class);
+
+	private final String name;
+	private final OverflowPolicy policy;
+	private final long blockTimeoutMillis;
+	
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	
+	/**
+	 * Constructor for BoundedExecutor
+	 * 
+	 * @param name name used for the worker threads and in log messages
+	 * @param workers number of worker threads
+	 * @param queueCapacity maximum number of tasks waiting for a worker
+	 * @param policy what to do with a task submitted while the queue is full
+	 * @param blockTimeoutMillis how long to wait for room in the queue under @OverflowPolicy.BLOCK
+	 */
+	public BoundedExecutor(String name, int workers, int queueCapacity, OverflowPolicy policy, long blockTimeoutMillis) {
+		super(workers, workers, 0L, TimeUnit.MILLISECONDS, 
+				new ArrayBlockingQueue<>(queueCapacity),
+				new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+		this.name = name;
+		this.policy = policy;
+		this.blockTimeoutMillis = blockTimeoutMillis;
+		setRejectedExecutionHandler(new OverflowHandler());
+	}
+	
+	@Override
+	public void execute(Runnable command) {
+		submitted.incrementAndGet();
+		super.execute(command);
+	}
+	
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		super.afterExecute(r, t);
+		if (t != null) {
+			failed.incrementAndGet();
+			LOG.error("Task failed in {}: {}", name, t.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * @return the name of this executor
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return number of tasks waiting for a worker
+	 */
+	public int getQueueDepth() {
+		return getQueue().size();
+	}
+	
+	/**
+	 * @return number of tasks submitted (including those later discarded)
+	 */
+	public long getSubmittedCount() {
+		return submitted.get();
+	}
+	
+	/**
+	 * @return number of tasks discarded because the queue was full
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+	
+	/**
+	 * @return number of tasks that ended with an uncaught exception
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+	
+	private class OverflowHandler implements RejectedExecutionHandler {
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			if (executor.isShutdown()) {
+				reject(r);
+				return;
+			}
+			
+			switch (policy) {
+			case DROP_OLDEST:
+				Runnable oldest = executor.getQueue().poll();
+				if (oldest != null) reject(oldest);
+				if (!executor.getQueue().offer(r)) reject(r);
+				break;
+			case BLOCK:
+				try {
+					if (!executor.getQueue().offer(r, blockTimeoutMillis, TimeUnit.MILLISECONDS)) reject(r);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					reject(r);
+				}
+				break;
+			case CALLER_RUNS:
+				r.run();
+				break;
+			case DROP_NEWEST:
+			default:
+				reject(r);
+				break;
+			}
+		}
+		
+		private void reject(Runnable r) {
+			if (r instanceof Future) {
+				((Future<?>) r).cancel(false);
+			}
+			if (rejected.incrementAndGet() % 100 == 1) {
+				LOG.warn("{} is full, {} tasks discarded so far", name, rejected.get());
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.concurrent;
+
+/**
+ * What a @BoundedExecutor does with a task submitted while its queue is full
+ */
+public enum OverflowPolicy {
+	/**
+	 * Discard the oldest queued task to make room for the new one
+	 */
+	DROP_OLDEST,
+	
+	/**
+	 * Discard the new task
+	 */
+	DROP_NEWEST,
+	
+	/**
+	 * Wait (up to a timeout) for room in the queue, then discard the new task
+	 */
+	BLOCK,
+	
+	/**
+	 * Run the new task on the submitting thread, so no task is ever discarded
+	 */
+	CALLER_RUNS
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index;
+
+/**
+ * The outcome of indexing a single page as part of a bulk request
+ */
+public class BulkIndexItem {
+	public static final String STATUS_INDEXED = "indexed";
+	public static final String STATUS_FAILED = "failed";
+	
+	private final String url;
+	private final String error;
+	
+	/**
+	 * @param url the url of the page (may be null if the record could not be read)
+	 * @param error a description of why the page could not be indexed, or null if it was indexed
+	 */
+	public BulkIndexItem(String url, String error) {
+		this.url = url;
+		this.error = error;
+	}
+	
+	public String getUrl() {
+		return url;
+	}
+	
+	public String getStatus() {
+		return error == null ? STATUS_INDEXED : STATUS_FAILED;
+	}
+	
+	public String getError() {
+		return error;
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A container for the per-record results and totals of a bulk index request
+ */
+public class BulkIndexResult {
+	private int indexed = 0;
+	private int failed = 0;
+	private long tookMillis = 0;
+	private final List<BulkIndexItem> results = new ArrayList<>();
+	
+	/**
+	 * @param item the outcome of the next record in the request
+	 * @return this for method chaining
+	 */
+	public BulkIndexResult add(BulkIndexItem item) {
+		results.add(item);
+		if (item.getError() == null) {
+			indexed++;
+		} else {
+			failed++;
+		}
+		return this;
+	}
+	
+	public int getTotal() {
+		return results.size();
+	}
+	
+	public int getIndexed() {
+		return indexed;
+	}
+	
+	public int getFailed() {
+		return failed;
+	}
+	
+	public long getTookMillis() {
+		return tookMillis;
+	}
+	
+	public BulkIndexResult setTookMillis(long tookMillis) {
+		this.tookMillis = tookMillis;
+		return this;
+	}
+	
+	public List<BulkIndexItem> getResults() {
+		return results;
+	}
+}
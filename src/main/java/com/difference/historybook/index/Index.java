@@ -17,6 +17,10 @@
 package com.difference.historybook.index;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * An abstraction of a searchable index of web pages
@@ -32,7 +36,49 @@ public interface Index extends AutoCloseable {
 	 * @param body            the textual content of the page (binaries are unsupported)
 	 * @throws IndexException
 	 */
-	public void indexPage(String collection, String url, Instant timestamp, String body) throws IndexException;
+	public void indexPage(String collection, String url, Instant timestamp, CharSequence body) throws IndexException;
+	
+	/**
+	 * Submits a given page to be added to an index collection without waiting for it to be indexed.
+	 * Implementations may block the caller if they are falling behind.
+	 * 
+	 * @param collection      a namespace for an index. Allows storing multiple indexes within the same backing store.
+	 * @param url             the url of the page being indexed
+	 * @param timestamp       the timestamp representing when the page was retrieved
+	 * @param body            the textual content of the page (binaries are unsupported)
+	 * @return                a future completed once the page is indexed, or completed exceptionally if it could not be
+	 */
+	default public CompletableFuture<Void> submitPage(String collection, String url, Instant timestamp, CharSequence body) {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		try {
+			indexPage(collection, url, timestamp, body);
+			result.complete(null);
+		} catch (IndexException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+	
+	/**
+	 * Adds a batch of pages to an index collection. A failure to index one page does not prevent the others from being indexed.
+	 * 
+	 * @param collection      a namespace for an index. Allows storing multiple indexes within the same backing store.
+	 * @param pages           the pages to index
+	 * @return                the outcome for each page, in the same order as the pages were given
+	 * @throws IndexException if the batch as a whole could not be processed
+	 */
+	default public List<BulkIndexItem> indexPages(String collection, List<WebPage> pages) throws IndexException {
+		List<BulkIndexItem> results = new ArrayList<>(pages.size());
+		for (WebPage page : pages) {
+			try {
+				indexPage(collection, page.getUrl(), page.getTimestamp(), page.getBody());
+				results.add(new BulkIndexItem(page.getUrl(), null));
+			} catch (IndexException e) {
+				results.add(new BulkIndexItem(page.getUrl(), e.getLocalizedMessage()));
+			}
+		}
+		return results;
+	}
 	
 	/**
 	 * Executes a given query against the index in the specified collection namespace and returns up to the requested page size of results.
@@ -61,5 +107,123 @@ public interface Index extends AutoCloseable {
 	 * @see SearchResultWrapper
 	 * @throws IndexException
 	 */
-	public SearchResultWrapper search(String collection, String query, int offset, int size, boolean includeDebug) throws IndexException;
+	default public SearchResultWrapper search(String collection, String query, int offset, int size, boolean includeDebug) throws IndexException {
+		return search(collection, query, offset, size, includeDebug, false);
+	}
+	
+	/**
+	 * Executes a given query against the index in the specified collection namespace and returns up to the requested page size of results.
+	 * 
+	 * @param collection        a namespace for an index. Allows storing multiple indexes within the same backing store.
+	 * @param query             the search query to execute. The supported syntax of this is determined by the underlying @Index implementation
+	 * @param offset            the 0-based offset to begin retrieving results from. Specifying an offset greater than the actual number of results will result in an empty result.
+	 * @param size              the maximum number of results to return. The actual number of results returned may be fewer.
+	 * @param includeDebug		include implementation dependent debug information for search result
+	 * @param includeFacets		count all of the results by domain and by month (see @SearchFacets)
+	 * @return                  the search results for the specified query along with relevant metadata.
+	 * @see SearchResultWrapper
+	 * @throws IndexException
+	 */
+	default public SearchResultWrapper search(String collection, String query, int offset, int size, boolean includeDebug, boolean includeFacets) throws IndexException {
+		return search(collection, query, offset, size, includeDebug, includeFacets, true);
+	}
+	
+	/**
+	 * Executes a given query against the index in the specified collection namespace and returns up to the requested page size of results.
+	 * 
+	 * @param collection        a namespace for an index. Allows storing multiple indexes within the same backing store.
+	 * @param query             the search query to execute. The supported syntax of this is determined by the underlying @Index implementation
+	 * @param offset            the 0-based offset to begin retrieving results from. Specifying an offset greater than the actual number of results will result in an empty result.
+	 * @param size              the maximum number of results to return. The actual number of results returned may be fewer.
+	 * @param includeDebug		include implementation dependent debug information for search result
+	 * @param includeFacets		count all of the results by domain and by month (see @SearchFacets)
+	 * @param includeSnippets	build a snippet for each result. Without them results come back much sooner, and 
+	 * 							their snippets can be fetched afterwards with {@link #snippets(String, String, List)}.
+	 * @return                  the search results for the specified query along with relevant metadata.
+	 * @see SearchResultWrapper
+	 * @throws IndexException
+	 */
+	public SearchResultWrapper search(String collection, String query, int offset, int size, boolean includeDebug, boolean includeFacets, boolean includeSnippets) throws IndexException;
+	
+	/**
+	 * Continues a search from where an earlier page of results ended. Fetching a page this way costs about 
+	 * the same however deep into the results it is, unlike asking for a large offset.
+	 * 
+	 * @param collection        a namespace for an index. Allows storing multiple indexes within the same backing store.
+	 * @param query             the search query to execute. Must be the same query the cursor came from.
+	 * @param cursor            the cursor returned with the previous page of results (see @SearchResultWrapper)
+	 * @param size              the maximum number of results to return. The actual number of results returned may be fewer.
+	 * @param includeDebug		include implementation dependent debug information for search result
+	 * @return                  the search results following the cursor along with relevant metadata.
+	 * @see SearchResultWrapper
+	 * @throws IndexException   if the search fails or the cursor is not valid
+	 */
+	default public SearchResultWrapper searchAfter(String collection, String query, String cursor, int size, boolean includeDebug) throws IndexException {
+		return searchAfter(collection, query, cursor, size, includeDebug, true);
+	}
+	
+	/**
+	 * Continues a search from where an earlier page of results ended. Fetching a page this way costs about 
+	 * the same however deep into the results it is, unlike asking for a large offset.
+	 * 
+	 * @param collection        a namespace for an index. Allows storing multiple indexes within the same backing store.
+	 * @param query             the search query to execute. Must be the same query the cursor came from.
+	 * @param cursor            the cursor returned with the previous page of results (see @SearchResultWrapper)
+	 * @param size              the maximum number of results to return. The actual number of results returned may be fewer.
+	 * @param includeDebug		include implementation dependent debug information for search result
+	 * @param includeSnippets	build a snippet for each result
+	 * @return                  the search results following the cursor along with relevant metadata.
+	 * @see SearchResultWrapper
+	 * @throws IndexException   if the search fails or the cursor is not valid
+	 */
+	public SearchResultWrapper searchAfter(String collection, String query, String cursor, int size, boolean includeDebug, boolean includeSnippets) throws IndexException;
+	
+	/**
+	 * Builds the snippets for results of a search made without them. 
+	 * 
+	 * @param collection        a namespace for an index. Allows storing multiple indexes within the same backing store.
+	 * @param query             the search query the results came from
+	 * @param keys              the keys of the results (see @SearchResult)
+	 * @return                  the snippet for each key, by key. Keys not found in the collection are left out.
+	 * @throws IndexException
+	 */
+	public Map<String, String> snippets(String collection, String query, List<String> keys) throws IndexException;
+	
+	/**
+	 * Builds the snippets for results of a search made without them, passing each on as soon as it is built.
+	 * Snippets may be built concurrently and in any order, but are only passed on from the calling thread.
+	 * 
+	 * @param collection        a namespace for an index. Allows storing multiple indexes within the same backing store.
+	 * @param query             the search query the results came from
+	 * @param keys              the keys of the results (see @SearchResult)
+	 * @param consumer          receives the key and snippet of each key found in the collection
+	 * @throws IndexException   if the snippets cannot be built or the consumer fails
+	 */
+	public void snippets(String collection, String query, List<String> keys, SnippetConsumer consumer) throws IndexException;
+	
+	/**
+	 * Lists the indexed versions of a page, most recently visited first. Searches only return one version of each page.
+	 * 
+	 * @param collection        a namespace for an index. Allows storing multiple indexes within the same backing store.
+	 * @param url               the url of the page
+	 * @param offset            the 0-based offset to begin retrieving versions from.
+	 * @param size              the maximum number of versions to return. The actual number of versions returned may be fewer.
+	 * @return                  the versions of the page, without snippets.
+	 * @see SearchResultWrapper
+	 * @throws IndexException
+	 */
+	public SearchResultWrapper versions(String collection, String url, int offset, int size) throws IndexException;
+	
+	/**
+	 * Completes a prefix typed by a user to the titles, urls and domains of pages in a collection.
+	 * Suggestions are updated in the background, so newly indexed pages may not be suggested right away.
+	 * 
+	 * @param collection        a namespace for an index. Allows storing multiple indexes within the same backing store.
+	 * @param prefix            what the user has typed so far. Matched case insensitively.
+	 * @param size              the maximum number of suggestions to return.
+	 * @return                  suggestions, the most visited (weighted by recency) first.
+	 * @see Suggestion
+	 * @throws IndexException
+	 */
+	public List<Suggestion> suggest(String collection, String prefix, int size) throws IndexException;
 }
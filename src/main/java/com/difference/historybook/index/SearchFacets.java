@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index;
+
+import java.util.List;
+
+/**
+ * Counts of the results of a search by domain and by month, for narrowing the search down
+ */
+public class SearchFacets {
+	private List<FacetCount> domains;
+	private List<FacetCount> months;
+
+	/**
+	 * @return the domains with the most results, most first
+	 */
+	public List<FacetCount> getDomains() {
+		return domains;
+	}
+
+	public SearchFacets setDomains(List<FacetCount> domains) {
+		this.domains = domains;
+		return this;
+	}
+
+	/**
+	 * @return the number of results last visited in each month (as yyyy-MM in UTC), earliest first
+	 */
+	public List<FacetCount> getMonths() {
+		return months;
+	}
+
+	public SearchFacets setMonths(List<FacetCount> months) {
+		this.months = months;
+		return this;
+	}
+}
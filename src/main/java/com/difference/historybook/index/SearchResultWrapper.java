@@ -28,6 +28,8 @@ public class SearchResultWrapper {
 	private int maxResultsRequested;
 	private int resultCount;
 	private String debugInfo;
+	private String cursor;
+	private SearchFacets facets;
 	private List<SearchResult> results;
 
 	public String getQuery() {
@@ -83,5 +85,29 @@ public class SearchResultWrapper {
 		this.debugInfo = debugInfo;
 		return this;
 	}
+
+	/**
+	 * @return an opaque cursor for fetching the next page of results (see @Index), or null if there are no more
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	public SearchResultWrapper setCursor(String cursor) {
+		this.cursor = cursor;
+		return this;
+	}
+
+	/**
+	 * @return counts of all of the results by domain and month, or null if they were not asked for
+	 */
+	public SearchFacets getFacets() {
+		return facets;
+	}
+
+	public SearchResultWrapper setFacets(SearchFacets facets) {
+		this.facets = facets;
+		return this;
+	}
 	
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index;
+
+import java.io.IOException;
+
+/**
+ * Receives the snippets of search results one at a time as an @Index builds them
+ */
+@FunctionalInterface
+public interface SnippetConsumer {
+	/**
+	 * @param key       the key of the result (see @SearchResult)
+	 * @param snippet   the snippet of the result
+	 * @throws IOException if the snippet cannot be passed on, in which case no more are built
+	 */
+	public void accept(String key, String snippet) throws IOException;
+}
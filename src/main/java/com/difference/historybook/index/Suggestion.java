@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index;
+
+/**
+ * A completion for a prefix typed by a user
+ */
+public class Suggestion {
+	/**
+	 * What a suggestion completes to
+	 */
+	public enum Kind {
+		/**
+		 * The title of a page
+		 */
+		TITLE,
+		
+		/**
+		 * The url of a page (without its scheme)
+		 */
+		URL,
+		
+		/**
+		 * A domain pages have been visited on
+		 */
+		DOMAIN
+	}
+	
+	private final String text;
+	private final String url;
+	private final Kind kind;
+	private final long weight;
+	
+	public Suggestion(String text, String url, Kind kind, long weight) {
+		this.text = text;
+		this.url = url;
+		this.kind = kind;
+		this.weight = weight;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @return the url of the page suggested, or null for a domain
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public long getWeight() {
+		return weight;
+	}
+}
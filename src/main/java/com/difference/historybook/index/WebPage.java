@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index;
+
+import java.time.Instant;
+
+/**
+ * A container for a single captured page waiting to be indexed
+ */
+public class WebPage {
+	private final String url;
+	private final Instant timestamp;
+	private final CharSequence body;
+	
+	public WebPage(String url, Instant timestamp, CharSequence body) {
+		this.url = url;
+		this.timestamp = timestamp;
+		this.body = body;
+	}
+
+	/**
+	 * @return the url of the page
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return the timestamp representing when the page was retrieved
+	 */
+	public Instant getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the textual content of the page
+	 */
+	public CharSequence getBody() {
+		return body;
+	}
+}
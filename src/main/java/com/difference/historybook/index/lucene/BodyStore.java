@@ -0,0 +1,299 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * An append-only, content-addressed store of page bodies kept outside of a @LuceneIndex so the
+ * index itself only has to hold postings and doc values.
+ *
+ * Bodies are keyed by their content key (see @IndexDocumentAdapter) so identical bodies are stored once.
+ * Each body is deflated into its own block, laid out as [int compressed length][int length][long crc32]
+ * [short key length][key][compressed bytes]. The locations of the blocks are rebuilt from the block headers
+ * when the store is opened. Blocks within a complete chunk of the file are read back through a memory mapped
+ * view of the chunk, and the rest from the channel, so the growing end of the file is never mapped.
+ */
+class BodyStore implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(BodyStore.class);
+
+	private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES + Short.BYTES;
+	private static final long MAP_CHUNK_SIZE = 1L << 30;
+
+	private static class Location {
+		private final long offset;
+		private final int compressedLength;
+		private final int length;
+
+		private Location(long offset, int compressedLength, int length) {
+			this.offset = offset;
+			this.compressedLength = compressedLength;
+			this.length = length;
+		}
+	}
+
+	private final Path path;
+	private final FileChannel channel;
+	private final Map<String, Location> locations = new ConcurrentHashMap<>();
+	private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+	private long size = 0;
+
+	/**
+	 * Constructor for BodyStore. Opens (or creates) the store at the given path.
+	 *
+	 * @param path the store file
+	 * @throws IOException
+	 */
+	BodyStore(Path path) throws IOException {
+		this.path = path;
+		this.channel = FileChannel.open(path,
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		load();
+		mapCompleteChunks();
+	}
+
+	/**
+	 * Scan the block headers to find where each body is. Only the last block's checksum is verified,
+	 * as a torn write can only affect the end of the file.
+	 */
+	private void load() throws IOException {
+		long fileSize = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		long position = 0;
+		long lastPosition = 0;
+		String lastKey = null;
+		long lastCrc = 0;
+
+		while (position + HEADER_SIZE <= fileSize) {
+			header.clear();
+			readFully(header, position);
+			header.flip();
+			int compressedLength = header.getInt();
+			int length = header.getInt();
+			long crc = header.getLong();
+			short keyLength = header.getShort();
+
+			long payload = position + HEADER_SIZE + keyLength;
+			if (compressedLength < 0 || length < 0 || keyLength <= 0 || payload + compressedLength > fileSize) break;
+
+			ByteBuffer key = ByteBuffer.allocate(keyLength);
+			readFully(key, position + HEADER_SIZE);
+			key.flip();
+
+			lastPosition = position;
+			lastKey = Charsets.US_ASCII.decode(key).toString();
+			lastCrc = crc;
+			locations.put(lastKey, new Location(payload, compressedLength, length));
+			position = payload + compressedLength;
+		}
+
+		if (lastKey != null) {
+			Location last = locations.get(lastKey);
+			byte[] compressed = new byte[last.compressedLength];
+			readFully(ByteBuffer.wrap(compressed), last.offset);
+			if (crc(compressed) != lastCrc) {
+				locations.remove(lastKey);
+				position = lastPosition;
+			}
+		}
+
+		size = position;
+		if (size < fileSize) {
+			LOG.warn("Discarding {} bytes of incomplete data at the end of body store {}", fileSize - size, path);
+			channel.truncate(size);
+		}
+	}
+
+	/**
+	 * Add a body to the store unless a body with the same key is already present
+	 *
+	 * @param key the content key of the body
+	 * @param body the body
+	 * @throws IOException
+	 */
+	void put(String key, CharSequence body) throws IOException {
+		if (locations.containsKey(key)) return;
+
+		ByteBuffer encoded = Charsets.UTF_8.encode(CharBuffer.wrap(body));
+		byte[] raw = Arrays.copyOfRange(encoded.array(), encoded.arrayOffset() + encoded.position(),
+				encoded.arrayOffset() + encoded.limit());
+		byte[] compressed = compress(raw);
+		byte[] keyBytes = key.getBytes(Charsets.US_ASCII);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length);
+		header.putInt(compressed.length).putInt(raw.length).putLong(crc(compressed))
+				.putShort((short) keyBytes.length).put(keyBytes).flip();
+		ByteBuffer payload = ByteBuffer.wrap(compressed);
+
+		synchronized (this) {
+			if (locations.containsKey(key)) return;
+
+			long position = size;
+			channel.position(position);
+			while (header.hasRemaining() || payload.hasRemaining()) {
+				channel.write(new ByteBuffer[] {header, payload});
+			}
+			size = position + header.limit() + compressed.length;
+			mapCompleteChunks();
+			locations.put(key, new Location(position + header.limit(), compressed.length, raw.length));
+		}
+	}
+
+	/**
+	 * @param key the content key of a body
+	 * @return the body, or null if the store has no body for the key
+	 * @throws IOException
+	 */
+	String get(String key) throws IOException {
+		Location location = locations.get(key);
+		if (location == null) return null;
+
+		byte[] compressed = new byte[location.compressedLength];
+		read(location.offset, compressed);
+
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] raw = new byte[location.length];
+			int read = 0;
+			while (read < raw.length && !inflater.finished()) {
+				int inflated = inflater.inflate(raw, read, raw.length - read);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new DataFormatException("truncated block");
+				}
+				read += inflated;
+			}
+			return new String(raw, 0, read, Charsets.UTF_8);
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt body " + key + " in " + path, e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * @return number of bodies in the store
+	 */
+	int getCount() {
+		return locations.size();
+	}
+
+	/**
+	 * @return size of the store on disk in bytes
+	 */
+	synchronized long getSizeInBytes() {
+		return size;
+	}
+
+	/**
+	 * Force added bodies to disk
+	 *
+	 * @throws IOException
+	 */
+	void sync() throws IOException {
+		channel.force(false);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		chunks = new MappedByteBuffer[0];
+		channel.force(true);
+		channel.close();
+	}
+
+	/**
+	 * Read from the memory mapped view of a complete chunk. A block past the last complete chunk, or
+	 * one that straddles two chunks, is read from the channel.
+	 */
+	private void read(long offset, byte[] target) throws IOException {
+		if (target.length == 0) return;
+
+		MappedByteBuffer[] mapped = chunks;
+		int chunk = (int) (offset / MAP_CHUNK_SIZE);
+		if (chunk < mapped.length && (offset + target.length - 1) / MAP_CHUNK_SIZE == chunk) {
+			ByteBuffer view = mapped[chunk].duplicate();
+			view.position((int) (offset - chunk * MAP_CHUNK_SIZE));
+			view.get(target);
+		} else {
+			readFully(ByteBuffer.wrap(target), offset);
+		}
+	}
+
+	/**
+	 * Map any chunks filled since the last call. Each chunk is mapped once, when it is complete.
+	 */
+	private synchronized void mapCompleteChunks() throws IOException {
+		int count = (int) (size / MAP_CHUNK_SIZE);
+		if (count <= chunks.length) return;
+
+		MappedByteBuffer[] mapped = Arrays.copyOf(chunks, count);
+		for (int i = chunks.length; i < count; i++) {
+			mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, i * MAP_CHUNK_SIZE, MAP_CHUNK_SIZE);
+		}
+		chunks = mapped;
+	}
+
+	private void readFully(ByteBuffer target, long position) throws IOException {
+		while (target.hasRemaining()) {
+			if (channel.read(target, position + target.position()) < 0) {
+				throw new IOException("Unexpected end of body store " + path);
+			}
+		}
+	}
+
+	private static byte[] compress(byte[] raw) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static long crc(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return crc.getValue();
+	}
+}
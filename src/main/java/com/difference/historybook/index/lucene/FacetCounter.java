@@ -0,0 +1,248 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Scorer;
+
+import com.difference.historybook.index.FacetCount;
+import com.difference.historybook.index.SearchFacets;
+
+/**
+ * Counts the documents matching a query by domain and by the month they were last visited, from doc values only.
+ *
+ * Domains are counted by their ordinal within each segment and only looked up once the segment is done.
+ * Segments written before domains had doc values fall back to the url of each page. Timestamps are counted
+ * against the bounds of the month last seen, as matching pages tend to be visited close together.
+ *
+ * A counter made to count urls counts each page once, however many of its versions match, under the month of
+ * its latest matching version, so the counts agree with results grouped by url.
+ */
+class FacetCounter implements Collector {
+	private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+	private static class Visit {
+		private final String domain;
+		private final long timestamp;
+
+		private Visit(String domain, long timestamp) {
+			this.domain = domain;
+			this.timestamp = timestamp;
+		}
+	}
+
+	private final boolean countUrls;
+	private final Map<String, Integer> domains = new HashMap<>();
+	private final Map<YearMonth, Integer> months = new TreeMap<>();
+	// the latest matching visit of each url, when counting urls
+	private final Map<String, Visit> visits = new HashMap<>();
+
+	// the segment being counted
+	private SortedDocValues domainValues = null;
+	private boolean domainsFromUrls = false;
+	private int[] domainCounts = null;
+	private NumericDocValues timestamps = null;
+	private SortedDocValues urlValues = null;
+	private Map<Integer, Integer> latestDocs = null;
+
+	// the month being counted
+	private YearMonth month = null;
+	private long monthStart = 0;
+	private long monthEnd = 0;
+	private int monthCount = 0;
+
+	/**
+	 * Constructor for a FacetCounter that counts every matching document
+	 */
+	FacetCounter() {
+		this(false);
+	}
+
+	/**
+	 * @param countUrls count each url once, rather than each matching version of it
+	 */
+	FacetCounter(boolean countUrls) {
+		this.countUrls = countUrls;
+	}
+
+	@Override
+	public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+		finishSegment();
+
+		LeafReader reader = context.reader();
+		FieldInfo domainInfo = reader.getFieldInfos().fieldInfo(IndexDocumentAdapter.FIELD_DOMAIN);
+		domainsFromUrls = domainInfo == null || domainInfo.getDocValuesType() != DocValuesType.SORTED;
+		domainValues = DocValues.getSorted(reader, 
+				domainsFromUrls ? IndexDocumentAdapter.FIELD_URL_GROUP : IndexDocumentAdapter.FIELD_DOMAIN);
+		domainCounts = new int[domainValues.getValueCount()];
+		timestamps = DocValues.getNumeric(reader, IndexDocumentAdapter.FIELD_TIMESTAMP);
+		if (countUrls) {
+			urlValues = DocValues.getSorted(reader, IndexDocumentAdapter.FIELD_URL_GROUP);
+			latestDocs = new HashMap<>();
+		}
+
+		return new LeafCollector() {
+			@Override
+			public void setScorer(Scorer scorer) {
+			}
+
+			@Override
+			public void collect(int doc) {
+				if (countUrls) {
+					latestDocs.merge(urlValues.getOrd(doc), doc, 
+							(a, b) -> timestamps.get(a) >= timestamps.get(b) ? a : b);
+					return;
+				}
+
+				int ord = domainValues.getOrd(doc);
+				if (ord >= 0) {
+					domainCounts[ord]++;
+				}
+
+				long timestamp = timestamps.get(doc);
+				if (timestamp < monthStart || timestamp >= monthEnd) {
+					startMonth(timestamp);
+				}
+				monthCount++;
+			}
+		};
+	}
+
+	@Override
+	public boolean needsScores() {
+		return false;
+	}
+
+	private void startMonth(long timestamp) {
+		finishMonth();
+		month = YearMonth.from(LocalDate.ofEpochDay(Math.floorDiv(timestamp, SECONDS_PER_DAY)));
+		monthStart = month.atDay(1).toEpochDay() * SECONDS_PER_DAY;
+		monthEnd = month.plusMonths(1).atDay(1).toEpochDay() * SECONDS_PER_DAY;
+	}
+
+	private void finishMonth() {
+		if (monthCount > 0) {
+			months.merge(month, monthCount, Integer::sum);
+			monthCount = 0;
+		}
+	}
+
+	private void finishSegment() {
+		finishMonth();
+		if (domainValues == null) return;
+
+		if (countUrls) {
+			for (Map.Entry<Integer, Integer> entry : latestDocs.entrySet()) {
+				if (entry.getKey() < 0) continue;
+				String url = urlValues.lookupOrd(entry.getKey()).utf8ToString();
+				int doc = entry.getValue();
+				int domainOrd = domainValues.getOrd(doc);
+				String domain = domainsFromUrls ? IndexDocumentAdapter.domainOfUrl(url)
+						: domainOrd >= 0 ? domainValues.lookupOrd(domainOrd).utf8ToString() : null;
+				addVisit(url, new Visit(domain, timestamps.get(doc)));
+			}
+			urlValues = null;
+			latestDocs = null;
+		}
+
+		for (int ord = 0; ord < domainCounts.length; ord++) {
+			if (domainCounts[ord] == 0) continue;
+			String value = domainValues.lookupOrd(ord).utf8ToString();
+			String domain = domainsFromUrls ? IndexDocumentAdapter.domainOfUrl(value) : value;
+			if (domain != null) {
+				domains.merge(domain, domainCounts[ord], Integer::sum);
+			}
+		}
+		domainValues = null;
+		domainCounts = null;
+		timestamps = null;
+	}
+
+	/**
+	 * Add the counts of another counter to this one
+	 *
+	 * @param other a counter that has finished collecting
+	 */
+	void merge(FacetCounter other) {
+		finishSegment();
+		other.finishSegment();
+		other.domains.forEach((domain, count) -> domains.merge(domain, count, Integer::sum));
+		other.months.forEach((m, count) -> months.merge(m, count, Integer::sum));
+		other.visits.forEach(this::addVisit);
+	}
+
+	private void addVisit(String url, Visit visit) {
+		visits.merge(url, visit, (a, b) -> a.timestamp >= b.timestamp ? a : b);
+	}
+
+	/**
+	 * Count the urls seen, once each
+	 */
+	private void countVisits() {
+		for (Visit visit : visits.values()) {
+			if (visit.domain != null) {
+				domains.merge(visit.domain, 1, Integer::sum);
+			}
+			if (visit.timestamp < monthStart || visit.timestamp >= monthEnd) {
+				startMonth(visit.timestamp);
+			}
+			monthCount++;
+		}
+		finishMonth();
+		visits.clear();
+	}
+
+	/**
+	 * @param maxDomains maximum number of domains to return
+	 * @return the counts collected
+	 */
+	SearchFacets getFacets(int maxDomains) {
+		finishSegment();
+		countVisits();
+
+		List<Map.Entry<String, Integer>> sorted = new ArrayList<>(domains.entrySet());
+		sorted.sort(Comparator.comparing((Map.Entry<String, Integer> e) -> e.getValue()).reversed()
+				.thenComparing(Map.Entry::getKey));
+		List<FacetCount> topDomains = new ArrayList<>();
+		for (Map.Entry<String, Integer> entry : sorted.subList(0, Math.min(Math.max(0, maxDomains), sorted.size()))) {
+			topDomains.add(new FacetCount(entry.getKey(), entry.getValue()));
+		}
+
+		List<FacetCount> monthCounts = new ArrayList<>(months.size());
+		months.forEach((m, count) -> monthCounts.add(new FacetCount(m.toString(), count)));
+
+		return new SearchFacets().setDomains(topDomains).setMonths(monthCounts);
+	}
+}
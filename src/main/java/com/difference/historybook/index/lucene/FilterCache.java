@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.FixedBitSet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * A bounded cache of the documents in each segment matching a filter on doc values (see @TimestampRangeQuery)
+ *
+ * The query cache of an @IndexSearcher keys segments by their core, which stays the same when doc values
+ * are updated in place, as they are for revisits. Entries here are keyed by the doc values generation of the
+ * field as well, so a segment whose doc values have been updated is filtered afresh. Deleted documents are not
+ * taken into account, so a segment keeps its entries as pages are deleted. Entries are dropped when their
+ * segment is closed, and otherwise the least recently used are evicted first.
+ */
+class FilterCache {
+	private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+	private static final class Key {
+		private final Object core;
+		private final String field;
+		private final long docValuesGen;
+		private final Object filter;
+
+		private Key(Object core, String field, long docValuesGen, Object filter) {
+			this.core = core;
+			this.field = field;
+			this.docValuesGen = docValuesGen;
+			this.filter = filter;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return core == other.core
+					&& docValuesGen == other.docValuesGen
+					&& field.equals(other.field)
+					&& filter.equals(other.filter);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(System.identityHashCode(core), field, docValuesGen, filter);
+		}
+	}
+
+	/**
+	 * The documents of a segment matching a filter
+	 */
+	static final class Entry {
+		private final FixedBitSet docs;
+		private final int count;
+
+		Entry(FixedBitSet docs) {
+			this.docs = docs;
+			this.count = docs.cardinality();
+		}
+
+		FixedBitSet getDocs() {
+			return docs;
+		}
+
+		int getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * Finds the documents of a segment matching a filter
+	 */
+	interface Loader {
+		/**
+		 * @param reader the segment
+		 * @return the matching documents
+		 * @throws IOException
+		 */
+		FixedBitSet load(LeafReader reader) throws IOException;
+	}
+
+	private final Cache<Key, Entry> cache;
+	private final Set<Object> cores = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+	/**
+	 * Constructor for FilterCache
+	 *
+	 * @param maxBytes approximate upper bound on the memory used by cached filters
+	 */
+	FilterCache(long maxBytes) {
+		cache = CacheBuilder.newBuilder()
+				.maximumWeight(maxBytes)
+				.weigher((Key key, Entry value) -> 
+						(int) Math.min(Integer.MAX_VALUE, ENTRY_OVERHEAD_BYTES + value.docs.getBits().length * 8L))
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * @param reader the segment
+	 * @param field the doc values field the filter reads
+	 * @param filter identifies the filter, compared by equals
+	 * @param loader finds the matching documents if they are not cached
+	 * @return the documents of the segment matching the filter
+	 * @throws IOException
+	 */
+	Entry get(LeafReader reader, String field, Object filter, Loader loader) throws IOException {
+		FieldInfo info = reader.getFieldInfos().fieldInfo(field);
+		Object core = reader.getCoreCacheKey();
+		Key key = new Key(core, field, info != null ? info.getDocValuesGen() : -1, filter);
+		if (cores.add(core)) {
+			reader.addCoreClosedListener(closed -> {
+				cores.remove(closed);
+				cache.asMap().keySet().removeIf(k -> k.core == closed);
+			});
+		}
+		
+		try {
+			return cache.get(key, () -> new Entry(loader.load(reader)));
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return hit, miss and eviction counts since startup
+	 */
+	CacheStats getStats() {
+		return cache.stats();
+	}
+}
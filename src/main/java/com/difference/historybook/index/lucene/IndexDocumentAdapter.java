@@ -17,24 +17,30 @@
 package com.difference.historybook.index.lucene;
 
 import java.time.Instant;
+import java.util.Locale;
+import java.util.Set;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
 import com.google.common.net.InetAddresses;
 import com.google.common.net.InternetDomainName;
 
 import io.mola.galimatias.GalimatiasParseException;
+import io.mola.galimatias.Host;
 import io.mola.galimatias.URL;
 
 /**
@@ -47,11 +53,23 @@ public class IndexDocumentAdapter {
 	public static final String FIELD_COLLECTION = "collection";
 	public static final String FIELD_URL = "url";
 	public static final String FIELD_URL_GROUP = "url-group";
-	private static final String FIELD_DOMAIN = "domain";
+	public static final String FIELD_DOMAIN = "domain";
 	public static final String FIELD_TIMESTAMP = "timestamp";
 	private static final String FIELD_TIMESTAMP_TEXT = "timestampText";
-	private static final String FIELD_TITLE = "title";
-	private static final String FIELD_KEY = "key";
+	public static final String FIELD_TITLE = "title";
+	public static final String FIELD_KEY = "key";
+	public static final String FIELD_VERSION = "version";
+	public static final String FIELD_VISITS = "visits";
+	public static final String FIELD_PAGE = "page";
+	public static final String FIELD_LATEST = "latest";
+	
+	// the stored fields a result is listed with, leaving out the content (which may be far larger)
+	public static final Set<String> LISTING_FIELDS = ImmutableSet.of(
+			FIELD_COLLECTION, FIELD_URL, FIELD_DOMAIN, FIELD_TIMESTAMP_TEXT, FIELD_TITLE, FIELD_KEY);
+
+	// content is indexed with offsets so snippets can be built from the postings (see @PostingsSnippetHighlighter)
+	private static final FieldType CONTENT_STORED = contentType(true);
+	private static final FieldType CONTENT_NOT_STORED = contentType(false);
 
 	private final Document doc;
 	
@@ -105,18 +123,39 @@ public class IndexDocumentAdapter {
 	}
 	
 	private void setDomainField(String url) {
-		try {
-			URL u = URL.parse(url);
-			String hostString = u.host().toHumanString();
-			String domain;
-			if (!"localhost".equalsIgnoreCase(hostString) && !InetAddresses.isInetAddress(hostString)) {
-				domain = InternetDomainName.from(hostString).topPrivateDomain().toString();
-			} else {
-				domain = hostString;
-			}
+		String domain = domainOfUrl(url);
+		if (domain != null) {
 			doc.add(new StringField(FIELD_DOMAIN, domain, Field.Store.YES));
+			doc.add(new SortedDocValuesField(FIELD_DOMAIN, new BytesRef(domain)));
+		}
+	}
+	
+	/**
+	 * @param url the complete URL of a page
+	 * @return the domain the page is filed under (see {@link #domainOf(String)}), or null if the url cannot be parsed
+	 *         or has no host
+	 */
+	public static String domainOfUrl(String url) {
+		try {
+			Host host = URL.parse(url).host();
+			return host != null ? domainOf(host.toHumanString()) : null;
 		} catch (GalimatiasParseException e1) {
 			LOG.error("Unable to parse url {}", url);
+			return null;
+		}
+	}
+
+	/**
+	 * @param host the host of a page url
+	 * @return the domain the page is filed under: the top private domain of a host name, or else the host itself
+	 *         in lower case (for addresses, and for intranet hosts that are not under a public suffix)
+	 */
+	public static String domainOf(String host) {
+		if ("localhost".equalsIgnoreCase(host) || InetAddresses.isInetAddress(host)) return host;
+		try {
+			return InternetDomainName.from(host).topPrivateDomain().toString();
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			return host.toLowerCase(Locale.ROOT);
 		}
 	}
 
@@ -165,7 +204,16 @@ public class IndexDocumentAdapter {
 	 * @return this for method chaining
 	 */
 	public IndexDocumentAdapter setContent(String content) {
-		doc.add(new TextField(FIELD_SEARCH, content, Field.Store.YES));
+		return setContent(content, true);
+	}
+	
+	/**
+	 * @param content The textual content of the page
+	 * @param stored whether the content is stored in the index or only made searchable (see @BodyStore)
+	 * @return this for method chaining
+	 */
+	public IndexDocumentAdapter setContent(String content, boolean stored) {
+		doc.add(new Field(FIELD_SEARCH, content, stored ? CONTENT_STORED : CONTENT_NOT_STORED));
 
 		String hash = Hashing.sha1().newHasher().putString(content, Charsets.UTF_8).hash().toString();
 		doc.add(new StringField(FIELD_KEY, hash, Field.Store.YES));
@@ -173,6 +221,13 @@ public class IndexDocumentAdapter {
 		return this;
 	}
 	
+	/**
+	 * @return The textual content of the page (null for an indexed document whose content is not stored)
+	 */
+	public String getContent() {
+		return doc.get(FIELD_SEARCH);
+	}
+	
 	/**
 	 * @return A unique key for the page content (a hash of the content in fact)
 	 */
@@ -180,10 +235,97 @@ public class IndexDocumentAdapter {
 		return doc.get(FIELD_KEY);
 	}
 
+	/**
+	 * Adds an id unique to the collection, url and content of the page so that revisits of 
+	 * an unchanged page can be found. Collection, url and content must already be set.
+	 * 
+	 * @return this for method chaining
+	 */
+	public IndexDocumentAdapter setVersionId() {
+		doc.add(new StringField(FIELD_VERSION, versionId(getCollection(), getUrl(), getKey()), Field.Store.NO));
+		return this;
+	}
+	
+	/**
+	 * @return the id for this version of the page (only available before the document is indexed)
+	 */
+	public String getVersionId() {
+		return doc.get(FIELD_VERSION);
+	}
+	
+	/**
+	 * Adds an id unique to the collection and url of the page so all of its versions can be found.
+	 * Collection and url must already be set.
+	 * 
+	 * @return this for method chaining
+	 */
+	public IndexDocumentAdapter setPageId() {
+		doc.add(new StringField(FIELD_PAGE, pageId(getCollection(), getUrl()), Field.Store.NO));
+		return this;
+	}
+	
+	/**
+	 * @return the id of the page this is a version of (only available before the document is indexed)
+	 */
+	public String getPageId() {
+		return doc.get(FIELD_PAGE);
+	}
+	
+	/**
+	 * @param latest whether this is the most recently visited version of the page
+	 * @return this for method chaining
+	 */
+	public IndexDocumentAdapter setLatest(boolean latest) {
+		doc.add(new NumericDocValuesField(FIELD_LATEST, latest ? 1 : 0));
+		return this;
+	}
+	
+	/**
+	 * @param visits number of times this version of the page has been seen
+	 * @return this for method chaining
+	 */
+	public IndexDocumentAdapter setVisits(long visits) {
+		doc.add(new NumericDocValuesField(FIELD_VISITS, visits));
+		return this;
+	}
+	
+	/**
+	 * @param collection the collection a page is in
+	 * @param url the url of the page
+	 * @param key the content key of the page
+	 * @return an id unique to the given version of a page
+	 */
+	public static String versionId(String collection, String url, String key) {
+		return Hashing.sha1().newHasher()
+				.putString(collection, Charsets.UTF_8).putByte((byte) 0)
+				.putString(url, Charsets.UTF_8).putByte((byte) 0)
+				.putString(key, Charsets.UTF_8)
+				.hash().toString();
+	}
+
+	/**
+	 * @param collection the collection a page is in
+	 * @param url the url of the page
+	 * @return an id unique to the page, shared by all of its versions
+	 */
+	public static String pageId(String collection, String url) {
+		return Hashing.sha1().newHasher()
+				.putString(collection, Charsets.UTF_8).putByte((byte) 0)
+				.putString(url, Charsets.UTF_8)
+				.hash().toString();
+	}
+
 	/**
 	 * @return the underlying Lucene document
 	 */
 	public Document getAsDocument() {
 		return doc;
 	}
+
+	private static FieldType contentType(boolean stored) {
+		FieldType type = new FieldType(stored ? TextField.TYPE_STORED : TextField.TYPE_NOT_STORED);
+		type.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+		type.freeze();
+		return type;
+	}
 }
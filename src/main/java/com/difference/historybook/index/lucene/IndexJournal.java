@@ -0,0 +1,261 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * An append-only write-ahead journal of pages submitted to a @LuceneIndex.
+ *
+ * Pages are appended before they are handed to the index writer so that anything
+ * not yet committed to the index can be replayed after a crash. Rather than syncing
+ * each append, the journal is synced to disk once a given number of pages are pending
+ * (and/or on a timer driven by the owner via {@link #syncIfDirty()}).
+ *
+ * Each record is laid out as [int length][long crc32][payload] so a torn write at the
+ * tail of the journal can be detected and ignored on replay.
+ */
+class IndexJournal implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(IndexJournal.class);
+
+	private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+	/**
+	 * Callback for journal entries during replay
+	 */
+	@FunctionalInterface
+	interface EntryConsumer {
+		void accept(long sequence, String collection, String url, Instant timestamp, String body) throws IOException;
+	}
+
+	private final Path path;
+	private final FileChannel channel;
+	private final int syncEveryDocuments;
+
+	private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+	private final CRC32 crc = new CRC32();
+	private long sequence = 0;
+	private int unsyncedDocuments = 0;
+
+	/**
+	 * Constructor for IndexJournal. Opens (or creates) the journal file at the given path.
+	 *
+	 * @param path the journal file
+	 * @param syncEveryDocuments sync to disk once this many appends are pending. 0 leaves syncing to the owner.
+	 * @throws IOException
+	 */
+	IndexJournal(Path path, int syncEveryDocuments) throws IOException {
+		this.path = path;
+		this.syncEveryDocuments = syncEveryDocuments;
+		this.channel = FileChannel.open(path,
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		channel.position(channel.size());
+	}
+
+	/**
+	 * Append a page to the journal
+	 *
+	 * @return the sequence number assigned to the entry
+	 * @throws IOException
+	 */
+	long append(String collection, String url, Instant timestamp, CharSequence body) throws IOException {
+		long assigned;
+		boolean syncNeeded;
+		synchronized (this) {
+			assigned = ++sequence;
+
+			recordBuffer.reset();
+			DataOutputStream out = new DataOutputStream(recordBuffer);
+			out.writeLong(assigned);
+			writeString(out, collection);
+			writeString(out, url);
+			out.writeLong(timestamp.getEpochSecond());
+			out.writeInt(timestamp.getNano());
+			writeString(out, body);
+			out.flush();
+			byte[] bytes = recordBuffer.toByteArray();
+
+			crc.reset();
+			crc.update(bytes, 0, bytes.length);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(bytes.length).putLong(crc.getValue()).flip();
+
+			ByteBuffer payload = ByteBuffer.wrap(bytes);
+			while (header.hasRemaining() || payload.hasRemaining()) {
+				channel.write(new ByteBuffer[] {header, payload});
+			}
+
+			unsyncedDocuments++;
+			syncNeeded = syncEveryDocuments > 0 && unsyncedDocuments >= syncEveryDocuments;
+		}
+
+		if (syncNeeded) sync();
+		return assigned;
+	}
+
+	/**
+	 * Force any appended entries to disk
+	 *
+	 * @throws IOException
+	 */
+	void sync() throws IOException {
+		synchronized (this) {
+			unsyncedDocuments = 0;
+		}
+		channel.force(false);
+	}
+
+	/**
+	 * Force appended entries to disk if any have been added since the last sync
+	 *
+	 * @throws IOException
+	 */
+	void syncIfDirty() throws IOException {
+		boolean dirty;
+		synchronized (this) {
+			dirty = unsyncedDocuments > 0;
+		}
+		if (dirty) sync();
+	}
+
+	/**
+	 * @return the sequence number of the most recently appended (or replayed) entry
+	 */
+	synchronized long getLastSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Ensure sequence numbers handed out from here on are greater than the given value
+	 *
+	 * @param value a sequence number known to have already been used
+	 */
+	synchronized void advanceSequence(long value) {
+		sequence = Math.max(sequence, value);
+	}
+
+	/**
+	 * Read the journal from the beginning, passing entries newer than a given sequence number to a consumer
+	 *
+	 * @param afterSequence entries with a sequence number at or below this are skipped
+	 * @param consumer receives each entry that needs to be replayed
+	 * @return statistics about the replay
+	 * @throws IOException
+	 */
+	synchronized JournalReplayStatistics replay(long afterSequence, EntryConsumer consumer) throws IOException {
+		long start = System.currentTimeMillis();
+		long read = 0;
+		long replayed = 0;
+		long skipped = 0;
+		long validLength = 0;
+
+		channel.position(0);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+		try {
+			while (true) {
+				int length = in.readInt();
+				long expectedCrc = in.readLong();
+				if (length < 0 || length > channel.size() - validLength - HEADER_SIZE) break;
+
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				crc.reset();
+				crc.update(payload, 0, length);
+				if (crc.getValue() != expectedCrc) break;
+
+				validLength += HEADER_SIZE + length;
+				read++;
+
+				DataInputStream entry = new DataInputStream(new ByteArrayInputStream(payload));
+				long entrySequence = entry.readLong();
+				String collection = readString(entry);
+				String url = readString(entry);
+				Instant timestamp = Instant.ofEpochSecond(entry.readLong(), entry.readInt());
+				String body = readString(entry);
+
+				sequence = Math.max(sequence, entrySequence);
+				if (entrySequence <= afterSequence) {
+					skipped++;
+				} else {
+					consumer.accept(entrySequence, collection, url, timestamp, body);
+					replayed++;
+				}
+			}
+		} catch (EOFException e) {
+			// reached the end of the journal (possibly part way through a torn record)
+		}
+
+		long discardedBytes = channel.size() - validLength;
+		if (discardedBytes > 0) {
+			LOG.warn("Discarding {} bytes of incomplete or corrupt data at the end of journal {}", discardedBytes, path);
+			channel.truncate(validLength);
+		}
+		channel.position(channel.size());
+
+		return new JournalReplayStatistics(read, replayed, skipped, discardedBytes, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Discard all entries in the journal. Callers must ensure everything in the journal is durable elsewhere.
+	 *
+	 * @throws IOException
+	 */
+	synchronized void truncate() throws IOException {
+		channel.truncate(0);
+		channel.position(0);
+		channel.force(true);
+		unsyncedDocuments = 0;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.force(true);
+		channel.close();
+	}
+
+	private static void writeString(DataOutputStream out, CharSequence value) throws IOException {
+		ByteBuffer bytes = Charsets.UTF_8.encode(CharBuffer.wrap(value));
+		out.writeInt(bytes.remaining());
+		out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, Charsets.UTF_8);
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+/**
+ * A summary of the work done replaying the @IndexJournal at startup
+ */
+public class JournalReplayStatistics {
+	private final long entriesRead;
+	private final long entriesReplayed;
+	private final long entriesSkipped;
+	private final long bytesDiscarded;
+	private final long durationMillis;
+	
+	public JournalReplayStatistics(long entriesRead, long entriesReplayed, long entriesSkipped, long bytesDiscarded, long durationMillis) {
+		this.entriesRead = entriesRead;
+		this.entriesReplayed = entriesReplayed;
+		this.entriesSkipped = entriesSkipped;
+		this.bytesDiscarded = bytesDiscarded;
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * @return number of intact entries found in the journal
+	 */
+	public long getEntriesRead() {
+		return entriesRead;
+	}
+
+	/**
+	 * @return number of entries newer than the last commit that were re-added to the index
+	 */
+	public long getEntriesReplayed() {
+		return entriesReplayed;
+	}
+
+	/**
+	 * @return number of entries already covered by the last commit
+	 */
+	public long getEntriesSkipped() {
+		return entriesSkipped;
+	}
+
+	/**
+	 * @return number of bytes of torn or corrupt data discarded from the end of the journal
+	 */
+	public long getBytesDiscarded() {
+		return bytesDiscarded;
+	}
+
+	/**
+	 * @return time taken to replay the journal
+	 */
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("read=%d replayed=%d skipped=%d discardedBytes=%d durationMs=%d", 
+				entriesRead, entriesReplayed, entriesSkipped, bytesDiscarded, durationMillis);
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.util.Bits;
+
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Maintains the latest version marker of each page in a @LuceneIndex, so searches can filter on the
+ * marker rather than grouping every matching version by url.
+ *
+ * The version of a page with the most recent visit is marked latest. A document for a page with no
+ * other versions is added already marked. Otherwise it is added unmarked and, once it is in the writer,
+ * the marker is moved with two doc value updates: clear it on every version of the page, then set it
+ * on the new latest version. Callers must make sure no searcher is refreshed in between.
+ *
+ * As with @RevisitTracker, pages changed since the last refresh are tracked in memory until a refresh
+ * makes them visible, and callers must hold the lock for a page id (see {@link #lock(Collection)}) from
+ * {@link #prepare(IndexDocumentAdapter, long)} until {@link #visit(String, String, long)}.
+ */
+class LatestVersionTracker implements ReferenceManager.RefreshListener {
+	private static final int LOCK_STRIPES = 256;
+
+	private static class PendingPage {
+		private final String versionId;
+		private long timestamp;
+		private volatile boolean unadded;
+		private volatile long generation;
+
+		private PendingPage(String versionId, long timestamp, boolean unadded) {
+			this.versionId = versionId;
+			this.timestamp = timestamp;
+			this.unadded = unadded;
+		}
+	}
+
+	private final IndexWriter writer;
+	private final SearcherManager searcherManager;
+	private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+	private final Map<String, PendingPage> pending = new ConcurrentHashMap<>();
+	private final AtomicLong generation = new AtomicLong();
+	private volatile long refreshGeneration;
+
+	/**
+	 * Constructor for LatestVersionTracker
+	 *
+	 * @param writer the writer used to move markers
+	 * @param searcherManager used to look up existing versions. The tracker must be registered as a listener.
+	 */
+	LatestVersionTracker(IndexWriter writer, SearcherManager searcherManager) {
+		this.writer = writer;
+		this.searcherManager = searcherManager;
+	}
+
+	/**
+	 * Lock a set of page ids. Locks are acquired in a consistent order so batches cannot deadlock.
+	 *
+	 * @param pageIds the ids to lock
+	 * @return the locks to hand to {@link #unlock(Iterable)}
+	 */
+	Iterable<Lock> lock(Collection<String> pageIds) {
+		Iterable<Lock> acquired = locks.bulkGet(pageIds);
+		for (Lock lock : acquired) {
+			lock.lock();
+		}
+		return acquired;
+	}
+
+	/**
+	 * @param acquired locks returned by {@link #lock(Collection)}
+	 */
+	void unlock(Iterable<Lock> acquired) {
+		for (Lock lock : acquired) {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Set the initial marker of a document about to be added. The outcome of adding it must be reported
+	 * with {@link #added(String, String)} or {@link #discarded(String, String)}.
+	 *
+	 * @param doc the document for a new page version
+	 * @param timestamp when the version was visited
+	 * @throws IOException
+	 */
+	void prepare(IndexDocumentAdapter doc, long timestamp) throws IOException {
+		String pageId = doc.getPageId();
+		boolean first = !pending.containsKey(pageId) && find(pageId, doc.getVersionId()) == null;
+		doc.setLatest(first);
+		if (first) {
+			pending.put(pageId, new PendingPage(doc.getVersionId(), timestamp, true));
+		}
+	}
+
+	/**
+	 * Report that a prepared document was added to the writer
+	 *
+	 * @param pageId the id of the page
+	 * @param versionId the id of the page version
+	 */
+	void added(String pageId, String versionId) {
+		PendingPage page = pending.get(pageId);
+		if (page != null && page.unadded && page.versionId.equals(versionId)) {
+			page.unadded = false;
+			page.generation = generation.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Report that a prepared document could not be added
+	 *
+	 * @param pageId the id of the page
+	 * @param versionId the id of the page version
+	 */
+	void discarded(String pageId, String versionId) {
+		PendingPage page = pending.get(pageId);
+		if (page != null && page.unadded && page.versionId.equals(versionId)) {
+			pending.remove(pageId);
+		}
+	}
+
+	/**
+	 * Record a visit to a page version that is in the writer, moving the page's marker to it if
+	 * this is the most recent visit to the page.
+	 *
+	 * @param pageId the id of the page
+	 * @param versionId the id of the page version
+	 * @param timestamp when the version was visited
+	 * @throws IOException
+	 */
+	void visit(String pageId, String versionId, long timestamp) throws IOException {
+		PendingPage page = pending.get(pageId);
+		if (page == null) {
+			page = find(pageId, versionId);
+		}
+		if (page != null && timestamp < page.timestamp) return;
+
+		if (page != null && versionId.equals(page.versionId)) {
+			page.timestamp = timestamp;
+		} else {
+			writer.updateNumericDocValue(new Term(IndexDocumentAdapter.FIELD_PAGE, pageId), IndexDocumentAdapter.FIELD_LATEST, 0);
+			writer.updateNumericDocValue(new Term(IndexDocumentAdapter.FIELD_VERSION, versionId), IndexDocumentAdapter.FIELD_LATEST, 1);
+			page = new PendingPage(versionId, timestamp, false);
+		}
+		page.generation = generation.incrementAndGet();
+		pending.put(pageId, page);
+	}
+
+	@Override
+	public void beforeRefresh() throws IOException {
+		refreshGeneration = generation.get();
+	}
+
+	@Override
+	public void afterRefresh(boolean didRefresh) throws IOException {
+		if (didRefresh) {
+			long visible = refreshGeneration;
+			pending.values().removeIf(p -> !p.unadded && p.generation <= visible);
+		}
+	}
+
+	/**
+	 * Look up the most recent visit to a page in the index
+	 *
+	 * @return the page, with the given version id only if that version is the one marked latest,
+	 *         or null if the page is not in the index
+	 */
+	private PendingPage find(String pageId, String versionId) throws IOException {
+		Term pageTerm = new Term(IndexDocumentAdapter.FIELD_PAGE, pageId);
+		Term versionTerm = new Term(IndexDocumentAdapter.FIELD_VERSION, versionId);
+		boolean found = false;
+		boolean versionIsLatest = false;
+		long timestamp = Long.MIN_VALUE;
+
+		IndexSearcher searcher = searcherManager.acquire();
+		try {
+			for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+				LeafReader reader = context.reader();
+				PostingsEnum postings = reader.postings(pageTerm, PostingsEnum.NONE);
+				if (postings == null) continue;
+
+				Bits liveDocs = reader.getLiveDocs();
+				NumericDocValues timestamps = reader.getNumericDocValues(IndexDocumentAdapter.FIELD_TIMESTAMP);
+				NumericDocValues latest = reader.getNumericDocValues(IndexDocumentAdapter.FIELD_LATEST);
+				for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+					if (liveDocs != null && !liveDocs.get(doc)) continue;
+
+					found = true;
+					if (timestamps != null) {
+						timestamp = Math.max(timestamp, timestamps.get(doc));
+					}
+					if (latest != null && latest.get(doc) == 1) {
+						PostingsEnum version = reader.postings(versionTerm, PostingsEnum.NONE);
+						versionIsLatest = version != null && version.advance(doc) == doc;
+					}
+				}
+			}
+		} finally {
+			searcherManager.release(searcher);
+		}
+		return found ? new PendingPage(versionIsLatest ? versionId : null, timestamp, false) : null;
+	}
+}
@@ -19,23 +19,48 @@ package com.difference.historybook.index.lucene;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queries.CustomScoreQuery;
 import org.apache.lucene.queries.function.FunctionQuery;
+import org.apache.lucene.queries.function.FunctionRangeQuery;
 import org.apache.lucene.queries.function.valuesource.LongFieldSource;
 import org.apache.lucene.queries.function.valuesource.ReciprocalFloatFunction;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -43,9 +68,17 @@ import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherLifetimeManager;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.grouping.GroupDocs;
 import org.apache.lucene.search.grouping.GroupingSearch;
 import org.apache.lucene.search.grouping.TopGroups;
 import org.apache.lucene.search.BooleanClause.Occur;
@@ -62,19 +95,53 @@ import org.jsoup.safety.Whitelist;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.difference.historybook.concurrent.BoundedExecutor;
+import com.difference.historybook.concurrent.OverflowPolicy;
+import com.difference.historybook.index.BulkIndexItem;
 import com.difference.historybook.index.Index;
 import com.difference.historybook.index.IndexException;
+import com.difference.historybook.index.SearchFacets;
 import com.difference.historybook.index.SearchResult;
 import com.difference.historybook.index.SearchResultWrapper;
+import com.difference.historybook.index.SnippetConsumer;
+import com.difference.historybook.index.Suggestion;
+import com.difference.historybook.index.WebPage;
 import com.difference.historybook.textutils.HtmlTextExtractor;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * An implementation of @Index backed by Lucene
+ * 
+ * Pages are indexed in two stages: text is extracted on a pool sized to the available cores,
+ * then the prepared documents are handed to a separate writer stage.
+ * 
+ * Searches run against a near-real-time searcher that is refreshed from the writer on an interval
+ * (see @LuceneIndexSettings). Commits to disk happen on their own, independent schedule. Pages are
+ * recorded in an @IndexJournal before being added so anything not yet committed survives a crash.
+ * 
+ * Each version of a page (collection, url and content) is indexed once. Revisits of an unchanged
+ * page update the visit count and last visited timestamp of the existing document (see @RevisitTracker).
+ * The most recently visited version of each page carries a marker searches filter on, so they return one
+ * result per page without grouping (see @LatestVersionTracker).
+ * Page text can optionally be kept out of the index in a compressed @BodyStore. Search results are
+ * cached per searcher version (see @SearchResultCache).
  */
 public class LuceneIndex implements Index {
 	private static final Logger LOG = LoggerFactory.getLogger(LuceneIndex.class);
 	
-	private static final String INDEXDIR = "index";
+	static final String INDEXDIR = "index";
+	private static final String JOURNALFILE = "index.journal";
+	static final String BODYSTOREFILE = "index.bodies";
+	private static final String COMMIT_JOURNAL_SEQUENCE = "journalSequence";
+	// present in the commit data of indexes where every document carries a latest version marker
+	static final String COMMIT_LATEST_VERSIONS = "latestVersions";
+	
+	// the indexing stages push back on submitters rather than discarding pages
+	private static final long STAGE_BLOCK_MILLIS = Long.MAX_VALUE;
+	
+	// how long a searcher is kept for cursors after it has been replaced by a newer one
+	private static final double CURSOR_MAX_AGE_SECONDS = 10 * 60;
 	
 	// reciprical of number of seconds in year
 	private static final float RECIP = 1F / (60 * 60 * 24 * 365);
@@ -82,36 +149,213 @@ public class LuceneIndex implements Index {
 	private final Path path;
 	private final Directory dir;
 	private final IndexWriter writer;
-	private IndexReader reader;
-	private IndexSearcher searcher;
+	private final SearcherManager searcherManager;
+	private final SearcherLifetimeManager lifetimes = new SearcherLifetimeManager();
+	private final IndexJournal journal;
+	private final BodyStore bodyStore;
+	private final RevisitTracker revisits;
+	private final LatestVersionTracker latestVersions;
+	private final boolean latestVersionMarkers;
+	private final SearchResultCache resultCache;
+	private final FilterCache filterCache;
+	private final PageSuggester suggester;
+	private final ReadWriteLock commitLock = new ReentrantReadWriteLock();
+	private final ScheduledExecutorService maintenance;
+	private final BoundedExecutor extractionStage;
+	private final BoundedExecutor writerStage;
+	private final BoundedExecutor searchStage;
+	private final boolean ownsStages;
+	private final LuceneIndexSettings settings;
 	private final Analyzer analyzer;
-	private final QueryParser parser;
+	private JournalReplayStatistics replayStatistics = null;
 	
 	/**
-	 * Constructor for LuceneIndex
+	 * Constructor for LuceneIndex using default settings
 	 * 
 	 * @param dataDirectory   Path to the directory to create an index directory within.
 	 * @throws IndexException
 	 */
 	public LuceneIndex(Path dataDirectory) throws IndexException {
+		this(dataDirectory, new LuceneIndexSettings());
+	}
+	
+	/**
+	 * Constructor for LuceneIndex
+	 * 
+	 * @param dataDirectory   Path to the directory to create an index directory within.
+	 * @param settings        tuning settings for refresh and commit behavior
+	 * @throws IndexException
+	 */
+	public LuceneIndex(Path dataDirectory, LuceneIndexSettings settings) throws IndexException {
+		this(dataDirectory, settings, newExtractionStage(settings), newWriterStage(settings), true);
+	}
+	
+	/**
+	 * Constructor for a LuceneIndex that shares its indexing stages with other indexes (see @PartitionedLuceneIndex).
+	 * The stages are not shut down when the index is closed.
+	 * 
+	 * @param dataDirectory   Path to the directory to create an index directory within.
+	 * @param settings        tuning settings for refresh and commit behavior
+	 * @param extractionStage the stage to extract text from submitted pages on
+	 * @param writerStage     the stage to add extracted pages to the index writer on
+	 * @throws IndexException
+	 */
+	LuceneIndex(Path dataDirectory, LuceneIndexSettings settings, 
+			BoundedExecutor extractionStage, BoundedExecutor writerStage) throws IndexException {
+		this(dataDirectory, settings, extractionStage, writerStage, false);
+	}
+	
+	private LuceneIndex(Path dataDirectory, LuceneIndexSettings settings, 
+			BoundedExecutor extractionStage, BoundedExecutor writerStage, boolean ownsStages) throws IndexException {
 		
 		//TODO: Check to make sure directory is read/writable
 		path = dataDirectory.resolve(INDEXDIR);
+		this.settings = settings;
+		this.extractionStage = extractionStage;
+		this.writerStage = writerStage;
+		this.ownsStages = ownsStages;
+		// partitions are searched through the partitioned index, which has a stage of its own
+		this.searchStage = ownsStages ? newSearchStage(settings) : null;
 		
 		try {
 			dir = FSDirectory.open(path);
 			analyzer = new StandardAnalyzer();
 			IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
 			iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+			if (settings.getMergePolicy() != null) {
+				iwc.setMergePolicy(settings.getMergePolicy());
+			}
 			writer = new IndexWriter(dir, iwc);
 
-			reader = DirectoryReader.open(writer, false);
-			searcher = new IndexSearcher(reader);
-			parser = new QueryParser(IndexDocumentAdapter.FIELD_SEARCH, analyzer);
+			searcherManager = new SearcherManager(writer, true, new SearcherFactory() {
+				@Override
+				public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+					return new SlicedIndexSearcher(reader, searchStage);
+				}
+			});
+			revisits = new RevisitTracker(writer, searcherManager, settings.getExpectedPageVersions());
+			searcherManager.addListener(revisits);
+			LOG.info("Loaded {} page versions for revisit detection", revisits.load());
+			latestVersions = new LatestVersionTracker(writer, searcherManager);
+			searcherManager.addListener(latestVersions);
+			latestVersionMarkers = writer.maxDoc() == 0 || writer.getCommitData().containsKey(COMMIT_LATEST_VERSIONS);
+			if (!latestVersionMarkers) {
+				LOG.info("Index has pages without latest version markers, searches will group versions by url");
+			}
+			resultCache = settings.getResultCacheBytes() > 0 ? new SearchResultCache(settings.getResultCacheBytes()) : null;
+			if (resultCache != null) {
+				searcherManager.addListener(resultCache);
+			}
+			// partitions are suggested from through the partitioned index
+			suggester = ownsStages && settings.isSuggestEnabled() ? newSuggester() : null;
+			filterCache = settings.getFilterCacheBytes() > 0 ? new FilterCache(settings.getFilterCacheBytes()) : null;
+			bodyStore = settings.isBodyStoreEnabled() ? new BodyStore(dataDirectory.resolve(BODYSTOREFILE)) : null;
+			
+			if (settings.isJournalEnabled()) {
+				journal = new IndexJournal(dataDirectory.resolve(JOURNALFILE), settings.getJournalSyncDocuments());
+				replayJournal();
+			} else {
+				journal = null;
+			}
 		} catch (IOException e) {
 			LOG.error(e.getLocalizedMessage());
 			throw new IndexException(e);
 		}
+		
+		LOG.info("Index refresh interval {}ms, commit interval {}ms, journal {}", 
+				settings.getRefreshIntervalMillis(), settings.getCommitIntervalMillis(),
+				journal == null ? "disabled" : String.format("fsync every %dms or %d pages", 
+						settings.getJournalSyncIntervalMillis(), settings.getJournalSyncDocuments()));
+		
+		maintenance = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("lucene-index-maintenance-%d").setDaemon(true).build());
+		if (settings.getRefreshIntervalMillis() > 0) {
+			maintenance.scheduleWithFixedDelay(this::refresh, 
+					settings.getRefreshIntervalMillis(), settings.getRefreshIntervalMillis(), TimeUnit.MILLISECONDS);
+		}
+		if (settings.getCommitIntervalMillis() > 0) {
+			maintenance.scheduleWithFixedDelay(this::commit, 
+					settings.getCommitIntervalMillis(), settings.getCommitIntervalMillis(), TimeUnit.MILLISECONDS);
+		}
+		if (journal != null && settings.getJournalSyncIntervalMillis() > 0) {
+			maintenance.scheduleWithFixedDelay(this::syncJournal, 
+					settings.getJournalSyncIntervalMillis(), settings.getJournalSyncIntervalMillis(), TimeUnit.MILLISECONDS);
+		}
+		if (suggester != null && settings.getSuggestRebuildIntervalMillis() > 0) {
+			maintenance.scheduleWithFixedDelay(suggester::requestRebuild, settings.getSuggestRebuildIntervalMillis(), 
+					settings.getSuggestRebuildIntervalMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	private PageSuggester newSuggester() {
+		PageSuggester pageSuggester = new PageSuggester("lucene-index-suggest", new PageSuggester.ReaderSource() {
+			@Override
+			public IndexReader acquire() throws IOException {
+				return searcherManager.acquire().getIndexReader();
+			}
+
+			@Override
+			public void release(IndexReader reader) throws IOException {
+				reader.decRef();
+			}
+		});
+		searcherManager.addListener(pageSuggester);
+		pageSuggester.requestUpdate();
+		return pageSuggester;
+	}
+	
+	static BoundedExecutor newExtractionStage(LuceneIndexSettings settings) {
+		return new BoundedExecutor("lucene-index-extraction", settings.getExtractionThreads(),
+				settings.getExtractionQueueCapacity(), OverflowPolicy.BLOCK, STAGE_BLOCK_MILLIS);
+	}
+	
+	static BoundedExecutor newWriterStage(LuceneIndexSettings settings) {
+		return new BoundedExecutor("lucene-index-writer", settings.getWriterThreads(),
+				settings.getWriterQueueCapacity(), OverflowPolicy.BLOCK, STAGE_BLOCK_MILLIS);
+	}
+	
+	/**
+	 * @return a stage to search index slices on, or null if searches run on the calling thread only
+	 */
+	static BoundedExecutor newSearchStage(LuceneIndexSettings settings) {
+		if (settings.getSearchThreads() <= 0) return null;
+		// when the stage is busy a query searches its own slices rather than waiting
+		return new BoundedExecutor("lucene-index-search", settings.getSearchThreads(),
+				settings.getSearchQueueCapacity(), OverflowPolicy.CALLER_RUNS, 0);
+	}
+	
+	/**
+	 * Re-add any journaled pages that did not make it into the last commit, then commit them
+	 * (which also empties the journal).
+	 */
+	private void replayJournal() throws IOException {
+		String committed = writer.getCommitData().get(COMMIT_JOURNAL_SEQUENCE);
+		long committedSequence = committed != null ? Long.parseLong(committed) : 0;
+		journal.advanceSequence(committedSequence);
+		
+		replayStatistics = journal.replay(committedSequence, (sequence, collection, url, timestamp, body) -> {
+			writeDocuments(Collections.singletonList(buildDocument(settings, collection, url, timestamp, body)));
+		});
+		LOG.info("Journal replay: {}", replayStatistics);
+		
+		if (bodyStore != null) {
+			bodyStore.sync();
+		}
+		writer.setCommitData(commitData());
+		writer.commit();
+		journal.truncate();
+		searcherManager.maybeRefreshBlocking();
+	}
+	
+	private Map<String,String> commitData() {
+		Map<String,String> data = new HashMap<>(writer.getCommitData());
+		if (journal != null) {
+			data.put(COMMIT_JOURNAL_SEQUENCE, Long.toString(journal.getLastSequence()));
+		}
+		if (latestVersionMarkers) {
+			data.put(COMMIT_LATEST_VERSIONS, Boolean.TRUE.toString());
+		}
+		return data;
 	}
 	
 	@Override
@@ -119,109 +363,930 @@ public class LuceneIndex implements Index {
 			String collection, 
 			String url, 
 			Instant timestamp, 
-			String body) throws IndexException {
-		HtmlTextExtractor extractor = new HtmlTextExtractor(body, url);
+			CharSequence body) throws IndexException {
+		await(submitPage(collection, url, timestamp, body));
+	}
+	
+	/**
+	 * Text is extracted on the extraction stage and the resulting document handed to the writer stage,
+	 * so parsing is spread across cores and never holds up the writer. Pages are journaled when they
+	 * reach the writer stage.
+	 */
+	@Override
+	public CompletableFuture<Void> submitPage(String collection, String url, Instant timestamp, CharSequence body) {
+		return runOn(extractionStage, () -> buildDocument(settings, collection, url, timestamp, body))
+				.thenCompose(doc -> runOn(writerStage, () -> {
+					String error = write(collection, 
+							Collections.singletonList(new WebPage(url, timestamp, body)), 
+							Collections.singletonList(doc)).get(0);
+					if (error != null) {
+						LOG.error(error);
+						throw new IndexException(error);
+					}
+					return null;
+				}));
+	}
+	
+	/**
+	 * Text extraction for the batch is spread across the extraction stage and
+	 * the resulting documents are handed to the writer stage together.
+	 */
+	@Override
+	public List<BulkIndexItem> indexPages(String collection, List<WebPage> pages) throws IndexException {
+		List<Future<IndexDocumentAdapter>> futures = new ArrayList<>(pages.size());
+		for (WebPage page : pages) {
+			futures.add(runOn(extractionStage, () -> buildDocument(settings, collection, page.getUrl(), page.getTimestamp(), page.getBody())));
+		}
+		
+		List<BulkIndexItem> results = new ArrayList<>(pages.size());
+		List<WebPage> extractedPages = new ArrayList<>(pages.size());
+		List<IndexDocumentAdapter> docs = new ArrayList<>(pages.size());
+		for (int i = 0; i < pages.size(); i++) {
+			WebPage page = pages.get(i);
+			try {
+				docs.add(futures.get(i).get());
+				extractedPages.add(page);
+				results.add(null);
+			} catch (ExecutionException e) {
+				results.add(new BulkIndexItem(page.getUrl(), e.getCause().toString()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IndexException(e);
+			}
+		}
+		
+		List<String> errors = await(runOn(writerStage, () -> write(collection, extractedPages, docs)));
+		int next = 0;
+		for (int i = 0; i < results.size(); i++) {
+			if (results.get(i) == null) {
+				results.set(i, new BulkIndexItem(extractedPages.get(next).getUrl(), errors.get(next)));
+				next++;
+			}
+		}
 		
-		Document doc = new IndexDocumentAdapter()
+		return results;
+	}
+	
+	/**
+	 * The writer stage: journal the pages, write their documents and, if pages should be visible
+	 * as soon as they are indexed, refresh the searcher.
+	 * 
+	 * @return an error message for each document, or null if it was written
+	 */
+	List<String> write(String collection, List<WebPage> pages, List<IndexDocumentAdapter> docs) throws IndexException {
+		List<String> errors;
+		commitLock.readLock().lock();
+		try {
+			if (journal != null) {
+				for (WebPage page : pages) {
+					journal.append(collection, page.getUrl(), page.getTimestamp(), page.getBody());
+				}
+			}
+			errors = writeDocuments(docs);
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		} finally {
+			commitLock.readLock().unlock();
+		}
+		
+		try {
+			if (settings.getRefreshIntervalMillis() <= 0) {
+				refreshBlocking();
+			}
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		}
+		return errors;
+	}
+	
+	/**
+	 * Run work on one of the pipeline stages. If the stage discards the work 
+	 * the returned future fails rather than never completing.
+	 */
+	static <T> CompletableFuture<T> runOn(BoundedExecutor stage, Callable<T> work) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		stage.execute(new FutureTask<T>(work) {
+			@Override
+			protected void done() {
+				if (isCancelled()) {
+					result.completeExceptionally(new RejectedExecutionException(stage.getName() + " discarded the page"));
+					return;
+				}
+				try {
+					result.complete(get());
+				} catch (ExecutionException e) {
+					result.completeExceptionally(e.getCause());
+				} catch (InterruptedException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+	
+	static <T> T await(Future<T> future) throws IndexException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IndexException) {
+				throw (IndexException) e.getCause();
+			}
+			LOG.error(e.getCause().toString());
+			throw new IndexException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IndexException(e);
+		}
+	}
+	
+	/**
+	 * Write a batch of documents. Documents for a page version already in the index are recorded as
+	 * a revisit of that version instead of being added. The rest are added in one call, falling back 
+	 * to one at a time if a document is rejected so a single bad page does not fail the rest. Finally
+	 * the latest version marker of each page is moved to its most recently visited version.
+	 * 
+	 * Callers must hold the commit read lock.
+	 * 
+	 * @return an error message for each document, or null if it was written
+	 */
+	private List<String> writeDocuments(List<IndexDocumentAdapter> docs) throws IOException {
+		List<String> versionIds = docs.stream().map(IndexDocumentAdapter::getVersionId).collect(Collectors.toList());
+		List<String> pageIds = docs.stream().map(IndexDocumentAdapter::getPageId).collect(Collectors.toList());
+		// taken up front as recording a revisit can update the timestamp of a document later in the batch
+		List<Long> timestamps = docs.stream()
+				.map(doc -> doc.getAsDocument().getField(IndexDocumentAdapter.FIELD_TIMESTAMP).numericValue().longValue())
+				.collect(Collectors.toList());
+		List<String> errors = new ArrayList<>(Collections.nCopies(docs.size(), (String) null));
+		
+		Iterable<Lock> locks = revisits.lock(versionIds);
+		Iterable<Lock> pageLocks = latestVersions.lock(pageIds);
+		try {
+			List<Integer> added = new ArrayList<>(docs.size());
+			for (int i = 0; i < docs.size(); i++) {
+				if (!revisits.visit(versionIds.get(i), docs.get(i).getAsDocument())) {
+					added.add(i);
+				}
+			}
+			for (int i : added) {
+				latestVersions.prepare(docs.get(i), timestamps.get(i));
+			}
+			
+			if (bodyStore != null) {
+				for (int i : added) {
+					bodyStore.put(docs.get(i).getKey(), docs.get(i).getContent());
+				}
+			}
+			
+			try {
+				writer.addDocuments(added.stream().map(i -> docs.get(i).getAsDocument()).collect(Collectors.toList()));
+			} catch (IllegalArgumentException e) {
+				for (int i : added) {
+					try {
+						writer.addDocument(docs.get(i).getAsDocument());
+					} catch (IllegalArgumentException e1) {
+						errors.set(i, e1.getLocalizedMessage());
+					}
+				}
+			}
+			
+			for (int i : added) {
+				if (errors.get(i) == null) {
+					revisits.added(versionIds.get(i));
+					latestVersions.added(pageIds.get(i), versionIds.get(i));
+				} else {
+					revisits.discarded(versionIds.get(i));
+					latestVersions.discarded(pageIds.get(i), versionIds.get(i));
+				}
+			}
+			
+			for (int i = 0; i < docs.size(); i++) {
+				if (errors.get(i) == null) {
+					latestVersions.visit(pageIds.get(i), versionIds.get(i), timestamps.get(i));
+				}
+			}
+		} finally {
+			latestVersions.unlock(pageLocks);
+			revisits.unlock(locks);
+		}
+		return errors;
+	}
+	
+	static IndexDocumentAdapter buildDocument(
+			LuceneIndexSettings settings, String collection, String url, Instant timestamp, CharSequence body) {
+		HtmlTextExtractor extractor = new HtmlTextExtractor(body, url, 
+				settings.getExtractionEngine(), settings.getMaxExtractedChars());
+		
+		return new IndexDocumentAdapter()
 				.setCollection(collection)
 				.setUrl(url)
 				.setTimestamp(timestamp)
 				.setTitle(extractor.getTitle())
-				.setContent(extractor.getContent())
-				.getAsDocument();
-						
-		try {
-			writer.addDocument(doc);
-			writer.commit();
-			reader.close();
-			reader = DirectoryReader.open(writer, false);
-			searcher = new IndexSearcher(reader);
-		} catch (IOException e) {
+				.setContent(extractor.getContent(), !settings.isBodyStoreEnabled())
+				.setVersionId()
+				.setPageId()
+				.setVisits(1);
+	}
+	
+	@Override
+	public SearchResultWrapper search(
+			String collection, String query, 
+			int offset, int size, boolean includeDebug, boolean includeFacets, boolean includeSnippets) throws IndexException {
+		IndexSearcher searcher = acquireSearcher();
+		try {
+			SearchCursor from = new SearchCursor(track(searcher), Instant.now().getEpochSecond(), offset, null);
+			SearchResultCache.Key key = null;
+			if (resultCache != null) {
+				key = new SearchResultCache.Key(((DirectoryReader) searcher.getIndexReader()).getVersion(), 
+						collection, query, offset, size, includeDebug, includeFacets, includeSnippets);
+				SearchResultWrapper cached = resultCache.get(key, query);
+				if (cached != null) {
+					return cached;
+				}
+			}
+			
+			SearchResultWrapper wrapper = search(searcher, parse(query), analyzer, bodyStores(), latestVersionMarkers, 
+					!latestVersionMarkers, settings, collection, query, from, size, includeDebug, includeFacets, includeSnippets);
+			if (key != null) {
+				resultCache.put(key, wrapper);
+			}
+			return wrapper;
+		} catch (IOException | ParseException | InvalidTokenOffsetsException e) {
 			LOG.error(e.getLocalizedMessage());
 			throw new IndexException(e);
+		} finally {
+			releaseSearcher(searcher);
 		}
 	}
 	
 	@Override
-	public SearchResultWrapper search(
+	public SearchResultWrapper searchAfter(
 			String collection, String query, 
-			int offset, int size, boolean includeDebug) throws IndexException {
+			String cursor, int size, boolean includeDebug, boolean includeSnippets) throws IndexException {
+		SearchCursor from = decodeCursor(cursor);
+		
+		IndexSearcher searcher = from.getSearcherToken() != SearchCursor.NO_SEARCHER 
+				? lifetimes.acquire(from.getSearcherToken()) : null;
+		boolean tracked = searcher != null;
 		try {
-			//TODO: make age be a component in the ranking?
-			BooleanQuery.Builder queryBuilder = new BooleanQuery.Builder();
-			queryBuilder.add(parser.parse(query), Occur.MUST);
-			queryBuilder.add(new TermQuery(new Term(IndexDocumentAdapter.FIELD_COLLECTION, collection)), Occur.FILTER);
-			Query baseQuery = queryBuilder.build();
-
-			FunctionQuery boostQuery = new FunctionQuery(
-					new ReciprocalFloatFunction(
-							new DurationValueSource(
-									new Date().getTime()/1000, 
-									new LongFieldSource(IndexDocumentAdapter.FIELD_TIMESTAMP)), 
-							RECIP, 1F, 1F));
-			
-			Query q = new CustomScoreQuery(baseQuery, boostQuery);
-			
-			QueryScorer queryScorer = new QueryScorer(q, IndexDocumentAdapter.FIELD_SEARCH);
-			Fragmenter fragmenter = new SimpleSpanFragmenter(queryScorer);
-			Highlighter highlighter = new Highlighter(queryScorer);
-			highlighter.setTextFragmenter(fragmenter);
+			if (!tracked) {
+				// the searcher has been pruned, so carry on from the offset with the current one
+				searcher = acquireSearcher();
+				from = new SearchCursor(track(searcher), from.getNow(), from.getOffset(), null);
+			}
 			
+			return search(searcher, parse(query), analyzer, bodyStores(), latestVersionMarkers, 
+					!latestVersionMarkers, settings, collection, query, from, size, includeDebug, false, includeSnippets);
+		} catch (IOException | ParseException | InvalidTokenOffsetsException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		} finally {
+			if (tracked) {
+				releaseTrackedSearcher(searcher);
+			} else if (searcher != null) {
+				releaseSearcher(searcher);
+			}
+		}
+	}
+	
+	@Override
+	public Map<String, String> snippets(String collection, String query, List<String> keys) throws IndexException {
+		Map<String, String> snippets = new HashMap<>();
+		snippets(collection, query, keys, settings.getSearchThreads(), snippets::put);
+		return inKeyOrder(keys, snippets);
+	}
+	
+	@Override
+	public void snippets(String collection, String query, List<String> keys, SnippetConsumer consumer) throws IndexException {
+		snippets(collection, query, keys, Integer.MAX_VALUE, consumer);
+	}
+	
+	private void snippets(String collection, String query, List<String> keys, int maxShares, SnippetConsumer consumer) 
+			throws IndexException {
+		IndexSearcher searcher = acquireSearcher();
+		try {
+			snippets(searcher, parse(query), analyzer, bodyStores(), settings, collection, keys, searchStage, maxShares, consumer);
+		} catch (IOException | ParseException | InvalidTokenOffsetsException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		} finally {
+			releaseSearcher(searcher);
+		}
+	}
+	
+	private List<BodyStore> bodyStores() {
+		return bodyStore != null ? Collections.singletonList(bodyStore) : Collections.emptyList();
+	}
+	
+	/**
+	 * @param query a query in the classic Lucene query syntax, possibly with search operators (see @SearchFilters)
+	 * @return the parsed query
+	 * @throws ParseException
+	 */
+	private Query parse(String query) throws ParseException {
+		return parse(SearchFilters.parse(query), analyzer, filterCache);
+	}
+	
+	/**
+	 * @param filters     a query with its search operators pulled out
+	 * @param analyzer    the analyzer the content was indexed with
+	 * @param filterCache where date ranges are cached, or null to not cache them
+	 * @return the parsed query, restricted by its filters. A parser is made for each query as they are not thread safe.
+	 * @throws ParseException
+	 */
+	static Query parse(SearchFilters filters, Analyzer analyzer, FilterCache filterCache) throws ParseException {
+		// a query of only filters lists the most recent pages matching them
+		Query text = filters.getText().isEmpty() && filters.hasFilters()
+				? new MatchAllDocsQuery()
+				: new QueryParser(IndexDocumentAdapter.FIELD_SEARCH, analyzer).parse(filters.getText());
+		return filters.apply(text, filterCache);
+	}
+	
+	/**
+	 * @param cursor a cursor returned with a page of search results
+	 * @return the decoded cursor
+	 * @throws IndexException if the cursor is not valid
+	 */
+	static SearchCursor decodeCursor(String cursor) throws IndexException {
+		try {
+			return SearchCursor.decode(cursor);
+		} catch (IllegalArgumentException e) {
+			throw new IndexException("Invalid cursor: " + cursor);
+		}
+	}
+	
+	/**
+	 * Keep a searcher around so later pages of its results can be fetched with a cursor
+	 * 
+	 * @return the token identifying the searcher
+	 */
+	private long track(IndexSearcher searcher) throws IOException {
+		long token = lifetimes.record(searcher);
+		lifetimes.prune(new SearcherLifetimeManager.PruneByAge(CURSOR_MAX_AGE_SECONDS));
+		return token;
+	}
+	
+	private void releaseTrackedSearcher(IndexSearcher searcher) {
+		try {
+			lifetimes.release(searcher);
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * Run a parsed query against a searcher and build the results
+	 * 
+	 * @param searcher    the searcher to run the query with
+	 * @param parsed      the parsed user query
+	 * @param analyzer    the analyzer the content was indexed with
+	 * @param bodyStores  where to look for page content that is not stored in the index
+	 * @param latestOnly  only match versions carrying the latest version marker
+	 * @param grouped     collapse matching versions to one result per url at query time
+	 * @param settings    how results are ranked and snippets built
+	 * @param from        where in the results to start. Results can only be continued from the last hit when they are not grouped.
+	 * @param includeFacets count all of the matching documents by domain and month. Ungrouped results are counted 
+	 *                    as they are collected, grouped ones once per url with a second (non-scoring) pass.
+	 * @param includeSnippets build snippets for the results. Without them the content of the results is not read at all.
+	 * @return            the search results, with a cursor for the next page if there are more
+	 */
+	static SearchResultWrapper search(
+			IndexSearcher searcher, Query parsed, Analyzer analyzer, List<BodyStore> bodyStores,
+			boolean latestOnly, boolean grouped, LuceneIndexSettings settings, String collection, String query, 
+			SearchCursor from, int size, boolean includeDebug, boolean includeFacets, boolean includeSnippets) 
+					throws IOException, InvalidTokenOffsetsException {
+		//TODO: make age be a component in the ranking?
+		BooleanQuery.Builder queryBuilder = new BooleanQuery.Builder();
+		queryBuilder.add(parsed, Occur.MUST);
+		queryBuilder.add(new TermQuery(new Term(IndexDocumentAdapter.FIELD_COLLECTION, collection)), Occur.FILTER);
+		if (latestOnly) {
+			queryBuilder.add(new FunctionRangeQuery(
+					new LongFieldSource(IndexDocumentAdapter.FIELD_LATEST), 1L, 1L, true, true), Occur.FILTER);
+		}
+		Query baseQuery = queryBuilder.build();
+
+		// scores have to be reproduced exactly to continue from the last hit, so recency is always measured from the same time
+		long now = from.getNow();
+		FunctionQuery boostQuery = new FunctionQuery(settings.getRankingMode() == RankingMode.EXACT
+				? new ReciprocalFloatFunction(
+						new DurationValueSource(
+								now, 
+								new LongFieldSource(IndexDocumentAdapter.FIELD_TIMESTAMP)), 
+						RECIP, 1F, 1F)
+				: new RecencyBoostValueSource(IndexDocumentAdapter.FIELD_TIMESTAMP, now, RECIP));
+		
+		Query q = new CustomScoreQuery(baseQuery, boostQuery);
+		
+		List<ScoreDoc> hits = new ArrayList<>(size);
+		int resultCount;
+		String sliceStatistics = null;
+		SearchFacets facets = null;
+		if (grouped) {
 			GroupingSearch gsearch = new GroupingSearch(IndexDocumentAdapter.FIELD_URL_GROUP)
 					.setGroupDocsLimit(1)
 					.setAllGroups(true)
 					.setIncludeMaxScore(true);
-			TopGroups<?> groups = gsearch.search(searcher, q, offset, size);
-			
-			ArrayList<SearchResult> results = new ArrayList<>(size);
-			for (int i = offset; i < offset + size && i < groups.groups.length; i++) {
-				ScoreDoc scoreDoc = groups.groups[i].scoreDocs[0];
-				Document luceneDoc = searcher.doc(scoreDoc.doc);
-				IndexDocumentAdapter doc = new IndexDocumentAdapter(luceneDoc);
-
-				TokenStream tokenStream = TokenSources.getTokenStream(
-						IndexDocumentAdapter.FIELD_SEARCH, 
-						reader.getTermVectors(scoreDoc.doc), 
-						luceneDoc.get(IndexDocumentAdapter.FIELD_SEARCH), 
-						analyzer, 
-						highlighter.getMaxDocCharsToAnalyze() - 1);
-				
-	            String[] snippets = highlighter.getBestFragments(tokenStream, luceneDoc.get(IndexDocumentAdapter.FIELD_SEARCH), 3);
-	            String snippet = Arrays.asList(snippets).stream().collect(Collectors.joining("\n"));
-	            snippet = Jsoup.clean(snippet, Whitelist.simpleText());
-	            
-	            String debugInfo = null;
-	            if (includeDebug) {
-	            	Explanation explanation = searcher.explain(q, scoreDoc.doc);
-	            	debugInfo = explanation.toString();
-	            }
-	            
-				results.add(new SearchResult(
-						doc.getKey(),
-						doc.getCollection(),
-						doc.getTitle(),
-						doc.getUrl(),
-						doc.getDomain(),
-						doc.getTimestampText(),
-						snippet,
-						debugInfo,
-						scoreDoc.score));
+			TopGroups<?> groups = gsearch.search(searcher, q, from.getOffset(), size);
+			for (GroupDocs<?> group : groups.groups) {
+				hits.add(group.scoreDocs[0]);
 			}
-			
-			SearchResultWrapper wrapper = new SearchResultWrapper()
-					.setQuery(query)
-					.setOffset(offset)
-					.setMaxResultsRequested(size)
-					.setResultCount(groups.totalGroupCount != null ? groups.totalGroupCount : 0)
-					.setResults(results);
-			
-			if (includeDebug) {
-				wrapper.setDebugInfo(q.toString());
+			resultCount = groups.totalGroupCount != null ? groups.totalGroupCount : 0;
+			if (includeFacets) {
+				FacetCounter counter = new FacetCounter(true);
+				searcher.search(baseQuery, counter);
+				facets = counter.getFacets(settings.getFacetDomains());
+			}
+		} else {
+			int numHits = from.getAfter() != null ? size : from.getOffset() + size;
+			SliceCollectorManager manager = new SliceCollectorManager(
+					Math.max(1, Math.min(numHits, searcher.getIndexReader().maxDoc())), from.getAfter(), includeFacets);
+			TopDocs topDocs = searcher.search(q, manager);
+			int start = from.getAfter() != null ? 0 : from.getOffset();
+			for (int i = start; i < topDocs.scoreDocs.length && hits.size() < size; i++) {
+				hits.add(topDocs.scoreDocs[i]);
+			}
+			resultCount = topDocs.totalHits;
+			sliceStatistics = manager.getStatistics();
+			facets = manager.getFacets(settings.getFacetDomains());
+		}
+		
+		NumericDocValues lastVisits = MultiDocValues.getNumericValues(
+				searcher.getIndexReader(), IndexDocumentAdapter.FIELD_TIMESTAMP);
+		List<IndexDocumentAdapter> docs = new ArrayList<>(hits.size());
+		Map<Integer, String> contents = new HashMap<>();
+		for (ScoreDoc scoreDoc : hits) {
+			if (includeSnippets) {
+				IndexDocumentAdapter doc = new IndexDocumentAdapter(searcher.doc(scoreDoc.doc));
+				docs.add(doc);
+				contents.put(scoreDoc.doc, loadContent(doc, bodyStores));
+			} else {
+				docs.add(new IndexDocumentAdapter(searcher.doc(scoreDoc.doc, IndexDocumentAdapter.LISTING_FIELDS)));
+			}
+		}
+		String[] snippets = includeSnippets ? snippets(searcher, q, analyzer, settings, hits, contents) : null;
+		
+		ArrayList<SearchResult> results = new ArrayList<>(size);
+		for (int i = 0; i < hits.size(); i++) {
+			ScoreDoc scoreDoc = hits.get(i);
+			IndexDocumentAdapter doc = docs.get(i);
+            
+            String debugInfo = null;
+            if (includeDebug) {
+            	Explanation explanation = searcher.explain(q, scoreDoc.doc);
+            	debugInfo = explanation.toString();
+            }
+            
+			results.add(new SearchResult(
+					doc.getKey(),
+					doc.getCollection(),
+					doc.getTitle(),
+					doc.getUrl(),
+					doc.getDomain(),
+					lastVisitText(doc, lastVisits, scoreDoc.doc),
+					snippets != null ? snippets[i] : "",
+					debugInfo,
+					scoreDoc.score));
+		}
+		
+		SearchResultWrapper wrapper = new SearchResultWrapper()
+				.setQuery(query)
+				.setOffset(from.getOffset())
+				.setMaxResultsRequested(size)
+				.setResultCount(resultCount)
+				.setResults(results);
+		if (facets != null) {
+			wrapper.setFacets(facets);
+		}
+		
+		int next = from.getOffset() + hits.size();
+		if (!hits.isEmpty() && next < resultCount) {
+			ScoreDoc last = grouped || from.getSearcherToken() == SearchCursor.NO_SEARCHER 
+					? null : hits.get(hits.size() - 1);
+			wrapper.setCursor(new SearchCursor(from.getSearcherToken(), now, next, last).encode());
+		}
+		
+		if (includeDebug) {
+			wrapper.setDebugInfo(sliceStatistics != null ? q.toString() + "\n" + sliceStatistics : q.toString());
+		}
+		
+		return wrapper;
+	}
+	
+	/**
+	 * Build the snippets for results of a search made without them. The pages are looked up on the calling
+	 * thread, then their content is read and highlighted in even shares, the first on the calling thread and
+	 * the rest across the search stage. Each share's snippets are passed on as soon as the share is done.
+	 * 
+	 * @param searcher    the searcher to look the pages up with. It must stay open until this returns.
+	 * @param parsed      the parsed user query the results came from
+	 * @param keys        the content keys of the results
+	 * @param stage       the stage to share the work across, or null to do it all on the calling thread
+	 * @param maxShares   the most shares to split the work into. Smaller shares pass snippets on sooner.
+	 * @param consumer    receives the snippet for each key found in the collection, on the calling thread
+	 */
+	static void snippets(IndexSearcher searcher, Query parsed, Analyzer analyzer, List<BodyStore> bodyStores, 
+			LuceneIndexSettings settings, String collection, List<String> keys, BoundedExecutor stage, int maxShares,
+			SnippetConsumer consumer) throws IOException, InvalidTokenOffsetsException, IndexException {
+		List<String> found = new ArrayList<>(keys.size());
+		List<ScoreDoc> hits = new ArrayList<>(keys.size());
+		for (String key : new LinkedHashSet<>(keys)) {
+			// pages with the same content share a key, and so a snippet
+			Query q = new BooleanQuery.Builder()
+					.add(new TermQuery(new Term(IndexDocumentAdapter.FIELD_KEY, key)), Occur.FILTER)
+					.add(new TermQuery(new Term(IndexDocumentAdapter.FIELD_COLLECTION, collection)), Occur.FILTER)
+					.build();
+			TopDocs topDocs = searcher.search(q, 1);
+			if (topDocs.scoreDocs.length > 0) {
+				found.add(key);
+				hits.add(topDocs.scoreDocs[0]);
+			}
+		}
+		if (hits.isEmpty()) return;
+		
+		int shares = Math.max(1, Math.min(hits.size(), maxShares));
+		int shareSize = (hits.size() + shares - 1) / shares;
+		// shares handed to the stage are queued by where they start as they finish, in whatever order that is
+		BlockingQueue<Map.Entry<Integer, CompletableFuture<String[]>>> finished = new LinkedBlockingQueue<>();
+		List<CompletableFuture<String[]>> pending = new ArrayList<>(shares);
+		int local = hits.size();
+		if (stage != null) {
+			local = shareSize;
+			for (int start = shareSize; start < hits.size(); start += shareSize) {
+				int first = start;
+				List<ScoreDoc> share = hits.subList(start, Math.min(hits.size(), start + shareSize));
+				CompletableFuture<String[]> future = runOn(stage, () -> snippets(searcher, parsed, analyzer, bodyStores, settings, share));
+				future.whenComplete((s, e) -> finished.add(new AbstractMap.SimpleImmutableEntry<>(first, future)));
+				pending.add(future);
+			}
+		}
+		
+		try {
+			for (int start = 0; start < local; start += shareSize) {
+				List<ScoreDoc> share = hits.subList(start, Math.min(local, start + shareSize));
+				accept(consumer, found, start, snippets(searcher, parsed, analyzer, bodyStores, settings, share));
+			}
+			for (int i = 0; i < pending.size(); i++) {
+				Map.Entry<Integer, CompletableFuture<String[]>> share = finished.take();
+				accept(consumer, found, share.getKey(), await(share.getValue()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IndexException(e);
+		} finally {
+			// shares still running when the consumer fails are waited for, as they read from the searcher
+			for (CompletableFuture<String[]> share : pending) {
+				share.handle((s, e) -> null).join();
+			}
+		}
+	}
+	
+	/**
+	 * @return the snippets, by key, in the order of the keys they were built for
+	 */
+	static Map<String, String> inKeyOrder(List<String> keys, Map<String, String> snippets) {
+		Map<String, String> ordered = new LinkedHashMap<>();
+		for (String key : keys) {
+			String snippet = snippets.get(key);
+			if (snippet != null) {
+				ordered.put(key, snippet);
+			}
+		}
+		return ordered;
+	}
+	
+	private static void accept(SnippetConsumer consumer, List<String> keys, int first, String[] snippets) throws IOException {
+		for (int i = 0; i < snippets.length; i++) {
+			consumer.accept(keys.get(first + i), snippets[i]);
+		}
+	}
+	
+	private static String[] snippets(IndexSearcher searcher, Query q, Analyzer analyzer, List<BodyStore> bodyStores, 
+			LuceneIndexSettings settings, List<ScoreDoc> hits) throws IOException, InvalidTokenOffsetsException {
+		Map<Integer, String> contents = new HashMap<>();
+		for (ScoreDoc scoreDoc : hits) {
+			contents.put(scoreDoc.doc, loadContent(new IndexDocumentAdapter(searcher.doc(scoreDoc.doc)), bodyStores));
+		}
+		return snippets(searcher, q, analyzer, settings, hits, contents);
+	}
+	
+	/**
+	 * Build a snippet for each hit with the configured @SnippetEngine
+	 * 
+	 * @param contents    the content of each hit, by document id
+	 * @return            the snippets, in the same order as the hits
+	 */
+	private static String[] snippets(IndexSearcher searcher, Query q, Analyzer analyzer, LuceneIndexSettings settings, 
+			List<ScoreDoc> hits, Map<Integer, String> contents) throws IOException, InvalidTokenOffsetsException {
+		// pages indexed before offsets were recorded in the postings have to be analyzed again
+		if (settings.getSnippetEngine() == SnippetEngine.POSTINGS && hasContentOffsets(searcher.getIndexReader())) {
+			int[] docIds = new int[hits.size()];
+			for (int i = 0; i < docIds.length; i++) {
+				docIds[i] = hits.get(i).doc;
 			}
 			
-			return wrapper;
+			PostingsSnippetHighlighter highlighter = new PostingsSnippetHighlighter(
+					contents, analyzer, settings.getSnippetPassageLength());
+			return highlighter.highlightFields(
+					new String[] {IndexDocumentAdapter.FIELD_SEARCH}, q, searcher, docIds, 
+					new int[] {settings.getSnippetPassages()})
+					.get(IndexDocumentAdapter.FIELD_SEARCH);
+		}
+		
+		QueryScorer queryScorer = new QueryScorer(q, IndexDocumentAdapter.FIELD_SEARCH);
+		Fragmenter fragmenter = new SimpleSpanFragmenter(queryScorer, settings.getSnippetPassageLength());
+		Highlighter highlighter = new Highlighter(queryScorer);
+		highlighter.setTextFragmenter(fragmenter);
+		
+		String[] snippets = new String[hits.size()];
+		for (int i = 0; i < snippets.length; i++) {
+			int docId = hits.get(i).doc;
+			String content = contents.get(docId);
+			TokenStream tokenStream = TokenSources.getTokenStream(
+					IndexDocumentAdapter.FIELD_SEARCH, 
+					searcher.getIndexReader().getTermVectors(docId), 
+					content, 
+					analyzer, 
+					highlighter.getMaxDocCharsToAnalyze() - 1);
 			
-		} catch (IOException | ParseException | InvalidTokenOffsetsException e) {
+			String[] fragments = highlighter.getBestFragments(tokenStream, content, settings.getSnippetPassages());
+			String snippet = Arrays.asList(fragments).stream().collect(Collectors.joining("\n"));
+			snippets[i] = Jsoup.clean(snippet, Whitelist.simpleText());
+		}
+		return snippets;
+	}
+	
+	private static boolean hasContentOffsets(IndexReader reader) {
+		for (LeafReaderContext leaf : reader.leaves()) {
+			FieldInfo info = leaf.reader().getFieldInfos().fieldInfo(IndexDocumentAdapter.FIELD_SEARCH);
+			if (info != null && info.getIndexOptions() != IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	public SearchResultWrapper versions(String collection, String url, int offset, int size) throws IndexException {
+		IndexSearcher searcher = acquireSearcher();
+		try {
+			return versions(searcher, collection, url, offset, size);
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		} finally {
+			releaseSearcher(searcher);
+		}
+	}
+	
+	@Override
+	public List<Suggestion> suggest(String collection, String prefix, int size) throws IndexException {
+		if (suggester == null) return Collections.emptyList();
+		try {
+			return suggester.suggest(collection, prefix, size);
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		}
+	}
+	
+	/**
+	 * List the versions of a page, most recently visited first
+	 * 
+	 * @param searcher    the searcher to look the versions up with
+	 * @return            the versions, without snippets
+	 */
+	static SearchResultWrapper versions(
+			IndexSearcher searcher, String collection, String url, int offset, int size) throws IOException {
+		Query q = new BooleanQuery.Builder()
+				.add(new TermQuery(new Term(IndexDocumentAdapter.FIELD_URL, url)), Occur.FILTER)
+				.add(new TermQuery(new Term(IndexDocumentAdapter.FIELD_COLLECTION, collection)), Occur.FILTER)
+				.build();
+		TopDocs topDocs = searcher.search(q, offset + size, 
+				new Sort(new SortField(IndexDocumentAdapter.FIELD_TIMESTAMP, SortField.Type.LONG, true)));
+		
+		NumericDocValues lastVisits = MultiDocValues.getNumericValues(
+				searcher.getIndexReader(), IndexDocumentAdapter.FIELD_TIMESTAMP);
+		ArrayList<SearchResult> results = new ArrayList<>(size);
+		for (int i = offset; i < topDocs.scoreDocs.length; i++) {
+			int docId = topDocs.scoreDocs[i].doc;
+			IndexDocumentAdapter doc = new IndexDocumentAdapter(searcher.doc(docId, IndexDocumentAdapter.LISTING_FIELDS));
+			results.add(new SearchResult(
+					doc.getKey(),
+					doc.getCollection(),
+					doc.getTitle(),
+					doc.getUrl(),
+					doc.getDomain(),
+					lastVisitText(doc, lastVisits, docId),
+					"",
+					null,
+					0));
+		}
+		
+		return new SearchResultWrapper()
+				.setQuery(url)
+				.setOffset(offset)
+				.setMaxResultsRequested(size)
+				.setResultCount(topDocs.totalHits)
+				.setResults(results);
+	}
+	
+	/**
+	 * @return a searcher over the pages visible as of the last refresh. Must be released with {@link #releaseSearcher(IndexSearcher)}.
+	 */
+	IndexSearcher acquireSearcher() throws IndexException {
+		try {
+			return searcherManager.acquire();
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		}
+	}
+	
+	void releaseSearcher(IndexSearcher searcher) {
+		try {
+			searcherManager.release(searcher);
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * @return the body store, or null if it is disabled
+	 */
+	BodyStore getBodyStore() {
+		return bodyStore;
+	}
+	
+	/**
+	 * Pages indexed while the body store was disabled have their content as a stored field,
+	 * otherwise it is read from a store. Bodies are content addressed so any store holding the key will do.
+	 */
+	private static String loadContent(IndexDocumentAdapter doc, List<BodyStore> bodyStores) throws IOException {
+		String content = doc.getContent();
+		for (int i = 0; content == null && i < bodyStores.size(); i++) {
+			content = bodyStores.get(i).get(doc.getKey());
+		}
+		return content != null ? content : "";
+	}
+	
+	/**
+	 * The stored timestamp text records the first visit to a page version. Revisits only update the
+	 * timestamp doc value, so prefer that when it is later.
+	 */
+	private static String lastVisitText(IndexDocumentAdapter doc, NumericDocValues lastVisits, int docId) {
+		String text = doc.getTimestampText();
+		if (lastVisits != null && text != null) {
+			long lastVisit = lastVisits.get(docId);
+			if (lastVisit > Instant.parse(text).getEpochSecond()) {
+				return Instant.ofEpochSecond(lastVisit).toString();
+			}
+		}
+		return text;
+	}
+	
+	/**
+	 * Make pages indexed since the last refresh visible to new searches.
+	 * Searches already in progress keep using the searcher they acquired.
+	 */
+	void refresh() {
+		commitLock.writeLock().lock();
+		try {
+			searcherManager.maybeRefresh();
+		} catch (IOException e) {
+			LOG.error("Unable to refresh searcher: {}", e.getLocalizedMessage());
+		} finally {
+			commitLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Refreshes happen under the commit write lock so a searcher never sees a batch half way 
+	 * through moving a latest version marker (see @LatestVersionTracker).
+	 */
+	private void refreshBlocking() throws IOException {
+		commitLock.writeLock().lock();
+		try {
+			searcherManager.maybeRefreshBlocking();
+		} finally {
+			commitLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Commit pending changes to disk if there are any, then empty the journal.
+	 * 
+	 * Indexing is paused for the duration so the commit covers exactly the journaled pages.
+	 */
+	void commit() {
+		commitLock.writeLock().lock();
+		try {
+			if (writer.hasUncommittedChanges()) {
+				if (bodyStore != null) {
+					bodyStore.sync();
+				}
+				writer.setCommitData(commitData());
+				writer.commit();
+			}
+			if (journal != null) {
+				journal.truncate();
+			}
+		} catch (IOException e) {
+			LOG.error("Unable to commit index: {}", e.getLocalizedMessage());
+		} finally {
+			commitLock.writeLock().unlock();
+		}
+	}
+	
+	private void syncJournal() {
+		try {
+			journal.syncIfDirty();
+		} catch (IOException e) {
+			LOG.error("Unable to sync journal: {}", e.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * @return whether every page in the index carries a latest version marker. Indexes created before
+	 * markers were introduced fall back to grouping versions by url at query time.
+	 */
+	boolean hasLatestVersionMarkers() {
+		return latestVersionMarkers;
+	}
+	
+	/**
+	 * @return number of page visits recorded against an existing version since startup instead of adding a document
+	 */
+	public long getRevisitCount() {
+		return revisits.getRevisitCount();
+	}
+	
+	/**
+	 * @return hit, miss and eviction counts for the search result cache (null if it is disabled)
+	 */
+	public CacheStats getResultCacheStats() {
+		return resultCache != null ? resultCache.getStats() : null;
+	}
+	
+	/**
+	 * @return hit, miss and eviction counts for the date range filter cache (null if it is disabled)
+	 */
+	public CacheStats getFilterCacheStats() {
+		return filterCache != null ? filterCache.getStats() : null;
+	}
+	
+	/**
+	 * @return the stage that extracts text from submitted pages
+	 */
+	public BoundedExecutor getExtractionStage() {
+		return extractionStage;
+	}
+	
+	/**
+	 * @return the stage that adds extracted pages to the index writer
+	 */
+	public BoundedExecutor getWriterStage() {
+		return writerStage;
+	}
+	
+	/**
+	 * @return the stage that searches index slices concurrently, or null if searches run on the calling thread only
+	 */
+	public BoundedExecutor getSearchStage() {
+		return searchStage;
+	}
+	
+	/**
+	 * @return number of page bodies in the body store (0 if it is disabled)
+	 */
+	public int getBodyStoreCount() {
+		return bodyStore != null ? bodyStore.getCount() : 0;
+	}
+	
+	/**
+	 * @return size in bytes of the body store (0 if it is disabled)
+	 */
+	public long getBodyStoreSize() {
+		return bodyStore != null ? bodyStore.getSizeInBytes() : 0;
+	}
+	
+	/**
+	 * @return statistics from replaying the journal at startup (null if the journal is disabled)
+	 */
+	public JournalReplayStatistics getJournalReplayStatistics() {
+		return replayStatistics;
+	}
+	
+	/**
+	 * Merge the index down to a single segment. Used once an index no longer receives pages, ahead of closing it.
+	 * Pages can still be written and searched while the merge runs.
+	 * 
+	 * @throws IndexException
+	 */
+	void forceMerge() throws IndexException {
+		try {
+			writer.forceMerge(1);
+		} catch (IOException e) {
 			LOG.error(e.getLocalizedMessage());
 			throw new IndexException(e);
 		}
@@ -229,11 +1294,37 @@ public class LuceneIndex implements Index {
 	
 	@Override
 	public void close() throws IndexException {
+		maintenance.shutdown();
 		try {
+			if (ownsStages) {
+				extractionStage.shutdown();
+				extractionStage.awaitTermination(1, TimeUnit.MINUTES);
+				writerStage.shutdown();
+				writerStage.awaitTermination(1, TimeUnit.MINUTES);
+			}
+			maintenance.awaitTermination(1, TimeUnit.MINUTES);
+			commit();
+			if (suggester != null) {
+				suggester.close();
+			}
+			lifetimes.close();
+			searcherManager.close();
+			if (searchStage != null) {
+				searchStage.shutdown();
+			}
 			writer.close();
+			if (journal != null) {
+				journal.close();
+			}
+			if (bodyStore != null) {
+				bodyStore.close();
+			}
 		} catch (IOException e) {
 			LOG.error(e.getLocalizedMessage());
 			throw new IndexException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IndexException(e);
 		}
 	}
 }
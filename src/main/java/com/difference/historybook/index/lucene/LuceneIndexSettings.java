@@ -0,0 +1,486 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import org.apache.lucene.index.MergePolicy;
+
+import com.difference.historybook.textutils.ExtractionEngine;
+
+/**
+ * Tuning settings for a @LuceneIndex
+ */
+public class LuceneIndexSettings {
+	private long refreshIntervalMillis = 0;
+	private long commitIntervalMillis = 60 * 1000;
+	private boolean journalEnabled = true;
+	private long journalSyncIntervalMillis = 1000;
+	private int journalSyncDocuments = 500;
+	private int extractionThreads = Runtime.getRuntime().availableProcessors();
+	private int extractionQueueCapacity = 100;
+	private int writerThreads = 1;
+	private int writerQueueCapacity = 100;
+	private ExtractionEngine extractionEngine = ExtractionEngine.STREAMING;
+	private int maxExtractedChars = 0;
+	private boolean bodyStoreEnabled = false;
+	private int expectedPageVersions = 1000000;
+	private int hotPartitions = 2;
+	private int retainedPartitions = 0;
+	private long resultCacheBytes = 16 * 1024 * 1024;
+	private RankingMode rankingMode = RankingMode.BUCKETED;
+	private SnippetEngine snippetEngine = SnippetEngine.POSTINGS;
+	private int snippetPassages = 3;
+	private int snippetPassageLength = 160;
+	private int searchThreads = 0;
+	private int searchQueueCapacity = 100;
+	private long filterCacheBytes = 16 * 1024 * 1024;
+	private int facetDomains = 10;
+	private boolean suggestEnabled = true;
+	private long suggestRebuildIntervalMillis = 60 * 60 * 1000;
+	private MergePolicy mergePolicy = null;
+
+	/**
+	 * @return how often newly indexed pages are made visible to searches (in ms). 0 means before indexPage returns.
+	 */
+	public long getRefreshIntervalMillis() {
+		return refreshIntervalMillis;
+	}
+
+	/**
+	 * @param refreshIntervalMillis how often newly indexed pages are made visible to searches (in ms). 0 means before indexPage returns.
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setRefreshIntervalMillis(long refreshIntervalMillis) {
+		this.refreshIntervalMillis = refreshIntervalMillis;
+		return this;
+	}
+
+	/**
+	 * @return how often pending changes are committed to disk (in ms). 0 means only on close.
+	 */
+	public long getCommitIntervalMillis() {
+		return commitIntervalMillis;
+	}
+
+	/**
+	 * @param commitIntervalMillis how often pending changes are committed to disk (in ms). 0 means only on close.
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setCommitIntervalMillis(long commitIntervalMillis) {
+		this.commitIntervalMillis = commitIntervalMillis;
+		return this;
+	}
+
+	/**
+	 * @return whether pages are written to a journal before being indexed so uncommitted pages survive a crash
+	 */
+	public boolean isJournalEnabled() {
+		return journalEnabled;
+	}
+
+	/**
+	 * @param journalEnabled whether pages are written to a journal before being indexed so uncommitted pages survive a crash
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setJournalEnabled(boolean journalEnabled) {
+		this.journalEnabled = journalEnabled;
+		return this;
+	}
+
+	/**
+	 * @return how often the journal is synced to disk (in ms). 0 disables timed syncs.
+	 */
+	public long getJournalSyncIntervalMillis() {
+		return journalSyncIntervalMillis;
+	}
+
+	/**
+	 * @param journalSyncIntervalMillis how often the journal is synced to disk (in ms). 0 disables timed syncs.
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setJournalSyncIntervalMillis(long journalSyncIntervalMillis) {
+		this.journalSyncIntervalMillis = journalSyncIntervalMillis;
+		return this;
+	}
+
+	/**
+	 * @return number of journaled pages after which the journal is synced to disk. 0 disables count based syncs.
+	 */
+	public int getJournalSyncDocuments() {
+		return journalSyncDocuments;
+	}
+
+	/**
+	 * @param journalSyncDocuments number of journaled pages after which the journal is synced to disk. 0 disables count based syncs.
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setJournalSyncDocuments(int journalSyncDocuments) {
+		this.journalSyncDocuments = journalSyncDocuments;
+		return this;
+	}
+
+	/**
+	 * @return number of threads in the stage that extracts text from pages
+	 */
+	public int getExtractionThreads() {
+		return extractionThreads;
+	}
+
+	/**
+	 * @param extractionThreads number of threads in the stage that extracts text from pages
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setExtractionThreads(int extractionThreads) {
+		this.extractionThreads = extractionThreads;
+		return this;
+	}
+
+	/**
+	 * @return maximum number of pages waiting for text extraction before submitters block
+	 */
+	public int getExtractionQueueCapacity() {
+		return extractionQueueCapacity;
+	}
+
+	/**
+	 * @param extractionQueueCapacity maximum number of pages waiting for text extraction before submitters block
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setExtractionQueueCapacity(int extractionQueueCapacity) {
+		this.extractionQueueCapacity = extractionQueueCapacity;
+		return this;
+	}
+
+	/**
+	 * @return number of threads in the stage that adds extracted pages to the index writer
+	 */
+	public int getWriterThreads() {
+		return writerThreads;
+	}
+
+	/**
+	 * @param writerThreads number of threads in the stage that adds extracted pages to the index writer
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setWriterThreads(int writerThreads) {
+		this.writerThreads = writerThreads;
+		return this;
+	}
+
+	/**
+	 * @return maximum number of extracted pages waiting for the writer before extraction blocks
+	 */
+	public int getWriterQueueCapacity() {
+		return writerQueueCapacity;
+	}
+
+	/**
+	 * @param writerQueueCapacity maximum number of extracted pages waiting for the writer before extraction blocks
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setWriterQueueCapacity(int writerQueueCapacity) {
+		this.writerQueueCapacity = writerQueueCapacity;
+		return this;
+	}
+
+	/**
+	 * @return the engine used to extract text from pages
+	 */
+	public ExtractionEngine getExtractionEngine() {
+		return extractionEngine;
+	}
+
+	/**
+	 * @param extractionEngine the engine used to extract text from pages
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setExtractionEngine(ExtractionEngine extractionEngine) {
+		this.extractionEngine = extractionEngine;
+		return this;
+	}
+
+	/**
+	 * @return maximum number of characters of text indexed per page. 0 for no limit.
+	 */
+	public int getMaxExtractedChars() {
+		return maxExtractedChars;
+	}
+
+	/**
+	 * @param maxExtractedChars maximum number of characters of text indexed per page. 0 for no limit.
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setMaxExtractedChars(int maxExtractedChars) {
+		this.maxExtractedChars = maxExtractedChars;
+		return this;
+	}
+
+	/**
+	 * @return whether page text is kept in a separate compressed store rather than as a stored field in the index
+	 */
+	public boolean isBodyStoreEnabled() {
+		return bodyStoreEnabled;
+	}
+
+	/**
+	 * @param bodyStoreEnabled whether page text is kept in a separate compressed store rather than as a stored field in the index
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setBodyStoreEnabled(boolean bodyStoreEnabled) {
+		this.bodyStoreEnabled = bodyStoreEnabled;
+		return this;
+	}
+
+	/**
+	 * @return number of distinct page versions the revisit detection filter is sized for
+	 */
+	public int getExpectedPageVersions() {
+		return expectedPageVersions;
+	}
+
+	/**
+	 * @param expectedPageVersions number of distinct page versions the revisit detection filter is sized for
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setExpectedPageVersions(int expectedPageVersions) {
+		this.expectedPageVersions = expectedPageVersions;
+		return this;
+	}
+
+	/**
+	 * @return number of most recent monthly partitions of a @PartitionedLuceneIndex kept open for writing. Older ones are merged and sealed.
+	 */
+	public int getHotPartitions() {
+		return hotPartitions;
+	}
+
+	/**
+	 * @param hotPartitions number of most recent monthly partitions of a @PartitionedLuceneIndex kept open for writing. Older ones are merged and sealed.
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setHotPartitions(int hotPartitions) {
+		this.hotPartitions = hotPartitions;
+		return this;
+	}
+
+	/**
+	 * @return number of most recent monthly partitions of a @PartitionedLuceneIndex kept. Older ones are deleted. 0 keeps them all.
+	 */
+	public int getRetainedPartitions() {
+		return retainedPartitions;
+	}
+
+	/**
+	 * @param retainedPartitions number of most recent monthly partitions of a @PartitionedLuceneIndex kept. Older ones are deleted. 0 keeps them all.
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setRetainedPartitions(int retainedPartitions) {
+		this.retainedPartitions = retainedPartitions;
+		return this;
+	}
+
+	/**
+	 * @return approximate memory budget for cached search results (in bytes). 0 disables the cache.
+	 */
+	public long getResultCacheBytes() {
+		return resultCacheBytes;
+	}
+
+	/**
+	 * @param resultCacheBytes approximate memory budget for cached search results (in bytes). 0 disables the cache.
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setResultCacheBytes(long resultCacheBytes) {
+		this.resultCacheBytes = resultCacheBytes;
+		return this;
+	}
+
+	/**
+	 * @return how the age of a page is weighed against its relevance to a query
+	 */
+	public RankingMode getRankingMode() {
+		return rankingMode;
+	}
+
+	/**
+	 * @param rankingMode how the age of a page is weighed against its relevance to a query
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setRankingMode(RankingMode rankingMode) {
+		this.rankingMode = rankingMode;
+		return this;
+	}
+
+	/**
+	 * @return how the highlighted snippets shown with search results are built
+	 */
+	public SnippetEngine getSnippetEngine() {
+		return snippetEngine;
+	}
+
+	/**
+	 * @param snippetEngine how the highlighted snippets shown with search results are built
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setSnippetEngine(SnippetEngine snippetEngine) {
+		this.snippetEngine = snippetEngine;
+		return this;
+	}
+
+	/**
+	 * @return maximum number of passages in a snippet
+	 */
+	public int getSnippetPassages() {
+		return snippetPassages;
+	}
+
+	/**
+	 * @param snippetPassages maximum number of passages in a snippet
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setSnippetPassages(int snippetPassages) {
+		this.snippetPassages = snippetPassages;
+		return this;
+	}
+
+	/**
+	 * @return approximate maximum number of characters in a snippet passage
+	 */
+	public int getSnippetPassageLength() {
+		return snippetPassageLength;
+	}
+
+	/**
+	 * @param snippetPassageLength approximate maximum number of characters in a snippet passage
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setSnippetPassageLength(int snippetPassageLength) {
+		this.snippetPassageLength = snippetPassageLength;
+		return this;
+	}
+
+	/**
+	 * @return number of threads searching index slices concurrently. 0 means each search runs on the calling thread only.
+	 */
+	public int getSearchThreads() {
+		return searchThreads;
+	}
+
+	/**
+	 * @param searchThreads number of threads searching index slices concurrently. 0 means each search runs on the calling thread only.
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setSearchThreads(int searchThreads) {
+		this.searchThreads = searchThreads;
+		return this;
+	}
+
+	/**
+	 * @return maximum number of slices waiting for a search thread before searches run them on the calling thread
+	 */
+	public int getSearchQueueCapacity() {
+		return searchQueueCapacity;
+	}
+
+	/**
+	 * @param searchQueueCapacity maximum number of slices waiting for a search thread before searches run them on the calling thread
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setSearchQueueCapacity(int searchQueueCapacity) {
+		this.searchQueueCapacity = searchQueueCapacity;
+		return this;
+	}
+
+	/**
+	 * @return maximum memory used caching the pages each segment has in a date range (in bytes). 0 disables the cache.
+	 */
+	public long getFilterCacheBytes() {
+		return filterCacheBytes;
+	}
+
+	/**
+	 * @param filterCacheBytes maximum memory used caching the pages each segment has in a date range (in bytes). 0 disables the cache.
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setFilterCacheBytes(long filterCacheBytes) {
+		this.filterCacheBytes = filterCacheBytes;
+		return this;
+	}
+
+	/**
+	 * @return maximum number of domains counted in search facets
+	 */
+	public int getFacetDomains() {
+		return facetDomains;
+	}
+
+	/**
+	 * @param facetDomains maximum number of domains counted in search facets
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setFacetDomains(int facetDomains) {
+		this.facetDomains = facetDomains;
+		return this;
+	}
+
+	/**
+	 * @return whether titles, urls and domains are kept in memory to complete prefixes (see @PageSuggester)
+	 */
+	public boolean isSuggestEnabled() {
+		return suggestEnabled;
+	}
+
+	/**
+	 * @param suggestEnabled whether titles, urls and domains are kept in memory to complete prefixes (see @PageSuggester)
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setSuggestEnabled(boolean suggestEnabled) {
+		this.suggestEnabled = suggestEnabled;
+		return this;
+	}
+
+	/**
+	 * @return how often suggestions are rebuilt from every page, picking up revisits (in ms). 0 means never.
+	 */
+	public long getSuggestRebuildIntervalMillis() {
+		return suggestRebuildIntervalMillis;
+	}
+
+	/**
+	 * @param suggestRebuildIntervalMillis how often suggestions are rebuilt from every page, picking up revisits (in ms). 0 means never.
+	 * @return this for method chaining
+	 */
+	public LuceneIndexSettings setSuggestRebuildIntervalMillis(long suggestRebuildIntervalMillis) {
+		this.suggestRebuildIntervalMillis = suggestRebuildIntervalMillis;
+		return this;
+	}
+
+	/**
+	 * @return the merge policy of the index writer, or null for Lucene's default
+	 */
+	MergePolicy getMergePolicy() {
+		return mergePolicy;
+	}
+
+	/**
+	 * @param mergePolicy the merge policy of the index writer, or null for Lucene's default. Lets tests fix the segments of an index.
+	 * @return this for method chaining
+	 */
+	LuceneIndexSettings setMergePolicy(MergePolicy mergePolicy) {
+		this.mergePolicy = mergePolicy;
+		return this;
+	}
+}
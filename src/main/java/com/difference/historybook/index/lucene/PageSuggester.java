@@ -0,0 +1,630 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.KeywordTokenizer;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.difference.historybook.index.Suggestion;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Completes prefixes typed by a user to the titles, urls and domains of pages in an index.
+ *
+ * Each collection has an FST backed @AnalyzingSuggester, matched case insensitively and weighted by how
+ * often and how recently its pages were visited. Besides the start of each title and url, the words within
+ * a title and the path of a url can be typed too. The suggesters are built in the background. A full build
+ * streams over every page of the index and is made at startup and then periodically (see
+ * {@link #requestRebuild()}), picking up revisits, which change doc values rather than adding segments. In
+ * between, a refresh only reads the segments flushed since the last update, into a small suggester of
+ * recent pages that is looked up alongside the full one. Segments made by merges only hold pages already
+ * read, so they are left to the next full build, as are recent pages past {@link #MAX_RECENT_PAGES}.
+ */
+class PageSuggester implements ReferenceManager.RefreshListener, Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(PageSuggester.class);
+
+	private static final int MAX_TEXT_LENGTH = 128;
+	private static final int MAX_WORDS = 8;
+	static final int MAX_RECENT_PAGES = 10000;
+	private static final long SECONDS_PER_MONTH = 30L * 24 * 60 * 60;
+	private static final Set<String> FIELDS = ImmutableSet.of(IndexDocumentAdapter.FIELD_COLLECTION,
+			IndexDocumentAdapter.FIELD_URL, IndexDocumentAdapter.FIELD_TITLE, IndexDocumentAdapter.FIELD_DOMAIN);
+
+	private static final Analyzer ANALYZER = new Analyzer() {
+		@Override
+		protected TokenStreamComponents createComponents(String fieldName) {
+			Tokenizer tokenizer = new KeywordTokenizer();
+			return new TokenStreamComponents(tokenizer, new LowerCaseFilter(tokenizer));
+		}
+	};
+
+	/**
+	 * Where the pages to suggest are read from
+	 */
+	interface ReaderSource {
+		/**
+		 * @return a reader over the current pages of the index, released by {@link #release(IndexReader)}
+		 * @throws IOException
+		 */
+		IndexReader acquire() throws IOException;
+
+		/**
+		 * @param reader a reader returned by {@link #acquire()}
+		 * @throws IOException
+		 */
+		void release(IndexReader reader) throws IOException;
+	}
+
+	private static final class Key {
+		private final Suggestion.Kind kind;
+		private final String text;
+		private final String url;
+
+		private Key(Suggestion.Kind kind, String text, String url) {
+			this.kind = kind;
+			this.text = text;
+			this.url = url;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return kind == other.kind && text.equals(other.text) && Objects.equals(url, other.url);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(kind, text, url);
+		}
+	}
+
+	private static final class Visits {
+		private long lastVisit;
+		private long count;
+
+		private Visits(long lastVisit, long count) {
+			this.lastVisit = lastVisit;
+			this.count = count;
+		}
+	}
+
+	private static final class Input {
+		private final String text;
+		private final byte[] payload;
+		private final long weight;
+
+		/**
+		 * @param text what is matched, the whole of the suggestion or a word within it
+		 */
+		private Input(Suggestion.Kind kind, String text, String suggestion, String url, long weight) {
+			this.text = text;
+			this.payload = (kind.name() + '\n' + (url != null ? url : "") + '\n' + suggestion).getBytes(Charsets.UTF_8);
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * The suggesters of a collection
+	 */
+	private static final class Lookups {
+		private final Lookup all;
+		private final Lookup recent;
+
+		private Lookups(Lookup all, Lookup recent) {
+			this.all = all;
+			this.recent = recent;
+		}
+	}
+
+	private final ReaderSource source;
+	private final ExecutorService updater;
+	private final AtomicBoolean updatePending = new AtomicBoolean(false);
+	private volatile boolean rebuildRequested = true;
+	private volatile boolean closed = false;
+	private volatile Map<String, Lookups> lookups = Collections.emptyMap();
+
+	// only used on the updater thread
+	private final Set<Object> seenSegments = new HashSet<>();
+	private final Map<String, Map<Key, Visits>> recent = new HashMap<>();
+	private int recentPages = 0;
+
+	/**
+	 * Constructor for PageSuggester. No suggestions are made until the first update.
+	 *
+	 * @param name name of the thread the suggesters are built on
+	 * @param source where the pages to suggest are read from
+	 */
+	PageSuggester(String name, ReaderSource source) {
+		this.source = source;
+		this.updater = Executors.newSingleThreadExecutor(
+				new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+	}
+
+	/**
+	 * Complete a prefix
+	 *
+	 * @param collection the collection to suggest pages from
+	 * @param prefix what the user has typed so far
+	 * @param size maximum number of suggestions to return
+	 * @return suggestions, the most visited first
+	 * @throws IOException
+	 */
+	List<Suggestion> suggest(String collection, String prefix, int size) throws IOException {
+		Lookups lookup = lookups.get(collection);
+		if (lookup == null || prefix == null || prefix.isEmpty() || size <= 0) return Collections.emptyList();
+
+		// a page can match through more than one of its words, and recent pages can be in both suggesters
+		String key = prefix.length() > MAX_TEXT_LENGTH ? prefix.substring(0, MAX_TEXT_LENGTH) : prefix;
+		Map<Key, Suggestion> suggestions = new HashMap<>();
+		for (Lookup suggester : Arrays.asList(lookup.all, lookup.recent)) {
+			if (suggester == null) continue;
+			for (Lookup.LookupResult result : suggester.lookup(key, false, size * 2)) {
+				String[] payload = result.payload.utf8ToString().split("\n", 3);
+				Suggestion suggestion = new Suggestion(payload[2], payload[1].isEmpty() ? null : payload[1],
+						Suggestion.Kind.valueOf(payload[0]), result.value);
+				suggestions.merge(new Key(suggestion.getKind(), suggestion.getText(), suggestion.getUrl()), suggestion,
+						(a, b) -> a.getWeight() >= b.getWeight() ? a : b);
+			}
+		}
+		List<Suggestion> sorted = new ArrayList<>(suggestions.values());
+		sorted.sort(Comparator.comparingLong(Suggestion::getWeight).reversed());
+		return sorted.subList(0, Math.min(size, sorted.size()));
+	}
+
+	/**
+	 * Read any new segments in the background and rebuild the suggesters of recent pages they change
+	 */
+	void requestUpdate() {
+		if (updatePending.compareAndSet(false, true)) {
+			try {
+				updater.execute(this::update);
+			} catch (RuntimeException e) {
+				// rejected once closed
+				updatePending.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Rebuild the suggesters from every page in the background, picking up revisits and removed pages
+	 */
+	void requestRebuild() {
+		rebuildRequested = true;
+		requestUpdate();
+	}
+
+	/**
+	 * @return number of collections with suggestions
+	 */
+	int getCollectionCount() {
+		return lookups.size();
+	}
+
+	@Override
+	public void beforeRefresh() {
+	}
+
+	@Override
+	public void afterRefresh(boolean didRefresh) {
+		if (didRefresh) {
+			requestUpdate();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		// updates are not interrupted, as an interrupted read can close the index files under other readers
+		closed = true;
+		updater.shutdown();
+		try {
+			updater.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void update() {
+		updatePending.set(false);
+		if (closed) return;
+		try {
+			IndexReader reader = source.acquire();
+			try {
+				if (rebuildRequested) {
+					rebuildRequested = false;
+					rebuild(reader);
+				} else {
+					update(reader);
+				}
+			} finally {
+				source.release(reader);
+			}
+		} catch (IOException | RuntimeException e) {
+			LOG.error("Unable to update suggestions: {}", e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Build the suggesters of every collection from every page, dropping the recent pages
+	 */
+	private void rebuild(IndexReader reader) throws IOException {
+		long start = System.nanoTime();
+		seenSegments.clear();
+		for (LeafReaderContext context : reader.leaves()) {
+			seenSegments.add(context.reader().getCoreCacheKey());
+		}
+		recent.clear();
+		recentPages = 0;
+
+		long now = System.currentTimeMillis() / 1000;
+		Map<String, Lookups> rebuilt = new HashMap<>();
+		Terms collections = MultiFields.getTerms(reader, IndexDocumentAdapter.FIELD_COLLECTION);
+		if (collections != null) {
+			TermsEnum terms = collections.iterator();
+			for (BytesRef term = terms.next(); term != null; term = terms.next()) {
+				String collection = term.utf8ToString();
+				AnalyzingSuggester suggester = new AnalyzingSuggester(ANALYZER);
+				suggester.build(new Inputs(new PageInputs(reader, collection, now)));
+				rebuilt.put(collection, new Lookups(suggester, null));
+			}
+		}
+		lookups = rebuilt;
+		LOG.debug("Rebuilt suggestions for {} collections in {}ms", rebuilt.size(), (System.nanoTime() - start) / 1000000);
+	}
+
+	private void update(IndexReader reader) throws IOException {
+		long start = System.nanoTime();
+		Set<String> changed = new HashSet<>();
+		Set<Object> segments = new HashSet<>();
+		for (LeafReaderContext context : reader.leaves()) {
+			Object segment = context.reader().getCoreCacheKey();
+			segments.add(segment);
+			if (!seenSegments.contains(segment) && !isMerged(context.reader())) {
+				gather(context.reader(), changed);
+			}
+		}
+		// segments merged away are forgotten, their pages are already gathered
+		seenSegments.clear();
+		seenSegments.addAll(segments);
+		if (changed.isEmpty()) return;
+
+		if (recentPages > MAX_RECENT_PAGES) {
+			rebuild(reader);
+			return;
+		}
+
+		long now = System.currentTimeMillis() / 1000;
+		Map<String, Lookups> updated = new HashMap<>(lookups);
+		for (String collection : changed) {
+			Lookups existing = updated.get(collection);
+			updated.put(collection, new Lookups(existing != null ? existing.all : null, build(recent.get(collection), now)));
+		}
+		lookups = updated;
+		LOG.debug("Updated recent suggestions for {} collections in {}ms", changed.size(), (System.nanoTime() - start) / 1000000);
+	}
+
+	/**
+	 * @return whether a segment was made by merging others
+	 */
+	private static boolean isMerged(LeafReader reader) {
+		return reader instanceof SegmentReader && IndexWriter.SOURCE_MERGE.equals(
+				((SegmentReader) reader).getSegmentInfo().info.getDiagnostics().get(IndexWriter.SOURCE));
+	}
+
+	/**
+	 * Gather the titles, urls and domains of the latest version of each page in a new segment. Pages are
+	 * merged with the recent pages gathered before, so reading a page twice does not count its visits twice.
+	 */
+	private void gather(LeafReader reader, Set<String> changed) throws IOException {
+		Bits liveDocs = reader.getLiveDocs();
+		NumericDocValues timestamps = DocValues.getNumeric(reader, IndexDocumentAdapter.FIELD_TIMESTAMP);
+		NumericDocValues visits = DocValues.getNumeric(reader, IndexDocumentAdapter.FIELD_VISITS);
+		// segments written before latest version markers have every version, which merge the same way
+		NumericDocValues latest = reader.getNumericDocValues(IndexDocumentAdapter.FIELD_LATEST);
+
+		for (int doc = 0; doc < reader.maxDoc(); doc++) {
+			if (liveDocs != null && !liveDocs.get(doc)) continue;
+			if (latest != null && latest.get(doc) == 0) continue;
+
+			IndexDocumentAdapter page = new IndexDocumentAdapter(reader.document(doc, FIELDS));
+			String collection = page.getCollection();
+			String url = page.getUrl();
+			if (collection == null || url == null) continue;
+
+			Map<Key, Visits> pages = recent.computeIfAbsent(collection, c -> new HashMap<>());
+			long timestamp = timestamps.get(doc);
+			long count = Math.max(1, visits.get(doc));
+			add(pages, Suggestion.Kind.TITLE, page.getTitle(), url, timestamp, count);
+			add(pages, Suggestion.Kind.URL, displayUrl(url), url, timestamp, count);
+			add(pages, Suggestion.Kind.DOMAIN, page.getDomain(), url, timestamp, count);
+			recentPages++;
+			changed.add(collection);
+		}
+	}
+
+	private static void add(Map<Key, Visits> pages, Suggestion.Kind kind, String text, String url, long timestamp, long count) {
+		text = clean(text);
+		if (text == null) return;
+
+		Visits existing = pages.putIfAbsent(new Key(kind, text, url), new Visits(timestamp, count));
+		if (existing != null) {
+			existing.lastVisit = Math.max(existing.lastVisit, timestamp);
+			existing.count = Math.max(existing.count, count);
+		}
+	}
+
+	/**
+	 * @return the text trimmed and cut to {@link #MAX_TEXT_LENGTH}, or null if there is none
+	 */
+	private static String clean(String text) {
+		if (text == null) return null;
+		text = text.trim();
+		if (text.isEmpty()) return null;
+		return text.length() > MAX_TEXT_LENGTH ? text.substring(0, MAX_TEXT_LENGTH) : text;
+	}
+
+	/**
+	 * Build the suggester of recent pages for a collection. A domain is weighted by all of the pages visited on it.
+	 */
+	private static Lookup build(Map<Key, Visits> pages, long now) throws IOException {
+		List<Input> inputs = new ArrayList<>(pages.size());
+		Map<String, Long> domains = new HashMap<>();
+		for (Map.Entry<Key, Visits> entry : pages.entrySet()) {
+			Key key = entry.getKey();
+			long weight = weight(entry.getValue(), now);
+			if (key.kind == Suggestion.Kind.DOMAIN) {
+				domains.merge(key.text, weight, Long::sum);
+			} else {
+				addInputs(inputs, key.kind, key.text, key.url, weight);
+			}
+		}
+		for (Map.Entry<String, Long> domain : domains.entrySet()) {
+			addInputs(inputs, Suggestion.Kind.DOMAIN, domain.getKey(), null, Math.min(Integer.MAX_VALUE, domain.getValue()));
+		}
+
+		AnalyzingSuggester suggester = new AnalyzingSuggester(ANALYZER);
+		suggester.build(new Inputs(inputs.iterator()));
+		return suggester;
+	}
+
+	/**
+	 * Add the input for a suggestion, and one for each of up to {@link #MAX_WORDS} words within a title or
+	 * the path of a url, so they can be typed too. Hosts and domains are only matched from their start.
+	 */
+	private static void addInputs(Collection<Input> inputs, Suggestion.Kind kind, String text, String url, long weight) {
+		inputs.add(new Input(kind, text, text, url, weight));
+		if (kind == Suggestion.Kind.DOMAIN) return;
+
+		int from = 1;
+		if (kind == Suggestion.Kind.URL) {
+			from = text.indexOf('/') + 1;
+			if (from == 0) return;
+		}
+		int words = 0;
+		for (int i = from; i < text.length() && words < MAX_WORDS; i++) {
+			if (Character.isLetterOrDigit(text.charAt(i)) && !Character.isLetterOrDigit(text.charAt(i - 1))) {
+				inputs.add(new Input(kind, text.substring(i), text, url, weight));
+				words++;
+			}
+		}
+	}
+
+	/**
+	 * @return the visit count of a page, decayed by the months since it was last visited
+	 */
+	static long weight(long visits, long lastVisit, long now) {
+		double months = Math.max(0, now - lastVisit) / (double) SECONDS_PER_MONTH;
+		return Math.min(Integer.MAX_VALUE, Math.round(1000 * visits / (1 + months)));
+	}
+
+	private static long weight(Visits visits, long now) {
+		return weight(visits.count, visits.lastVisit, now);
+	}
+
+	/**
+	 * @return the url as a user would type it, without its scheme or a leading www.
+	 */
+	static String displayUrl(String url) {
+		String display = url;
+		int scheme = display.indexOf("://");
+		if (scheme >= 0) display = display.substring(scheme + 3);
+		if (display.toLowerCase(Locale.ROOT).startsWith("www.")) display = display.substring(4);
+		return display;
+	}
+
+	/**
+	 * The inputs of every page of a collection, read from the index as the suggester is built so the pages
+	 * are never all held in memory. Domains are weighted by all of the pages visited on them, so come last.
+	 * Segments written before latest version markers give a page once for each version, which the suggester
+	 * keeps and {@link PageSuggester#suggest(String, String, int)} merges.
+	 */
+	private static final class PageInputs implements Iterator<Input> {
+		private final List<LeafReaderContext> leaves;
+		private final Term collection;
+		private final long now;
+		private final Map<String, Long> domains = new HashMap<>();
+		private final Deque<Input> pending = new ArrayDeque<>();
+		private int leaf = 0;
+		private boolean domainsAdded = false;
+
+		// the segment being read
+		private LeafReader reader = null;
+		private PostingsEnum docs = null;
+		private Bits liveDocs;
+		private NumericDocValues timestamps;
+		private NumericDocValues visits;
+		private NumericDocValues latest;
+
+		private PageInputs(IndexReader reader, String collection, long now) {
+			this.leaves = reader.leaves();
+			this.collection = new Term(IndexDocumentAdapter.FIELD_COLLECTION, collection);
+			this.now = now;
+		}
+
+		@Override
+		public boolean hasNext() {
+			try {
+				while (pending.isEmpty()) {
+					if (!readPage()) {
+						if (domainsAdded) return false;
+						domains.forEach((domain, weight) -> addInputs(pending, Suggestion.Kind.DOMAIN, domain, null, 
+								Math.min(Integer.MAX_VALUE, weight)));
+						domainsAdded = true;
+					}
+				}
+				return true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public Input next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return pending.poll();
+		}
+
+		/**
+		 * @return whether there was another page to read
+		 */
+		private boolean readPage() throws IOException {
+			while (true) {
+				int doc = docs != null ? docs.nextDoc() : DocIdSetIterator.NO_MORE_DOCS;
+				if (doc == DocIdSetIterator.NO_MORE_DOCS) {
+					if (leaf >= leaves.size()) return false;
+					startSegment(leaves.get(leaf++).reader());
+					continue;
+				}
+				if (liveDocs != null && !liveDocs.get(doc)) continue;
+				if (latest != null && latest.get(doc) == 0) continue;
+
+				IndexDocumentAdapter page = new IndexDocumentAdapter(reader.document(doc, FIELDS));
+				String url = page.getUrl();
+				if (url == null) continue;
+
+				long weight = weight(Math.max(1, visits.get(doc)), timestamps.get(doc), now);
+				String title = clean(page.getTitle());
+				if (title != null) addInputs(pending, Suggestion.Kind.TITLE, title, url, weight);
+				String display = clean(displayUrl(url));
+				if (display != null) addInputs(pending, Suggestion.Kind.URL, display, url, weight);
+				String domain = clean(page.getDomain());
+				if (domain != null) domains.merge(domain, weight, Long::sum);
+				return true;
+			}
+		}
+
+		private void startSegment(LeafReader segment) throws IOException {
+			reader = segment;
+			docs = segment.postings(collection, PostingsEnum.NONE);
+			liveDocs = segment.getLiveDocs();
+			timestamps = DocValues.getNumeric(segment, IndexDocumentAdapter.FIELD_TIMESTAMP);
+			visits = DocValues.getNumeric(segment, IndexDocumentAdapter.FIELD_VISITS);
+			latest = segment.getNumericDocValues(IndexDocumentAdapter.FIELD_LATEST);
+		}
+	}
+
+	private static class Inputs implements InputIterator {
+		private final Iterator<Input> inputs;
+		private Input current;
+
+		private Inputs(Iterator<Input> inputs) {
+			this.inputs = inputs;
+		}
+
+		@Override
+		public BytesRef next() {
+			if (!inputs.hasNext()) return null;
+			current = inputs.next();
+			return new BytesRef(current.text);
+		}
+
+		@Override
+		public long weight() {
+			return current.weight;
+		}
+
+		@Override
+		public BytesRef payload() {
+			return new BytesRef(current.payload);
+		}
+
+		@Override
+		public boolean hasPayloads() {
+			return true;
+		}
+
+		@Override
+		public Set<BytesRef> contexts() {
+			return null;
+		}
+
+		@Override
+		public boolean hasContexts() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.function.Consumer;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.difference.historybook.concurrent.BoundedExecutor;
+import com.difference.historybook.index.IndexException;
+
+/**
+ * One month of a @PartitionedLuceneIndex, kept in its own directory.
+ * 
+ * A partition is either hot, backed by a writable @LuceneIndex, or sealed: merged down to a single
+ * segment and opened read-only with no writer, journal or revisit tracking. A sealed partition is 
+ * reopened for writing if a page for its month arrives late, and stays open until the late pages stop.
+ */
+class Partition {
+	private static final Logger LOG = LoggerFactory.getLogger(Partition.class);
+	
+	private static final String SEALED_MARKER = "sealed";
+	
+	/**
+	 * A reader over a partition held for the duration of a search
+	 */
+	static class Snapshot {
+		private final IndexReader reader;
+		private final BodyStore bodyStore;
+		private final boolean latestVersionMarkers;
+		private final Consumer<IndexReader> release;
+		
+		private Snapshot(IndexReader reader, BodyStore bodyStore, boolean latestVersionMarkers, Consumer<IndexReader> release) {
+			this.reader = reader;
+			this.bodyStore = bodyStore;
+			this.latestVersionMarkers = latestVersionMarkers;
+			this.release = release;
+		}
+		
+		IndexReader getReader() {
+			return reader;
+		}
+		
+		/**
+		 * @return the body store of the partition, or null if it has none
+		 */
+		BodyStore getBodyStore() {
+			return bodyStore;
+		}
+		
+		/**
+		 * @return whether every page in the partition carries a latest version marker
+		 */
+		boolean hasLatestVersionMarkers() {
+			return latestVersionMarkers;
+		}
+		
+		void release() {
+			release.accept(reader);
+		}
+	}
+	
+	private final YearMonth period;
+	private final Path path;
+	private final LuceneIndexSettings settings;
+	private final BoundedExecutor extractionStage;
+	private final BoundedExecutor writerStage;
+	private LuceneIndex index = null;
+	private DirectoryReader reader = null;
+	private BodyStore sealedBodyStore = null;
+	private boolean sealedLatestVersionMarkers = false;
+	private boolean reopened = false;
+	private boolean written = false;
+	
+	/**
+	 * Constructor for Partition. Opens (or creates) the partition in the state it was last left in.
+	 * 
+	 * @param period          the month the partition holds pages for
+	 * @param path            the directory of the partition
+	 * @param settings        tuning settings for the partition's index while it is hot
+	 * @param extractionStage the shared stage to extract text from submitted pages on
+	 * @param writerStage     the shared stage to add extracted pages to the index writer on
+	 * @throws IndexException
+	 */
+	Partition(YearMonth period, Path path, LuceneIndexSettings settings, 
+			BoundedExecutor extractionStage, BoundedExecutor writerStage) throws IndexException {
+		this.period = period;
+		this.path = path;
+		this.settings = settings;
+		this.extractionStage = extractionStage;
+		this.writerStage = writerStage;
+		
+		if (Files.exists(path.resolve(SEALED_MARKER))) {
+			openSealed();
+		} else {
+			index = new LuceneIndex(path, settings, extractionStage, writerStage);
+		}
+	}
+	
+	/**
+	 * @return the month the partition holds pages for
+	 */
+	YearMonth getPeriod() {
+		return period;
+	}
+	
+	/**
+	 * @return the directory of the partition
+	 */
+	Path getPath() {
+		return path;
+	}
+	
+	/**
+	 * @return whether the partition is sealed
+	 */
+	synchronized boolean isSealed() {
+		return index == null;
+	}
+	
+	/**
+	 * @return the index to write pages for the partition's month to, unsealing the partition if needed
+	 * @throws IndexException
+	 */
+	synchronized LuceneIndex writable() throws IndexException {
+		if (index == null) {
+			LOG.info("Reopening sealed partition {} for writing", period);
+			try {
+				Files.delete(path.resolve(SEALED_MARKER));
+			} catch (IOException e) {
+				LOG.error(e.getLocalizedMessage());
+				throw new IndexException(e);
+			}
+			// searches still holding the sealed reader keep it (and its body store) open until they finish
+			release(reader);
+			reader = null;
+			sealedBodyStore = null;
+			index = new LuceneIndex(path, settings, extractionStage, writerStage);
+			reopened = true;
+		}
+		written = true;
+		return index;
+	}
+	
+	/**
+	 * A partition reopened for late pages is only sealed again once a maintenance cycle passes without
+	 * any, rather than merged again every time one arrives.
+	 * 
+	 * @return whether the partition was reopened and has had pages written to it since the last call
+	 */
+	synchronized boolean takeLateWrites() {
+		boolean late = reopened && written;
+		written = false;
+		return late;
+	}
+	
+	/**
+	 * Merge a hot partition down to a single segment ahead of sealing it. Pages can still be written
+	 * and searched while the merge runs, so this is done without holding any lock.
+	 * 
+	 * @throws IndexException
+	 */
+	void merge() throws IndexException {
+		LuceneIndex merging;
+		synchronized (this) {
+			merging = index;
+		}
+		if (merging != null) {
+			merging.forceMerge();
+		}
+	}
+	
+	/**
+	 * Close the partition's writer and reopen it read-only. The partition should have been merged first.
+	 * The caller must make sure nothing is writing to the partition.
+	 * 
+	 * @throws IndexException
+	 */
+	synchronized void seal() throws IndexException {
+		if (index == null) return;
+		
+		LOG.info("Sealing partition {}", period);
+		index.close();
+		index = null;
+		reopened = false;
+		written = false;
+		try {
+			Files.createFile(path.resolve(SEALED_MARKER));
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		}
+		openSealed();
+	}
+	
+	/**
+	 * @return a reader over the partition's searchable pages. Must be released once the search is done.
+	 * @throws IndexException
+	 */
+	synchronized Snapshot acquire() throws IndexException {
+		if (index != null) {
+			LuceneIndex hot = index;
+			IndexSearcher searcher = hot.acquireSearcher();
+			return new Snapshot(searcher.getIndexReader(), hot.getBodyStore(), hot.hasLatestVersionMarkers(), 
+					r -> hot.releaseSearcher(searcher));
+		}
+		reader.incRef();
+		return new Snapshot(reader, sealedBodyStore, sealedLatestVersionMarkers, Partition::release);
+	}
+	
+	private void openSealed() throws IndexException {
+		try {
+			Directory dir = FSDirectory.open(path.resolve(LuceneIndex.INDEXDIR));
+			DirectoryReader opened = DirectoryReader.open(dir);
+			BodyStore bodyStore = Files.exists(path.resolve(LuceneIndex.BODYSTOREFILE)) 
+					? new BodyStore(path.resolve(LuceneIndex.BODYSTOREFILE)) : null;
+			opened.addReaderClosedListener(r -> {
+				try {
+					if (bodyStore != null) {
+						bodyStore.close();
+					}
+					dir.close();
+				} catch (IOException e) {
+					LOG.error(e.getLocalizedMessage());
+				}
+			});
+			reader = opened;
+			sealedBodyStore = bodyStore;
+			sealedLatestVersionMarkers = opened.getIndexCommit().getUserData().containsKey(LuceneIndex.COMMIT_LATEST_VERSIONS);
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		}
+	}
+	
+	private static void release(IndexReader reader) {
+		try {
+			reader.decRef();
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * Close the partition. Searches still holding a sealed partition's reader keep it open until they finish.
+	 * 
+	 * @throws IndexException
+	 */
+	synchronized void close() throws IndexException {
+		if (index != null) {
+			index.close();
+		} else {
+			release(reader);
+		}
+	}
+}
@@ -0,0 +1,599 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.difference.historybook.concurrent.BoundedExecutor;
+import com.difference.historybook.index.BulkIndexItem;
+import com.difference.historybook.index.Index;
+import com.difference.historybook.index.IndexException;
+import com.difference.historybook.index.SearchResultWrapper;
+import com.difference.historybook.index.SnippetConsumer;
+import com.difference.historybook.index.Suggestion;
+import com.difference.historybook.index.WebPage;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * An implementation of @Index that keeps one Lucene index per month of page timestamps
+ *
+ * Pages are written to the @Partition for the month they were retrieved in and searches run across
+ * all partitions through a single multi-reader. The most recent partitions stay hot and take writes;
+ * older ones are merged down to one segment and sealed read-only. Retention drops whole partition
+ * directories rather than deleting documents (see @LuceneIndexSettings).
+ *
+ * Revisit detection works within a partition, so the first visit to an unchanged page in a new month
+ * adds a new document to that month's partition.
+ */
+public class PartitionedLuceneIndex implements Index {
+	private static final Logger LOG = LoggerFactory.getLogger(PartitionedLuceneIndex.class);
+
+	private static final String PARTITIONSDIR = "partitions";
+	private static final long MAINTENANCE_INTERVAL_MINUTES = 60;
+	private static final long SUGGEST_UPDATE_MIN_MILLIS = 1000;
+
+	private final Path path;
+	private final LuceneIndexSettings settings;
+	private final Clock clock;
+	private final NavigableMap<YearMonth, Partition> partitions = new ConcurrentSkipListMap<>();
+	// writes and searches hold the read lock, sealing and dropping partitions the write lock
+	private final ReadWriteLock partitionsLock = new ReentrantReadWriteLock();
+	private final Analyzer analyzer = new StandardAnalyzer();
+	private final BoundedExecutor extractionStage;
+	private final BoundedExecutor writerStage;
+	private final BoundedExecutor searchStage;
+	private final PageSuggester suggester;
+	private final FilterCache filterCache;
+	private final ScheduledExecutorService maintenance;
+
+	/**
+	 * Constructor for PartitionedLuceneIndex
+	 *
+	 * @param dataDirectory   Path to the directory to create the partitions directory within.
+	 * @param settings        tuning settings for the partitions
+	 * @throws IndexException
+	 */
+	public PartitionedLuceneIndex(Path dataDirectory, LuceneIndexSettings settings) throws IndexException {
+		this(dataDirectory, settings, Clock.systemUTC());
+	}
+
+	/**
+	 * Constructor for PartitionedLuceneIndex
+	 *
+	 * @param dataDirectory   Path to the directory to create the partitions directory within.
+	 * @param settings        tuning settings for the partitions
+	 * @param clock           the clock deciding which partitions are hot, sealed or expired
+	 * @throws IndexException
+	 */
+	PartitionedLuceneIndex(Path dataDirectory, LuceneIndexSettings settings, Clock clock) throws IndexException {
+		path = dataDirectory.resolve(PARTITIONSDIR);
+		this.settings = settings;
+		this.clock = clock;
+		extractionStage = LuceneIndex.newExtractionStage(settings);
+		writerStage = LuceneIndex.newWriterStage(settings);
+		searchStage = LuceneIndex.newSearchStage(settings);
+		filterCache = settings.getFilterCacheBytes() > 0 ? new FilterCache(settings.getFilterCacheBytes()) : null;
+
+		try {
+			Files.createDirectories(path);
+			try (DirectoryStream<Path> dirs = Files.newDirectoryStream(path, Files::isDirectory)) {
+				for (Path dir : dirs) {
+					YearMonth period;
+					try {
+						period = YearMonth.parse(dir.getFileName().toString());
+					} catch (DateTimeParseException e) {
+						LOG.warn("Ignoring unexpected directory {}", dir);
+						continue;
+					}
+					partitions.put(period, new Partition(period, dir, settings, extractionStage, writerStage));
+				}
+			}
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		}
+		LOG.info("Opened {} index partitions, {} hot, retaining {}", partitions.size(), settings.getHotPartitions(),
+				settings.getRetainedPartitions() > 0 ? settings.getRetainedPartitions() : "all");
+
+		suggester = settings.isSuggestEnabled() ? newSuggester() : null;
+		maintain();
+		maintenance = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("lucene-partition-maintenance-%d").setDaemon(true).build());
+		maintenance.scheduleWithFixedDelay(this::maintain,
+				MAINTENANCE_INTERVAL_MINUTES, MAINTENANCE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+		if (suggester != null) {
+			// partitions refresh on their own, so new pages are looked for at the refresh interval
+			long updateMillis = Math.max(SUGGEST_UPDATE_MIN_MILLIS, settings.getRefreshIntervalMillis());
+			maintenance.scheduleWithFixedDelay(suggester::requestUpdate, updateMillis, updateMillis, TimeUnit.MILLISECONDS);
+			if (settings.getSuggestRebuildIntervalMillis() > 0) {
+				maintenance.scheduleWithFixedDelay(suggester::requestRebuild, settings.getSuggestRebuildIntervalMillis(), 
+						settings.getSuggestRebuildIntervalMillis(), TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+	
+	/**
+	 * Suggestions are read from a reader over every partition. The reader holds references to the
+	 * partition readers of its own, so the snapshots are released as soon as it is made.
+	 */
+	private PageSuggester newSuggester() {
+		PageSuggester pageSuggester = new PageSuggester("lucene-partition-suggest", new PageSuggester.ReaderSource() {
+			@Override
+			public IndexReader acquire() throws IOException {
+				List<Partition.Snapshot> snapshots = new ArrayList<>(partitions.size());
+				partitionsLock.readLock().lock();
+				try {
+					for (Partition partition : partitions.values()) {
+						snapshots.add(partition.acquire());
+					}
+					IndexReader[] readers = snapshots.stream().map(Partition.Snapshot::getReader).toArray(IndexReader[]::new);
+					return new MultiReader(readers, false);
+				} catch (IndexException e) {
+					throw new IOException(e);
+				} finally {
+					for (Partition.Snapshot snapshot : snapshots) {
+						snapshot.release();
+					}
+					partitionsLock.readLock().unlock();
+				}
+			}
+
+			@Override
+			public void release(IndexReader reader) throws IOException {
+				reader.close();
+			}
+		});
+		pageSuggester.requestUpdate();
+		return pageSuggester;
+	}
+
+	@Override
+	public void indexPage(String collection, String url, Instant timestamp, CharSequence body) throws IndexException {
+		LuceneIndex.await(submitPage(collection, url, timestamp, body));
+	}
+
+	@Override
+	public CompletableFuture<Void> submitPage(String collection, String url, Instant timestamp, CharSequence body) {
+		return LuceneIndex.runOn(extractionStage, () -> LuceneIndex.buildDocument(settings, collection, url, timestamp, body))
+				.thenCompose(doc -> LuceneIndex.runOn(writerStage, () -> {
+					partitionsLock.readLock().lock();
+					try {
+						String error = partitionFor(timestamp).writable().write(collection,
+								Collections.singletonList(new WebPage(url, timestamp, body)),
+								Collections.singletonList(doc)).get(0);
+						if (error != null) {
+							LOG.error(error);
+							throw new IndexException(error);
+						}
+						return null;
+					} finally {
+						partitionsLock.readLock().unlock();
+					}
+				}));
+	}
+
+	/**
+	 * Text extraction for the batch is spread across the extraction stage and the resulting
+	 * documents are written to each partition the batch touches together.
+	 */
+	@Override
+	public List<BulkIndexItem> indexPages(String collection, List<WebPage> pages) throws IndexException {
+		List<Future<IndexDocumentAdapter>> futures = new ArrayList<>(pages.size());
+		for (WebPage page : pages) {
+			futures.add(LuceneIndex.runOn(extractionStage,
+					() -> LuceneIndex.buildDocument(settings, collection, page.getUrl(), page.getTimestamp(), page.getBody())));
+		}
+
+		BulkIndexItem[] results = new BulkIndexItem[pages.size()];
+		Map<YearMonth, List<Integer>> byPeriod = new LinkedHashMap<>();
+		List<IndexDocumentAdapter> docs = new ArrayList<>(Collections.nCopies(pages.size(), (IndexDocumentAdapter) null));
+		for (int i = 0; i < pages.size(); i++) {
+			try {
+				docs.set(i, futures.get(i).get());
+				byPeriod.computeIfAbsent(period(pages.get(i).getTimestamp()), p -> new ArrayList<>()).add(i);
+			} catch (ExecutionException e) {
+				results[i] = new BulkIndexItem(pages.get(i).getUrl(), e.getCause().toString());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IndexException(e);
+			}
+		}
+
+		LuceneIndex.await(LuceneIndex.runOn(writerStage, () -> {
+			partitionsLock.readLock().lock();
+			try {
+				for (List<Integer> batch : byPeriod.values()) {
+					List<WebPage> batchPages = new ArrayList<>(batch.size());
+					List<IndexDocumentAdapter> batchDocs = new ArrayList<>(batch.size());
+					for (int i : batch) {
+						batchPages.add(pages.get(i));
+						batchDocs.add(docs.get(i));
+					}
+
+					List<String> errors;
+					try {
+						errors = partitionFor(batchPages.get(0).getTimestamp()).writable().write(collection, batchPages, batchDocs);
+					} catch (IndexException e) {
+						errors = Collections.nCopies(batch.size(), e.getLocalizedMessage());
+					}
+					for (int j = 0; j < batch.size(); j++) {
+						results[batch.get(j)] = new BulkIndexItem(batchPages.get(j).getUrl(), errors.get(j));
+					}
+				}
+				return null;
+			} finally {
+				partitionsLock.readLock().unlock();
+			}
+		}));
+
+		List<BulkIndexItem> list = new ArrayList<>(pages.size());
+		Collections.addAll(list, results);
+		return list;
+	}
+
+	/**
+	 * Callers must hold the partitions read lock.
+	 *
+	 * @return the partition for pages retrieved at the given time, creating it if needed
+	 */
+	private Partition partitionFor(Instant timestamp) throws IndexException {
+		YearMonth period = period(timestamp);
+		if (isExpired(period, YearMonth.now(clock))) {
+			throw new IndexException("Page timestamp " + timestamp + " is older than the retention period");
+		}
+
+		Partition partition = partitions.get(period);
+		if (partition == null) {
+			synchronized (partitions) {
+				partition = partitions.get(period);
+				if (partition == null) {
+					LOG.info("Creating partition {}", period);
+					partition = new Partition(period, path.resolve(period.toString()), settings, extractionStage, writerStage);
+					partitions.put(period, partition);
+				}
+			}
+		}
+		return partition;
+	}
+
+	private static YearMonth period(Instant timestamp) {
+		return YearMonth.from(timestamp.atZone(ZoneOffset.UTC));
+	}
+
+	private boolean isExpired(YearMonth period, YearMonth current) {
+		return settings.getRetainedPartitions() > 0
+				&& period.isBefore(current.minusMonths(settings.getRetainedPartitions() - 1));
+	}
+
+	private boolean isHot(YearMonth period, YearMonth current) {
+		return !period.isBefore(current.minusMonths(Math.max(1, settings.getHotPartitions()) - 1));
+	}
+
+	private static boolean overlaps(YearMonth period, SearchFilters filters) {
+		long start = period.atDay(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+		long end = period.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+		return start < filters.getTo() && end > filters.getFrom();
+	}
+
+	@Override
+	public SearchResultWrapper search(
+			String collection, String query,
+			int offset, int size, boolean includeDebug, boolean includeFacets, boolean includeSnippets) throws IndexException {
+		return search(collection, query, 
+				new SearchCursor(SearchCursor.NO_SEARCHER, Instant.now().getEpochSecond(), offset, null), size, 
+				includeDebug, includeFacets, includeSnippets);
+	}
+	
+	/**
+	 * Partitions are searched through a reader put together for each search, so results are continued
+	 * from the cursor's offset rather than from its last hit.
+	 */
+	@Override
+	public SearchResultWrapper searchAfter(
+			String collection, String query,
+			String cursor, int size, boolean includeDebug, boolean includeSnippets) throws IndexException {
+		return search(collection, query, LuceneIndex.decodeCursor(cursor).withoutSearcher(), size, 
+				includeDebug, false, includeSnippets);
+	}
+	
+	private SearchResultWrapper search(
+			String collection, String query,
+			SearchCursor from, int size, boolean includeDebug, boolean includeFacets, boolean includeSnippets) throws IndexException {
+		List<Partition.Snapshot> snapshots = new ArrayList<>(partitions.size());
+		partitionsLock.readLock().lock();
+		try {
+			SearchFilters filters = SearchFilters.parse(query);
+			for (Partition partition : partitions.values()) {
+				// a partition only has pages visited in its month, so those outside a date range are not searched
+				if (overlaps(partition.getPeriod(), filters)) {
+					snapshots.add(partition.acquire());
+				}
+			}
+
+			IndexReader[] readers = new IndexReader[snapshots.size()];
+			List<BodyStore> bodyStores = new ArrayList<>();
+			boolean latestVersionMarkers = true;
+			for (int i = 0; i < readers.length; i++) {
+				readers[i] = snapshots.get(i).getReader();
+				if (snapshots.get(i).getBodyStore() != null) {
+					bodyStores.add(snapshots.get(i).getBodyStore());
+				}
+				latestVersionMarkers &= snapshots.get(i).hasLatestVersionMarkers();
+			}
+
+			// markers are per partition, so a page visited in several months still has to be grouped by url
+			try (MultiReader reader = new MultiReader(readers, false)) {
+				return LuceneIndex.search(new SlicedIndexSearcher(reader, searchStage), 
+						LuceneIndex.parse(filters, analyzer, filterCache), analyzer, bodyStores,
+						latestVersionMarkers, true, settings, collection, query, from, size, 
+						includeDebug, includeFacets, includeSnippets);
+			}
+		} catch (IOException | ParseException | InvalidTokenOffsetsException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		} finally {
+			for (Partition.Snapshot snapshot : snapshots) {
+				snapshot.release();
+			}
+			partitionsLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public SearchResultWrapper versions(String collection, String url, int offset, int size) throws IndexException {
+		List<Partition.Snapshot> snapshots = new ArrayList<>(partitions.size());
+		partitionsLock.readLock().lock();
+		try {
+			for (Partition partition : partitions.values()) {
+				snapshots.add(partition.acquire());
+			}
+			IndexReader[] readers = snapshots.stream().map(Partition.Snapshot::getReader).toArray(IndexReader[]::new);
+			try (MultiReader reader = new MultiReader(readers, false)) {
+				return LuceneIndex.versions(new IndexSearcher(reader), collection, url, offset, size);
+			}
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		} finally {
+			for (Partition.Snapshot snapshot : snapshots) {
+				snapshot.release();
+			}
+			partitionsLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Map<String, String> snippets(String collection, String query, List<String> keys) throws IndexException {
+		Map<String, String> snippets = new HashMap<>();
+		snippets(collection, query, keys, settings.getSearchThreads(), snippets::put);
+		return LuceneIndex.inKeyOrder(keys, snippets);
+	}
+
+	@Override
+	public void snippets(String collection, String query, List<String> keys, SnippetConsumer consumer) throws IndexException {
+		snippets(collection, query, keys, Integer.MAX_VALUE, consumer);
+	}
+
+	/**
+	 * Results do not say which month they were visited in, so every partition is looked through.
+	 */
+	private void snippets(String collection, String query, List<String> keys, int maxShares, SnippetConsumer consumer) 
+			throws IndexException {
+		List<Partition.Snapshot> snapshots = new ArrayList<>(partitions.size());
+		partitionsLock.readLock().lock();
+		try {
+			for (Partition partition : partitions.values()) {
+				snapshots.add(partition.acquire());
+			}
+			IndexReader[] readers = snapshots.stream().map(Partition.Snapshot::getReader).toArray(IndexReader[]::new);
+			List<BodyStore> bodyStores = snapshots.stream()
+					.map(Partition.Snapshot::getBodyStore)
+					.filter(Objects::nonNull)
+					.collect(Collectors.toList());
+			try (MultiReader reader = new MultiReader(readers, false)) {
+				LuceneIndex.snippets(new SlicedIndexSearcher(reader, searchStage), 
+						LuceneIndex.parse(SearchFilters.parse(query), analyzer, filterCache), analyzer, bodyStores,
+						settings, collection, keys, searchStage, maxShares, consumer);
+			}
+		} catch (IOException | ParseException | InvalidTokenOffsetsException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		} finally {
+			for (Partition.Snapshot snapshot : snapshots) {
+				snapshot.release();
+			}
+			partitionsLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Suggestion> suggest(String collection, String prefix, int size) throws IndexException {
+		if (suggester == null) return Collections.emptyList();
+		try {
+			return suggester.suggest(collection, prefix, size);
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		}
+	}
+
+	/**
+	 * Seal partitions that have fallen out of the hot window and drop those past retention.
+	 *
+	 * Merging a partition down to one segment is the slow part of sealing, so it is done first without
+	 * the partitions lock while writes and searches carry on. The write lock is only held to close the
+	 * merged partitions' writers, reopen them read-only and drop expired partitions.
+	 */
+	void maintain() {
+		YearMonth current = YearMonth.now(clock);
+		List<Partition> sealing = new ArrayList<>();
+		for (Partition partition : partitions.values()) {
+			boolean lateWrites = partition.takeLateWrites();
+			if (isExpired(partition.getPeriod(), current) || isHot(partition.getPeriod(), current) 
+					|| partition.isSealed() || lateWrites) {
+				continue;
+			}
+			try {
+				partition.merge();
+				sealing.add(partition);
+			} catch (IndexException e) {
+				LOG.error("Unable to merge partition {}: {}", partition.getPeriod(), e.getLocalizedMessage());
+			}
+		}
+
+		partitionsLock.writeLock().lock();
+		try {
+			for (Partition partition : new ArrayList<>(partitions.values())) {
+				try {
+					if (isExpired(partition.getPeriod(), current)) {
+						drop(partition);
+						// pages in dropped partitions are only forgotten by a rebuild
+						if (suggester != null) {
+							suggester.requestRebuild();
+						}
+					} else if (sealing.contains(partition)) {
+						partition.seal();
+					}
+				} catch (IndexException | IOException e) {
+					LOG.error("Unable to maintain partition {}: {}", partition.getPeriod(), e.getLocalizedMessage());
+				}
+			}
+		} finally {
+			partitionsLock.writeLock().unlock();
+		}
+	}
+
+	private void drop(Partition partition) throws IndexException, IOException {
+		LOG.info("Dropping partition {}", partition.getPeriod());
+		partitions.remove(partition.getPeriod());
+		partition.close();
+		Files.walkFileTree(partition.getPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) throw e;
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * @return number of partitions, hot and sealed
+	 */
+	public int getPartitionCount() {
+		return partitions.size();
+	}
+
+	/**
+	 * @return the stage that extracts text from submitted pages
+	 */
+	public BoundedExecutor getExtractionStage() {
+		return extractionStage;
+	}
+
+	/**
+	 * @return the stage that adds extracted pages to the partitions' index writers
+	 */
+	public BoundedExecutor getWriterStage() {
+		return writerStage;
+	}
+
+	/**
+	 * @return the stage that searches index slices concurrently, or null if searches run on the calling thread only
+	 */
+	public BoundedExecutor getSearchStage() {
+		return searchStage;
+	}
+
+	@Override
+	public void close() throws IndexException {
+		maintenance.shutdown();
+		try {
+			extractionStage.shutdown();
+			extractionStage.awaitTermination(1, TimeUnit.MINUTES);
+			writerStage.shutdown();
+			writerStage.awaitTermination(1, TimeUnit.MINUTES);
+			if (searchStage != null) {
+				searchStage.shutdown();
+			}
+			maintenance.awaitTermination(1, TimeUnit.MINUTES);
+			if (suggester != null) {
+				suggester.close();
+			}
+		} catch (IOException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new IndexException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IndexException(e);
+		}
+
+		partitionsLock.writeLock().lock();
+		try {
+			for (Partition partition : partitions.values()) {
+				partition.close();
+			}
+		} finally {
+			partitionsLock.writeLock().unlock();
+		}
+	}
+}
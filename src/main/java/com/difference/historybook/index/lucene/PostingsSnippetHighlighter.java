@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.postingshighlight.PassageFormatter;
+import org.apache.lucene.search.postingshighlight.PostingsHighlighter;
+
+/**
+ * Builds snippets for a page of search results from the offsets of matching terms recorded in the
+ * postings of the content field, so the content does not have to be analyzed again.
+ *
+ * The content of each result is supplied up front (it may live in the index or in a @BodyStore)
+ * and is only used to cut passages out of. Wildcard and other multi-term queries still need the
+ * analyzer to find their matches.
+ */
+class PostingsSnippetHighlighter extends PostingsHighlighter {
+	private final Map<Integer, String> contents;
+	private final Analyzer analyzer;
+	private final PassageFormatter formatter;
+
+	/**
+	 * Constructor for PostingsSnippetHighlighter
+	 * 
+	 * @param contents the content of each result, by document id
+	 * @param analyzer the analyzer the content was indexed with
+	 * @param passageLength maximum number of characters of content in a passage. 0 for no limit.
+	 */
+	PostingsSnippetHighlighter(Map<Integer, String> contents, Analyzer analyzer, int passageLength) {
+		// matches anywhere in a page can be highlighted, it is only the offsets that are read
+		super(Integer.MAX_VALUE - 1);
+		this.contents = contents;
+		this.analyzer = analyzer;
+		this.formatter = new SnippetFormatter(passageLength);
+	}
+
+	@Override
+	protected PassageFormatter getFormatter(String field) {
+		return formatter;
+	}
+
+	@Override
+	protected Analyzer getIndexAnalyzer(String field) {
+		return analyzer;
+	}
+
+	@Override
+	protected String[][] loadFieldValues(IndexSearcher searcher, String[] fields, int[] docids, int maxLength) throws IOException {
+		String[][] values = new String[fields.length][docids.length];
+		for (int i = 0; i < fields.length; i++) {
+			for (int j = 0; j < docids.length; j++) {
+				String content = contents.getOrDefault(docids[j], "");
+				values[i][j] = content.length() > maxLength ? content.substring(0, maxLength) : content;
+			}
+		}
+		return values;
+	}
+}
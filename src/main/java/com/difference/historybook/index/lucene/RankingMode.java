@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+/**
+ * How a @LuceneIndex weighs the age of a page against its relevance to a query
+ */
+public enum RankingMode {
+	/**
+	 * Evaluate the reciprocal of each matching page's exact age (see @DurationValueSource)
+	 */
+	EXACT,
+
+	/**
+	 * Look up a precomputed boost for the age (in whole days) a page falls in (see @RecencyBoostValueSource)
+	 */
+	BUCKETED
+}
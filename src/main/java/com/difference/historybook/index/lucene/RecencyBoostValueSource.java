@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.queries.function.FunctionValues;
+import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.queries.function.docvalues.FloatDocValues;
+
+/**
+ * A recency boost read straight from a timestamp doc value.
+ *
+ * Ages are grouped into whole day buckets and the reciprocal boost 1 / (scale * age + 1) for each bucket is
+ * computed once and shared between queries, so scoring a page is a doc value read, a division and an array
+ * lookup. Pages older than the last bucket all get the last bucket's boost.
+ */
+public class RecencyBoostValueSource extends ValueSource {
+	private static final long SECONDS_PER_DAY = 60 * 60 * 24;
+	private static final int BUCKETS = 1 << 14;
+	private static final Map<Float, float[]> TABLES = new ConcurrentHashMap<>();
+
+	private final String field;
+	private final long now;
+	private final float scale;
+	private final float[] boosts;
+
+	/**
+	 * Constructor for RecencyBoostValueSource
+	 * 
+	 * @param field name of the numeric doc values field holding timestamps (in seconds since the epoch)
+	 * @param now the time to measure ages from (in seconds since the epoch)
+	 * @param scale multiplier applied to an age in seconds before taking the reciprocal
+	 */
+	public RecencyBoostValueSource(String field, long now, float scale) {
+		this.field = field;
+		this.now = now;
+		this.scale = scale;
+		this.boosts = TABLES.computeIfAbsent(scale, RecencyBoostValueSource::table);
+	}
+
+	private static float[] table(float scale) {
+		float[] table = new float[BUCKETS];
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			// weigh each day at its midpoint
+			table[bucket] = (float) (1 / (scale * (bucket + 0.5) * SECONDS_PER_DAY + 1));
+		}
+		return table;
+	}
+
+	/**
+	 * @param age age of a page (in seconds)
+	 * @return the bucket holding pages of that age
+	 */
+	static int bucket(long age) {
+		return (int) Math.min(BUCKETS - 1, Math.max(0, age) / SECONDS_PER_DAY);
+	}
+
+	/**
+	 * @param age age of a page (in seconds)
+	 * @return the boost given to pages of that age
+	 */
+	float boostFor(long age) {
+		return boosts[bucket(age)];
+	}
+	@Override
+	public FunctionValues getValues(@SuppressWarnings("rawtypes") Map context, LeafReaderContext readerContext) throws IOException {
+		final NumericDocValues timestamps = DocValues.getNumeric(readerContext.reader(), field);
+		return new FloatDocValues(this) {
+			@Override
+			public float floatVal(int doc) {
+				return boostFor(now - timestamps.get(doc));
+			}
+		};
+	}
+
+	@Override
+	public String description() {
+		return "recency(" + field + ",now=" + now + ",scale=" + scale + ")";
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof RecencyBoostValueSource)) return false;
+		RecencyBoostValueSource other = (RecencyBoostValueSource) o;
+		return now == other.now && scale == other.scale && field.equals(other.field);
+	}
+
+	@Override
+	public int hashCode() {
+		return field.hashCode() * 31 + Long.hashCode(now) * 17 + Float.floatToIntBits(scale);
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Detects revisits of page versions that are already in a @LuceneIndex so they can be recorded by
+ * updating the last visited timestamp and visit count doc values of the existing document rather
+ * than adding a copy.
+ *
+ * A bloom filter of known version ids answers the common "never seen" case without touching the index.
+ * A possible hit is confirmed with a term lookup against the current searcher. Versions written since
+ * the last refresh (which the searcher cannot see yet) are tracked in memory until a refresh covers them.
+ *
+ * Callers must hold the lock for a version id (see {@link #lock(Collection)}) from calling
+ * {@link #visit(String, Document)} until the outcome of adding the document is reported.
+ */
+class RevisitTracker implements ReferenceManager.RefreshListener {
+	private static final int LOCK_STRIPES = 256;
+	private static final double FALSE_POSITIVE_RATE = 0.01;
+
+	private static class PendingVersion {
+		private long timestamp;
+		private long visits;
+		private volatile Document unadded;
+		private volatile long generation;
+
+		private PendingVersion(long timestamp, long visits, Document unadded) {
+			this.timestamp = timestamp;
+			this.visits = visits;
+			this.unadded = unadded;
+		}
+	}
+
+	private final IndexWriter writer;
+	private final SearcherManager searcherManager;
+	private final BloomFilter<CharSequence> knownVersions;
+	private final Striped<Lock> locks = Striped.lock(LOCK_STRIPES);
+	private final Map<String, PendingVersion> pending = new ConcurrentHashMap<>();
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong revisits = new AtomicLong();
+	private volatile long refreshGeneration;
+
+	/**
+	 * Constructor for RevisitTracker
+	 *
+	 * @param writer the writer used to update existing documents
+	 * @param searcherManager used to look up existing documents. The tracker must be registered as a listener.
+	 * @param expectedVersions the number of page versions the bloom filter is sized for
+	 */
+	RevisitTracker(IndexWriter writer, SearcherManager searcherManager, int expectedVersions) {
+		this.writer = writer;
+		this.searcherManager = searcherManager;
+		this.knownVersions = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), expectedVersions, FALSE_POSITIVE_RATE);
+	}
+
+	/**
+	 * Populate the bloom filter with the version ids already in the index
+	 *
+	 * @return number of version ids loaded
+	 * @throws IOException
+	 */
+	long load() throws IOException {
+		long count = 0;
+		IndexSearcher searcher = searcherManager.acquire();
+		try {
+			Terms terms = MultiFields.getTerms(searcher.getIndexReader(), IndexDocumentAdapter.FIELD_VERSION);
+			if (terms != null) {
+				TermsEnum termsEnum = terms.iterator();
+				BytesRef term;
+				while ((term = termsEnum.next()) != null) {
+					remember(term.utf8ToString());
+					count++;
+				}
+			}
+		} finally {
+			searcherManager.release(searcher);
+		}
+		return count;
+	}
+
+	/**
+	 * Lock a set of version ids. Locks are acquired in a consistent order so batches cannot deadlock.
+	 *
+	 * @param versionIds the ids to lock
+	 * @return the locks to hand to {@link #unlock(Iterable)}
+	 */
+	Iterable<Lock> lock(Collection<String> versionIds) {
+		Iterable<Lock> acquired = locks.bulkGet(versionIds);
+		for (Lock lock : acquired) {
+			lock.lock();
+		}
+		return acquired;
+	}
+
+	/**
+	 * @param acquired locks returned by {@link #lock(Collection)}
+	 */
+	void unlock(Iterable<Lock> acquired) {
+		for (Lock lock : acquired) {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Record a visit to a page version. If the version already exists its visit count and last visited
+	 * timestamp are updated. Otherwise the caller is expected to add the document and report the outcome
+	 * with {@link #added(String)} or {@link #discarded(String)}.
+	 *
+	 * @param versionId the id of the page version
+	 * @param doc the document that would be added for this visit
+	 * @return true if the visit was recorded against an existing version, false if the document should be added
+	 * @throws IOException
+	 */
+	boolean visit(String versionId, Document doc) throws IOException {
+		long timestamp = doc.getField(IndexDocumentAdapter.FIELD_TIMESTAMP).numericValue().longValue();
+
+		PendingVersion version = pending.get(versionId);
+		if (version == null && mightContain(versionId)) {
+			version = find(versionId);
+		}
+		if (version == null) {
+			remember(versionId);
+			pending.put(versionId, new PendingVersion(timestamp, 1, doc));
+			return false;
+		}
+
+		version.visits++;
+		boolean newer = timestamp > version.timestamp;
+		if (newer) {
+			version.timestamp = timestamp;
+		}
+
+		Document unadded = version.unadded;
+		if (unadded != null) {
+			((Field) unadded.getField(IndexDocumentAdapter.FIELD_VISITS)).setLongValue(version.visits);
+			if (newer) {
+				((Field) unadded.getField(IndexDocumentAdapter.FIELD_TIMESTAMP)).setLongValue(timestamp);
+			}
+		} else {
+			Term term = new Term(IndexDocumentAdapter.FIELD_VERSION, versionId);
+			writer.updateNumericDocValue(term, IndexDocumentAdapter.FIELD_VISITS, version.visits);
+			if (newer) {
+				writer.updateNumericDocValue(term, IndexDocumentAdapter.FIELD_TIMESTAMP, timestamp);
+			}
+		}
+
+		// only stamp the generation once the writer has the update so a refresh that starts
+		// after this point is guaranteed to make it visible
+		version.generation = generation.incrementAndGet();
+		pending.put(versionId, version);
+		revisits.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Report that the document for a new version was added to the writer
+	 *
+	 * @param versionId the id of the page version
+	 */
+	void added(String versionId) {
+		PendingVersion version = pending.get(versionId);
+		if (version != null) {
+			version.unadded = null;
+			version.generation = generation.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Report that the document for a new version could not be added
+	 *
+	 * @param versionId the id of the page version
+	 */
+	void discarded(String versionId) {
+		pending.remove(versionId);
+	}
+
+	/**
+	 * @return number of visits recorded against an existing version instead of adding a document
+	 */
+	long getRevisitCount() {
+		return revisits.get();
+	}
+
+	@Override
+	public void beforeRefresh() throws IOException {
+		refreshGeneration = generation.get();
+	}
+
+	@Override
+	public void afterRefresh(boolean didRefresh) throws IOException {
+		if (didRefresh) {
+			long visible = refreshGeneration;
+			pending.values().removeIf(v -> v.unadded == null && v.generation <= visible);
+		}
+	}
+
+	private boolean mightContain(String versionId) {
+		synchronized (knownVersions) {
+			return knownVersions.mightContain(versionId);
+		}
+	}
+
+	private void remember(String versionId) {
+		synchronized (knownVersions) {
+			knownVersions.put(versionId);
+		}
+	}
+
+	/**
+	 * Look up the current visit count and last visited timestamp of a version in the index
+	 *
+	 * @return the version, or null if it is not in the index (a bloom filter false positive)
+	 */
+	private PendingVersion find(String versionId) throws IOException {
+		Term term = new Term(IndexDocumentAdapter.FIELD_VERSION, versionId);
+		IndexSearcher searcher = searcherManager.acquire();
+		try {
+			for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+				LeafReader reader = context.reader();
+				PostingsEnum postings = reader.postings(term, PostingsEnum.NONE);
+				if (postings == null) continue;
+
+				Bits liveDocs = reader.getLiveDocs();
+				for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+					if (liveDocs != null && !liveDocs.get(doc)) continue;
+
+					NumericDocValues timestamps = reader.getNumericDocValues(IndexDocumentAdapter.FIELD_TIMESTAMP);
+					NumericDocValues visits = reader.getNumericDocValues(IndexDocumentAdapter.FIELD_VISITS);
+					return new PendingVersion(
+							timestamps != null ? timestamps.get(doc) : 0,
+							visits != null ? visits.get(doc) : 1,
+							null);
+				}
+			}
+			return null;
+		} finally {
+			searcherManager.release(searcher);
+		}
+	}
+}
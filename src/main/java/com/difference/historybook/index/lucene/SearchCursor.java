@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.util.Base64;
+
+import org.apache.lucene.search.ScoreDoc;
+
+import com.google.common.base.Charsets;
+
+/**
+ * The position reached in a set of search results, handed to clients as an opaque string so the
+ * next page can carry on from the last hit (see {@link org.apache.lucene.search.IndexSearcher#searchAfter})
+ * rather than collecting and discarding every earlier page.
+ *
+ * A cursor records the searcher the results came from, the time recency was measured from so scores
+ * are reproduced exactly, the number of results already returned and the last hit.
+ */
+class SearchCursor {
+	// a cursor that cannot continue from a searcher, only from an offset
+	static final long NO_SEARCHER = -1;
+
+	private static final String VERSION = "1";
+	private static final char SEPARATOR = ':';
+
+	private final long searcherToken;
+	private final long now;
+	private final int offset;
+	private final ScoreDoc after;
+
+	/**
+	 * Constructor for SearchCursor
+	 * 
+	 * @param searcherToken identifies the searcher the results came from (or NO_SEARCHER)
+	 * @param now the time recency was measured from (in seconds since the epoch)
+	 * @param offset number of results before the cursor
+	 * @param after the last hit before the cursor (or null to continue from the offset)
+	 */
+	SearchCursor(long searcherToken, long now, int offset, ScoreDoc after) {
+		this.searcherToken = searcherToken;
+		this.now = now;
+		this.offset = offset;
+		this.after = after;
+	}
+
+	/**
+	 * @return identifies the searcher the results came from (or NO_SEARCHER)
+	 */
+	long getSearcherToken() {
+		return searcherToken;
+	}
+
+	/**
+	 * @return the time recency was measured from (in seconds since the epoch)
+	 */
+	long getNow() {
+		return now;
+	}
+
+	/**
+	 * @return number of results before the cursor
+	 */
+	int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return the last hit before the cursor, or null if results can only be continued from the offset
+	 */
+	ScoreDoc getAfter() {
+		return after;
+	}
+
+	/**
+	 * @return the cursor with only the offset to continue from, for when the searcher is no longer available
+	 */
+	SearchCursor withoutSearcher() {
+		return new SearchCursor(NO_SEARCHER, now, offset, null);
+	}
+
+	/**
+	 * @return the cursor as an opaque string
+	 */
+	String encode() {
+		StringBuilder text = new StringBuilder(VERSION)
+				.append(SEPARATOR).append(searcherToken)
+				.append(SEPARATOR).append(now)
+				.append(SEPARATOR).append(offset);
+		if (after != null) {
+			text.append(SEPARATOR).append(after.doc)
+					.append(SEPARATOR).append(Float.floatToIntBits(after.score));
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(text.toString().getBytes(Charsets.US_ASCII));
+	}
+
+	/**
+	 * @param cursor a cursor returned by {@link #encode()}
+	 * @return the decoded cursor
+	 * @throws IllegalArgumentException if the cursor is not valid
+	 */
+	static SearchCursor decode(String cursor) {
+		String[] parts = new String(Base64.getUrlDecoder().decode(cursor), Charsets.US_ASCII).split(String.valueOf(SEPARATOR));
+		if (!parts[0].equals(VERSION) || (parts.length != 4 && parts.length != 6)) {
+			throw new IllegalArgumentException("Invalid cursor");
+		}
+
+		int offset = Integer.parseInt(parts[3]);
+		if (offset < 0) throw new IllegalArgumentException("Invalid cursor");
+
+		ScoreDoc after = parts.length == 6 
+				? new ScoreDoc(Integer.parseInt(parts[4]), Float.intBitsToFloat(Integer.parseInt(parts[5]))) 
+				: null;
+		return new SearchCursor(Long.parseLong(parts[1]), Long.parseLong(parts[2]), offset, after);
+	}
+}
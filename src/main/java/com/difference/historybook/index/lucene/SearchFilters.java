@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * The filters of a search, given as operators within the query:
+ * <ul>
+ * <li>after:date - pages last visited at or after the date</li>
+ * <li>before:date - pages last visited before the date</li>
+ * <li>site:domain - pages on the domain (several are alternatives)</li>
+ * </ul>
+ * Dates are ISO-8601 dates (taken as the start of the day in UTC) or instants. The operators are
+ * pulled out of the query before it is parsed, and become non-scoring filter clauses.
+ */
+class SearchFilters {
+	private static final Pattern OPERATOR = Pattern.compile("(?:^|(?<=\\s))(after|before|site):(\\S+)");
+
+	private final String text;
+	private final long from;
+	private final long to;
+	private final List<String> domains;
+
+	private SearchFilters(String text, long from, long to, List<String> domains) {
+		this.text = text;
+		this.from = from;
+		this.to = to;
+		this.domains = domains;
+	}
+
+	/**
+	 * @param query a query, possibly with search operators
+	 * @return the filters given in the query
+	 * @throws ParseException if an operator has an invalid value
+	 */
+	static SearchFilters parse(String query) throws ParseException {
+		if (query == null) return new SearchFilters("", Long.MIN_VALUE, Long.MAX_VALUE, Collections.emptyList());
+
+		long from = Long.MIN_VALUE;
+		long to = Long.MAX_VALUE;
+		List<String> domains = new ArrayList<>();
+		StringBuffer text = new StringBuffer();
+		Matcher matcher = OPERATOR.matcher(query);
+		while (matcher.find()) {
+			String operator = matcher.group(1);
+			String value = matcher.group(2);
+			switch (operator) {
+			case "after":
+				from = Math.max(from, epochSecond(operator, value));
+				break;
+			case "before":
+				to = Math.min(to, epochSecond(operator, value));
+				break;
+			default:
+				domains.add(domain(value));
+			}
+			matcher.appendReplacement(text, "");
+		}
+		matcher.appendTail(text);
+
+		return new SearchFilters(text.toString().trim().replaceAll("\\s+", " "), from, to, domains);
+	}
+
+	/**
+	 * @return the query without its search operators
+	 */
+	String getText() {
+		return text;
+	}
+
+	/**
+	 * @return start of the visits searched in epoch seconds (inclusive)
+	 */
+	long getFrom() {
+		return from;
+	}
+
+	/**
+	 * @return end of the visits searched in epoch seconds (exclusive)
+	 */
+	long getTo() {
+		return to;
+	}
+
+	/**
+	 * @return the domains searched, or an empty list for all of them
+	 */
+	List<String> getDomains() {
+		return domains;
+	}
+
+	/**
+	 * @return whether the query has any search operators
+	 */
+	boolean hasFilters() {
+		return from != Long.MIN_VALUE || to != Long.MAX_VALUE || !domains.isEmpty();
+	}
+
+	/**
+	 * @param query the parsed query text
+	 * @param cache where date ranges are cached, or null to not cache them
+	 * @return the query restricted by the filters
+	 */
+	Query apply(Query query, FilterCache cache) {
+		if (!hasFilters()) return query;
+
+		BooleanQuery.Builder builder = new BooleanQuery.Builder().add(query, Occur.MUST);
+		if (from != Long.MIN_VALUE || to != Long.MAX_VALUE) {
+			builder.add(new TimestampRangeQuery(from, to, cache), Occur.FILTER);
+		}
+		if (domains.size() == 1) {
+			builder.add(new TermQuery(new Term(IndexDocumentAdapter.FIELD_DOMAIN, domains.get(0))), Occur.FILTER);
+		} else if (!domains.isEmpty()) {
+			BooleanQuery.Builder sites = new BooleanQuery.Builder();
+			for (String domain : domains) {
+				sites.add(new TermQuery(new Term(IndexDocumentAdapter.FIELD_DOMAIN, domain)), Occur.SHOULD);
+			}
+			builder.add(sites.build(), Occur.FILTER);
+		}
+		return builder.build();
+	}
+
+	private static long epochSecond(String operator, String value) throws ParseException {
+		try {
+			return value.indexOf('T') >= 0 
+					? Instant.parse(value).getEpochSecond() 
+					: LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+		} catch (DateTimeParseException e) {
+			throw new ParseException("Invalid date for " + operator + ": " + value);
+		}
+	}
+
+	/**
+	 * @return the domain pages on a site are filed under. The site may be given as a host or a url.
+	 */
+	private static String domain(String site) {
+		String host = site.toLowerCase(Locale.ROOT);
+		int scheme = host.indexOf("://");
+		if (scheme >= 0) host = host.substring(scheme + 3);
+		int path = host.indexOf('/');
+		if (path >= 0) host = host.substring(0, path);
+		int port = host.indexOf(':');
+		if (port >= 0 && port == host.lastIndexOf(':')) host = host.substring(0, port);
+		try {
+			return IndexDocumentAdapter.domainOf(host);
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			return host;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.search.ReferenceManager;
+
+import com.difference.historybook.index.FacetCount;
+import com.difference.historybook.index.SearchResult;
+import com.difference.historybook.index.SearchResultWrapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * A bounded cache of search results for a @LuceneIndex
+ *
+ * Entries are keyed by the version of the reader they were computed against as well as the search
+ * parameters, so a refresh that makes new pages visible never serves stale results. Entries for
+ * older versions are dropped when the searcher is refreshed. The cache is bounded by an estimate
+ * of the memory its results take up, evicting the least recently used first.
+ */
+class SearchResultCache implements ReferenceManager.RefreshListener {
+	// the recency boost is relative to when the search ran, so results are not kept indefinitely
+	private static final long MAX_AGE_MINUTES = 10;
+	private static final int ENTRY_OVERHEAD_BYTES = 128;
+	private static final int RESULT_OVERHEAD_BYTES = 96;
+	private static final int FACET_OVERHEAD_BYTES = 48;
+
+	static final class Key {
+		private final long readerVersion;
+		private final String collection;
+		private final String query;
+		private final int offset;
+		private final int size;
+		private final boolean includeDebug;
+		private final boolean includeFacets;
+		private final boolean includeSnippets;
+
+		Key(long readerVersion, String collection, String query, int offset, int size, 
+				boolean includeDebug, boolean includeFacets, boolean includeSnippets) {
+			this.readerVersion = readerVersion;
+			this.collection = collection;
+			this.query = normalize(query);
+			this.offset = offset;
+			this.size = size;
+			this.includeDebug = includeDebug;
+			this.includeFacets = includeFacets;
+			this.includeSnippets = includeSnippets;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return readerVersion == other.readerVersion
+					&& offset == other.offset
+					&& size == other.size
+					&& includeDebug == other.includeDebug
+					&& includeFacets == other.includeFacets
+					&& includeSnippets == other.includeSnippets
+					&& Objects.equals(collection, other.collection)
+					&& Objects.equals(query, other.query);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(readerVersion, collection, query, offset, size, includeDebug, includeFacets, includeSnippets);
+		}
+	}
+
+	private final Cache<Key, SearchResultWrapper> cache;
+
+	/**
+	 * Constructor for SearchResultCache
+	 *
+	 * @param maxBytes approximate upper bound on the memory used by cached results
+	 */
+	SearchResultCache(long maxBytes) {
+		cache = CacheBuilder.newBuilder()
+				.maximumWeight(maxBytes)
+				.weigher((Key key, SearchResultWrapper value) -> weigh(key, value))
+				.expireAfterWrite(MAX_AGE_MINUTES, TimeUnit.MINUTES)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * @param key the search
+	 * @param query the query as given by the caller
+	 * @return the cached results for the search, or null if there are none
+	 */
+	SearchResultWrapper get(Key key, String query) {
+		SearchResultWrapper cached = cache.getIfPresent(key);
+		if (cached == null) return null;
+
+		// queries differing only in whitespace share an entry, so hand back the caller's own query
+		SearchResultWrapper wrapper = new SearchResultWrapper()
+				.setQuery(query)
+				.setOffset(cached.getOffset())
+				.setMaxResultsRequested(cached.getMaxResultsRequested())
+				.setResultCount(cached.getResultCount())
+				.setResults(cached.getResults());
+		if (cached.getDebugInfo() != null) {
+			wrapper.setDebugInfo(cached.getDebugInfo());
+		}
+		if (cached.getCursor() != null) {
+			wrapper.setCursor(cached.getCursor());
+		}
+		if (cached.getFacets() != null) {
+			wrapper.setFacets(cached.getFacets());
+		}
+		return wrapper;
+	}
+
+	/**
+	 * @param key the search
+	 * @param results the results of the search
+	 */
+	void put(Key key, SearchResultWrapper results) {
+		cache.put(key, results);
+	}
+
+	/**
+	 * @return hit, miss and eviction counts since startup
+	 */
+	CacheStats getStats() {
+		return cache.stats();
+	}
+
+	@Override
+	public void beforeRefresh() {
+	}
+
+	@Override
+	public void afterRefresh(boolean didRefresh) {
+		if (didRefresh) {
+			cache.invalidateAll();
+		}
+	}
+
+	private static String normalize(String query) {
+		return query == null ? "" : query.trim().replaceAll("\\s+", " ");
+	}
+
+	private static int weigh(Key key, SearchResultWrapper value) {
+		long chars = length(key.collection) + length(key.query) + length(value.getDebugInfo()) + length(value.getCursor());
+		long bytes = ENTRY_OVERHEAD_BYTES;
+		if (value.getResults() != null) {
+			for (SearchResult result : value.getResults()) {
+				chars += length(result.getKey()) + length(result.getCollection()) + length(result.getTitle())
+						+ length(result.getUrl()) + length(result.getDomain()) + length(result.getTimestamp())
+						+ length(result.getSnippet()) + length(result.getDebugInfo());
+				bytes += RESULT_OVERHEAD_BYTES;
+			}
+		}
+		if (value.getFacets() != null) {
+			for (FacetCount count : value.getFacets().getDomains()) {
+				chars += length(count.getValue());
+				bytes += FACET_OVERHEAD_BYTES;
+			}
+			for (FacetCount count : value.getFacets().getMonths()) {
+				chars += length(count.getValue());
+				bytes += FACET_OVERHEAD_BYTES;
+			}
+		}
+		return (int) Math.min(Integer.MAX_VALUE, bytes + 2 * chars);
+	}
+
+	private static int length(String value) {
+		return value != null ? value.length() : 0;
+	}
+}
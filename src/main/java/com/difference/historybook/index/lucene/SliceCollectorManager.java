@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+
+import com.difference.historybook.index.SearchFacets;
+
+/**
+ * Collects the top hits of a query from each slice searched by an @IndexSearcher and merges them,
+ * keeping statistics about each slice for debugging. Facets are counted in the same pass over the
+ * matching documents if asked for (see @FacetCounter).
+ */
+class SliceCollectorManager implements CollectorManager<SliceCollectorManager.SliceCollector, TopDocs> {
+	private final int numHits;
+	private final ScoreDoc after;
+	private final boolean countFacets;
+	private final List<SliceCollector> collectors = new ArrayList<>();
+
+	/**
+	 * Collects the top hits of one slice
+	 */
+	static class SliceCollector implements Collector {
+		private final TopScoreDocCollector delegate;
+		private final FacetCounter facets;
+		private int segments = 0;
+		private long docs = 0;
+		private long elapsedNanos = 0;
+
+		private SliceCollector(int numHits, ScoreDoc after, boolean countFacets) {
+			this.delegate = TopScoreDocCollector.create(numHits, after);
+			this.facets = countFacets ? new FacetCounter() : null;
+		}
+
+		@Override
+		public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+			segments++;
+			docs += context.reader().maxDoc();
+			LeafCollector hits = delegate.getLeafCollector(context);
+			if (facets == null) return hits;
+			
+			LeafCollector counts = facets.getLeafCollector(context);
+			return new FilterLeafCollector(hits) {
+				@Override
+				public void collect(int doc) throws IOException {
+					super.collect(doc);
+					counts.collect(doc);
+				}
+			};
+		}
+
+		@Override
+		public boolean needsScores() {
+			return delegate.needsScores();
+		}
+
+		void setElapsedNanos(long elapsedNanos) {
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d segments, %d docs, %d hits, %.2fms", 
+					segments, docs, delegate.getTotalHits(), elapsedNanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+		}
+	}
+
+	/**
+	 * Constructor for SliceCollectorManager
+	 * 
+	 * @param numHits number of top hits to collect
+	 * @param after the hit to collect hits after (or null to collect from the top)
+	 * @param countFacets whether to count the matching documents by domain and month
+	 */
+	SliceCollectorManager(int numHits, ScoreDoc after, boolean countFacets) {
+		this.numHits = numHits;
+		this.after = after;
+		this.countFacets = countFacets;
+	}
+
+	@Override
+	public synchronized SliceCollector newCollector() throws IOException {
+		SliceCollector collector = new SliceCollector(numHits, after, countFacets);
+		collectors.add(collector);
+		return collector;
+	}
+
+	@Override
+	public TopDocs reduce(Collection<SliceCollector> sliceCollectors) throws IOException {
+		TopDocs[] topDocs = new TopDocs[sliceCollectors.size()];
+		int i = 0;
+		for (SliceCollector collector : sliceCollectors) {
+			topDocs[i++] = collector.delegate.topDocs();
+		}
+		return TopDocs.merge(numHits, topDocs);
+	}
+
+	/**
+	 * @param maxDomains maximum number of domains to return
+	 * @return the facets counted across all of the slices, or null if they were not counted
+	 */
+	synchronized SearchFacets getFacets(int maxDomains) {
+		if (!countFacets) return null;
+		FacetCounter merged = new FacetCounter();
+		for (SliceCollector collector : collectors) {
+			merged.merge(collector.facets);
+		}
+		return merged.getFacets(maxDomains);
+	}
+
+	/**
+	 * @return a line describing each slice that was searched
+	 */
+	synchronized String getStatistics() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < collectors.size(); i++) {
+			text.append("slice ").append(i).append(": ").append(collectors.get(i)).append('\n');
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.queries.function.FunctionRangeQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.UsageTrackingQueryCachingPolicy;
+import org.apache.lucene.search.Weight;
+
+/**
+ * An @IndexSearcher that searches slices of an index concurrently on an executor.
+ *
+ * Neighbouring segments are grouped into slices of a worthwhile size so a small segment does not cost
+ * a task of its own, and so the slices stay in document order (hits with equal scores then merge in the
+ * same order as a sequential search). The time taken to search each slice is recorded on its
+ * @SliceCollectorManager.SliceCollector.
+ * 
+ * Filters read from doc values are kept out of the query cache, which does not see doc values updated in place.
+ */
+class SlicedIndexSearcher extends IndexSearcher {
+	static final int MIN_DOCS_PER_SLICE = 100000;
+	static final int MAX_SEGMENTS_PER_SLICE = 8;
+	
+	// shared, as usage is counted across searches
+	private static final QueryCachingPolicy CACHING_POLICY = new QueryCachingPolicy() {
+		private final QueryCachingPolicy usage = new UsageTrackingQueryCachingPolicy();
+
+		@Override
+		public void onUse(Query query) {
+			usage.onUse(query);
+		}
+
+		@Override
+		public boolean shouldCache(Query query, LeafReaderContext context) throws IOException {
+			if (query instanceof FunctionRangeQuery || query instanceof TimestampRangeQuery) return false;
+			return usage.shouldCache(query, context);
+		}
+	};
+
+	/**
+	 * Constructor for SlicedIndexSearcher
+	 * 
+	 * @param reader the reader to search
+	 * @param executor the executor to search slices on, or null to search on the calling thread
+	 */
+	SlicedIndexSearcher(IndexReader reader, ExecutorService executor) {
+		super(reader, executor);
+		setQueryCachingPolicy(CACHING_POLICY);
+	}
+
+	@Override
+	protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+		List<LeafSlice> slices = new ArrayList<>();
+		List<LeafReaderContext> slice = new ArrayList<>();
+		long docs = 0;
+		for (LeafReaderContext leaf : leaves) {
+			slice.add(leaf);
+			docs += leaf.reader().maxDoc();
+			if (docs >= MIN_DOCS_PER_SLICE || slice.size() >= MAX_SEGMENTS_PER_SLICE) {
+				slices.add(new LeafSlice(slice.toArray(new LeafReaderContext[slice.size()])));
+				slice.clear();
+				docs = 0;
+			}
+		}
+		if (!slice.isEmpty()) {
+			slices.add(new LeafSlice(slice.toArray(new LeafReaderContext[slice.size()])));
+		}
+		return slices.toArray(new LeafSlice[slices.size()]);
+	}
+
+	@Override
+	protected void search(List<LeafReaderContext> leaves, Weight weight, Collector collector) throws IOException {
+		long start = System.nanoTime();
+		super.search(leaves, weight, collector);
+		if (collector instanceof SliceCollectorManager.SliceCollector) {
+			((SliceCollectorManager.SliceCollector) collector).setElapsedNanos(System.nanoTime() - start);
+		}
+	}
+}
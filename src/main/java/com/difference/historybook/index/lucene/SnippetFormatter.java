@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import org.apache.lucene.search.postingshighlight.Passage;
+import org.apache.lucene.search.postingshighlight.PassageFormatter;
+
+/**
+ * Formats the passages found by a @PostingsSnippetHighlighter as a snippet.
+ *
+ * Matches are wrapped in &lt;b&gt; tags and the rest of the text is HTML escaped. Passages are
+ * separated by newlines. A passage longer than the maximum length is cut down to a window around
+ * its first match, at word boundaries where possible.
+ */
+class SnippetFormatter extends PassageFormatter {
+	private final int maxLength;
+
+	/**
+	 * Constructor for SnippetFormatter
+	 * 
+	 * @param maxLength maximum number of characters of content in a passage. 0 for no limit.
+	 */
+	SnippetFormatter(int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	@Override
+	public String format(Passage[] passages, String content) {
+		StringBuilder out = new StringBuilder();
+		for (Passage passage : passages) {
+			if (out.length() > 0) {
+				out.append('\n');
+			}
+			format(passage, content, out);
+		}
+		return out.toString();
+	}
+
+	private void format(Passage passage, String content, StringBuilder out) {
+		int start = passage.getStartOffset();
+		int end = passage.getEndOffset();
+		if (maxLength > 0 && end - start > maxLength) {
+			int firstMatch = passage.getNumMatches() > 0 ? passage.getMatchStarts()[0] : start;
+			int windowStart = Math.max(start, Math.min(firstMatch - maxLength / 4, end - maxLength));
+			int windowEnd = Math.min(end, windowStart + maxLength);
+			start = windowStart > start ? wordStart(content, windowStart, firstMatch) : start;
+			end = windowEnd < end ? wordEnd(content, windowEnd, start) : end;
+		}
+		while (start < end && Character.isWhitespace(content.charAt(start))) start++;
+		while (end > start && Character.isWhitespace(content.charAt(end - 1))) end--;
+
+		int pos = start;
+		for (int i = 0; i < passage.getNumMatches(); i++) {
+			int matchStart = Math.max(passage.getMatchStarts()[i], start);
+			int matchEnd = Math.min(passage.getMatchEnds()[i], end);
+			if (matchStart >= end) break;
+			if (matchStart > pos) {
+				escape(content, pos, matchStart, out);
+			}
+			if (matchEnd > pos) {
+				out.append("<b>");
+				escape(content, Math.max(pos, matchStart), matchEnd, out);
+				out.append("</b>");
+				pos = matchEnd;
+			}
+		}
+		escape(content, pos, end, out);
+	}
+
+	/**
+	 * @return the start of the first word beginning at or after from, as long as that is not past limit
+	 */
+	private static int wordStart(String content, int from, int limit) {
+		if (Character.isWhitespace(content.charAt(from - 1))) return from;
+		for (int i = from; i < limit; i++) {
+			if (Character.isWhitespace(content.charAt(i))) return i + 1;
+		}
+		return from;
+	}
+
+	/**
+	 * @return the end of the last word ending at or before to, as long as that is not before limit
+	 */
+	private static int wordEnd(String content, int to, int limit) {
+		if (Character.isWhitespace(content.charAt(to))) return to;
+		for (int i = to; i > limit; i--) {
+			if (Character.isWhitespace(content.charAt(i - 1))) return i - 1;
+		}
+		return to;
+	}
+
+	/**
+	 * Escape text so it is safe to include in an HTML page
+	 */
+	static void escape(String content, int start, int end, StringBuilder out) {
+		for (int i = start; i < end; i++) {
+			char c = content.charAt(i);
+			switch (c) {
+			case '&':
+				out.append("&amp;");
+				break;
+			case '<':
+				out.append("&lt;");
+				break;
+			case '>':
+				out.append("&gt;");
+				break;
+			case '"':
+				out.append("&quot;");
+				break;
+			default:
+				out.append(c);
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Objects;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BitSetIterator;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * Matches pages last visited within a range of time, read from the timestamp doc values so revisits are
+ * taken into account. The matching documents of each segment are kept in a @FilterCache, so repeating
+ * a range costs no more than iterating a bit set, and a segment with no pages in the range is skipped.
+ */
+class TimestampRangeQuery extends Query {
+	private final long from;
+	private final long to;
+	private final FilterCache cache;
+
+	/**
+	 * Constructor for TimestampRangeQuery
+	 *
+	 * @param from start of the range in epoch seconds (inclusive)
+	 * @param to end of the range in epoch seconds (exclusive)
+	 * @param cache where the matching documents of each segment are kept, or null to find them for every search
+	 */
+	TimestampRangeQuery(long from, long to, FilterCache cache) {
+		this.from = from;
+		this.to = to;
+		this.cache = cache;
+	}
+
+	long getFrom() {
+		return from;
+	}
+
+	long getTo() {
+		return to;
+	}
+
+	@Override
+	public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+		return new ConstantScoreWeight(this) {
+			@Override
+			public Scorer scorer(LeafReaderContext context) throws IOException {
+				FixedBitSet docs;
+				int count;
+				if (cache != null) {
+					FilterCache.Entry entry = cache.get(context.reader(), IndexDocumentAdapter.FIELD_TIMESTAMP, 
+							TimestampRangeQuery.this, TimestampRangeQuery.this::load);
+					docs = entry.getDocs();
+					count = entry.getCount();
+				} else {
+					docs = load(context.reader());
+					count = docs.cardinality();
+				}
+				if (count == 0) return null;
+				return new ConstantScoreScorer(this, score(), new BitSetIterator(docs, count));
+			}
+		};
+	}
+
+	private FixedBitSet load(LeafReader reader) throws IOException {
+		NumericDocValues timestamps = DocValues.getNumeric(reader, IndexDocumentAdapter.FIELD_TIMESTAMP);
+		FixedBitSet docs = new FixedBitSet(reader.maxDoc());
+		for (int doc = 0; doc < reader.maxDoc(); doc++) {
+			long timestamp = timestamps.get(doc);
+			if (timestamp >= from && timestamp < to) {
+				docs.set(doc);
+			}
+		}
+		return docs;
+	}
+
+	@Override
+	public String toString(String field) {
+		return IndexDocumentAdapter.FIELD_TIMESTAMP + ":[" + text(from) + " TO " + text(to) + "}";
+	}
+
+	private static String text(long epochSecond) {
+		return epochSecond == Long.MIN_VALUE || epochSecond == Long.MAX_VALUE 
+				? "*" : Instant.ofEpochSecond(epochSecond).toString();
+	}
+
+	/**
+	 * Queries are equal when they match the same range, whatever cache they use, so a range is only cached once
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (!super.equals(obj)) return false;
+		TimestampRangeQuery other = (TimestampRangeQuery) obj;
+		return from == other.from && to == other.to;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * super.hashCode() + Objects.hash(from, to);
+	}
+}
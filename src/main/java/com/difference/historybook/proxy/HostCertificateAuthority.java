@@ -0,0 +1,366 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Date;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.net.InetAddresses;
+
+/**
+ * A local certificate authority issuing a certificate for each host whose HTTPS traffic the proxy intercepts
+ *
+ * The authority's own certificate is created on first use and saved (with a PEM copy to install in the browser).
+ * Host certificates use EC keys, which are far quicker to generate than RSA ones. They are issued on the given
+ * executor rather than the caller's thread, saved so they survive a restart, and kept ready for use in a
+ * bounded cache that drops the least recently used. Once a host has been visited its handshakes only pay for
+ * a cache lookup.
+ */
+public class HostCertificateAuthority {
+	private static final Logger LOG = LoggerFactory.getLogger(HostCertificateAuthority.class);
+
+	private static final String KEY_ALGORITHM = "EC";
+	private static final String CURVE = "secp256r1";
+	private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+	private static final String KEYSTORE_TYPE = "PKCS12";
+	private static final String AUTHORITY_ALIAS = "authority";
+	private static final String HOST_ALIAS = "host";
+	private static final String AUTHORITY_KEYSTORE = "authority.p12";
+	private static final String AUTHORITY_CERTIFICATE = "authority.pem";
+	private static final String HOSTS_DIRECTORY = "hosts";
+	private static final long HOST_DURATION = 365 * 24 * 3600L;
+	private static final long RENEWAL_MARGIN = 24 * 3600L;
+	private static final Pattern UNSAFE_FILENAME_CHARS = Pattern.compile("[^a-z0-9.-]");
+
+	private final Path directory;
+	private final char[] password;
+	private final ExecutorService generator;
+	private final SecureRandom random = new SecureRandom();
+	private final Cache<String, CompletableFuture<SSLContext>> contexts;
+	private final PrivateKey authorityKey;
+	private final X509Certificate authorityCertificate;
+	private final X500Name authorityName;
+
+	/**
+	 * Constructor for HostCertificateAuthority. Loads the authority from the directory, creating it if need be.
+	 *
+	 * @param directory directory to keep the authority and host certificates in
+	 * @param password password to use to encrypt the keystores
+	 * @param commonName common name of the authority
+	 * @param organization organization of the authority
+	 * @param duration length of time a newly created authority should remain valid (in seconds)
+	 * @param cacheSize number of host certificates to keep ready for use
+	 * @param generator @ExecutorService to issue host certificates on
+	 *
+	 * @throws @RuntimeException if the authority can't be loaded or created
+	 */
+	public HostCertificateAuthority(Path directory, String password, String commonName, String organization,
+			long duration, int cacheSize, ExecutorService generator) {
+		this.directory = directory;
+		this.password = password.toCharArray();
+		this.generator = generator;
+		this.contexts = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+
+		try {
+			Files.createDirectories(directory.resolve(HOSTS_DIRECTORY));
+			KeyStore.PrivateKeyEntry authority = loadEntry(directory.resolve(AUTHORITY_KEYSTORE), AUTHORITY_ALIAS);
+			if (authority == null) {
+				authority = createAuthority(commonName, organization, duration);
+			} else {
+				LOG.info("Certificate authority {} found.", directory.resolve(AUTHORITY_KEYSTORE));
+			}
+			this.authorityKey = authority.getPrivateKey();
+			this.authorityCertificate = (X509Certificate) authority.getCertificate();
+			this.authorityName = X500Name.getInstance(authorityCertificate.getSubjectX500Principal().getEncoded());
+		} catch (GeneralSecurityException | IOException | OperatorCreationException e) {
+			LOG.error(e.getLocalizedMessage());
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Starts issuing (or loading) the certificate for a host if it is not already at hand, without waiting for it.
+	 * If the generator turns the work away the future fails at once, and is not cached so the next visit tries again.
+	 *
+	 * @param host the host name or IP address
+	 * @return a @CompletableFuture completed with an @SSLContext presenting the host's certificate
+	 */
+	public CompletableFuture<SSLContext> prepare(String host) {
+		String key = host.toLowerCase();
+		try {
+			CompletableFuture<SSLContext> future = contexts.get(key, () -> issue(key));
+			if (future.isCompletedExceptionally()) {
+				contexts.asMap().remove(key, future);
+			}
+			return future;
+		} catch (ExecutionException e) {
+			// issue only schedules the work, so never fails here
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return the authority's certificate, which browsers need to trust for interception to work
+	 */
+	public X509Certificate getCertificate() {
+		return authorityCertificate;
+	}
+
+	/**
+	 * @return where the authority's certificate is saved in PEM format, for installing in a browser
+	 */
+	public Path getCertificatePath() {
+		return directory.resolve(AUTHORITY_CERTIFICATE);
+	}
+
+	/**
+	 * @return number of host certificates ready for use
+	 */
+	public long getCachedHostCount() {
+		return contexts.size();
+	}
+
+	/**
+	 * @param host the host name or IP address (lower case)
+	 * @return where the host's certificate is saved
+	 */
+	Path getHostPath(String host) {
+		return directory.resolve(HOSTS_DIRECTORY).resolve(UNSAFE_FILENAME_CHARS.matcher(host).replaceAll("_") + ".p12");
+	}
+
+	private CompletableFuture<SSLContext> issue(String host) {
+		CompletableFuture<SSLContext> future = new CompletableFuture<>();
+		FutureTask<SSLContext> task = new FutureTask<SSLContext>(() -> context(hostEntry(host))) {
+			@Override
+			protected void done() {
+				try {
+					future.complete(get());
+				} catch (ExecutionException e) {
+					future.completeExceptionally(e.getCause());
+				} catch (CancellationException | InterruptedException e) {
+					future.completeExceptionally(e);
+				}
+			}
+		};
+
+		// a failed attempt is forgotten so the next visit tries again
+		future.whenComplete((context, e) -> {
+			if (e != null) {
+				LOG.error("Unable to issue a certificate for {}: {}", host, e.getLocalizedMessage());
+				contexts.asMap().remove(host, future);
+			}
+		});
+
+		try {
+			generator.execute(task);
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * @return the saved certificate for the host, or a newly issued one if there is none still good
+	 */
+	private KeyStore.PrivateKeyEntry hostEntry(String host) throws GeneralSecurityException, IOException, OperatorCreationException {
+		Path path = getHostPath(host);
+		KeyStore.PrivateKeyEntry entry = loadEntry(path, HOST_ALIAS);
+		if (entry != null && isCurrent(entry)) return entry;
+
+		KeyPair keyPair = generateKeyPair();
+		long now = System.currentTimeMillis();
+		long notAfter = Math.min(now + HOST_DURATION * 1000, authorityCertificate.getNotAfter().getTime());
+
+		X509v3CertificateBuilder certBuilder = new JcaX509v3CertificateBuilder(
+				authorityName,
+				new BigInteger(64, random),
+				new Date(now - 24 * 60 * 60 * 1000), // yesterday
+				new Date(notAfter),
+				new X500NameBuilder(BCStyle.INSTANCE).addRDN(BCStyle.CN, host).build(),
+				keyPair.getPublic());
+		certBuilder.addExtension(Extension.basicConstraints, true, new BasicConstraints(false));
+		certBuilder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature));
+		ASN1EncodableVector purposes = new ASN1EncodableVector();
+		purposes.add(KeyPurposeId.id_kp_serverAuth);
+		certBuilder.addExtension(Extension.extendedKeyUsage, false, new DERSequence(purposes));
+		GeneralName name = InetAddresses.isInetAddress(host)
+				? new GeneralName(GeneralName.iPAddress, InetAddress.getByName(host).getHostAddress())
+				: new GeneralName(GeneralName.dNSName, host);
+		certBuilder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(name));
+
+		entry = new KeyStore.PrivateKeyEntry(keyPair.getPrivate(),
+				new Certificate[] { signCertificate(certBuilder, authorityKey), authorityCertificate });
+		storeEntry(path, HOST_ALIAS, entry);
+		LOG.info("Issued a certificate for {}.", host);
+		return entry;
+	}
+
+	/**
+	 * @return whether a saved host certificate was issued by this authority and is not about to expire
+	 */
+	private boolean isCurrent(KeyStore.PrivateKeyEntry entry) {
+		X509Certificate certificate = (X509Certificate) entry.getCertificate();
+		if (certificate.getNotAfter().getTime() - System.currentTimeMillis() < RENEWAL_MARGIN * 1000) return false;
+		try {
+			certificate.verify(authorityCertificate.getPublicKey());
+			return true;
+		} catch (GeneralSecurityException e) {
+			return false;
+		}
+	}
+
+	private KeyStore.PrivateKeyEntry createAuthority(String commonName, String organization, long duration)
+			throws GeneralSecurityException, IOException, OperatorCreationException {
+		KeyPair keyPair = generateKeyPair();
+		X500Name name = new X500NameBuilder(BCStyle.INSTANCE)
+				.addRDN(BCStyle.CN, commonName)
+				.addRDN(BCStyle.O, organization)
+				.addRDN(BCStyle.OU, organization)
+				.build();
+
+		X509v3CertificateBuilder certBuilder = new JcaX509v3CertificateBuilder(
+				name,
+				new BigInteger(64, random),
+				new Date(System.currentTimeMillis() - 24 * 60 * 60 * 1000), // yesterday
+				new Date(System.currentTimeMillis() + duration * 1000),
+				name,
+				keyPair.getPublic());
+		certBuilder.addExtension(Extension.basicConstraints, true, new BasicConstraints(0));
+		certBuilder.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+
+		// self-signed, so signed with its own key
+		X509Certificate certificate = signCertificate(certBuilder, keyPair.getPrivate());
+		KeyStore.PrivateKeyEntry entry = new KeyStore.PrivateKeyEntry(keyPair.getPrivate(), new Certificate[] { certificate });
+		storeEntry(directory.resolve(AUTHORITY_KEYSTORE), AUTHORITY_ALIAS, entry);
+
+		try (Writer writer = new OutputStreamWriter(Files.newOutputStream(getCertificatePath()), Charsets.US_ASCII);
+				JcaPEMWriter pem = new JcaPEMWriter(writer)) {
+			pem.writeObject(certificate);
+		}
+		LOG.info("Created certificate authority at {}. Install {} in the browser to capture HTTPS pages.",
+				directory.resolve(AUTHORITY_KEYSTORE), getCertificatePath());
+		return entry;
+	}
+
+	private KeyPair generateKeyPair() throws GeneralSecurityException {
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(KEY_ALGORITHM);
+		keyPairGenerator.initialize(new ECGenParameterSpec(CURVE), random);
+		return keyPairGenerator.generateKeyPair();
+	}
+
+	private static X509Certificate signCertificate(X509v3CertificateBuilder certBuilder, PrivateKey signedWithPrivateKey)
+			throws OperatorCreationException, GeneralSecurityException {
+		ContentSigner signer = new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).build(signedWithPrivateKey);
+		return new JcaX509CertificateConverter().getCertificate(certBuilder.build(signer));
+	}
+
+	private SSLContext context(KeyStore.PrivateKeyEntry entry) throws GeneralSecurityException, IOException {
+		KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+		keyStore.load(null, null);
+		keyStore.setKeyEntry(HOST_ALIAS, entry.getPrivateKey(), password, entry.getCertificateChain());
+
+		KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(keyStore, password);
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keyManagerFactory.getKeyManagers(), null, random);
+		return context;
+	}
+
+	/**
+	 * @return the entry saved at the path, or null if there is none
+	 */
+	private KeyStore.PrivateKeyEntry loadEntry(Path path, String alias) throws GeneralSecurityException, IOException {
+		if (!Files.exists(path)) return null;
+
+		KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+		try (InputStream in = Files.newInputStream(path)) {
+			keyStore.load(in, password);
+		}
+		return (KeyStore.PrivateKeyEntry) keyStore.getEntry(alias, new KeyStore.PasswordProtection(password));
+	}
+
+	/**
+	 * Saves the entry to a temporary file first, so an interrupted save never leaves a damaged keystore behind
+	 */
+	private void storeEntry(Path path, String alias, KeyStore.PrivateKeyEntry entry) throws GeneralSecurityException, IOException {
+		KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+		keyStore.load(null, null);
+		keyStore.setKeyEntry(alias, entry.getPrivateKey(), password, entry.getCertificateChain());
+
+		Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temp)) {
+				keyStore.store(out, password);
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
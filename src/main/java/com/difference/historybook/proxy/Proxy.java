@@ -60,4 +60,39 @@ public interface Proxy {
 	 * @return	this for method call chaining
 	 */
 	public Proxy setResponseFilterSelector(Predicate<ProxyTransactionInfo> selector);
+	
+	/**
+	 * Specify how long to wait for a connection to a server. May not take affect until next start.
+	 * @param millis time to wait (in ms)
+	 * @return this for method call chaining
+	 */
+	public Proxy setConnectTimeout(int millis);
+	
+	/**
+	 * Specify how long an idle connection is kept open. May not take affect until next start.
+	 * @param seconds time to keep an idle connection open (in seconds)
+	 * @return this for method call chaining
+	 */
+	public Proxy setIdleConnectionTimeout(int seconds);
+	
+	/**
+	 * Limit the bandwidth used by each connection. May not take affect until next start.
+	 * @param readBytesPerSecond maximum rate to read at. 0 for no limit.
+	 * @param writeBytesPerSecond maximum rate to write at. 0 for no limit.
+	 * @return this for method call chaining
+	 */
+	public Proxy setThrottling(long readBytesPerSecond, long writeBytesPerSecond);
+	
+	/**
+	 * Specify whether only this machine may use the proxy, or others too (e.g. a team sharing one proxy). 
+	 * May not take affect until next start.
+	 * @param localOnly whether to only accept connections from this machine
+	 * @return this for method call chaining
+	 */
+	public Proxy setAllowLocalOnly(boolean localOnly);
+	
+	/**
+	 * @return running totals of the traffic through the proxy
+	 */
+	public ProxyStatistics getStatistics();
 }
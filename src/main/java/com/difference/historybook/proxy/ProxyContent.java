@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.proxy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The entity of a @ProxyResponse, kept hold of after the response has been processed (see
+ * {@link ProxyResponse#retainContent()}).
+ *
+ * The bytes may be shared with the buffers the proxy received them in rather than copied, so they must not be
+ * changed, and must be released once they have been read so the proxy can reuse the buffers.
+ */
+public interface ProxyContent extends AutoCloseable {
+	/**
+	 * @return views of the bytes of the entity, in order. Each call returns new views, so reading them
+	 *         does not use them up. Not valid once released.
+	 */
+	public ByteBuffer[] getBuffers();
+
+	/**
+	 * Let go of the bytes. Only the first call has any effect.
+	 */
+	public void release();
+
+	@Override
+	default void close() {
+		release();
+	}
+
+	/**
+	 * @param bytes the bytes of an entity
+	 * @return the bytes as @ProxyContent. There is nothing to release.
+	 */
+	public static ProxyContent wrap(byte[] bytes) {
+		return new ProxyContent() {
+			@Override
+			public ByteBuffer[] getBuffers() {
+				return new ByteBuffer[] { ByteBuffer.wrap(bytes).asReadOnlyBuffer() };
+			}
+
+			@Override
+			public void release() {
+			}
+		};
+	}
+}
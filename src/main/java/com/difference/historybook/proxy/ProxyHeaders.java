@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.proxy;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read only view of the HTTP headers of a request or response. Names are case insensitive and a header 
+ * may have several values.
+ * 
+ * Implementations look headers up in place rather than copying them, so checking a header or two for a 
+ * response that is then passed over costs next to nothing.
+ */
+public interface ProxyHeaders {
+	/**
+	 * @param name the name of the header, in any case
+	 * @return the first value of the header, or null if there is none
+	 */
+	public String get(String name);
+	
+	/**
+	 * @param name the name of the header, in any case
+	 * @return all the values of the header, in order. Empty if there are none.
+	 */
+	public List<String> getAll(String name);
+	
+	/**
+	 * @param name the name of the header, in any case
+	 * @return whether the header is present
+	 */
+	default boolean contains(String name) {
+		return get(name) != null;
+	}
+	
+	/**
+	 * @return the names of the headers present
+	 */
+	public Set<String> names();
+	
+	/**
+	 * @param headers header name/value pairs
+	 * @return a view of the pairs, matching names in any case
+	 */
+	public static ProxyHeaders of(Map<String,String> headers) {
+		return new ProxyHeaders() {
+			@Override
+			public String get(String name) {
+				String value = headers.get(name);
+				if (value != null) return value;
+				for (Map.Entry<String,String> entry : headers.entrySet()) {
+					if (name.equalsIgnoreCase(entry.getKey())) return entry.getValue();
+				}
+				return null;
+			}
+
+			@Override
+			public List<String> getAll(String name) {
+				String value = get(name);
+				return value != null ? Collections.singletonList(value) : Collections.emptyList();
+			}
+
+			@Override
+			public Set<String> names() {
+				return Collections.unmodifiableSet(headers.keySet());
+			}
+		};
+	}
+}
@@ -16,9 +16,14 @@
 
 package com.difference.historybook.proxy;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Map;
 
+import com.difference.historybook.textutils.ExtractedPage;
+import com.difference.historybook.textutils.HtmlCharsetDecoder;
+import com.google.common.net.HttpHeaders;
+
 /**
  * Abstract interface to extract required information from a given response implementation 
  */
@@ -36,11 +41,20 @@ public interface ProxyResponse {
 	 */
 	public Map<String,String> getHeaders();
 	
+	/**
+	 * @return a case insensitive, multi-valued view of the headers of the response
+	 */
+	default ProxyHeaders getHeaderView() {
+		return ProxyHeaders.of(getHeaders());
+	}
+	
 	/**
 	 * Note that this is a simplistic assumption that will perform badly (heap exhaustion)
 	 * if called against a large response. This is somewhat mitigated by the fact that it
 	 * is only called for text/html responses, but still should be reworked...
 	 * 
+	 * The entity belongs to the proxy and is only valid while the response is being processed.
+	 * 
 	 * @return a raw byte array representation of the response entity.
 	 */
 	public byte[] getContent();
@@ -52,4 +66,38 @@ public interface ProxyResponse {
 	default String getContentAsString(Charset charset) {
 		return new String(getContent(), charset);
 	}
+	
+	/**
+	 * Decodes the entity using the charset given in the Content-Type header, a byte order mark
+	 * or a meta tag in the page (see @HtmlCharsetDecoder)
+	 * 
+	 * @return The entity in textual form
+	 */
+	default CharSequence getContentAsText() {
+		return HtmlCharsetDecoder.decode(getContentType(), ByteBuffer.wrap(getContent()));
+	}
+	
+	/**
+	 * @return the value of the Content-Type header, or null if there is none
+	 */
+	default String getContentType() {
+		return getHeaderView().get(HttpHeaders.CONTENT_TYPE);
+	}
+	
+	/**
+	 * Keeps hold of the entity so it can be read after the response has been processed, e.g. by
+	 * another thread. The caller must release it once done with it.
+	 * 
+	 * @return the response entity
+	 */
+	default ProxyContent retainContent() {
+		return ProxyContent.wrap(getContent());
+	}
+	
+	/**
+	 * @return the title and text of the page if the proxy has already extracted them from the entity, otherwise null
+	 */
+	default ExtractedPage getExtractedPage() {
+		return null;
+	}
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.proxy;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Running totals of the traffic through a @Proxy and of the time its event loops spend in this app's filters
+ *
+ * The filters run on the threads that move bytes between the browser and the servers, so the share of those
+ * threads' time taken by the filters is the part of the proxy's load this app adds, and the first thing to
+ * look at when the proxy cannot keep up. That share is sampled over fixed windows while sampling is started
+ * (see {@link #startSampling()}), so every reader sees the same value however often it is read.
+ */
+public class ProxyStatistics {
+	private static final long SAMPLE_SECONDS = 10;
+
+	private final int filterThreads;
+	private final AtomicLong connections = new AtomicLong();
+	private final AtomicLong activeConnections = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong bytesFromClients = new AtomicLong();
+	private final AtomicLong bytesToClients = new AtomicLong();
+	private final AtomicLong filterNanos = new AtomicLong();
+
+	private ScheduledExecutorService sampler = null;
+	private long sampleStart = System.nanoTime();
+	private long sampleFilterNanos = 0;
+	private volatile double filterBusyShare = 0;
+
+	/**
+	 * Constructor for ProxyStatistics
+	 *
+	 * @param filterThreads number of threads the filters run on
+	 */
+	public ProxyStatistics(int filterThreads) {
+		this.filterThreads = filterThreads;
+	}
+
+	/**
+	 * Start sampling the share of the filter threads' time spent in the filters, every 10 seconds
+	 */
+	public synchronized void startSampling() {
+		if (sampler != null) return;
+		sampleStart = System.nanoTime();
+		sampleFilterNanos = filterNanos.get();
+		sampler = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("proxy-statistics-%d").setDaemon(true).build());
+		sampler.scheduleAtFixedRate(() -> sample(System.nanoTime()), SAMPLE_SECONDS, SAMPLE_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stop sampling. The last sample is kept.
+	 */
+	public synchronized void stopSampling() {
+		if (sampler == null) return;
+		sampler.shutdownNow();
+		sampler = null;
+	}
+
+	/**
+	 * Close the window that started at the previous sample
+	 *
+	 * @param now the end of the window (see {@link System#nanoTime()})
+	 */
+	synchronized void sample(long now) {
+		long elapsed = now - sampleStart;
+		if (elapsed <= 0) return;
+		long busy = filterNanos.get();
+		filterBusyShare = Math.min(1.0, (double) (busy - sampleFilterNanos) / ((double) elapsed * filterThreads));
+		sampleStart = now;
+		sampleFilterNanos = busy;
+	}
+
+	/**
+	 * Record a browser connecting
+	 */
+	public void clientConnected() {
+		connections.incrementAndGet();
+		activeConnections.incrementAndGet();
+	}
+
+	/**
+	 * Record a browser disconnecting
+	 */
+	public void clientDisconnected() {
+		activeConnections.decrementAndGet();
+	}
+
+	/**
+	 * Record a request received from a browser
+	 */
+	public void requestReceived() {
+		requests.incrementAndGet();
+	}
+
+	/**
+	 * @param bytes number of bytes received from a browser
+	 */
+	public void bytesReceived(long bytes) {
+		bytesFromClients.addAndGet(bytes);
+	}
+
+	/**
+	 * @param bytes number of bytes sent to a browser
+	 */
+	public void bytesSent(long bytes) {
+		bytesToClients.addAndGet(bytes);
+	}
+
+	/**
+	 * @param nanos time an event loop thread spent in the filters
+	 */
+	public void filterTime(long nanos) {
+		filterNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * @return number of browser connections since startup
+	 */
+	public long getConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * @return number of browser connections now open
+	 */
+	public long getActiveConnections() {
+		return activeConnections.get();
+	}
+
+	/**
+	 * @return number of requests received from browsers since startup
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return number of bytes received from browsers since startup
+	 */
+	public long getBytesFromClients() {
+		return bytesFromClients.get();
+	}
+
+	/**
+	 * @return number of bytes sent to browsers since startup
+	 */
+	public long getBytesToClients() {
+		return bytesToClients.get();
+	}
+
+	/**
+	 * @return time the event loop threads have spent in the filters since startup (in ns)
+	 */
+	public long getFilterNanos() {
+		return filterNanos.get();
+	}
+
+	/**
+	 * @return the share of the filter threads' time spent in the filters over the last complete sample window,
+	 *         a fraction between 0 and 1. 0 until the first window closes.
+	 */
+	public double getFilterBusyShare() {
+		return filterBusyShare;
+	}
+}
@@ -16,6 +16,7 @@
 
 package com.difference.historybook.proxy;
 
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -24,12 +25,27 @@ import java.util.Map;
 public class ProxyTransactionInfo {
 	private final String url;
 	private final int status;
-	private final Map<String,String> headers;
+	private final ProxyHeaders headerView;
+	private Map<String,String> headers;
 	
 	public ProxyTransactionInfo(String url, int status, Map<String,String> headers) {
 		this.url = url;
 		this.status = status;
 		this.headers = headers;
+		this.headerView = ProxyHeaders.of(headers);
+	}
+	
+	/**
+	 * Constructor for ProxyTransactionInfo that leaves the headers where they are
+	 * 
+	 * @param url the URL of the page being fetched
+	 * @param status the numeric HTTP response code for the response
+	 * @param headerView a view of the HTTP headers associated with the response
+	 */
+	public ProxyTransactionInfo(String url, int status, ProxyHeaders headerView) {
+		this.url = url;
+		this.status = status;
+		this.headerView = headerView;
 	}
 	
 	/**
@@ -47,10 +63,26 @@ public class ProxyTransactionInfo {
 	}
 
 	/**
+	 * Copies the headers from the header view on first use, keeping the first value of each. 
+	 * Prefer {@link #getHeaderView()}.
+	 * 
 	 * @return a @Map of the HTTP headers associated with the response
 	 */
 	public Map<String, String> getHeaders() {
+		if (headers == null) {
+			headers = new HashMap<>();
+			for (String name : headerView.names()) {
+				headers.put(name, headerView.get(name));
+			}
+		}
 		return headers;
 	}
+	
+	/**
+	 * @return a case insensitive view of the HTTP headers associated with the response
+	 */
+	public ProxyHeaders getHeaderView() {
+		return headerView;
+	}
 
 }
@@ -16,31 +16,42 @@
 
 package com.difference.historybook.proxy.littleproxy;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.net.InetSocketAddress;
 import java.util.function.Predicate;
 
+import javax.net.ssl.SSLSession;
+
+import org.littleshoot.proxy.ActivityTracker;
+import org.littleshoot.proxy.ActivityTrackerAdapter;
+import org.littleshoot.proxy.FlowContext;
 import org.littleshoot.proxy.HttpFilters;
 import org.littleshoot.proxy.HttpFiltersAdapter;
 import org.littleshoot.proxy.HttpFiltersSource;
 import org.littleshoot.proxy.HttpFiltersSourceAdapter;
 import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.HttpProxyServerBootstrap;
 import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
 import org.littleshoot.proxy.impl.ProxyUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.difference.historybook.proxy.HostCertificateAuthority;
 import com.difference.historybook.proxy.Proxy;
 import com.difference.historybook.proxy.ProxyFilter;
 import com.difference.historybook.proxy.ProxyFilterFactory;
+import com.difference.historybook.proxy.ProxyStatistics;
 import com.difference.historybook.proxy.ProxyTransactionInfo;
+import com.google.common.net.HostAndPort;
 
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.DefaultHttpContent;
 import io.netty.handler.codec.http.DefaultHttpRequest;
 import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpRequest;
@@ -53,6 +64,11 @@ import io.netty.handler.codec.http.LastHttpContent;
  */
 public class LittleProxy implements Proxy {
 	private static final Logger LOG = LoggerFactory.getLogger(LittleProxy.class);
+	// LittleProxy runs the filters on its client and server worker event loops. 1.1.0-beta1 sizes these with the
+	// private INCOMING_WORKER_THREADS and OUTGOING_WORKER_THREADS of DefaultHttpProxyServer.ServerGroup, fixed
+	// at 8 each, and gives no way to change or read them, so these must follow them on upgrade.
+	private static final int CLIENT_WORKER_THREADS = 8;
+	private static final int SERVER_WORKER_THREADS = 8;
 
 	private ProxyFilterFactory filterFactory;
 	private Predicate<ProxyTransactionInfo> selector;
@@ -60,6 +76,16 @@ public class LittleProxy implements Proxy {
 	private HttpProxyServer proxy = null;
 	private int port = 8080;
 	private int maxBufferSize = 1 * 1024 * 1024;
+	private boolean streamingCapture = false;
+	private int maxCapturedChars = 0;
+	private HostCertificateAuthority certificateAuthority = null;
+	private long certificateTimeoutMillis = 1000;
+	private int connectTimeout = 40 * 1000;
+	private int idleConnectionTimeout = 70;
+	private long readThrottle = 0;
+	private long writeThrottle = 0;
+	private boolean allowLocalOnly = true;
+	private final ProxyStatistics statistics = new ProxyStatistics(CLIENT_WORKER_THREADS + SERVER_WORKER_THREADS);
 	
 	@Override
 	public LittleProxy setPort(int port) {
@@ -89,14 +115,100 @@ public class LittleProxy implements Proxy {
 		this.maxBufferSize = size;
 		return this;
 	}
+	
+	/**
+	 * Capture selected responses by extracting their text as they stream through (see @StreamingCapture),
+	 * rather than buffering them whole. Filters are then given a page rebuilt from the text.
+	 * 
+	 * @param enabled whether to capture responses as they stream through
+	 * @return this for method chaining
+	 */
+	public LittleProxy setStreamingCapture(boolean enabled) {
+		this.streamingCapture = enabled;
+		return this;
+	}
+	
+	/**
+	 * Set the maximum amount of text to keep from a response captured as it streams through
+	 * 
+	 * @param chars number of characters. 0 for no limit.
+	 * @return this for method chaining
+	 */
+	public LittleProxy setMaxCapturedChars(int chars) {
+		this.maxCapturedChars = chars;
+		return this;
+	}
+
+	/**
+	 * Intercept HTTPS traffic so its pages can be captured too, presenting certificates issued for each host 
+	 * by the given authority. Browsers must trust the authority (see {@link HostCertificateAuthority#getCertificatePath()}).
+	 * 
+	 * @param authority the @HostCertificateAuthority to issue certificates with, or null to pass HTTPS traffic through untouched
+	 * @return this for method chaining
+	 */
+	public LittleProxy setCertificateAuthority(HostCertificateAuthority authority) {
+		this.certificateAuthority = authority;
+		return this;
+	}
+
+	/**
+	 * @param millis how long an intercepted handshake waits for its host's certificate to be issued. The wait
+	 *        blocks one of the proxy's event loop threads (see @LittleProxyMitmManager), so should be short.
+	 * @return this for method chaining
+	 */
+	public LittleProxy setCertificateTimeout(long millis) {
+		this.certificateTimeoutMillis = millis;
+		return this;
+	}
+
+	@Override
+	public LittleProxy setConnectTimeout(int millis) {
+		this.connectTimeout = millis;
+		return this;
+	}
+
+	@Override
+	public LittleProxy setIdleConnectionTimeout(int seconds) {
+		this.idleConnectionTimeout = seconds;
+		return this;
+	}
+
+	@Override
+	public LittleProxy setThrottling(long readBytesPerSecond, long writeBytesPerSecond) {
+		this.readThrottle = readBytesPerSecond;
+		this.writeThrottle = writeBytesPerSecond;
+		return this;
+	}
+
+	@Override
+	public LittleProxy setAllowLocalOnly(boolean localOnly) {
+		this.allowLocalOnly = localOnly;
+		return this;
+	}
+
+	@Override
+	public ProxyStatistics getStatistics() {
+		return statistics;
+	}
 
 	@Override
 	public void start() {
 		if (proxy == null) {
-			proxy = DefaultHttpProxyServer.bootstrap()
+			HttpProxyServerBootstrap bootstrap = DefaultHttpProxyServer.bootstrap()
 					.withPort(port)
-					.withFiltersSource(getFiltersSource())
-					.start();
+					.withConnectTimeout(connectTimeout)
+					.withIdleConnectionTimeout(idleConnectionTimeout)
+					.withAllowLocalOnly(allowLocalOnly)
+					.plusActivityTracker(getActivityTracker())
+					.withFiltersSource(getFiltersSource());
+			if (readThrottle > 0 || writeThrottle > 0) {
+				bootstrap.withThrottling(readThrottle, writeThrottle);
+			}
+			if (certificateAuthority != null) {
+				bootstrap.withManInTheMiddle(new LittleProxyMitmManager(certificateAuthority, certificateTimeoutMillis));
+			}
+			proxy = bootstrap.start();
+			statistics.startSampling();
 		}
 	}
 	
@@ -106,36 +218,103 @@ public class LittleProxy implements Proxy {
 			LOG.info("Stopping proxy");
 			proxy.stop();
 			proxy = null;
+			statistics.stopSampling();
 		}
 	}
 	
+	/**
+	 * Requests intercepted from an HTTPS connection only give the path, so the URL is rebuilt from the Host header
+	 * 
+	 * @param request the request from the browser
+	 * @return the URL requested
+	 */
+	String getUrl(HttpRequest request) {
+		String uri = request.getUri();
+		String host = request.headers().get(HttpHeaders.Names.HOST);
+		if (certificateAuthority != null && uri.startsWith("/") && host != null) {
+			return "https://" + host + uri;
+		}
+		return uri;
+	}
+	
+	private ActivityTracker getActivityTracker() {
+		return new ActivityTrackerAdapter() {
+			@Override
+			public void clientConnected(InetSocketAddress clientAddress) {
+				statistics.clientConnected();
+			}
+
+			@Override
+			public void clientDisconnected(InetSocketAddress clientAddress, SSLSession sslSession) {
+				statistics.clientDisconnected();
+			}
+
+			@Override
+			public void requestReceivedFromClient(FlowContext flowContext, HttpRequest httpRequest) {
+				statistics.requestReceived();
+			}
+
+			@Override
+			public void bytesReceivedFromClient(FlowContext flowContext, int numberOfBytes) {
+				statistics.bytesReceived(numberOfBytes);
+			}
+
+			@Override
+			public void bytesSentToClient(FlowContext flowContext, int numberOfBytes) {
+				statistics.bytesSent(numberOfBytes);
+			}
+		};
+	}
+	
 	private HttpFiltersSource getFiltersSource() {
 		return new HttpFiltersSourceAdapter() {
 			@Override
 			public HttpFilters filterRequest(HttpRequest originalRequest) {
+				if (certificateAuthority != null && HttpMethod.CONNECT.equals(originalRequest.getMethod())) {
+					// start on the host's certificate while the connection to the server is made
+					certificateAuthority.prepare(HostAndPort.fromString(originalRequest.getUri()).getHostText());
+				}
 				
 				return new HttpFiltersAdapter(originalRequest) {
+					private final String url = getUrl(originalRequest);
 					private final ProxyFilter filter = filterFactory != null ? filterFactory.getInstance() : null;
 					private EmbeddedChannel bufferChannel = null;
+					private StreamingCapture capture = null;
 					
 					@Override
 	                public HttpResponse clientToProxyRequest(HttpObject httpObject) {
 						if (filter != null && httpObject instanceof DefaultHttpRequest) {
-							filter.processRequest(new LittleProxyRequest((DefaultHttpRequest)httpObject));
+							long start = System.nanoTime();
+							filter.processRequest(new LittleProxyRequest((DefaultHttpRequest)httpObject, url));
+							statistics.filterTime(System.nanoTime() - start);
 						}
 						return null;
 	                }
 					
 					@Override
 					public HttpObject proxyToClientResponse(HttpObject httpObject) {
+						long start = System.nanoTime();
+						try {
+							return filterResponse(httpObject);
+						} finally {
+							statistics.filterTime(System.nanoTime() - start);
+						}
+					}
+					
+					private HttpObject filterResponse(HttpObject httpObject) {
 						if (httpObject instanceof DefaultHttpResponse) {
 							DefaultHttpResponse response = (DefaultHttpResponse)httpObject;
-							Map<String,String> headers = new HashMap<>();
-							response.headers().forEach(e -> {
-								headers.put(e.getKey(), e.getValue());
-							});
 							
-							if (selector != null && selector.test(new ProxyTransactionInfo(originalRequest.getUri(), response.getStatus().code(), headers))) {
+							if (selector != null && selector.test(new ProxyTransactionInfo(
+									url, response.getStatus().code(), new LittleProxyHeaders(response.headers())))) {
+								if (streamingCapture) {
+									if (filter != null) {
+										capture = new StreamingCapture(response, maxCapturedChars);
+										if (httpObject instanceof HttpContent) captureChunk((HttpContent)httpObject);
+									}
+									return httpObject;
+								}
+								
 						        bufferChannel = new EmbeddedChannel(
 						        		new HttpResponseDecoder(), 
 						        		new HttpContentDecompressor(), 
@@ -146,14 +325,16 @@ public class LittleProxy implements Proxy {
 						        
 						        bufferChannel.writeInbound(copiedResponse);
 							}
+						} else if (httpObject instanceof HttpContent && capture != null) {
+							captureChunk((HttpContent)httpObject);
 						} else if (httpObject instanceof DefaultHttpContent && bufferChannel != null) {
 							DefaultHttpContent httpContent = (DefaultHttpContent)httpObject;							
-							bufferChannel.writeInbound(httpContent.copy());
+							bufferChannel.writeInbound(httpContent.duplicate().retain());
 							
 							if (ProxyUtils.isLastChunk(httpObject)) processChunkedResponse();
 						} else if (httpObject instanceof LastHttpContent && bufferChannel != null) {
 							LastHttpContent httpContent = (LastHttpContent)httpObject; 
-							bufferChannel.writeInbound(httpContent.copy());
+							bufferChannel.writeInbound(httpContent.duplicate().retain());
 							processChunkedResponse();
 						} else if (filter != null && httpObject instanceof FullHttpResponse) {
 							filter.processResponse(new LittleProxyResponse((FullHttpResponse)httpObject));
@@ -161,12 +342,32 @@ public class LittleProxy implements Proxy {
 						return httpObject;
 					};
 					
+					private void captureChunk(HttpContent httpContent) {
+						try {
+							capture.add(httpContent);
+							if (httpContent instanceof LastHttpContent) {
+								filter.processResponse(capture.finish());
+								capture = null;
+							}
+						} catch (RuntimeException e) {
+							// the response still goes on to the client, it just is not captured
+							LOG.error("Unable to capture {}: {}", url, e.getLocalizedMessage());
+							capture = null;
+						}
+					}
+					
 					private void processChunkedResponse() {
 						bufferChannel.flush();
 						bufferChannel.finish();
 						FullHttpResponse fullResponse = (FullHttpResponse)bufferChannel.readInbound();
-						filter.processResponse(new LittleProxyResponse(fullResponse));
 						bufferChannel = null;
+						// the aggregated entity shares the chunks sent on to the client, so is released
+						// here once processed. Filters retain what they need past this point.
+						try {
+							filter.processResponse(new LittleProxyResponse(fullResponse));
+						} finally {
+							fullResponse.release();
+						}
 					}
 				};
 			};			
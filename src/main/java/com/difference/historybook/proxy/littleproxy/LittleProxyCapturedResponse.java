@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.proxy.littleproxy;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.difference.historybook.proxy.ProxyResponse;
+import com.difference.historybook.textutils.ExtractedPage;
+import com.google.common.base.Charsets;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+
+/**
+ * An implementation of @ProxyResponse for a response captured as it streamed through the proxy (see @StreamingCapture).
+ *
+ * Only the title and text of the page were kept, and they are handed on as they are (see {@link #getExtractedPage()}).
+ * Read as an entity, it is a page rebuilt from the title and text (see @ExtractedPage), encoded as UTF-8.
+ */
+public class LittleProxyCapturedResponse implements ProxyResponse {
+	private static final String CONTENT_TYPE = "text/html; charset=UTF-8";
+
+	private final HttpResponse response;
+	private final ExtractedPage page;
+	private Map<String,String> headers = null;
+
+	/**
+	 * Constructor for LittleProxyCapturedResponse
+	 * @param response the start of the Netty response, for its status and headers
+	 * @param page the title and text extracted from the response entity
+	 */
+	public LittleProxyCapturedResponse(HttpResponse response, ExtractedPage page) {
+		this.response = response;
+		this.page = page;
+	}
+
+	@Override
+	public int getStatus() {
+		if (response == null || response.getStatus() == null) return -1;
+		return response.getStatus().code();
+	}
+
+	/**
+	 * The headers describing the entity are replaced with ones describing the rebuilt page
+	 */
+	@Override
+	public Map<String, String> getHeaders() {
+		if (headers == null) {
+			headers = new HashMap<>();
+			if (response != null && response.headers() != null) {
+				for (Entry<String,String> entry : response.headers()) {
+					headers.put(entry.getKey(), entry.getValue());
+				}
+			}
+			headers.keySet().removeIf(name -> HttpHeaders.Names.CONTENT_ENCODING.equalsIgnoreCase(name)
+					|| HttpHeaders.Names.CONTENT_LENGTH.equalsIgnoreCase(name)
+					|| HttpHeaders.Names.CONTENT_TYPE.equalsIgnoreCase(name));
+			headers.put(HttpHeaders.Names.CONTENT_TYPE, CONTENT_TYPE);
+		}
+
+		return headers;
+	}
+
+	@Override
+	public byte[] getContent() {
+		return page.toString().getBytes(Charsets.UTF_8);
+	}
+
+	@Override
+	public CharSequence getContentAsText() {
+		return page;
+	}
+
+	@Override
+	public ExtractedPage getExtractedPage() {
+		return page;
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.proxy.littleproxy;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.difference.historybook.proxy.ProxyContent;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * An implementation of @ProxyContent holding a reference to a Netty buffer, heap or direct
+ */
+class LittleProxyContent implements ProxyContent {
+	private final ByteBuf buf;
+	private final AtomicBoolean released = new AtomicBoolean(false);
+
+	/**
+	 * Constructor for LittleProxyContent
+	 *
+	 * @param buf the entity. The reference to it is taken over, and given up on release.
+	 */
+	LittleProxyContent(ByteBuf buf) {
+		this.buf = buf;
+	}
+
+	@Override
+	public ByteBuffer[] getBuffers() {
+		if (released.get()) throw new IllegalStateException("The content has been released");
+		return buf.nioBuffers(buf.readerIndex(), buf.readableBytes());
+	}
+
+	@Override
+	public void release() {
+		if (released.compareAndSet(false, true)) {
+			buf.release();
+		}
+	}
+}
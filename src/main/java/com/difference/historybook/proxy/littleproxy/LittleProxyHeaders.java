@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.proxy.littleproxy;
+
+import java.util.List;
+import java.util.Set;
+
+import com.difference.historybook.proxy.ProxyHeaders;
+
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * An implementation of @ProxyHeaders that looks headers up directly in Netty's headers
+ */
+class LittleProxyHeaders implements ProxyHeaders {
+	private final HttpHeaders headers;
+	
+	/**
+	 * Constructor for LittleProxyHeaders
+	 * 
+	 * @param headers the Netty headers to view
+	 */
+	LittleProxyHeaders(HttpHeaders headers) {
+		this.headers = headers;
+	}
+
+	@Override
+	public String get(String name) {
+		return headers.get(name);
+	}
+
+	@Override
+	public List<String> getAll(String name) {
+		return headers.getAll(name);
+	}
+
+	@Override
+	public boolean contains(String name) {
+		return headers.contains(name);
+	}
+
+	@Override
+	public Set<String> names() {
+		return headers.names();
+	}
+}
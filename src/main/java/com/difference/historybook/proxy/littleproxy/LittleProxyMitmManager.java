@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.proxy.littleproxy;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+
+import org.littleshoot.proxy.MitmManager;
+
+import com.difference.historybook.proxy.HostCertificateAuthority;
+
+/**
+ * An implementation of LittleProxy's @MitmManager presenting certificates from a @HostCertificateAuthority
+ * to the browser, and checking the certificates of the servers it connects to as a browser would.
+ */
+class LittleProxyMitmManager implements MitmManager {
+	private final HostCertificateAuthority authority;
+	private final long timeoutMillis;
+	private final SSLContext serverContext;
+
+	/**
+	 * Constructor for LittleProxyMitmManager
+	 * 
+	 * @param authority the @HostCertificateAuthority to issue certificates for intercepted hosts
+	 * @param timeoutMillis how long a handshake waits for a host's certificate to be issued, blocking an event loop thread
+	 */
+	LittleProxyMitmManager(HostCertificateAuthority authority, long timeoutMillis) {
+		this.authority = authority;
+		this.timeoutMillis = timeoutMillis;
+		try {
+			this.serverContext = SSLContext.getDefault();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public SSLEngine serverSslEngine(String peerHost, int peerPort) {
+		SSLEngine engine = serverContext.createSSLEngine(peerHost, peerPort);
+		SSLParameters parameters = engine.getSSLParameters();
+		parameters.setEndpointIdentificationAlgorithm("HTTPS");
+		engine.setSSLParameters(parameters);
+		return engine;
+	}
+
+	/**
+	 * This blocks. LittleProxy calls it on one of its proxy-to-server event loop threads once the handshake
+	 * with the server completes, and has no way to carry on with the client's handshake later. Until the
+	 * host's certificate is at hand, every other connection served by that thread waits too.
+	 *
+	 * The certificate is asked for when the browser sends CONNECT (see {@link HostCertificateAuthority#prepare(String)}),
+	 * so it is issued while the proxy connects to the server. A wait here is usually only the rest of the issuing,
+	 * and there is none for a host seen recently. The wait is kept short. If the certificate is not ready in
+	 * time, or the issuer turned the host away because its queue was full, the browser's handshake fails at
+	 * once. A certificate still being issued is cached for the browser's next attempt.
+	 */
+	@Override
+	public SSLEngine clientSslEngineFor(SSLSession serverSslSession) {
+		String host = serverSslSession.getPeerHost();
+		try {
+			return authority.prepare(host).get(timeoutMillis, TimeUnit.MILLISECONDS).createSSLEngine();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Unable to issue a certificate for " + host, e.getCause());
+		} catch (TimeoutException e) {
+			throw new IllegalStateException("Timed out issuing a certificate for " + host, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted issuing a certificate for " + host, e);
+		}
+	}
+}
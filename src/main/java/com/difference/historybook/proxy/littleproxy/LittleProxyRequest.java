@@ -25,6 +25,7 @@ import io.netty.handler.codec.http.DefaultHttpRequest;
  */
 public class LittleProxyRequest implements ProxyRequest {
 	private final DefaultHttpRequest request;
+	private final String uri;
 	
 	/**
 	 * Constructor for LittleProxyRequest
@@ -32,12 +33,23 @@ public class LittleProxyRequest implements ProxyRequest {
 	 * @param request the Netty request to extract from
 	 */
 	public LittleProxyRequest(DefaultHttpRequest request) {
+		this(request, request.getUri());
+	}
+	
+	/**
+	 * Constructor for LittleProxyRequest
+	 * 
+	 * @param request the Netty request to extract from
+	 * @param uri the full URI requested, where the request itself only gives the path
+	 */
+	public LittleProxyRequest(DefaultHttpRequest request, String uri) {
 		this.request = request;
+		this.uri = uri;
 	}
 	
 	@Override
 	public String getUri() {
-		return request.getUri();
+		return uri;
 	}
 
 }
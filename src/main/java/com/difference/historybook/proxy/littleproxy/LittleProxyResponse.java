@@ -20,13 +20,20 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import com.difference.historybook.proxy.ProxyContent;
+import com.difference.historybook.proxy.ProxyHeaders;
 import com.difference.historybook.proxy.ProxyResponse;
+import com.difference.historybook.textutils.HtmlCharsetDecoder;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
 
 /**
  * An implementation of @ProxyResponse that wraps a Netty response 
+ * 
+ * The response is not released here: it belongs to the proxy, which releases it once the
+ * response has been processed. Use {@link #retainContent()} to read the entity after that.
  */
 public class LittleProxyResponse implements ProxyResponse {
 	private final FullHttpResponse response;
@@ -60,20 +67,42 @@ public class LittleProxyResponse implements ProxyResponse {
 		return headers;
 	}
 
+	@Override
+	public ProxyHeaders getHeaderView() {
+		return new LittleProxyHeaders(response.headers());
+	}
+
 	@Override
 	public byte[] getContent() {
 		ByteBuf buf = response.content();
-		byte[] bytes;
 		int length = buf.readableBytes();
 
-		if (buf.hasArray()) {
-			bytes = buf.array();
-		} else {
-			bytes = new byte[length];
-			buf.getBytes(buf.readerIndex(), bytes);
+		// the backing array can only be handed out when it holds exactly the entity
+		if (buf.hasArray() && buf.arrayOffset() + buf.readerIndex() == 0 && buf.array().length == length) {
+			return buf.array();
 		}
-		buf.release();
+		byte[] bytes = new byte[length];
+		buf.getBytes(buf.readerIndex(), bytes);
 		return bytes;
 	}
+	
+	/**
+	 * Decodes straight from the Netty buffer without first copying the entity into a byte array
+	 */
+	@Override
+	public CharSequence getContentAsText() {
+		ByteBuf buf = response.content();
+		return HtmlCharsetDecoder.decode(
+				response.headers().get(HttpHeaders.Names.CONTENT_TYPE), 
+				buf.nioBuffers(buf.readerIndex(), buf.readableBytes()));
+	}
+	
+	/**
+	 * Retains a slice of the Netty buffer holding the entity rather than copying it
+	 */
+	@Override
+	public ProxyContent retainContent() {
+		return new LittleProxyContent(response.content().slice().retain());
+	}
 
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.proxy.littleproxy;
+
+import java.nio.ByteBuffer;
+
+import com.difference.historybook.textutils.HtmlCharsetDecoder;
+import com.difference.historybook.textutils.IncrementalHtmlTextExtractor;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Captures the text of a response as it passes through the proxy, rather than buffering the whole response.
+ *
+ * Each chunk is shared with the chunk sent on to the client (not copied), decompressed, decoded and fed to an
+ * @IncrementalHtmlTextExtractor, then let go. Only the extracted text is kept, so the memory taken by a
+ * capture depends on the text of the page rather than its size.
+ */
+class StreamingCapture {
+	private final HttpResponse response;
+	private final EmbeddedChannel decompressor = new EmbeddedChannel(new HttpContentDecompressor());
+	private final HtmlCharsetDecoder.Incremental decoder;
+	private final IncrementalHtmlTextExtractor extractor;
+
+	/**
+	 * Constructor for StreamingCapture
+	 *
+	 * @param response the start of the response to capture
+	 * @param maxExtractedChars maximum number of characters of text to keep. 0 for no limit.
+	 */
+	StreamingCapture(HttpResponse response, int maxExtractedChars) {
+		this.response = new DefaultHttpResponse(response.getProtocolVersion(), response.getStatus());
+		this.response.headers().add(response.headers());
+		this.decoder = new HtmlCharsetDecoder.Incremental(response.headers().get(HttpHeaders.Names.CONTENT_TYPE));
+		this.extractor = new IncrementalHtmlTextExtractor(maxExtractedChars);
+
+		// the decompressor only needs the encoding from the headers
+		HttpResponse head = new DefaultHttpResponse(response.getProtocolVersion(), response.getStatus());
+		String encoding = response.headers().get(HttpHeaders.Names.CONTENT_ENCODING);
+		if (encoding != null) {
+			head.headers().set(HttpHeaders.Names.CONTENT_ENCODING, encoding);
+		}
+		decompressor.writeInbound(head);
+		drain();
+	}
+
+	/**
+	 * @param content the next chunk of the response. It is not released, so can still be sent on to the client.
+	 */
+	void add(HttpContent content) {
+		if (extractor.isFull()) return;
+		decompressor.writeInbound(content.duplicate().retain());
+		drain();
+	}
+
+	/**
+	 * @return the captured response. Its content is the extracted text.
+	 */
+	LittleProxyCapturedResponse finish() {
+		decompressor.finish();
+		drain();
+		extractor.feed(decoder.finish()).finish();
+		return new LittleProxyCapturedResponse(response, extractor.getPage());
+	}
+
+	private void drain() {
+		Object decoded;
+		while ((decoded = decompressor.readInbound()) != null) {
+			try {
+				if (decoded instanceof HttpContent && !extractor.isFull()) {
+					ByteBuf buf = ((HttpContent) decoded).content();
+					for (ByteBuffer bytes : buf.nioBuffers(buf.readerIndex(), buf.readableBytes())) {
+						extractor.feed(decoder.decode(bytes));
+					}
+				}
+			} finally {
+				ReferenceCountUtil.release(decoded);
+			}
+		}
+	}
+}
@@ -17,25 +17,29 @@
 package com.difference.historybook.proxyfilter;
 
 import java.time.Instant;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.difference.historybook.index.Index;
-import com.difference.historybook.index.IndexException;
+import com.difference.historybook.proxy.ProxyContent;
 import com.difference.historybook.proxy.ProxyFilter;
 import com.difference.historybook.proxy.ProxyRequest;
 import com.difference.historybook.proxy.ProxyResponse;
 import com.difference.historybook.proxy.ProxyTransactionInfo;
-import com.google.common.base.Charsets;
+import com.difference.historybook.textutils.ExtractedPage;
+import com.difference.historybook.textutils.HtmlCharsetDecoder;
 
 /**
  * An implementation of @ProxyFilter that indexes web pages on the fly
  */
 public class IndexingProxyFilter implements ProxyFilter {
 	private static final Logger LOG = LoggerFactory.getLogger(IndexingProxyFilter.class);
+	private static final IndexingProxyResponseInfoSelector SELECTOR = new IndexingProxyResponseInfoSelector();
 
 	private final ExecutorService executor;
 	
@@ -44,22 +48,13 @@ public class IndexingProxyFilter implements ProxyFilter {
 	
 	private String url;
 	
-	/**
-	 * Constructor for IndexingProxyFilter that delegates indexing to a new single thread queue
-	 * 
-	 * @param index The @Index to submit the indexing request to
-	 * @param defaultCollection The collection namespace to use for indexing requests
-	 */
-	public IndexingProxyFilter(Index index, String defaultCollection) {
-		this(index, defaultCollection, Executors.newSingleThreadExecutor());
-	}
-	
 	/**
 	 * Constructor for IndexingProxyFilter
 	 * 
 	 * @param index The @Index to submit the indexing request to
 	 * @param defaultCollection The collection namespace to use for indexing requests
-	 * @param executor An @ExecutorService to submit indexing requests to
+	 * @param executor An @ExecutorService to submit indexing requests to. This is expected to be 
+	 *                 shared between filters (see @IndexingProxyFilterFactory)
 	 */
 	public IndexingProxyFilter(Index index, String defaultCollection, ExecutorService executor) {
 		this.index = index;
@@ -72,34 +67,55 @@ public class IndexingProxyFilter implements ProxyFilter {
 		this.url = request.getUri();
 	}
 
+	/**
+	 * The entity is retained rather than decoded here, so the proxy thread only takes a reference to it.
+	 * It is decoded on the executor and released once decoded, or if the task never runs. A page the proxy
+	 * has already extracted the title and text of is handed to the index as it is.
+	 */
 	@Override
 	public void processResponse(ProxyResponse response) {
-		if (new IndexingProxyResponseInfoSelector().test(new ProxyTransactionInfo(url, response.getStatus(), response.getHeaders()))) {
-			String content = response.getContentAsString(Charsets.UTF_8); //TODO: Need to use actual charset...
-			executor.submit(() -> {
-				try {
-					LOG.info("INDEXING {}", url);
-					index.indexPage(defaultCollection, url, Instant.now(), content);
-				} catch (IndexException e) {
-					LOG.error(e.getLocalizedMessage());
+		if (SELECTOR.test(new ProxyTransactionInfo(url, response.getStatus(), response.getHeaderView()))) {
+			String contentType = response.getContentType();
+			ExtractedPage extracted = response.getExtractedPage();
+			ProxyContent content = extracted == null ? response.retainContent() : null;
+			String pageUrl = url;
+			FutureTask<Void> task = new FutureTask<Void>(() -> {
+				LOG.info("INDEXING {}", pageUrl);
+				CharSequence text = extracted != null ? extracted : HtmlCharsetDecoder.decode(contentType, content.getBuffers());
+				index.submitPage(defaultCollection, pageUrl, Instant.now(), text)
+					.whenComplete((result, e) -> {
+						if (e != null) LOG.error(e.getLocalizedMessage());
+					});
+				return null;
+			}) {
+				@Override
+				protected void done() {
+					// reached once decoded, and also when the task is cancelled without running
+					release(content);
+					if (isCancelled()) return;
+					try {
+						get();
+					} catch (ExecutionException e) {
+						LOG.error("Unable to index {}: {}", pageUrl, e.getCause().getLocalizedMessage());
+					} catch (InterruptedException e) {
+						// the task has finished, so get does not wait
+						Thread.currentThread().interrupt();
+					}
 				}
-			});
+			};
+			
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				release(content);
+				LOG.error("Unable to index {}: {}", pageUrl, e.getLocalizedMessage());
+			}
 		}
 	}
 	
-	protected void processResponse(ProxyResponse response, boolean asynchronousFlag) {
-		if (new IndexingProxyResponseInfoSelector().test(new ProxyTransactionInfo(url, response.getStatus(), response.getHeaders()))) {
-			String content = response.getContentAsString(Charsets.UTF_8); //TODO: Need to use actual charset...
-			executor.submit(() -> {
-				try {
-					LOG.info("INDEXING {}", url);
-					index.indexPage(defaultCollection, url, Instant.now(), content);
-				} catch (IndexException e) {
-					LOG.error(e.getLocalizedMessage());
-				}
-			});
+	private static void release(ProxyContent content) {
+		if (content != null) {
+			content.release();
 		}
 	}
-	
-
 }
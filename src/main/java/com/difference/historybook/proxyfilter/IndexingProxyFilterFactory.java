@@ -16,30 +16,62 @@
 
 package com.difference.historybook.proxyfilter;
 
+import java.util.concurrent.ExecutorService;
+
+import com.difference.historybook.concurrent.BoundedExecutor;
+import com.difference.historybook.concurrent.OverflowPolicy;
 import com.difference.historybook.index.Index;
 import com.difference.historybook.proxy.ProxyFilter;
 import com.difference.historybook.proxy.ProxyFilterFactory;
 
 /**
  * Implementation of @ProxyFilterFactory that returns IndexingProxyFilters 
+ * 
+ * All of the filters created by a factory submit their indexing requests to a single shared pipeline.
  */
 public class IndexingProxyFilterFactory implements ProxyFilterFactory {
+	private static final int DEFAULT_WORKERS = 1;
+	private static final int DEFAULT_QUEUE_CAPACITY = 100;
+	
 	private final Index index;
 	private final String defaultCollection;
+	private final ExecutorService pipeline;
 	
 	/**
-	 * Constructor for IndexingProxyFilterFactory
+	 * Constructor for IndexingProxyFilterFactory using a default single worker pipeline
+	 * that drops the oldest request when it falls behind
 	 * 
 	 * @param index the @Index to submit the indexing request to
 	 * @param defaultCollection The collection namespace to use for indexing requests
 	 */
 	public IndexingProxyFilterFactory(Index index, String defaultCollection) {
+		this(index, defaultCollection, 
+				new BoundedExecutor("indexing-pipeline", DEFAULT_WORKERS, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST, 0));
+	}
+	
+	/**
+	 * Constructor for IndexingProxyFilterFactory
+	 * 
+	 * @param index the @Index to submit the indexing request to
+	 * @param defaultCollection The collection namespace to use for indexing requests
+	 * @param pipeline the @ExecutorService shared by all filters to run indexing requests on. 
+	 *                 Should be bounded (see @BoundedExecutor) so the proxy never backs up behind indexing.
+	 */
+	public IndexingProxyFilterFactory(Index index, String defaultCollection, ExecutorService pipeline) {
 		this.index = index;
 		this.defaultCollection = defaultCollection;
+		this.pipeline = pipeline;
 	}
 	
 	@Override
 	public ProxyFilter getInstance() {
-		return new IndexingProxyFilter(index, defaultCollection);
+		return new IndexingProxyFilter(index, defaultCollection, pipeline);
+	}
+	
+	/**
+	 * @return the pipeline indexing requests are submitted to
+	 */
+	public ExecutorService getPipeline() {
+		return pipeline;
 	}
 }
@@ -3,16 +3,27 @@ package com.difference.historybook.proxyfilter;
 import java.util.function.Predicate;
 
 import com.difference.historybook.proxy.ProxyTransactionInfo;
+import com.google.common.net.HttpHeaders;
 
 import io.mola.galimatias.GalimatiasParseException;
 import io.mola.galimatias.URL;
 
+/**
+ * Selects the responses worth indexing: successful HTML pages not served from this machine
+ * 
+ * Holds no state, so one instance can be shared by all filters. The cheap checks come first, 
+ * so passing over an image, script or stylesheet allocates nothing.
+ */
 public class IndexingProxyResponseInfoSelector implements Predicate<ProxyTransactionInfo> {
+	private static final String HTML = "text/html";
 
 	@Override
 	public boolean test(ProxyTransactionInfo transactionInfo) {
 		if (transactionInfo.getStatus() != 200) return false;
 		
+		String contentType = transactionInfo.getHeaderView().get(HttpHeaders.CONTENT_TYPE);
+		if (contentType == null || !contentType.regionMatches(true, 0, HTML, 0, HTML.length())) return false;
+		
 		try {
 			String hostname = URL.parse(transactionInfo.getUrl()).host().toString();
 			if (hostname.equalsIgnoreCase("localhost") || hostname.equals("127.0.0.1")) return false;
@@ -20,8 +31,7 @@ public class IndexingProxyResponseInfoSelector implements Predicate<ProxyTransac
 			return false;
 		}
 
-		String contentType = transactionInfo.getHeaders().get("Content-Type");
-		return contentType != null && contentType.startsWith("text/html");
+		return true;
 	}
 
 }
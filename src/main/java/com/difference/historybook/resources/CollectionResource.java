@@ -16,8 +16,20 @@
 
 package com.difference.historybook.resources;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -26,13 +38,22 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.difference.historybook.index.BulkIndexItem;
+import com.difference.historybook.index.BulkIndexResult;
 import com.difference.historybook.index.Index;
 import com.difference.historybook.index.IndexException;
+import com.difference.historybook.index.SearchResult;
 import com.difference.historybook.index.SearchResultWrapper;
+import com.difference.historybook.index.Suggestion;
+import com.difference.historybook.index.WebPage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
 
 /**
  * A resource for interacting with an index collection
@@ -40,15 +61,28 @@ import com.difference.historybook.index.SearchResultWrapper;
 @Path("/collections/{collection}")
 public class CollectionResource {
 	private static final Logger LOG = LoggerFactory.getLogger(CollectionResource.class);
+	private static final int DEFAULT_BULK_BATCH_SIZE = 500;
+	private static final ObjectMapper MAPPER = new ObjectMapper();
 	
 	private final Index index;
+	private final int bulkBatchSize;
 	
 	/**
 	 * Constructor for CollectionResource
 	 * @param index The @Index to submit index/search requests to
 	 */
 	public CollectionResource(Index index) {
+		this(index, DEFAULT_BULK_BATCH_SIZE);
+	}
+	
+	/**
+	 * Constructor for CollectionResource
+	 * @param index The @Index to submit index/search requests to
+	 * @param bulkBatchSize the number of records from a bulk request to hand to the index at a time
+	 */
+	public CollectionResource(Index index, int bulkBatchSize) {
 		this.index = index;
+		this.bulkBatchSize = bulkBatchSize;
 	}
 
 	/**
@@ -109,15 +143,104 @@ public class CollectionResource {
 		return Response.accepted().build(); //TODO: What is the correct response code?
 	}
 	
-	//TODO: support date range queries
-
+	/**
+	 * Add many pages to the search index in one request.
+	 * 
+	 * The body is newline-delimited JSON, one object per page with "url", "body" and an optional 
+	 * ISO-8601 "timestamp" (defaults to now). Records are read off the stream and indexed in batches, 
+	 * so the request is never held in memory as a whole.
+	 * 
+	 * @param collection the namespaced collection to store the pages within
+	 * @param stream the newline-delimited JSON records
+	 * @return the outcome of each record (in request order) along with totals
+	 * @see BulkIndexResult
+	 * @throws IndexException
+	 * @throws IOException
+	 */
+	@POST
+	@Path("/_bulk")
+	@Consumes({"application/x-ndjson", "application/json", "text/plain"})
+	@Produces("application/json")
+	public Response postBulkContentToCollection(
+			@PathParam("collection") String collection,
+			InputStream stream
+			) throws IndexException, IOException {
+		long start = System.currentTimeMillis();
+		BulkIndexResult result = new BulkIndexResult();
+		
+		// records that could not be parsed are kept in place (as failures) so results stay in request order
+		List<BulkIndexItem> batchItems = new ArrayList<>(bulkBatchSize);
+		List<WebPage> batchPages = new ArrayList<>(bulkBatchSize);
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(stream, Charsets.UTF_8));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.trim().isEmpty()) continue;
+			
+			try {
+				batchPages.add(parseBulkRecord(line));
+				batchItems.add(null);
+			} catch (IOException | IllegalArgumentException | DateTimeParseException e) {
+				batchItems.add(new BulkIndexItem(null, "Unable to parse record: " + e.getLocalizedMessage()));
+			}
+			
+			if (batchItems.size() >= bulkBatchSize) {
+				flushBulkBatch(collection, batchItems, batchPages, result);
+			}
+		}
+		flushBulkBatch(collection, batchItems, batchPages, result);
+		
+		result.setTookMillis(System.currentTimeMillis() - start);
+		LOG.info("Bulk indexed {} of {} records into {} in {}ms", 
+				result.getIndexed(), result.getTotal(), collection, result.getTookMillis());
+		return Response.ok().entity(result).build();
+	}
+	
+	private static WebPage parseBulkRecord(String line) throws IOException {
+		JsonNode record = MAPPER.readTree(line);
+		JsonNode url = record.get("url");
+		JsonNode body = record.get("body");
+		JsonNode timestamp = record.get("timestamp");
+		if (url == null || !url.isTextual()) throw new IllegalArgumentException("missing url");
+		if (body == null || !body.isTextual()) throw new IllegalArgumentException("missing body");
+		
+		return new WebPage(
+				url.asText(),
+				timestamp != null && !timestamp.isNull() ? Instant.parse(timestamp.asText()) : Instant.now(),
+				body.asText());
+	}
+	
+	private void flushBulkBatch(
+			String collection, 
+			List<BulkIndexItem> batchItems, 
+			List<WebPage> batchPages, 
+			BulkIndexResult result) throws IndexException {
+		Iterator<BulkIndexItem> indexed = batchPages.isEmpty() 
+				? null : index.indexPages(collection, batchPages).iterator();
+		for (BulkIndexItem item : batchItems) {
+			result.add(item != null ? item : indexed.next());
+		}
+		batchItems.clear();
+		batchPages.clear();
+	}
+	
 	/**
 	 * Execute a search against the index
 	 * 
+	 * The query may include after:, before: and site: operators to filter the results. The from, to and domain
+	 * parameters are the same filters given separately.
+	 * 
 	 * @param collection the namespaced collection to search within
 	 * @param query the query to pass to the index
 	 * @param offsetString 0 based offset within the search results (used for paging)
 	 * @param sizeString maximum number of results to return
+	 * @param cursor the cursor returned with the previous page of results. Takes the place of the offset for later pages.
+	 * @param from only return pages last visited at or after this ISO-8601 date or instant
+	 * @param to only return pages last visited before this ISO-8601 date or instant
+	 * @param domain only return pages on this domain
+	 * @param facetsFlag also count all of the results by domain and by month
+	 * @param snippetsFlag build a snippet for each result. Leaving them out returns results much sooner, and
+	 *        their snippets can be fetched with {@link #getSnippets(String, String, List)}.
 	 * @return the search results within a metadata wrapper
 	 * @see Response
 	 * @throws NumberFormatException
@@ -130,13 +253,173 @@ public class CollectionResource {
 			@QueryParam("q") String query,
 			@QueryParam("offset") @DefaultValue("0") String offsetString,
 			@QueryParam("size") @DefaultValue("10") String sizeString,
-			@QueryParam("debug") @DefaultValue("false") boolean debugFlag
+			@QueryParam("debug") @DefaultValue("false") boolean debugFlag,
+			@QueryParam("cursor") String cursor,
+			@QueryParam("from") String from,
+			@QueryParam("to") String to,
+			@QueryParam("domain") String domain,
+			@QueryParam("facets") @DefaultValue("false") boolean facetsFlag,
+			@QueryParam("snippets") @DefaultValue("true") boolean snippetsFlag
 			) throws NumberFormatException, IndexException {
-		LOG.debug("Query: {} query:{} offset:{} size:{} debug:{}", collection, query, offsetString, sizeString, debugFlag);
-		SearchResultWrapper results = index.search(
-				collection, query, 
-				Integer.parseInt(offsetString), Integer.parseInt(sizeString), debugFlag);
+		LOG.debug("Query: {} query:{} offset:{} size:{} debug:{} cursor:{} from:{} to:{} domain:{} facets:{} snippets:{}", 
+				collection, query, offsetString, sizeString, debugFlag, cursor, from, to, domain, facetsFlag, snippetsFlag);
+		query = withOperator(withOperator(withOperator(query, "after", from), "before", to), "site", domain);
+		SearchResultWrapper results = search(collection, query, offsetString, sizeString, debugFlag, cursor, facetsFlag, snippetsFlag);
 		return Response.ok().entity(results).build();
 	}
+	
+	/**
+	 * Execute a search against the index, streaming the results back as they are ready
+	 * 
+	 * The response is newline delimited JSON. The first line is the search results within a metadata wrapper, 
+	 * without snippets, so they can be shown straight away. It is followed by a line for each result as its 
+	 * snippet is built, holding the key and snippet of the result. Results sharing a key share a line.
+	 * 
+	 * @param collection the namespaced collection to search within
+	 * @param query the query to pass to the index
+	 * @param offsetString 0 based offset within the search results (used for paging)
+	 * @param sizeString maximum number of results to return
+	 * @param cursor the cursor returned with the previous page of results. Takes the place of the offset for later pages.
+	 * @param from only return pages last visited at or after this ISO-8601 date or instant
+	 * @param to only return pages last visited before this ISO-8601 date or instant
+	 * @param domain only return pages on this domain
+	 * @param facetsFlag also count all of the results by domain and by month
+	 * @return the streamed search results
+	 * @see Response
+	 * @throws NumberFormatException
+	 * @throws IndexException
+	 */
+	@GET
+	@Path("/_stream")
+	@Produces("application/x-ndjson")
+	public Response getSearchResultStream(
+			@PathParam("collection") String collection,
+			@QueryParam("q") String query,
+			@QueryParam("offset") @DefaultValue("0") String offsetString,
+			@QueryParam("size") @DefaultValue("10") String sizeString,
+			@QueryParam("cursor") String cursor,
+			@QueryParam("from") String from,
+			@QueryParam("to") String to,
+			@QueryParam("domain") String domain,
+			@QueryParam("facets") @DefaultValue("false") boolean facetsFlag
+			) throws NumberFormatException, IndexException {
+		LOG.debug("Stream: {} query:{} offset:{} size:{} cursor:{} from:{} to:{} domain:{} facets:{}", 
+				collection, query, offsetString, sizeString, cursor, from, to, domain, facetsFlag);
+		String filtered = withOperator(withOperator(withOperator(query, "after", from), "before", to), "site", domain);
+		// the search runs before anything is written so its failures are reported with the usual status
+		SearchResultWrapper results = search(collection, filtered, offsetString, sizeString, false, cursor, facetsFlag, false);
+		
+		StreamingOutput stream = out -> {
+			writeLine(out, results);
+			LinkedHashSet<String> keys = new LinkedHashSet<>();
+			for (SearchResult result : results.getResults()) {
+				keys.add(result.getKey());
+			}
+			try {
+				// all of the snippets are built together, each written out as soon as it is ready
+				index.snippets(collection, filtered, new ArrayList<>(keys), 
+						(key, snippet) -> writeLine(out, MAPPER.createObjectNode().put("key", key).put("snippet", snippet)));
+			} catch (IndexException e) {
+				LOG.error("Unable to stream snippets for {}: {}", collection, e.getLocalizedMessage());
+				throw new IOException(e);
+			}
+		};
+		return Response.ok(stream).build();
+	}
+	
+	private SearchResultWrapper search(String collection, String query, String offsetString, String sizeString, 
+			boolean debugFlag, String cursor, boolean facetsFlag, boolean snippetsFlag) throws NumberFormatException, IndexException {
+		return cursor != null 
+				? index.searchAfter(collection, query, cursor, Integer.parseInt(sizeString), debugFlag, snippetsFlag)
+				: index.search(collection, query, Integer.parseInt(offsetString), Integer.parseInt(sizeString), debugFlag, facetsFlag, snippetsFlag);
+	}
+	
+	private static void writeLine(OutputStream out, Object value) throws IOException {
+		out.write(MAPPER.writeValueAsBytes(value));
+		out.write('\n');
+		out.flush();
+	}
+	
+	/**
+	 * Build the snippets for results of a search made without them
+	 * 
+	 * @param collection the namespaced collection the results are from
+	 * @param query the query the results came from
+	 * @param keys the keys of the results
+	 * @return the snippet for each key found, by key
+	 * @see Response
+	 * @throws IndexException
+	 */
+	@GET
+	@Path("/_snippets")
+	@Produces("application/json")
+	public Response getSnippets(
+			@PathParam("collection") String collection,
+			@QueryParam("q") String query,
+			@QueryParam("key") List<String> keys
+			) throws IndexException {
+		LOG.debug("Snippets: {} query:{} keys:{}", collection, query, keys);
+		Map<String, String> snippets = index.snippets(collection, query, keys);
+		return Response.ok().entity(snippets).build();
+	}
+	
+	private static String withOperator(String query, String operator, String value) {
+		if (value == null || value.trim().isEmpty()) return query;
+		String filter = operator + ":" + value.trim();
+		return query == null || query.trim().isEmpty() ? filter : query + " " + filter;
+	}
+	
+	/**
+	 * List the indexed versions of a page. Searches only return the most recently visited version.
+	 * 
+	 * @param collection the namespaced collection the page is stored within
+	 * @param url the URL of the page
+	 * @param offsetString the 0-based offset to begin retrieving versions from
+	 * @param sizeString the maximum number of versions to return
+	 * @return the versions of the page, most recently visited first
+	 * @see Response
+	 * @throws NumberFormatException
+	 * @throws IndexException
+	 */
+	@GET
+	@Path("/_versions")
+	@Produces("application/json")
+	public Response getVersions(
+			@PathParam("collection") String collection,
+			@QueryParam("url") String url,
+			@QueryParam("offset") @DefaultValue("0") String offsetString,
+			@QueryParam("size") @DefaultValue("10") String sizeString
+			) throws NumberFormatException, IndexException {
+		LOG.debug("Versions: {} url:{} offset:{} size:{}", collection, url, offsetString, sizeString);
+		SearchResultWrapper results = index.versions(
+				collection, url, 
+				Integer.parseInt(offsetString), Integer.parseInt(sizeString));
+		return Response.ok().entity(results).build();
+	}
+	
+	/**
+	 * Complete a prefix to the titles, urls and domains of pages in a collection. Much cheaper than a search,
+	 * so suitable for calling on every keystroke.
+	 * 
+	 * @param collection the namespaced collection to suggest pages from
+	 * @param prefix what the user has typed so far
+	 * @param sizeString the maximum number of suggestions to return
+	 * @return suggestions, the most visited (weighted by recency) first
+	 * @see Response
+	 * @throws NumberFormatException
+	 * @throws IndexException
+	 */
+	@GET
+	@Path("/suggest")
+	@Produces("application/json")
+	public Response getSuggestions(
+			@PathParam("collection") String collection,
+			@QueryParam("prefix") String prefix,
+			@QueryParam("size") @DefaultValue("10") String sizeString
+			) throws NumberFormatException, IndexException {
+		LOG.debug("Suggest: {} prefix:{} size:{}", collection, prefix, sizeString);
+		List<Suggestion> suggestions = index.suggest(collection, prefix, Integer.parseInt(sizeString));
+		return Response.ok().entity(suggestions).build();
+	}
 
 }
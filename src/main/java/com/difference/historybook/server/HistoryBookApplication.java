@@ -19,10 +19,19 @@ package com.difference.historybook.server;
 import java.nio.file.Paths;
 import java.util.function.Predicate;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.difference.historybook.concurrent.BoundedExecutor;
+import com.difference.historybook.concurrent.OverflowPolicy;
 import com.difference.historybook.index.Index;
 import com.difference.historybook.index.lucene.LuceneIndex;
+import com.difference.historybook.index.lucene.JournalReplayStatistics;
+import com.difference.historybook.index.lucene.LuceneIndexSettings;
+import com.difference.historybook.index.lucene.PartitionedLuceneIndex;
+import com.difference.historybook.proxy.HostCertificateAuthority;
 import com.difference.historybook.proxy.Proxy;
 import com.difference.historybook.proxy.ProxyFilterFactory;
+import com.difference.historybook.proxy.ProxyStatistics;
 import com.difference.historybook.proxy.ProxyTransactionInfo;
 import com.difference.historybook.proxy.littleproxy.LittleProxy;
 import com.difference.historybook.proxyfilter.IndexingProxyFilterFactory;
@@ -31,13 +40,17 @@ import com.difference.historybook.resources.CollectionResource;
 
 import io.dropwizard.Application;
 import io.dropwizard.assets.AssetsBundle;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
 
 /**
  * Main application 
  */
 public class HistoryBookApplication extends Application<HistoryBookConfiguration>{
+	private static final int CERTIFICATE_QUEUE_CAPACITY = 100;
+	
 	public static void main(String[] args) throws Exception {
         new HistoryBookApplication().run(args);
     }
@@ -54,14 +67,100 @@ public class HistoryBookApplication extends Application<HistoryBookConfiguration
 
 	@Override
 	public void run(HistoryBookConfiguration configuration, Environment environment) throws Exception {
-		final Index index = new LuceneIndex(Paths.get(configuration.getDataDirectory()));
-		final ProxyFilterFactory filterFactory = new IndexingProxyFilterFactory(index, configuration.getDefaultCollection());
+		final LuceneIndexSettings indexSettings = new LuceneIndexSettings()
+				.setRefreshIntervalMillis(configuration.getIndexRefreshInterval())
+				.setCommitIntervalMillis(configuration.getIndexCommitInterval())
+				.setJournalSyncIntervalMillis(configuration.getJournalSyncInterval())
+				.setJournalSyncDocuments(configuration.getJournalSyncDocuments())
+				.setExpectedPageVersions(configuration.getIndexExpectedPageVersions())
+				.setExtractionThreads(configuration.getIndexExtractionThreads())
+				.setWriterThreads(configuration.getIndexWriterThreads())
+				.setExtractionEngine(configuration.getIndexExtractionEngine())
+				.setMaxExtractedChars(configuration.getIndexMaxExtractedChars())
+				.setBodyStoreEnabled(configuration.isIndexExternalBodies())
+				.setHotPartitions(configuration.getIndexHotPartitions())
+				.setRetainedPartitions(configuration.getIndexRetainedPartitions())
+				.setResultCacheBytes(configuration.getIndexResultCacheBytes())
+				.setFilterCacheBytes(configuration.getIndexFilterCacheBytes())
+				.setFacetDomains(configuration.getIndexFacetDomains())
+				.setRankingMode(configuration.getIndexRankingMode())
+				.setSnippetEngine(configuration.getIndexSnippetEngine())
+				.setSnippetPassages(configuration.getIndexSnippetPassages())
+				.setSnippetPassageLength(configuration.getIndexSnippetPassageLength())
+				.setSearchThreads(configuration.getIndexSearchThreads())
+				.setSuggestEnabled(configuration.isIndexSuggest());
+		final Index index;
+		if (configuration.isIndexPartitioned()) {
+			final PartitionedLuceneIndex partitionedIndex = new PartitionedLuceneIndex(Paths.get(configuration.getDataDirectory()), indexSettings);
+			registerExecutorMetrics(environment.metrics(), partitionedIndex.getExtractionStage());
+			registerExecutorMetrics(environment.metrics(), partitionedIndex.getWriterStage());
+			if (partitionedIndex.getSearchStage() != null) {
+				registerExecutorMetrics(environment.metrics(), partitionedIndex.getSearchStage());
+			}
+			environment.metrics().register(MetricRegistry.name(PartitionedLuceneIndex.class, "partitions"), (Gauge<Integer>) partitionedIndex::getPartitionCount);
+			index = partitionedIndex;
+		} else {
+			final LuceneIndex luceneIndex = new LuceneIndex(Paths.get(configuration.getDataDirectory()), indexSettings);
+			registerExecutorMetrics(environment.metrics(), luceneIndex.getExtractionStage());
+			registerExecutorMetrics(environment.metrics(), luceneIndex.getWriterStage());
+			if (luceneIndex.getSearchStage() != null) {
+				registerExecutorMetrics(environment.metrics(), luceneIndex.getSearchStage());
+			}
+			registerReplayMetrics(environment.metrics(), luceneIndex.getJournalReplayStatistics());
+			environment.metrics().register(MetricRegistry.name(LuceneIndex.class, "revisits"), (Gauge<Long>) luceneIndex::getRevisitCount);
+			environment.metrics().register(MetricRegistry.name(LuceneIndex.class, "bodies"), (Gauge<Integer>) luceneIndex::getBodyStoreCount);
+			environment.metrics().register(MetricRegistry.name(LuceneIndex.class, "bodyBytes"), (Gauge<Long>) luceneIndex::getBodyStoreSize);
+			registerResultCacheMetrics(environment.metrics(), luceneIndex);
+			registerFilterCacheMetrics(environment.metrics(), luceneIndex);
+			index = luceneIndex;
+		}
+		final BoundedExecutor indexingPipeline = new BoundedExecutor(
+				"indexing-pipeline",
+				configuration.getIndexingWorkers(),
+				configuration.getIndexingQueueCapacity(),
+				configuration.getIndexingOverflowPolicy(),
+				configuration.getIndexingBlockTimeout());
+		registerExecutorMetrics(environment.metrics(), indexingPipeline);
+		final ProxyFilterFactory filterFactory = new IndexingProxyFilterFactory(index, configuration.getDefaultCollection(), indexingPipeline);
 		final Predicate<ProxyTransactionInfo> selector = new IndexingProxyResponseInfoSelector();
+		HostCertificateAuthority certificateAuthority = null;
+		if (configuration.isProxyIntercept()) {
+			// the proxy's event loop asks for certificates, so never waits for room in the queue. When it is full
+			// new hosts are turned away at once and their handshakes fail rather than wait (see LittleProxyMitmManager).
+			// The queue is kept short, as hosts queued much longer than the certificate timeout fail anyway.
+			final BoundedExecutor certificateIssuer = new BoundedExecutor(
+					"certificate-issuer",
+					configuration.getProxyCertificateThreads(),
+					CERTIFICATE_QUEUE_CAPACITY,
+					OverflowPolicy.DROP_NEWEST,
+					0);
+			registerExecutorMetrics(environment.metrics(), certificateIssuer);
+			environment.lifecycle().manage(new ExecutorServiceManager(certificateIssuer, Duration.seconds(5), certificateIssuer.getName()));
+			certificateAuthority = new HostCertificateAuthority(
+					Paths.get(configuration.getDataDirectory(), "certificates"),
+					configuration.getKeyStorePassword(),
+					"HistoryBook Local Authority",
+					"HistoryBook",
+					configuration.getCertDuration(),
+					configuration.getProxyCertificateCacheSize(),
+					certificateIssuer);
+			environment.metrics().register(MetricRegistry.name(HostCertificateAuthority.class, "cached"), 
+					(Gauge<Long>) certificateAuthority::getCachedHostCount);
+		}
 		final Proxy proxy = new LittleProxy()
 				.setPort(configuration.getProxyPort())
+				.setConnectTimeout(configuration.getProxyConnectTimeout())
+				.setIdleConnectionTimeout(configuration.getProxyIdleConnectionTimeout())
+				.setThrottling(configuration.getProxyReadThrottle(), configuration.getProxyWriteThrottle())
+				.setAllowLocalOnly(configuration.isProxyAllowLocalOnly())
 				.setFilterFactory(filterFactory)
 				.setResponseFilterSelector(selector)
-				.setMaxBufferSize(configuration.getMaxBufferSize());
+				.setMaxBufferSize(configuration.getMaxBufferSize())
+				.setStreamingCapture(configuration.isProxyStreamingCapture())
+				.setMaxCapturedChars(configuration.getIndexMaxExtractedChars())
+				.setCertificateAuthority(certificateAuthority)
+				.setCertificateTimeout(configuration.getProxyCertificateTimeout());
+		registerProxyMetrics(environment.metrics(), proxy.getStatistics());
 		
 		final CollectionResource collectionResource = new CollectionResource(index); 
 		environment.jersey().register(collectionResource);
@@ -74,7 +173,50 @@ public class HistoryBookApplication extends Application<HistoryBookConfiguration
 				"HistoryBook",
 				configuration.getCertDuration());
 
+		environment.lifecycle().manage(new ManagedIndex(index));
+		environment.lifecycle().manage(new ExecutorServiceManager(indexingPipeline, Duration.seconds(30), indexingPipeline.getName()));
 		environment.lifecycle().manage(new ManagedProxy(proxy));
 	}
 	
+	private static void registerExecutorMetrics(MetricRegistry metrics, BoundedExecutor executor) {
+		metrics.register(MetricRegistry.name(executor.getName(), "queue", "depth"), (Gauge<Integer>) executor::getQueueDepth);
+		metrics.register(MetricRegistry.name(executor.getName(), "active"), (Gauge<Integer>) executor::getActiveCount);
+		metrics.register(MetricRegistry.name(executor.getName(), "submitted"), (Gauge<Long>) executor::getSubmittedCount);
+		metrics.register(MetricRegistry.name(executor.getName(), "completed"), (Gauge<Long>) executor::getCompletedTaskCount);
+		metrics.register(MetricRegistry.name(executor.getName(), "rejected"), (Gauge<Long>) executor::getRejectedCount);
+		metrics.register(MetricRegistry.name(executor.getName(), "failed"), (Gauge<Long>) executor::getFailedCount);
+	}
+	
+	private static void registerProxyMetrics(MetricRegistry metrics, ProxyStatistics stats) {
+		metrics.register(MetricRegistry.name(Proxy.class, "connections"), (Gauge<Long>) stats::getConnections);
+		metrics.register(MetricRegistry.name(Proxy.class, "connections", "active"), (Gauge<Long>) stats::getActiveConnections);
+		metrics.register(MetricRegistry.name(Proxy.class, "requests"), (Gauge<Long>) stats::getRequests);
+		metrics.register(MetricRegistry.name(Proxy.class, "bytes", "fromClients"), (Gauge<Long>) stats::getBytesFromClients);
+		metrics.register(MetricRegistry.name(Proxy.class, "bytes", "toClients"), (Gauge<Long>) stats::getBytesToClients);
+		metrics.register(MetricRegistry.name(Proxy.class, "filters", "nanos"), (Gauge<Long>) stats::getFilterNanos);
+		metrics.register(MetricRegistry.name(Proxy.class, "filters", "busyShare"), (Gauge<Double>) stats::getFilterBusyShare);
+	}
+	
+	private static void registerResultCacheMetrics(MetricRegistry metrics, LuceneIndex index) {
+		if (index.getResultCacheStats() == null) return;
+		metrics.register(MetricRegistry.name(LuceneIndex.class, "resultCache", "hits"), (Gauge<Long>) () -> index.getResultCacheStats().hitCount());
+		metrics.register(MetricRegistry.name(LuceneIndex.class, "resultCache", "misses"), (Gauge<Long>) () -> index.getResultCacheStats().missCount());
+		metrics.register(MetricRegistry.name(LuceneIndex.class, "resultCache", "evictions"), (Gauge<Long>) () -> index.getResultCacheStats().evictionCount());
+	}
+	
+	private static void registerFilterCacheMetrics(MetricRegistry metrics, LuceneIndex index) {
+		if (index.getFilterCacheStats() == null) return;
+		metrics.register(MetricRegistry.name(LuceneIndex.class, "filterCache", "hits"), (Gauge<Long>) () -> index.getFilterCacheStats().hitCount());
+		metrics.register(MetricRegistry.name(LuceneIndex.class, "filterCache", "misses"), (Gauge<Long>) () -> index.getFilterCacheStats().missCount());
+		metrics.register(MetricRegistry.name(LuceneIndex.class, "filterCache", "evictions"), (Gauge<Long>) () -> index.getFilterCacheStats().evictionCount());
+	}
+	
+	private static void registerReplayMetrics(MetricRegistry metrics, JournalReplayStatistics stats) {
+		if (stats == null) return;
+		metrics.register(MetricRegistry.name(LuceneIndex.class, "journal", "replay", "read"), (Gauge<Long>) stats::getEntriesRead);
+		metrics.register(MetricRegistry.name(LuceneIndex.class, "journal", "replay", "replayed"), (Gauge<Long>) stats::getEntriesReplayed);
+		metrics.register(MetricRegistry.name(LuceneIndex.class, "journal", "replay", "skipped"), (Gauge<Long>) stats::getEntriesSkipped);
+		metrics.register(MetricRegistry.name(LuceneIndex.class, "journal", "replay", "discardedBytes"), (Gauge<Long>) stats::getBytesDiscarded);
+	}
+	
 }
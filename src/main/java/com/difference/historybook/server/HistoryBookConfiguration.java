@@ -18,6 +18,10 @@ package com.difference.historybook.server;
 
 import org.hibernate.validator.constraints.NotEmpty;
 
+import com.difference.historybook.concurrent.OverflowPolicy;
+import com.difference.historybook.index.lucene.RankingMode;
+import com.difference.historybook.index.lucene.SnippetEngine;
+import com.difference.historybook.textutils.ExtractionEngine;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import io.dropwizard.Configuration;
@@ -30,8 +34,44 @@ public class HistoryBookConfiguration extends Configuration {
 	private String dataDirectory = System.getProperty("user.home") + "/Library/Application Support/HistoryBook";
 	private String defaultCollection = "default";
 	private int maxBufferSize = 1 * 1024 * 1024;
+	private boolean proxyStreamingCapture = false;
+	private boolean proxyIntercept = false;
+	private int proxyCertificateCacheSize = 1000;
+	private int proxyCertificateThreads = 1;
+	private long proxyCertificateTimeout = 1000;
 	private int proxyPort = 8082;
+	private int proxyConnectTimeout = 40 * 1000;
+	private int proxyIdleConnectionTimeout = 70;
+	private long proxyReadThrottle = 0;
+	private long proxyWriteThrottle = 0;
+	private boolean proxyAllowLocalOnly = true;
 	private long certDuration = 365*24*3600L;
+	private long indexRefreshInterval = 1000;
+	private long indexCommitInterval = 60 * 1000;
+	private long journalSyncInterval = 1000;
+	private int journalSyncDocuments = 500;
+	private int indexExpectedPageVersions = 1000000;
+	private int indexExtractionThreads = Runtime.getRuntime().availableProcessors();
+	private int indexWriterThreads = 1;
+	private ExtractionEngine indexExtractionEngine = ExtractionEngine.STREAMING;
+	private int indexMaxExtractedChars = 0;
+	private boolean indexExternalBodies = false;
+	private boolean indexPartitioned = false;
+	private int indexHotPartitions = 2;
+	private int indexRetainedPartitions = 0;
+	private long indexResultCacheBytes = 16 * 1024 * 1024;
+	private long indexFilterCacheBytes = 16 * 1024 * 1024;
+	private int indexFacetDomains = 10;
+	private RankingMode indexRankingMode = RankingMode.BUCKETED;
+	private SnippetEngine indexSnippetEngine = SnippetEngine.POSTINGS;
+	private int indexSnippetPassages = 3;
+	private int indexSnippetPassageLength = 160;
+	private int indexSearchThreads = 0;
+	private boolean indexSuggest = true;
+	private int indexingWorkers = 1;
+	private int indexingQueueCapacity = 100;
+	private OverflowPolicy indexingOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+	private long indexingBlockTimeout = 100;
 
 	// These seem to need to take effect in the constructor. 
 	// They are ignored if configured later.
@@ -111,6 +151,508 @@ public class HistoryBookConfiguration extends Configuration {
 		this.maxBufferSize = maxBufferSize;
 	}
 
+	/**
+	 * @return whether pages are captured for indexing by extracting their text as they stream through the proxy, 
+	 * instead of buffering them (up to the max buffer size)
+	 */
+	@JsonProperty
+	public boolean isProxyStreamingCapture() {
+		return proxyStreamingCapture;
+	}
+
+	/**
+	 * @param proxyStreamingCapture whether pages are captured for indexing by extracting their text as they stream 
+	 * through the proxy, instead of buffering them (up to the max buffer size)
+	 */
+	@JsonProperty
+	public void setProxyStreamingCapture(boolean proxyStreamingCapture) {
+		this.proxyStreamingCapture = proxyStreamingCapture;
+	}
+
+	/**
+	 * @return whether HTTPS traffic is intercepted so its pages can be indexed. Browsers must trust the 
+	 * certificate authority created in the data directory.
+	 */
+	@JsonProperty
+	public boolean isProxyIntercept() {
+		return proxyIntercept;
+	}
+
+	/**
+	 * @param proxyIntercept whether HTTPS traffic is intercepted so its pages can be indexed. Browsers must 
+	 * trust the certificate authority created in the data directory.
+	 */
+	@JsonProperty
+	public void setProxyIntercept(boolean proxyIntercept) {
+		this.proxyIntercept = proxyIntercept;
+	}
+
+	/**
+	 * @return number of host certificates to keep in memory when intercepting HTTPS traffic
+	 */
+	@JsonProperty
+	public int getProxyCertificateCacheSize() {
+		return proxyCertificateCacheSize;
+	}
+
+	/**
+	 * @param proxyCertificateCacheSize number of host certificates to keep in memory when intercepting HTTPS traffic
+	 */
+	@JsonProperty
+	public void setProxyCertificateCacheSize(int proxyCertificateCacheSize) {
+		this.proxyCertificateCacheSize = proxyCertificateCacheSize;
+	}
+
+	/**
+	 * @return number of threads issuing host certificates when intercepting HTTPS traffic
+	 */
+	@JsonProperty
+	public int getProxyCertificateThreads() {
+		return proxyCertificateThreads;
+	}
+
+	/**
+	 * @param proxyCertificateThreads number of threads issuing host certificates when intercepting HTTPS traffic
+	 */
+	@JsonProperty
+	public void setProxyCertificateThreads(int proxyCertificateThreads) {
+		this.proxyCertificateThreads = proxyCertificateThreads;
+	}
+
+	/**
+	 * @return how long an intercepted HTTPS handshake waits for its host's certificate to be issued (in ms).
+	 * The wait holds up a proxy thread, so it should be short.
+	 */
+	@JsonProperty
+	public long getProxyCertificateTimeout() {
+		return proxyCertificateTimeout;
+	}
+
+	/**
+	 * @param proxyCertificateTimeout how long an intercepted HTTPS handshake waits for its host's certificate 
+	 * to be issued (in ms). The wait holds up a proxy thread, so it should be short.
+	 */
+	@JsonProperty
+	public void setProxyCertificateTimeout(long proxyCertificateTimeout) {
+		this.proxyCertificateTimeout = proxyCertificateTimeout;
+	}
+
+	/**
+	 * @return how often newly indexed pages become visible to searches (in ms)
+	 */
+	@JsonProperty
+	public long getIndexRefreshInterval() {
+		return indexRefreshInterval;
+	}
+
+	/**
+	 * @param indexRefreshInterval how often newly indexed pages become visible to searches (in ms)
+	 */
+	@JsonProperty
+	public void setIndexRefreshInterval(long indexRefreshInterval) {
+		this.indexRefreshInterval = indexRefreshInterval;
+	}
+
+	/**
+	 * @return how often pending index changes are committed to disk (in ms)
+	 */
+	@JsonProperty
+	public long getIndexCommitInterval() {
+		return indexCommitInterval;
+	}
+
+	/**
+	 * @param indexCommitInterval how often pending index changes are committed to disk (in ms)
+	 */
+	@JsonProperty
+	public void setIndexCommitInterval(long indexCommitInterval) {
+		this.indexCommitInterval = indexCommitInterval;
+	}
+
+	/**
+	 * @return how often the index journal is synced to disk (in ms)
+	 */
+	@JsonProperty
+	public long getJournalSyncInterval() {
+		return journalSyncInterval;
+	}
+
+	/**
+	 * @param journalSyncInterval how often the index journal is synced to disk (in ms)
+	 */
+	@JsonProperty
+	public void setJournalSyncInterval(long journalSyncInterval) {
+		this.journalSyncInterval = journalSyncInterval;
+	}
+
+	/**
+	 * @return number of journaled pages after which the index journal is synced to disk
+	 */
+	@JsonProperty
+	public int getJournalSyncDocuments() {
+		return journalSyncDocuments;
+	}
+
+	/**
+	 * @param journalSyncDocuments number of journaled pages after which the index journal is synced to disk
+	 */
+	@JsonProperty
+	public void setJournalSyncDocuments(int journalSyncDocuments) {
+		this.journalSyncDocuments = journalSyncDocuments;
+	}
+
+	/**
+	 * @return number of distinct page versions the index revisit detection filter is sized for
+	 */
+	@JsonProperty
+	public int getIndexExpectedPageVersions() {
+		return indexExpectedPageVersions;
+	}
+
+	/**
+	 * @param indexExpectedPageVersions number of distinct page versions the index revisit detection filter is sized for
+	 */
+	@JsonProperty
+	public void setIndexExpectedPageVersions(int indexExpectedPageVersions) {
+		this.indexExpectedPageVersions = indexExpectedPageVersions;
+	}
+
+	/**
+	 * @return number of threads extracting text from pages before they are indexed
+	 */
+	@JsonProperty
+	public int getIndexExtractionThreads() {
+		return indexExtractionThreads;
+	}
+
+	/**
+	 * @param indexExtractionThreads number of threads extracting text from pages before they are indexed
+	 */
+	@JsonProperty
+	public void setIndexExtractionThreads(int indexExtractionThreads) {
+		this.indexExtractionThreads = indexExtractionThreads;
+	}
+
+	/**
+	 * @return number of threads adding extracted pages to the index
+	 */
+	@JsonProperty
+	public int getIndexWriterThreads() {
+		return indexWriterThreads;
+	}
+
+	/**
+	 * @param indexWriterThreads number of threads adding extracted pages to the index
+	 */
+	@JsonProperty
+	public void setIndexWriterThreads(int indexWriterThreads) {
+		this.indexWriterThreads = indexWriterThreads;
+	}
+
+	/**
+	 * @return the engine used to extract text from pages before they are indexed
+	 */
+	@JsonProperty
+	public ExtractionEngine getIndexExtractionEngine() {
+		return indexExtractionEngine;
+	}
+
+	/**
+	 * @param indexExtractionEngine the engine used to extract text from pages before they are indexed
+	 */
+	@JsonProperty
+	public void setIndexExtractionEngine(ExtractionEngine indexExtractionEngine) {
+		this.indexExtractionEngine = indexExtractionEngine;
+	}
+
+	/**
+	 * @return maximum number of characters of text indexed per page (0 for no limit)
+	 */
+	@JsonProperty
+	public int getIndexMaxExtractedChars() {
+		return indexMaxExtractedChars;
+	}
+
+	/**
+	 * @param indexMaxExtractedChars maximum number of characters of text indexed per page (0 for no limit)
+	 */
+	@JsonProperty
+	public void setIndexMaxExtractedChars(int indexMaxExtractedChars) {
+		this.indexMaxExtractedChars = indexMaxExtractedChars;
+	}
+
+	/**
+	 * @return whether page text is kept in a compressed store outside of the index
+	 */
+	@JsonProperty
+	public boolean isIndexExternalBodies() {
+		return indexExternalBodies;
+	}
+
+	/**
+	 * @param indexExternalBodies whether page text is kept in a compressed store outside of the index
+	 */
+	@JsonProperty
+	public void setIndexExternalBodies(boolean indexExternalBodies) {
+		this.indexExternalBodies = indexExternalBodies;
+	}
+
+	/**
+	 * @return whether the index is split into monthly partitions
+	 */
+	@JsonProperty
+	public boolean isIndexPartitioned() {
+		return indexPartitioned;
+	}
+
+	/**
+	 * @param indexPartitioned whether the index is split into monthly partitions
+	 */
+	@JsonProperty
+	public void setIndexPartitioned(boolean indexPartitioned) {
+		this.indexPartitioned = indexPartitioned;
+	}
+
+	/**
+	 * @return number of most recent monthly partitions kept open for writing
+	 */
+	@JsonProperty
+	public int getIndexHotPartitions() {
+		return indexHotPartitions;
+	}
+
+	/**
+	 * @param indexHotPartitions number of most recent monthly partitions kept open for writing
+	 */
+	@JsonProperty
+	public void setIndexHotPartitions(int indexHotPartitions) {
+		this.indexHotPartitions = indexHotPartitions;
+	}
+
+	/**
+	 * @return number of most recent monthly partitions of history kept (0 keeps everything)
+	 */
+	@JsonProperty
+	public int getIndexRetainedPartitions() {
+		return indexRetainedPartitions;
+	}
+
+	/**
+	 * @param indexRetainedPartitions number of most recent monthly partitions of history kept (0 keeps everything)
+	 */
+	@JsonProperty
+	public void setIndexRetainedPartitions(int indexRetainedPartitions) {
+		this.indexRetainedPartitions = indexRetainedPartitions;
+	}
+
+	/**
+	 * @return approximate memory budget for cached search results in bytes (0 disables the cache)
+	 */
+	@JsonProperty
+	public long getIndexResultCacheBytes() {
+		return indexResultCacheBytes;
+	}
+
+	/**
+	 * @param indexResultCacheBytes approximate memory budget for cached search results in bytes (0 disables the cache)
+	 */
+	@JsonProperty
+	public void setIndexResultCacheBytes(long indexResultCacheBytes) {
+		this.indexResultCacheBytes = indexResultCacheBytes;
+	}
+
+	/**
+	 * @return approximate memory budget for the pages each index segment has in a searched date range, in bytes (0 disables the cache)
+	 */
+	@JsonProperty
+	public long getIndexFilterCacheBytes() {
+		return indexFilterCacheBytes;
+	}
+
+	/**
+	 * @param indexFilterCacheBytes approximate memory budget for the pages each index segment has in a searched date range, in bytes (0 disables the cache)
+	 */
+	@JsonProperty
+	public void setIndexFilterCacheBytes(long indexFilterCacheBytes) {
+		this.indexFilterCacheBytes = indexFilterCacheBytes;
+	}
+
+	/**
+	 * @return maximum number of domains counted when search results are faceted
+	 */
+	@JsonProperty
+	public int getIndexFacetDomains() {
+		return indexFacetDomains;
+	}
+
+	/**
+	 * @param indexFacetDomains maximum number of domains counted when search results are faceted
+	 */
+	@JsonProperty
+	public void setIndexFacetDomains(int indexFacetDomains) {
+		this.indexFacetDomains = indexFacetDomains;
+	}
+
+	/**
+	 * @return how the age of a page is weighed against its relevance to a query (EXACT or BUCKETED)
+	 */
+	@JsonProperty
+	public RankingMode getIndexRankingMode() {
+		return indexRankingMode;
+	}
+
+	/**
+	 * @param indexRankingMode how the age of a page is weighed against its relevance to a query (EXACT or BUCKETED)
+	 */
+	@JsonProperty
+	public void setIndexRankingMode(RankingMode indexRankingMode) {
+		this.indexRankingMode = indexRankingMode;
+	}
+
+	/**
+	 * @return how the highlighted snippets shown with search results are built (POSTINGS or ANALYZING)
+	 */
+	@JsonProperty
+	public SnippetEngine getIndexSnippetEngine() {
+		return indexSnippetEngine;
+	}
+
+	/**
+	 * @param indexSnippetEngine how the highlighted snippets shown with search results are built (POSTINGS or ANALYZING)
+	 */
+	@JsonProperty
+	public void setIndexSnippetEngine(SnippetEngine indexSnippetEngine) {
+		this.indexSnippetEngine = indexSnippetEngine;
+	}
+
+	/**
+	 * @return maximum number of passages in a search result snippet
+	 */
+	@JsonProperty
+	public int getIndexSnippetPassages() {
+		return indexSnippetPassages;
+	}
+
+	/**
+	 * @param indexSnippetPassages maximum number of passages in a search result snippet
+	 */
+	@JsonProperty
+	public void setIndexSnippetPassages(int indexSnippetPassages) {
+		this.indexSnippetPassages = indexSnippetPassages;
+	}
+
+	/**
+	 * @return approximate maximum number of characters in a search result snippet passage
+	 */
+	@JsonProperty
+	public int getIndexSnippetPassageLength() {
+		return indexSnippetPassageLength;
+	}
+
+	/**
+	 * @param indexSnippetPassageLength approximate maximum number of characters in a search result snippet passage
+	 */
+	@JsonProperty
+	public void setIndexSnippetPassageLength(int indexSnippetPassageLength) {
+		this.indexSnippetPassageLength = indexSnippetPassageLength;
+	}
+
+	/**
+	 * @return number of threads searching index slices concurrently, separate from the request threads (0 searches on the request thread only)
+	 */
+	@JsonProperty
+	public int getIndexSearchThreads() {
+		return indexSearchThreads;
+	}
+
+	/**
+	 * @param indexSearchThreads number of threads searching index slices concurrently, separate from the request threads (0 searches on the request thread only)
+	 */
+	@JsonProperty
+	public void setIndexSearchThreads(int indexSearchThreads) {
+		this.indexSearchThreads = indexSearchThreads;
+	}
+
+	/**
+	 * @return whether titles, urls and domains are kept in memory to complete prefixes typed by users
+	 */
+	@JsonProperty
+	public boolean isIndexSuggest() {
+		return indexSuggest;
+	}
+
+	/**
+	 * @param indexSuggest whether titles, urls and domains are kept in memory to complete prefixes typed by users
+	 */
+	@JsonProperty
+	public void setIndexSuggest(boolean indexSuggest) {
+		this.indexSuggest = indexSuggest;
+	}
+
+	/**
+	 * @return number of worker threads indexing pages captured by the proxy
+	 */
+	@JsonProperty
+	public int getIndexingWorkers() {
+		return indexingWorkers;
+	}
+
+	/**
+	 * @param indexingWorkers number of worker threads indexing pages captured by the proxy
+	 */
+	@JsonProperty
+	public void setIndexingWorkers(int indexingWorkers) {
+		this.indexingWorkers = indexingWorkers;
+	}
+
+	/**
+	 * @return maximum number of captured pages waiting to be indexed
+	 */
+	@JsonProperty
+	public int getIndexingQueueCapacity() {
+		return indexingQueueCapacity;
+	}
+
+	/**
+	 * @param indexingQueueCapacity maximum number of captured pages waiting to be indexed
+	 */
+	@JsonProperty
+	public void setIndexingQueueCapacity(int indexingQueueCapacity) {
+		this.indexingQueueCapacity = indexingQueueCapacity;
+	}
+
+	/**
+	 * @return what to do with a captured page when the indexing queue is full
+	 */
+	@JsonProperty
+	public OverflowPolicy getIndexingOverflowPolicy() {
+		return indexingOverflowPolicy;
+	}
+
+	/**
+	 * @param indexingOverflowPolicy what to do with a captured page when the indexing queue is full
+	 */
+	@JsonProperty
+	public void setIndexingOverflowPolicy(OverflowPolicy indexingOverflowPolicy) {
+		this.indexingOverflowPolicy = indexingOverflowPolicy;
+	}
+
+	/**
+	 * @return how long to wait for room in a full indexing queue under the BLOCK policy (in ms)
+	 */
+	@JsonProperty
+	public long getIndexingBlockTimeout() {
+		return indexingBlockTimeout;
+	}
+
+	/**
+	 * @param indexingBlockTimeout how long to wait for room in a full indexing queue under the BLOCK policy (in ms)
+	 */
+	@JsonProperty
+	public void setIndexingBlockTimeout(long indexingBlockTimeout) {
+		this.indexingBlockTimeout = indexingBlockTimeout;
+	}
+
 	/**
 	 * @return port to run api service on
 	 */
@@ -163,6 +705,86 @@ public class HistoryBookConfiguration extends Configuration {
 		this.proxyPort = proxyPort;
 	}
 
+	/**
+	 * @return how long the proxy waits for a connection to a server (in ms)
+	 */
+	@JsonProperty
+	public int getProxyConnectTimeout() {
+		return proxyConnectTimeout;
+	}
+
+	/**
+	 * @param proxyConnectTimeout how long the proxy waits for a connection to a server (in ms)
+	 */
+	@JsonProperty
+	public void setProxyConnectTimeout(int proxyConnectTimeout) {
+		this.proxyConnectTimeout = proxyConnectTimeout;
+	}
+
+	/**
+	 * @return how long the proxy keeps an idle connection open (in seconds)
+	 */
+	@JsonProperty
+	public int getProxyIdleConnectionTimeout() {
+		return proxyIdleConnectionTimeout;
+	}
+
+	/**
+	 * @param proxyIdleConnectionTimeout how long the proxy keeps an idle connection open (in seconds)
+	 */
+	@JsonProperty
+	public void setProxyIdleConnectionTimeout(int proxyIdleConnectionTimeout) {
+		this.proxyIdleConnectionTimeout = proxyIdleConnectionTimeout;
+	}
+
+	/**
+	 * @return maximum rate each proxy connection reads at (in bytes/second). 0 for no limit.
+	 */
+	@JsonProperty
+	public long getProxyReadThrottle() {
+		return proxyReadThrottle;
+	}
+
+	/**
+	 * @param proxyReadThrottle maximum rate each proxy connection reads at (in bytes/second). 0 for no limit.
+	 */
+	@JsonProperty
+	public void setProxyReadThrottle(long proxyReadThrottle) {
+		this.proxyReadThrottle = proxyReadThrottle;
+	}
+
+	/**
+	 * @return maximum rate each proxy connection writes at (in bytes/second). 0 for no limit.
+	 */
+	@JsonProperty
+	public long getProxyWriteThrottle() {
+		return proxyWriteThrottle;
+	}
+
+	/**
+	 * @param proxyWriteThrottle maximum rate each proxy connection writes at (in bytes/second). 0 for no limit.
+	 */
+	@JsonProperty
+	public void setProxyWriteThrottle(long proxyWriteThrottle) {
+		this.proxyWriteThrottle = proxyWriteThrottle;
+	}
+
+	/**
+	 * @return whether only this machine may use the proxy. Turn off to share the proxy with a team.
+	 */
+	@JsonProperty
+	public boolean isProxyAllowLocalOnly() {
+		return proxyAllowLocalOnly;
+	}
+
+	/**
+	 * @param proxyAllowLocalOnly whether only this machine may use the proxy. Turn off to share the proxy with a team.
+	 */
+	@JsonProperty
+	public void setProxyAllowLocalOnly(boolean proxyAllowLocalOnly) {
+		this.proxyAllowLocalOnly = proxyAllowLocalOnly;
+	}
+
 	/**
 	 * @return host to use for self-signed certificate
 	 */
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.server;
+
+import com.difference.historybook.index.Index;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Wrapper to tie the lifecycle of an @Index to the application so pending changes 
+ * are committed on shutdown.
+ */
+public class ManagedIndex implements Managed {
+	private final Index index;
+	
+	public ManagedIndex(Index index) {
+		this.index = index;
+	}
+
+	@Override
+	public void start() throws Exception {
+	}
+
+	@Override
+	public void stop() throws Exception {
+		index.close();
+	}
+
+}
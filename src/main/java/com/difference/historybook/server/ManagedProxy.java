@@ -20,6 +20,7 @@ import java.util.function.Predicate;
 
 import com.difference.historybook.proxy.Proxy;
 import com.difference.historybook.proxy.ProxyFilterFactory;
+import com.difference.historybook.proxy.ProxyStatistics;
 import com.difference.historybook.proxy.ProxyTransactionInfo;
 
 import io.dropwizard.lifecycle.Managed;
@@ -64,4 +65,33 @@ public class ManagedProxy implements Proxy, Managed {
 		return this;
 	}
 
+	@Override
+	public Proxy setConnectTimeout(int millis) {
+		proxy.setConnectTimeout(millis);
+		return this;
+	}
+
+	@Override
+	public Proxy setIdleConnectionTimeout(int seconds) {
+		proxy.setIdleConnectionTimeout(seconds);
+		return this;
+	}
+
+	@Override
+	public Proxy setThrottling(long readBytesPerSecond, long writeBytesPerSecond) {
+		proxy.setThrottling(readBytesPerSecond, writeBytesPerSecond);
+		return this;
+	}
+
+	@Override
+	public Proxy setAllowLocalOnly(boolean localOnly) {
+		proxy.setAllowLocalOnly(localOnly);
+		return this;
+	}
+
+	@Override
+	public ProxyStatistics getStatistics() {
+		return proxy.getStatistics();
+	}
+
 }
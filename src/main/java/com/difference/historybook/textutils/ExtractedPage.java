@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.textutils;
+
+/**
+ * The title and text of a page already extracted from its markup, e.g. by an @IncrementalHtmlTextExtractor
+ * as the page streamed through the proxy.
+ *
+ * It stands in for the page wherever a page body is expected, and @HtmlTextExtractor takes its title and text
+ * as they are rather than extracting them again. Read as characters it is a page holding only the text, with
+ * the title element where the title was found in the text, which extracts to the same title and text. That
+ * markup is only built if the characters are read, e.g. to journal the page.
+ */
+public final class ExtractedPage implements CharSequence {
+	private final String title;
+	private final String content;
+	private final int titleStart;
+	private final int titleEnd;
+	private String html = null;
+
+	/**
+	 * Constructor for ExtractedPage
+	 *
+	 * @param title the title of the page (or empty string if not found)
+	 * @param content the text of the page
+	 * @param titleStart where the title element starts within the text, or -1 if there was none
+	 * @param titleEnd where the title element ends within the text
+	 */
+	ExtractedPage(String title, String content, int titleStart, int titleEnd) {
+		this.title = title;
+		this.content = content;
+		this.titleStart = titleStart;
+		this.titleEnd = titleEnd;
+	}
+
+	/**
+	 * @return the title of the page (or empty string if not found)
+	 */
+	public String getTitle() {
+		return title;
+	}
+
+	/**
+	 * @return the text of the page
+	 */
+	public String getContent() {
+		return content;
+	}
+
+	@Override
+	public int length() {
+		return toString().length();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return toString().charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+
+	/**
+	 * @return the markup of the page
+	 */
+	@Override
+	public String toString() {
+		if (html == null) {
+			StringBuilder markup = new StringBuilder(content.length() + title.length() + 32);
+			if (titleStart < 0) {
+				escape(content, 0, content.length(), markup);
+			} else {
+				escape(content, 0, titleStart, markup);
+				markup.append("<title>");
+				escape(title, 0, title.length(), markup);
+				markup.append("</title>");
+				escape(content, titleEnd, content.length(), markup);
+			}
+			html = markup.toString();
+		}
+		return html;
+	}
+
+	private static void escape(String text, int start, int end, StringBuilder target) {
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c == '&') {
+				target.append("&amp;");
+			} else if (c == '<') {
+				target.append("&lt;");
+			} else {
+				target.append(c);
+			}
+		}
+	}
+}
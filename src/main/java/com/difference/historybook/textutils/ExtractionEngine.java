@@ -0,0 +1,32 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.textutils;
+
+/**
+ * The implementation an @HtmlTextExtractor uses to pull text out of a page
+ */
+public enum ExtractionEngine {
+	/**
+	 * Build a complete Jsoup DOM for the page and take its text
+	 */
+	JSOUP,
+
+	/**
+	 * Tokenize the page in a single pass without building a DOM (see @StreamingHtmlTextExtractor)
+	 */
+	STREAMING
+}
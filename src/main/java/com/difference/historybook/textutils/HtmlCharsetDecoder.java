@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.textutils;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Decodes the bytes of an HTML page into text using the charset the page declares.
+ *
+ * The charset is taken from the Content-Type header if present, otherwise from a byte order mark,
+ * otherwise from a meta tag near the start of the page, falling back to UTF-8. Bytes are decoded
+ * directly from the given buffers (which may be several pieces of one page) into a single @CharBuffer,
+ * or with an @Incremental decoder a piece at a time as the page arrives.
+ */
+public final class HtmlCharsetDecoder {
+	private static final int SNIFF_BYTES = 4096;
+
+	private static final Charset DEFAULT_CHARSET = Charsets.UTF_8;
+	private static final Pattern CONTENT_TYPE_CHARSET = Pattern.compile(
+			"charset\\s*=\\s*[\"']?([^\\s;\"']+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern META_CHARSET = Pattern.compile(
+			"<meta[^>]+charset\\s*=\\s*[\"']?([^\\s;\"'/>]+)", Pattern.CASE_INSENSITIVE);
+
+	private HtmlCharsetDecoder() {
+	}
+
+	/**
+	 * Decode a page
+	 *
+	 * @param contentType the Content-Type header of the response (may be null)
+	 * @param buffers the bytes of the page, in order. Their positions are advanced past the bytes decoded.
+	 * @return the text of the page
+	 */
+	public static CharBuffer decode(String contentType, ByteBuffer... buffers) {
+		ByteBuffer head = head(buffers);
+		Charset charset = detectCharset(contentType, head);
+		skip(buffers, bomLength(head, charset));
+
+		long bytes = 0;
+		for (ByteBuffer buffer : buffers) {
+			bytes += buffer.remaining();
+		}
+		Decoding decoding = new Decoding(charset, bytes);
+		for (ByteBuffer buffer : buffers) {
+			decoding.decode(buffer);
+		}
+		return decoding.finish();
+	}
+
+	/**
+	 * @return the start of the page to determine the charset from. The first buffer itself if it holds
+	 *   enough of the page, otherwise a copy gathered from as many buffers as needed.
+	 */
+	private static ByteBuffer head(ByteBuffer[] buffers) {
+		if (buffers.length == 0) return ByteBuffer.allocate(0);
+		if (buffers.length == 1 || buffers[0].remaining() >= SNIFF_BYTES) return buffers[0];
+
+		ByteBuffer head = ByteBuffer.allocate(SNIFF_BYTES);
+		for (int i = 0; i < buffers.length && head.hasRemaining(); i++) {
+			ByteBuffer piece = buffers[i].duplicate();
+			piece.limit(piece.position() + Math.min(head.remaining(), piece.remaining()));
+			head.put(piece);
+		}
+		head.flip();
+		return head;
+	}
+
+	private static void skip(ByteBuffer[] buffers, int bytes) {
+		for (int i = 0; i < buffers.length && bytes > 0; i++) {
+			int skipped = Math.min(bytes, buffers[i].remaining());
+			buffers[i].position(buffers[i].position() + skipped);
+			bytes -= skipped;
+		}
+	}
+
+	/**
+	 * Determine the charset of a page
+	 *
+	 * @param contentType the Content-Type header of the response (may be null)
+	 * @param head the start of the page. Its position is not changed.
+	 * @return the charset to decode the page with
+	 */
+	public static Charset detectCharset(String contentType, ByteBuffer head) {
+		Charset charset = null;
+		if (contentType != null) {
+			Matcher matcher = CONTENT_TYPE_CHARSET.matcher(contentType);
+			if (matcher.find()) charset = forName(matcher.group(1));
+		}
+		if (charset == null) charset = bomCharset(head);
+		if (charset == null) charset = metaCharset(head);
+		return charset != null ? charset : DEFAULT_CHARSET;
+	}
+
+	private static Charset bomCharset(ByteBuffer head) {
+		int p = head.position();
+		if (byteAt(head, p) == 0xEF && byteAt(head, p + 1) == 0xBB && byteAt(head, p + 2) == 0xBF) return Charsets.UTF_8;
+		if (byteAt(head, p) == 0xFE && byteAt(head, p + 1) == 0xFF) return Charsets.UTF_16BE;
+		if (byteAt(head, p) == 0xFF && byteAt(head, p + 1) == 0xFE) return Charsets.UTF_16LE;
+		return null;
+	}
+
+	private static int bomLength(ByteBuffer head, Charset charset) {
+		Charset bom = bomCharset(head);
+		if (bom == null || !bom.equals(charset)) return 0;
+		return bom.equals(Charsets.UTF_8) ? 3 : 2;
+	}
+
+	/**
+	 * Look for a meta charset or http-equiv Content-Type declaration. The bytes are read as
+	 * ISO-8859-1, which is enough to find an ASCII declaration in any ASCII compatible charset.
+	 */
+	private static Charset metaCharset(ByteBuffer head) {
+		ByteBuffer sniff = head.duplicate();
+		sniff.limit(Math.min(sniff.limit(), sniff.position() + SNIFF_BYTES));
+		Matcher matcher = META_CHARSET.matcher(Charsets.ISO_8859_1.decode(sniff));
+		if (!matcher.find()) return null;
+
+		Charset charset = forName(matcher.group(1));
+		// a page that could be read as ASCII cannot really be UTF-16, whatever it claims
+		if (Charsets.UTF_16.equals(charset) || Charsets.UTF_16BE.equals(charset) || Charsets.UTF_16LE.equals(charset)) {
+			return Charsets.UTF_8;
+		}
+		return charset;
+	}
+
+	private static Charset forName(String name) {
+		try {
+			return Charset.forName(name);
+		} catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+			return null;
+		}
+	}
+
+	private static int byteAt(ByteBuffer buffer, int index) {
+		return index < buffer.limit() ? buffer.get(index) & 0xFF : -1;
+	}
+
+	/**
+	 * Decodes a page a piece at a time as it arrives. The start of the page is held back until there is
+	 * enough of it to determine the charset from.
+	 */
+	public static final class Incremental {
+		private final String contentType;
+		private ByteBuffer head = ByteBuffer.allocate(SNIFF_BYTES);
+		private Decoding decoding = null;
+
+		/**
+		 * Constructor for Incremental
+		 *
+		 * @param contentType the Content-Type header of the response (may be null)
+		 */
+		public Incremental(String contentType) {
+			this.contentType = contentType;
+		}
+
+		/**
+		 * @param bytes the next bytes of the page. Its position is advanced past the bytes decoded.
+		 * @return the text decoded so far and not yet returned. Only valid until the next call.
+		 */
+		public CharBuffer decode(ByteBuffer bytes) {
+			if (decoding == null) {
+				ByteBuffer sniffed = bytes.duplicate();
+				sniffed.limit(sniffed.position() + Math.min(head.remaining(), bytes.remaining()));
+				bytes.position(sniffed.limit());
+				head.put(sniffed);
+				if (head.hasRemaining()) return CharBuffer.allocate(0);
+				start();
+			} else {
+				decoding.clear();
+			}
+			decoding.decode(bytes);
+			return decoding.take();
+		}
+
+		/**
+		 * @return the rest of the text of the page
+		 */
+		public CharBuffer finish() {
+			if (decoding == null) {
+				start();
+			} else {
+				decoding.clear();
+			}
+			return decoding.finish();
+		}
+
+		private void start() {
+			head.flip();
+			Charset charset = detectCharset(contentType, head);
+			head.position(bomLength(head, charset));
+			decoding = new Decoding(charset, SNIFF_BYTES);
+			decoding.decode(head);
+			head = null;
+		}
+	}
+
+	/**
+	 * Decodes a sequence of buffers, carrying bytes of a character split across buffers over to the next
+	 */
+	private static class Decoding {
+		private final CharsetDecoder decoder;
+		private final ByteBuffer carry = ByteBuffer.allocate(16);
+		private CharBuffer out;
+
+		/**
+		 * @param bytes the expected number of bytes, to size the text buffer by
+		 */
+		private Decoding(Charset charset, long bytes) {
+			this.decoder = charset.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.out = CharBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 16, bytes * decoder.averageCharsPerByte()) + 16);
+		}
+
+		private void decode(ByteBuffer buffer) {
+			while (carry.position() > 0 && buffer.hasRemaining()) {
+				carry.put(buffer.get());
+				carry.flip();
+				decode(carry, false);
+				carry.compact();
+			}
+			decode(buffer, false);
+			if (buffer.hasRemaining()) {
+				carry.put(buffer);
+			}
+		}
+
+		private CharBuffer finish() {
+			carry.flip();
+			decode(carry, true);
+			while (decoder.flush(out).isOverflow()) {
+				grow();
+			}
+			return take();
+		}
+
+		/**
+		 * @return the text decoded since the buffer was last cleared
+		 */
+		private CharBuffer take() {
+			out.flip();
+			return out;
+		}
+
+		/**
+		 * Reuse the text buffer once what was taken from it has been used
+		 */
+		private void clear() {
+			out.clear();
+		}
+
+		private void decode(ByteBuffer in, boolean endOfInput) {
+			while (decoder.decode(in, out, endOfInput).isOverflow()) {
+				grow();
+			}
+		}
+
+		private void grow() {
+			CharBuffer larger = CharBuffer.allocate(out.capacity() * 2 + 16);
+			out.flip();
+			larger.put(out);
+			out = larger;
+		}
+	}
+}
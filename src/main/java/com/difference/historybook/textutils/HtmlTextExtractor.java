@@ -24,30 +24,63 @@ import org.jsoup.nodes.Document;
  */
 public class HtmlTextExtractor {
 	
-	private final Document jsoup;
+	private final String title;
+	private final String content;
 	
 	/**
-	 * Constructor for HtmlTextExtractor
+	 * Constructor for HtmlTextExtractor using the streaming engine with no limit on the text extracted
 	 * 
 	 * @param body the textual representation of the page entity
 	 * @param url the url of the page. Useful if needing to canonicalize embedded URLs
 	 */
-	public HtmlTextExtractor(String body, String url) {
-		jsoup = Jsoup.parse(body, url);
+	public HtmlTextExtractor(CharSequence body, String url) {
+		this(body, url, ExtractionEngine.STREAMING, 0);
+	}
+	
+	/**
+	 * Constructor for HtmlTextExtractor
+	 * 
+	 * @param body the textual representation of the page entity. An @ExtractedPage is taken as it is, whatever the engine.
+	 * @param url the url of the page. Useful if needing to canonicalize embedded URLs
+	 * @param engine the @ExtractionEngine to use
+	 * @param maxChars maximum number of characters of text to extract. 0 for no limit.
+	 */
+	public HtmlTextExtractor(CharSequence body, String url, ExtractionEngine engine, int maxChars) {
+		if (body instanceof ExtractedPage) {
+			ExtractedPage page = (ExtractedPage) body;
+			title = page.getTitle();
+			content = maxChars > 0 && page.getContent().length() > maxChars ? page.getContent().substring(0, maxChars) : page.getContent();
+			return;
+		}
+		
+		switch (engine) {
+		case JSOUP:
+			Document jsoup = Jsoup.parse(body.toString(), url);
+			title = jsoup.title();
+			String text = jsoup.text();
+			content = maxChars > 0 && text.length() > maxChars ? text.substring(0, maxChars) : text;
+			break;
+		case STREAMING:
+		default:
+			StreamingHtmlTextExtractor extractor = new StreamingHtmlTextExtractor(body, maxChars);
+			content = extractor.extract();
+			title = extractor.getTitle();
+			break;
+		}
 	}
 	
 	/**
 	 * @return The title of the web page (or empty string if not found)
 	 */
 	public String getTitle() {
-		return jsoup.title();
+		return title;
 	}
 	
 	/**
 	 * @return The text extracted from the web page content (removing HTML)
 	 */
 	public String getContent() {
-		return jsoup.text();
+		return content;
 	}
 
 }
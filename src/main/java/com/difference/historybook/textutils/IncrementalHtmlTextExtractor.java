@@ -0,0 +1,504 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.textutils;
+
+import java.util.Set;
+
+import org.jsoup.nodes.Entities;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Extracts the title and visible text of an HTML page as the page arrives, a piece at a time.
+ *
+ * The content of script, style, noscript and template elements is skipped. Entities are decoded, whitespace
+ * is collapsed and block level elements separate words, so the output closely matches the text of a Jsoup
+ * document. Only the text is kept: markup is dropped as soon as it has been read, apart from the few characters
+ * that may be the start of a tag or entity continued in the next piece. Once the limit on the text is reached
+ * the rest of the page is ignored, as is a title's markup past {@link #MAX_TITLE_LENGTH}. The streaming
+ * @ExtractionEngine feeds it the whole page at once.
+ */
+public class IncrementalHtmlTextExtractor {
+	static final Set<String> SKIPPED_ELEMENTS = ImmutableSet.of("script", "style", "noscript", "template");
+	static final Set<String> BLOCK_ELEMENTS = ImmutableSet.of(
+			"address", "article", "aside", "blockquote", "body", "br", "caption", "dd", "div", "dl", "dt",
+			"fieldset", "figcaption", "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6", "head",
+			"header", "hr", "html", "li", "main", "nav", "ol", "option", "p", "pre", "section", "table",
+			"tbody", "td", "tfoot", "th", "thead", "title", "tr", "ul");
+	static final int MAX_ENTITY_LENGTH = 32;
+	static final int MAX_TITLE_LENGTH = 1024;
+
+	private static final String COMMENT_END = "-->";
+	private static final String TITLE = "title";
+
+	private enum State {
+		TEXT, TAG, COMMENT, DECLARATION, SKIPPED, TITLE
+	}
+
+	private final int maxChars;
+	// markup kept back from earlier pieces, and the markup being processed (a piece is read in place when nothing is kept back)
+	private final StringBuilder pending = new StringBuilder();
+	private CharSequence input = null;
+	private final StringBuilder out;
+	private final boolean ownsOut;
+	private final StringBuilder titleMarkup = new StringBuilder();
+	private State state = State.TEXT;
+	private String tagName = null;
+	private boolean closing = false;
+	private char quote = 0;
+	private boolean waiting = false;
+	private boolean titleOverflow = false;
+
+	private String title = null;
+	private int titleStart = -1;
+	private int titleEnd = -1;
+	private String content = null;
+
+	/**
+	 * Constructor for IncrementalHtmlTextExtractor
+	 *
+	 * @param maxChars maximum number of characters of text to extract. 0 for no limit.
+	 */
+	public IncrementalHtmlTextExtractor(int maxChars) {
+		this(maxChars, new StringBuilder(), true);
+	}
+
+	/**
+	 * Constructor for an IncrementalHtmlTextExtractor writing the text into a buffer it is lent, which is
+	 * emptied again on finish
+	 *
+	 * @param maxChars maximum number of characters of text to extract. 0 for no limit.
+	 * @param buffer an empty buffer to write the text into
+	 */
+	IncrementalHtmlTextExtractor(int maxChars, StringBuilder buffer) {
+		this(maxChars, buffer, false);
+	}
+
+	private IncrementalHtmlTextExtractor(int maxChars, StringBuilder out, boolean ownsOut) {
+		this.maxChars = maxChars;
+		this.out = out;
+		this.ownsOut = ownsOut;
+	}
+
+	/**
+	 * @param chars the next piece of the page
+	 * @return this for method chaining
+	 */
+	public IncrementalHtmlTextExtractor feed(CharSequence chars) {
+		if (content != null) throw new IllegalStateException("The page has been finished");
+		if (textFull()) return this;
+
+		if (pending.length() == 0) {
+			input = chars;
+		} else {
+			pending.append(chars);
+			input = pending;
+		}
+		process(false);
+		return this;
+	}
+
+	/**
+	 * Extract what remains of the page. No more can be fed afterwards.
+	 *
+	 * @return this for method chaining
+	 */
+	public IncrementalHtmlTextExtractor finish() {
+		if (content != null) return this;
+
+		input = pending;
+		process(true);
+		if (state == State.TITLE && !textFull()) {
+			// as with the whole page, a title that is never closed runs to the end
+			endTitle();
+		}
+		pending.setLength(0);
+
+		if (maxChars > 0 && out.length() > maxChars) {
+			out.setLength(maxChars);
+		}
+		int leading = 0;
+		while (leading < out.length() && out.charAt(leading) == ' ') leading++;
+		content = trim(out);
+		if (titleStart >= 0) {
+			titleStart = Math.max(0, Math.min(content.length(), titleStart - leading));
+			titleEnd = Math.max(titleStart, Math.min(content.length(), titleEnd - leading));
+		}
+		out.setLength(0);
+		if (ownsOut) {
+			out.trimToSize();
+		}
+		return this;
+	}
+
+	/**
+	 * @return whether the limit on the text has been reached, so the rest of the page need not be fed. The
+	 *         markup of a title still open counts towards the limit, and a title past {@link #MAX_TITLE_LENGTH}
+	 *         fills it, as what follows up to the title's closing tag would be skipped.
+	 */
+	public boolean isFull() {
+		return maxChars > 0 && (out.length() + titleMarkup.length() >= maxChars || titleOverflow);
+	}
+
+	/**
+	 * @return whether the limit on the text itself has been reached, after which nothing more is extracted
+	 */
+	private boolean textFull() {
+		return maxChars > 0 && out.length() >= maxChars;
+	}
+
+	/**
+	 * @return the text of the first title element (or empty string if not found). Only valid after finish.
+	 */
+	public String getTitle() {
+		return title != null ? title : "";
+	}
+
+	/**
+	 * @return the extracted text. Only valid after finish.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+	/**
+	 * @return the extracted title and text, which can stand in for the page (see @ExtractedPage). Only valid after finish.
+	 */
+	public ExtractedPage getPage() {
+		return new ExtractedPage(getTitle(), content, titleStart, titleEnd);
+	}
+
+	/**
+	 * Extract as much of the pending markup as can be, keeping back what cannot be decided on until more arrives
+	 *
+	 * @param end whether this is the end of the page
+	 */
+	private void process(boolean end) {
+		int pos = 0;
+		waiting = false;
+		while (pos < input.length() && !waiting && !textFull()) {
+			switch (state) {
+			case TEXT:
+				pos = text(pos, end);
+				break;
+			case TAG:
+				pos = tag(pos, end);
+				break;
+			case COMMENT:
+				pos = skipPast(pos, COMMENT_END, end);
+				break;
+			case DECLARATION:
+				pos = skipPast(pos, ">", end);
+				break;
+			case SKIPPED:
+			case TITLE:
+				pos = element(pos, end);
+				break;
+			}
+		}
+		if (textFull()) {
+			pending.setLength(0);
+		} else if (input == pending) {
+			pending.delete(0, pos);
+		} else {
+			pending.append(input, pos, input.length());
+		}
+		input = null;
+	}
+
+	private int text(int pos, boolean end) {
+		char c = input.charAt(pos);
+		if (c == '<') {
+			return tagStart(pos, end);
+		} else if (c == '&') {
+			if (!end && !entityComplete(pos)) {
+				waiting = true;
+				return pos;
+			}
+			return entity(input, pos, out);
+		}
+		append(out, c);
+		return pos + 1;
+	}
+
+	/**
+	 * Handle markup starting with '<'
+	 */
+	private int tagStart(int pos, boolean end) {
+		if (!end && input.length() - pos < 4) {
+			waiting = true;
+			return pos;
+		}
+
+		if (startsWith(pos, "<!--")) {
+			state = State.COMMENT;
+			return pos + 4;
+		}
+
+		char next = charAt(pos + 1);
+		if (next == '!' || next == '?') {
+			state = State.DECLARATION;
+			return pos + 2;
+		}
+
+		boolean closingTag = next == '/';
+		int nameStart = closingTag ? pos + 2 : pos + 1;
+		if (!Character.isLetter(charAt(nameStart))) {
+			// not a tag, just a stray '<'
+			append(out, '<');
+			return pos + 1;
+		}
+
+		int nameEnd = nameStart;
+		while (nameEnd < input.length() && isNameChar(input.charAt(nameEnd))) {
+			nameEnd++;
+		}
+		if (!end && nameEnd == input.length()) {
+			waiting = true;
+			return pos;
+		}
+
+		tagName = input.subSequence(nameStart, nameEnd).toString().toLowerCase();
+		closing = closingTag;
+		quote = 0;
+		state = State.TAG;
+		return nameEnd;
+	}
+
+	/**
+	 * Skip over the attributes of a tag, respecting quoted values, then act on the tag
+	 */
+	private int tag(int pos, boolean end) {
+		for (int i = pos; i < input.length(); i++) {
+			char c = input.charAt(i);
+			if (quote != 0) {
+				if (c == quote) quote = 0;
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '>') {
+				endTag();
+				return i + 1;
+			}
+		}
+		if (end) {
+			endTag();
+		}
+		return input.length();
+	}
+
+	private void endTag() {
+		if (!closing && SKIPPED_ELEMENTS.contains(tagName)) {
+			state = State.SKIPPED;
+		} else if (!closing && tagName.equals(TITLE)) {
+			titleMarkup.setLength(0);
+			state = State.TITLE;
+		} else {
+			if (BLOCK_ELEMENTS.contains(tagName)) {
+				append(out, ' ');
+			}
+			state = State.TEXT;
+		}
+	}
+
+	/**
+	 * Skip (or for a title, collect) the raw content of an element up to its closing tag. Only enough of the
+	 * content to hold the start of the closing tag is kept back.
+	 */
+	private int element(int pos, boolean end) {
+		int length = input.length();
+		for (int i = pos; i < length - 1; i++) {
+			if (input.charAt(i) == '<' && input.charAt(i + 1) == '/' && regionMatchesIgnoreCase(i + 2, tagName)) {
+				if (state == State.TITLE) {
+					collectTitle(pos, i);
+					endTitle();
+				}
+				titleOverflow = false;
+				state = State.DECLARATION;
+				return i;
+			}
+		}
+
+		int consumed = end ? length : Math.max(pos, length - tagName.length() - 2);
+		waiting = !end;
+		if (state == State.TITLE) {
+			collectTitle(pos, consumed);
+			if (titleMarkup.length() >= MAX_TITLE_LENGTH) {
+				// the rest of an overlong title is skipped, up to its closing tag
+				endTitle();
+				titleOverflow = true;
+				state = State.SKIPPED;
+				waiting = false;
+			}
+		}
+		return consumed;
+	}
+
+	private void collectTitle(int from, int to) {
+		titleMarkup.append(input, from, Math.min(to, from + MAX_TITLE_LENGTH - titleMarkup.length()));
+	}
+
+	/**
+	 * The first title found is kept and, as in a Jsoup document's text, it is also part of the page text
+	 */
+	private void endTitle() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < titleMarkup.length(); ) {
+			char c = titleMarkup.charAt(i);
+			if (c == '&') {
+				i = entity(titleMarkup, i, text);
+			} else {
+				append(text, c);
+				i++;
+			}
+		}
+		titleMarkup.setLength(0);
+
+		String extracted = trim(text);
+		boolean first = title == null;
+		if (first) {
+			title = extracted;
+			titleStart = out.length();
+		}
+		append(out, ' ');
+		out.append(extracted);
+		append(out, ' ');
+		if (first) {
+			titleEnd = out.length();
+		}
+	}
+
+	/**
+	 * @return the position after the next occurrence of the given terminator. Without one, only enough is kept
+	 *         back to hold the start of it.
+	 */
+	private int skipPast(int pos, String terminator, boolean end) {
+		int length = input.length();
+		for (int i = pos; i <= length - terminator.length(); i++) {
+			if (startsWith(i, terminator)) {
+				state = State.TEXT;
+				return i + terminator.length();
+			}
+		}
+		waiting = !end;
+		return end ? length : Math.max(pos, length - terminator.length() + 1);
+	}
+
+	/**
+	 * @return whether enough follows an '&' to tell whether it starts an entity
+	 */
+	private boolean entityComplete(int from) {
+		for (int i = from + 1; i <= from + MAX_ENTITY_LENGTH; i++) {
+			if (i >= input.length()) return false;
+			char c = input.charAt(i);
+			if (c == ';' || (!Character.isLetterOrDigit(c) && c != '#')) return true;
+		}
+		return true;
+	}
+
+	private boolean startsWith(int from, String value) {
+		if (from + value.length() > input.length()) return false;
+		for (int i = 0; i < value.length(); i++) {
+			if (input.charAt(from + i) != value.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	private boolean regionMatchesIgnoreCase(int from, String value) {
+		if (from + value.length() > input.length()) return false;
+		for (int i = 0; i < value.length(); i++) {
+			if (Character.toLowerCase(input.charAt(from + i)) != value.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	private char charAt(int index) {
+		return index < input.length() ? input.charAt(index) : 0;
+	}
+
+	/**
+	 * Decode an entity starting at the given position. Anything that is not a recognizable entity is
+	 * taken literally.
+	 *
+	 * @return the position after the entity
+	 */
+	static int entity(CharSequence html, int from, StringBuilder target) {
+		int semicolon = -1;
+		for (int i = from + 1; i < html.length() && i <= from + MAX_ENTITY_LENGTH; i++) {
+			char c = html.charAt(i);
+			if (c == ';') {
+				semicolon = i;
+				break;
+			}
+			if (!Character.isLetterOrDigit(c) && c != '#') break;
+		}
+
+		if (semicolon > from + 1) {
+			String name = html.subSequence(from + 1, semicolon).toString();
+			try {
+				if (name.startsWith("#x") || name.startsWith("#X")) {
+					appendCodePoint(target, Integer.parseInt(name.substring(2), 16));
+					return semicolon + 1;
+				} else if (name.startsWith("#")) {
+					appendCodePoint(target, Integer.parseInt(name.substring(1)));
+					return semicolon + 1;
+				} else if (Entities.isNamedEntity(name)) {
+					append(target, Entities.getCharacterByName(name));
+					return semicolon + 1;
+				}
+			} catch (IllegalArgumentException e) {
+				// malformed numeric entity, take it literally
+			}
+		}
+
+		append(target, '&');
+		return from + 1;
+	}
+
+	static void appendCodePoint(StringBuilder target, int codePoint) {
+		if (Character.isBmpCodePoint(codePoint)) {
+			append(target, (char) codePoint);
+		} else {
+			target.appendCodePoint(codePoint);
+		}
+	}
+
+	/**
+	 * Append a character, collapsing runs of whitespace to a single space
+	 */
+	static void append(StringBuilder target, char c) {
+		if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+			int length = target.length();
+			if (length > 0 && target.charAt(length - 1) != ' ') {
+				target.append(' ');
+			}
+		} else {
+			target.append(c);
+		}
+	}
+
+	static String trim(StringBuilder text) {
+		int start = 0;
+		int end = text.length();
+		while (start < end && text.charAt(start) == ' ') start++;
+		while (end > start && text.charAt(end - 1) == ' ') end--;
+		return text.substring(start, end);
+	}
+
+	static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '-' || c == ':';
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.textutils;
+
+/**
+ * Extracts the title and visible text of an HTML page in a single pass over the markup,
+ * without building a DOM, by feeding the whole page to an @IncrementalHtmlTextExtractor.
+ * Text is written into a per-thread buffer that is reused between pages.
+ */
+class StreamingHtmlTextExtractor {
+	private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+	private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(StringBuilder::new);
+
+	private final IncrementalHtmlTextExtractor extractor;
+	private final CharSequence html;
+
+	/**
+	 * Constructor for StreamingHtmlTextExtractor. Call {@link #extract()} to run the extraction.
+	 *
+	 * @param html the markup of the page
+	 * @param maxChars maximum number of characters of text to extract. 0 for no limit.
+	 */
+	StreamingHtmlTextExtractor(CharSequence html, int maxChars) {
+		StringBuilder buffer = BUFFER.get();
+		buffer.setLength(0);
+		this.extractor = new IncrementalHtmlTextExtractor(maxChars, buffer);
+		this.html = html;
+	}
+
+	/**
+	 * Tokenize the page
+	 *
+	 * @return the extracted text
+	 */
+	String extract() {
+		try {
+			return extractor.feed(html).finish().getContent();
+		} finally {
+			if (BUFFER.get().capacity() > MAX_RETAINED_BUFFER) {
+				BUFFER.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return the text of the first title element (or empty string if not found). Only valid after extract.
+	 */
+	String getTitle() {
+		return extractor.getTitle();
+	}
+}
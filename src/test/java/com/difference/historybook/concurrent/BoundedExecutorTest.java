@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class BoundedExecutorTest {
+
+	@Test
+	public void testDropNewest() throws InterruptedException {
+		List<Integer> ran = testOverflow(OverflowPolicy.DROP_NEWEST);
+		assertEquals(ImmutableList.of(0, 1, 2), ran);
+	}
+
+	@Test
+	public void testDropOldest() throws InterruptedException {
+		List<Integer> ran = testOverflow(OverflowPolicy.DROP_OLDEST);
+		assertEquals(ImmutableList.of(0, 2, 3), ran);
+	}
+
+	@Test
+	public void testBlockTimesOut() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		List<Integer> ran = testOverflow(OverflowPolicy.BLOCK);
+		assertTrue(System.currentTimeMillis() - start >= 50);
+		assertEquals(ImmutableList.of(0, 1, 2), ran);
+	}
+
+	@Test
+	public void testBlockWaitsForRoom() throws InterruptedException {
+		BoundedExecutor executor = new BoundedExecutor("test", 1, 1, OverflowPolicy.BLOCK, 5000);
+		List<Integer> ran = new CopyOnWriteArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			int task = i;
+			executor.execute(() -> {
+				sleep(5);
+				ran.add(task);
+			});
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(10, ran.size());
+		assertEquals(0, executor.getRejectedCount());
+	}
+	
+	@Test
+	public void testDiscardedFutureIsCancelled() throws InterruptedException {
+		BoundedExecutor executor = new BoundedExecutor("test", 1, 1, OverflowPolicy.DROP_NEWEST, 0);
+		CountDownLatch release = new CountDownLatch(1);
+		executor.execute(() -> await(release));
+		executor.execute(() -> {});
+		
+		Future<?> discarded = executor.submit(() -> {});
+		assertTrue(discarded.isCancelled());
+		assertEquals(1, executor.getRejectedCount());
+		
+		release.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testCallerRuns() throws InterruptedException {
+		BoundedExecutor executor = new BoundedExecutor("test", 1, 1, OverflowPolicy.CALLER_RUNS, 0);
+		CountDownLatch release = new CountDownLatch(1);
+		executor.execute(() -> await(release));
+		executor.execute(() -> {});
+		
+		List<Thread> ranOn = new CopyOnWriteArrayList<>();
+		executor.execute(() -> ranOn.add(Thread.currentThread()));
+		assertEquals(ImmutableList.of(Thread.currentThread()), ranOn);
+		assertEquals(0, executor.getRejectedCount());
+		
+		release.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+	}
+	
+	/**
+	 * Submit 4 tasks to a single worker with a queue of 2 while the worker is held on the first task.
+	 */
+	private List<Integer> testOverflow(OverflowPolicy policy) throws InterruptedException {
+		BoundedExecutor executor = new BoundedExecutor("test", 1, 2, policy, 50);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<Integer> ran = new CopyOnWriteArrayList<>();
+		
+		executor.execute(() -> {
+			started.countDown();
+			await(release);
+			ran.add(0);
+		});
+		started.await();
+		for (int i = 1; i <= 3; i++) {
+			int task = i;
+			executor.execute(() -> ran.add(task));
+		}
+		
+		assertEquals(4, executor.getSubmittedCount());
+		assertEquals(1, executor.getRejectedCount());
+		assertEquals(2, executor.getQueueDepth());
+		
+		release.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		return ran;
+	}
+	
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
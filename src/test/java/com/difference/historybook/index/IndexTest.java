@@ -18,11 +18,18 @@ package com.difference.historybook.index;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 
@@ -207,4 +214,229 @@ public abstract class IndexTest {
 			fail(e.getLocalizedMessage());
 		}
 	}
+	
+	@Test
+	public void testIndexPages() throws Exception {
+		try (Index index = getIndex()){
+			String collection = "collection";
+			Instant timestamp = Instant.now();
+			
+			List<WebPage> pages = Arrays.asList(
+					new WebPage("http://www.difference.com", timestamp, "<html><head><title>One</title></head><body>Testing bulk one</body></html>"),
+					new WebPage("http://does.not.exist.com", timestamp, "<html><head><title>Two</title></head><body>Testing bulk two</body></html>"),
+					new WebPage("http://current.com", timestamp, "<html><head><title>Three</title></head><body>Something else</body></html>"));
+			
+			List<BulkIndexItem> results = index.indexPages(collection, pages);
+			assertEquals(3, results.size());
+			for (int i = 0; i < pages.size(); i++) {
+				assertEquals(pages.get(i).getUrl(), results.get(i).getUrl());
+				assertEquals(BulkIndexItem.STATUS_INDEXED, results.get(i).getStatus());
+			}
+			
+			SearchResultWrapper wrapper = index.search(collection, "bulk", 0, 10);
+			assertEquals(2, wrapper.getResultCount());
+		} catch (IndexException e) {
+			fail(e.getLocalizedMessage());
+		}
+	}
+	
+	@Test
+	public void testCursorPaging() throws Exception {
+		try (Index index = getIndex()){
+			String collection = "collection";
+			Instant timestamp = Instant.now();
+			for (int i = 0; i < 25; i++) {
+				index.indexPage(collection, "http://does.not.exist.com/" + i, timestamp.minus(i, ChronoUnit.DAYS), "Testing paging");
+			}
+			
+			List<String> urls = new ArrayList<>();
+			SearchResultWrapper wrapper = index.search(collection, "paging", 0, 10);
+			while (true) {
+				assertEquals(25, wrapper.getResultCount());
+				assertEquals(urls.size(), wrapper.getOffset());
+				
+				SearchResultWrapper byOffset = index.search(collection, "paging", urls.size(), 10);
+				assertEquals(byOffset.getResults().size(), wrapper.getResults().size());
+				for (int i = 0; i < wrapper.getResults().size(); i++) {
+					assertEquals(byOffset.getResults().get(i).getUrl(), wrapper.getResults().get(i).getUrl());
+					urls.add(wrapper.getResults().get(i).getUrl());
+				}
+				
+				if (wrapper.getCursor() == null) break;
+				wrapper = index.searchAfter(collection, "paging", wrapper.getCursor(), 10, false);
+			}
+			
+			assertEquals(25, urls.size());
+			for (int i = 0; i < urls.size(); i++) {
+				assertEquals("http://does.not.exist.com/" + i, urls.get(i));
+			}
+		} catch (IndexException e) {
+			fail(e.getLocalizedMessage());
+		}
+	}
+	
+	@Test
+	public void testFilters() throws Exception {
+		try (Index index = getIndex()){
+			String collection = "test";
+			Instant now = Instant.now();
+			Instant recent = now.minus(2, ChronoUnit.DAYS);
+			Instant old = now.minus(60, ChronoUnit.DAYS);
+			index.indexPage(collection, "http://www.difference.com/recent", recent, "Testing filters recently");
+			index.indexPage(collection, "http://www.difference.com/old", old, "Testing filters long ago");
+			index.indexPage(collection, "http://does.not.exist.com/recent", recent, "Testing filters elsewhere");
+			
+			Instant week = now.minus(7, ChronoUnit.DAYS);
+			assertEquals(2, index.search(collection, "filters after:" + week, 0, 10).getResultCount());
+			assertEquals(1, index.search(collection, "filters before:" + week, 0, 10).getResultCount());
+			assertEquals(2, index.search(collection, "filters site:difference.com", 0, 10).getResultCount());
+			assertEquals(2, index.search(collection, "filters site:https://www.difference.com/about", 0, 10).getResultCount());
+			assertEquals(3, index.search(collection, "filters site:difference.com site:does.not.exist.com", 0, 10).getResultCount());
+			
+			SearchResultWrapper wrapper = index.search(collection, "site:difference.com after:" + week, 0, 10);
+			assertEquals(1, wrapper.getResultCount());
+			assertEquals("http://www.difference.com/recent", wrapper.getResults().get(0).getUrl());
+			
+			// repeated, so served from cached filters
+			wrapper = index.search(collection, "filters after:" + week + " before:" + now.plusSeconds(1), 0, 10);
+			assertEquals(2, wrapper.getResultCount());
+			wrapper = index.search(collection, "elsewhere after:" + week + " before:" + now.plusSeconds(1), 0, 10);
+			assertEquals(1, wrapper.getResultCount());
+			
+			assertEquals(0, index.search(collection, "filters after:" + now.plusSeconds(1), 0, 10).getResultCount());
+			assertEquals(0, index.search(collection, "filters before:1970-01-01", 0, 10).getResultCount());
+		} catch (IndexException e) {
+			fail(e.getLocalizedMessage());
+		}
+		
+		try (Index index = getIndex()){
+			index.search("test", "filters after:yesterday", 0, 10);
+			fail("Invalid dates should not be accepted");
+		} catch (IndexException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testFacets() throws Exception {
+		try (Index index = getIndex()){
+			String collection = "test";
+			Instant january = Instant.parse("2016-01-10T00:00:00Z");
+			Instant february = Instant.parse("2016-02-05T00:00:00Z");
+			index.indexPage(collection, "http://www.difference.com/1", january, "Testing facets");
+			index.indexPage(collection, "http://www.difference.com/2", january, "Testing facets");
+			index.indexPage(collection, "http://www.difference.com/3", february, "Testing facets");
+			index.indexPage(collection, "http://does.not.exist.com/1", february, "Testing facets");
+			index.indexPage(collection, "http://does.not.exist.com/2", february, "Not counted");
+			index.indexPage("other", "http://does.not.exist.com/3", february, "Testing facets");
+			
+			assertEquals(null, index.search(collection, "facets", 0, 10).getFacets());
+			
+			SearchResultWrapper wrapper = index.search(collection, "facets", 0, 1, false, true);
+			assertEquals(1, wrapper.getResults().size());
+			SearchFacets facets = wrapper.getFacets();
+			assertEquals(2, facets.getDomains().size());
+			assertEquals("difference.com", facets.getDomains().get(0).getValue());
+			assertEquals(3, facets.getDomains().get(0).getCount());
+			assertEquals("exist.com", facets.getDomains().get(1).getValue());
+			assertEquals(1, facets.getDomains().get(1).getCount());
+			assertEquals(2, facets.getMonths().size());
+			assertEquals("2016-01", facets.getMonths().get(0).getValue());
+			assertEquals(2, facets.getMonths().get(0).getCount());
+			assertEquals("2016-02", facets.getMonths().get(1).getValue());
+			assertEquals(2, facets.getMonths().get(1).getCount());
+			
+			facets = index.search(collection, "facets before:2016-02-01", 0, 10, false, true).getFacets();
+			assertEquals(1, facets.getDomains().size());
+			assertEquals(1, facets.getMonths().size());
+			assertEquals(2, facets.getMonths().get(0).getCount());
+		} catch (IndexException e) {
+			fail(e.getLocalizedMessage());
+		}
+	}
+	
+	@Test
+	public void testDeferredSnippets() throws Exception {
+		try (Index index = getIndex()){
+			String collection = "test";
+			Instant timestamp = Instant.now();
+			index.indexPage(collection, "http://www.difference.com/1", timestamp, 
+					"<html><head><title>Broadcasts</title></head><body>This is a test of the emergency broadcast system.</body></html>");
+			index.indexPage(collection, "http://www.difference.com/2", timestamp, 
+					"<html><head><title>Broadcasts</title></head><body>This is a test of the emergency broadcast system.</body></html>");
+			index.indexPage(collection, "http://does.not.exist.com", timestamp, 
+					"<html><head><title>Other</title></head><body>A broadcast from a galaxy far, far away.</body></html>");
+			
+			SearchResultWrapper wrapper = index.search(collection, "broadcast", 0, 10, false, false, false);
+			assertEquals(3, wrapper.getResults().size());
+			List<String> keys = new ArrayList<>();
+			for (SearchResult result : wrapper.getResults()) {
+				assertEquals("", result.getSnippet());
+				assertNotNull(result.getTitle());
+				assertNotNull(result.getUrl());
+				keys.add(result.getKey());
+			}
+			
+			Map<String, String> snippets = index.snippets(collection, "broadcast", keys);
+			// the first two pages have the same content
+			assertEquals(2, snippets.size());
+			List<SearchResult> full = index.search(collection, "broadcast", 0, 10).getResults();
+			for (SearchResult result : full) {
+				assertEquals(result.getSnippet(), snippets.get(result.getKey()));
+				assertTrue(result.getSnippet().contains("broadcast"));
+			}
+			
+			assertTrue(index.snippets(collection, "broadcast", Arrays.asList("missing")).isEmpty());
+			
+			// streamed, each snippet is passed on once
+			Map<String, String> streamed = new HashMap<>();
+			index.snippets(collection, "broadcast", keys, (key, snippet) -> assertNull(streamed.put(key, snippet)));
+			assertEquals(snippets, streamed);
+			assertTrue(index.snippets("other", "broadcast", keys).isEmpty());
+		} catch (IndexException e) {
+			fail(e.getLocalizedMessage());
+		}
+	}
+	
+	@Test
+	public void testSuggest() throws Exception {
+		try (Index index = getIndex()){
+			String collection = "test";
+			Instant timestamp = Instant.now();
+			index.indexPage(collection, "http://www.difference.com/engines", timestamp, 
+					"<html><head><title>Difference Engines</title></head><body>Calculating</body></html>");
+			index.indexPage(collection, "http://does.not.exist.com/gratings", timestamp.minus(60, ChronoUnit.DAYS), 
+					"<html><head><title>Diffraction Gratings</title></head><body>Spectra</body></html>");
+			index.indexPage("other", "http://does.not.exist.com/other", timestamp, 
+					"<html><head><title>Different Collection</title></head><body>Elsewhere</body></html>");
+			
+			// suggestions are built in the background
+			List<Suggestion> suggestions = index.suggest(collection, "DIFF", 10);
+			long deadline = System.currentTimeMillis() + 10000;
+			while (suggestions.size() < 4 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+				suggestions = index.suggest(collection, "DIFF", 10);
+			}
+			
+			assertEquals(4, suggestions.size());
+			List<String> texts = suggestions.stream().map(Suggestion::getText).collect(Collectors.toList());
+			assertTrue(texts.containsAll(Arrays.asList("Difference Engines", "difference.com/engines", "difference.com")));
+			// visited longest ago, so suggested last
+			Suggestion last = suggestions.get(3);
+			assertEquals("Diffraction Gratings", last.getText());
+			assertEquals(Suggestion.Kind.TITLE, last.getKind());
+			assertEquals("http://does.not.exist.com/gratings", last.getUrl());
+			
+			Suggestion domain = suggestions.stream().filter(s -> s.getKind() == Suggestion.Kind.DOMAIN).findFirst().get();
+			assertEquals("difference.com", domain.getText());
+			assertEquals(null, domain.getUrl());
+			
+			assertEquals(1, index.suggest(collection, "does.not.exist.com/g", 10).size());
+			assertEquals(2, index.suggest(collection, "DIFF", 2).size());
+			assertEquals(0, index.suggest(collection, "xyz", 10).size());
+			assertEquals(0, index.suggest("missing", "diff", 10).size());
+		} catch (IndexException e) {
+			fail(e.getLocalizedMessage());
+		}
+	}
 }
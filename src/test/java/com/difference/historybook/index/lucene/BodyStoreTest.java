@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+
+public class BodyStoreTest {
+
+	@Test
+	public void testPutGet() throws IOException {
+		Path path = Files.createTempDirectory("historybook-test-").resolve("index.bodies");
+		try (BodyStore store = new BodyStore(path)) {
+			store.put("a", "Testing body store");
+			store.put("b", "");
+			store.put("a", "Ignored duplicate");
+			
+			assertEquals("Testing body store", store.get("a"));
+			assertEquals("", store.get("b"));
+			assertNull(store.get("c"));
+			assertEquals(2, store.getCount());
+			assertEquals(Files.size(path), store.getSizeInBytes());
+		}
+	}
+	
+	@Test
+	public void testReopen() throws IOException {
+		Path path = Files.createTempDirectory("historybook-test-").resolve("index.bodies");
+		try (BodyStore store = new BodyStore(path)) {
+			store.put("a", "Testing reopen \u00e9\u4e2d");
+		}
+		try (BodyStore store = new BodyStore(path)) {
+			assertEquals("Testing reopen \u00e9\u4e2d", store.get("a"));
+			store.put("b", "Testing append");
+			assertEquals("Testing append", store.get("b"));
+		}
+	}
+	
+	@Test
+	public void testTornWriteIsDiscarded() throws IOException {
+		Path path = Files.createTempDirectory("historybook-test-").resolve("index.bodies");
+		long size;
+		try (BodyStore store = new BodyStore(path)) {
+			store.put("a", "Testing torn writes");
+			size = store.getSizeInBytes();
+			store.put("b", "Testing torn writes again");
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.truncate(Files.size(path) - 3);
+		}
+		try (BodyStore store = new BodyStore(path)) {
+			assertEquals(1, store.getCount());
+			assertEquals(size, Files.size(path));
+			assertEquals("Testing torn writes", store.get("a"));
+			assertNull(store.get("b"));
+		}
+	}
+}
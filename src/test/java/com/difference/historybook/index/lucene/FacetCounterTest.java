@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import static org.junit.Assert.*;
+
+import java.time.Instant;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import com.difference.historybook.index.SearchFacets;
+
+public class FacetCounterTest {
+	private static final long JANUARY = Instant.parse("2016-01-15T00:00:00Z").getEpochSecond();
+	private static final long FEBRUARY = Instant.parse("2016-02-15T00:00:00Z").getEpochSecond();
+
+	@Test
+	public void testCountVersionsOrUrls() throws Exception {
+		// written as before domains had doc values, so the domains come from the urls
+		try (Directory directory = new RAMDirectory()) {
+			try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+				writer.addDocument(page("http://intranet/x", JANUARY));
+				writer.addDocument(page("http://intranet/x", FEBRUARY));
+				writer.addDocument(page("http://does.not.exist.com/", JANUARY));
+				writer.addDocument(page("about:blank", JANUARY));
+			}
+			
+			try (DirectoryReader reader = DirectoryReader.open(directory)) {
+				IndexSearcher searcher = new IndexSearcher(reader);
+				
+				FacetCounter versions = new FacetCounter();
+				searcher.search(new MatchAllDocsQuery(), versions);
+				SearchFacets facets = versions.getFacets(10);
+				assertEquals("intranet", facets.getDomains().get(0).getValue());
+				assertEquals(2, facets.getDomains().get(0).getCount());
+				assertEquals(2, facets.getDomains().size());
+				assertEquals(3, facets.getMonths().get(0).getCount());
+				
+				FacetCounter urls = new FacetCounter(true);
+				searcher.search(new MatchAllDocsQuery(), urls);
+				facets = urls.getFacets(10);
+				assertEquals(1, facets.getDomains().get(0).getCount());
+				assertEquals(1, facets.getDomains().get(1).getCount());
+				assertEquals("2016-01", facets.getMonths().get(0).getValue());
+				assertEquals(2, facets.getMonths().get(0).getCount());
+				assertEquals("2016-02", facets.getMonths().get(1).getValue());
+				assertEquals(1, facets.getMonths().get(1).getCount());
+			}
+		}
+	}
+
+	private static Document page(String url, long timestamp) {
+		Document doc = new Document();
+		doc.add(new SortedDocValuesField(IndexDocumentAdapter.FIELD_URL_GROUP, new BytesRef(url)));
+		doc.add(new NumericDocValuesField(IndexDocumentAdapter.FIELD_TIMESTAMP, timestamp));
+		return doc;
+	}
+}
@@ -49,6 +49,15 @@ public class IndexDocumentAdapterTest {
 		assertEquals("exist.co.uk", adapter.getDomain());
 	}
 
+	@Test
+	public void testGetDomainNotUnderPublicSuffix() {
+		assertEquals("intranet", new IndexDocumentAdapter().setUrl("http://Intranet/x").getDomain());
+		assertEquals("router.lan", new IndexDocumentAdapter().setUrl("http://router.lan/").getDomain());
+		assertEquals("printer.local", IndexDocumentAdapter.domainOf("Printer.LOCAL"));
+		assertEquals("intranet", IndexDocumentAdapter.domainOfUrl("http://intranet/x"));
+		assertNull(IndexDocumentAdapter.domainOfUrl("about:blank"));
+	}
+
 	@Test
 	public void testSetGetTimestamp() {
 		IndexDocumentAdapter adapter = new IndexDocumentAdapter();
@@ -74,6 +83,20 @@ public class IndexDocumentAdapterTest {
 		assertEquals(adapter1.getKey(), adapter3.getKey());
 	}
 	
+	@Test
+	public void testSetGetVersionId() {
+		IndexDocumentAdapter adapter1 = new IndexDocumentAdapter()
+				.setCollection("test").setUrl("http://does.not.exist.com").setContent("content1").setVersionId();
+		IndexDocumentAdapter adapter2 = new IndexDocumentAdapter()
+				.setCollection("test").setUrl("http://does.not.exist.com").setContent("content2").setVersionId();
+		IndexDocumentAdapter adapter3 = new IndexDocumentAdapter()
+				.setCollection("other").setUrl("http://does.not.exist.com").setContent("content1").setVersionId();
+
+		assertEquals(IndexDocumentAdapter.versionId("test", "http://does.not.exist.com", adapter1.getKey()), adapter1.getVersionId());
+		assertNotEquals(adapter1.getVersionId(), adapter2.getVersionId());
+		assertNotEquals(adapter1.getVersionId(), adapter3.getVersionId());
+	}
+
 	@Test
 	public void testGetAsDocument() {
 		Document doc = new Document();
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class IndexJournalTest {
+
+	@Test
+	public void testAppendAndReplay() throws IOException {
+		Path path = Files.createTempDirectory("historybook-test-").resolve("test.journal");
+		Instant timestamp = Instant.now();
+		
+		try (IndexJournal journal = new IndexJournal(path, 0)) {
+			assertEquals(1, journal.append("collection", "http://does.not.exist/1", timestamp, "body1"));
+			assertEquals(2, journal.append("collection", "http://does.not.exist/2", timestamp, "body2"));
+			assertEquals(3, journal.append("collection", "http://does.not.exist/3", timestamp, "body3"));
+		}
+		
+		try (IndexJournal journal = new IndexJournal(path, 0)) {
+			List<String> bodies = new ArrayList<>();
+			JournalReplayStatistics stats = journal.replay(1, (sequence, collection, url, ts, body) -> {
+				assertEquals("collection", collection);
+				assertEquals(timestamp, ts);
+				bodies.add(body);
+			});
+			
+			assertEquals(3, stats.getEntriesRead());
+			assertEquals(1, stats.getEntriesSkipped());
+			assertEquals(2, stats.getEntriesReplayed());
+			assertEquals(0, stats.getBytesDiscarded());
+			assertEquals(2, bodies.size());
+			assertEquals("body2", bodies.get(0));
+			assertEquals("body3", bodies.get(1));
+			
+			assertEquals(3, journal.getLastSequence());
+			assertEquals(4, journal.append("collection", "http://does.not.exist/4", timestamp, "body4"));
+		}
+	}
+
+	@Test
+	public void testTornTailIsDiscarded() throws IOException {
+		Path path = Files.createTempDirectory("historybook-test-").resolve("test.journal");
+		
+		try (IndexJournal journal = new IndexJournal(path, 1)) {
+			journal.append("collection", "http://does.not.exist/1", Instant.now(), "body1");
+			journal.append("collection", "http://does.not.exist/2", Instant.now(), "body2");
+		}
+		
+		long fullSize = Files.size(path);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.truncate(fullSize - 3);
+		}
+		
+		try (IndexJournal journal = new IndexJournal(path, 0)) {
+			JournalReplayStatistics stats = journal.replay(0, (sequence, collection, url, ts, body) -> {
+				assertEquals("body1", body);
+			});
+			assertEquals(1, stats.getEntriesReplayed());
+			assertTrue(stats.getBytesDiscarded() > 0);
+		}
+	}
+
+	@Test
+	public void testTruncate() throws IOException {
+		Path path = Files.createTempDirectory("historybook-test-").resolve("test.journal");
+		
+		try (IndexJournal journal = new IndexJournal(path, 0)) {
+			journal.append("collection", "http://does.not.exist/1", Instant.now(), "body1");
+			journal.truncate();
+			assertEquals(0, Files.size(path));
+			
+			JournalReplayStatistics stats = journal.replay(0, (sequence, collection, url, ts, body) -> {
+				fail("Nothing should be replayed");
+			});
+			assertEquals(0, stats.getEntriesRead());
+		}
+	}
+}
@@ -16,13 +16,35 @@
 
 package com.difference.historybook.index.lucene;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.index.NoMergePolicy;
+import org.junit.Test;
 
+import com.difference.historybook.index.FacetCount;
 import com.difference.historybook.index.Index;
 import com.difference.historybook.index.IndexException;
 import com.difference.historybook.index.IndexTest;
+import com.difference.historybook.index.SearchResult;
+import com.difference.historybook.index.SearchResultWrapper;
+import com.difference.historybook.index.Suggestion;
+import com.difference.historybook.index.WebPage;
 import com.difference.historybook.index.lucene.LuceneIndex;
 
 public class LuceneIndexTest extends IndexTest {
@@ -37,4 +59,389 @@ public class LuceneIndexTest extends IndexTest {
 		}
 	}
 
+	@Test
+	public void testNearRealTimeRefresh() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		LuceneIndexSettings settings = new LuceneIndexSettings().setRefreshIntervalMillis(50);
+		try (LuceneIndex index = new LuceneIndex(tempIndex, settings)) {
+			index.indexPage("test", "http://does.not.exist.com", Instant.now(), "Testing refresh");
+			
+			long deadline = System.currentTimeMillis() + 5000;
+			SearchResultWrapper wrapper = index.search("test", "refresh", 0, 10);
+			while (wrapper.getResultCount() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+				wrapper = index.search("test", "refresh", 0, 10);
+			}
+			assertEquals(1, wrapper.getResultCount());
+		}
+	}
+
+	@Test
+	public void testIntranetHost() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		try (LuceneIndex index = new LuceneIndex(tempIndex)) {
+			index.indexPage("test", "http://intranet/x", Instant.now(), "Testing intranet pages");
+			index.indexPage("test", "http://router.lan/", Instant.now(), "Testing intranet pages");
+			
+			SearchResultWrapper wrapper = index.search("test", "intranet", 0, 10, false, true);
+			assertEquals(2, wrapper.getResultCount());
+			assertEquals(2, wrapper.getFacets().getDomains().size());
+		}
+	}
+
+	@Test
+	public void testSuggestWords() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		try (LuceneIndex index = new LuceneIndex(tempIndex)) {
+			index.indexPage("test", "http://www.difference.com/analytical/engines", Instant.now(), 
+					"<html><head><title>Difference Engines</title></head><body>Calculating</body></html>");
+		}
+		
+		// pages already in the index are read by the full build at startup, and new ones as recent pages
+		try (LuceneIndex index = new LuceneIndex(tempIndex)) {
+			index.indexPage("test", "http://does.not.exist.com/gratings", Instant.now(), 
+					"<html><head><title>Diffraction Gratings</title></head><body>Spectra</body></html>");
+			
+			List<Suggestion> engines = awaitSuggestions(index, "engi", 2);
+			assertEquals(2, engines.size());
+			assertTrue(engines.stream().allMatch(s -> s.getUrl().equals("http://www.difference.com/analytical/engines")));
+			assertTrue(engines.stream().anyMatch(s -> s.getText().equals("Difference Engines")));
+			assertTrue(engines.stream().anyMatch(s -> s.getText().equals("difference.com/analytical/engines")));
+			
+			List<Suggestion> gratings = awaitSuggestions(index, "GRAT", 2);
+			assertEquals(2, gratings.size());
+			assertTrue(gratings.stream().allMatch(s -> s.getUrl().equals("http://does.not.exist.com/gratings")));
+			
+			// hosts are only matched from their start
+			assertEquals(0, index.suggest("test", "com", 10).size());
+			assertEquals(1, index.suggest("test", "analytical", 10).size());
+		}
+	}
+
+	private static List<Suggestion> awaitSuggestions(Index index, String prefix, int count) throws Exception {
+		List<Suggestion> suggestions = index.suggest("test", prefix, 10);
+		long deadline = System.currentTimeMillis() + 10000;
+		while (suggestions.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+			suggestions = index.suggest("test", prefix, 10);
+		}
+		return suggestions;
+	}
+
+	@Test
+	public void testCommitOnClose() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		LuceneIndexSettings settings = new LuceneIndexSettings().setCommitIntervalMillis(0);
+		try (LuceneIndex index = new LuceneIndex(tempIndex, settings)) {
+			index.indexPage("test", "http://does.not.exist.com", Instant.now(), "Testing commit");
+		}
+		
+		try (LuceneIndex index = new LuceneIndex(tempIndex, settings)) {
+			assertEquals(1, index.search("test", "commit", 0, 10).getResultCount());
+		}
+	}
+
+	@Test
+	public void testJournalReplay() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		try (IndexJournal journal = new IndexJournal(tempIndex.resolve("index.journal"), 0)) {
+			journal.append("test", "http://does.not.exist.com/1", Instant.now(), "Testing replay one");
+			journal.append("test", "http://does.not.exist.com/2", Instant.now(), "Testing replay two");
+		}
+		
+		try (LuceneIndex index = new LuceneIndex(tempIndex)) {
+			assertEquals(2, index.getJournalReplayStatistics().getEntriesReplayed());
+			assertEquals(2, index.search("test", "replay", 0, 10).getResultCount());
+			assertEquals(0, Files.size(tempIndex.resolve("index.journal")));
+		}
+		
+		try (LuceneIndex index = new LuceneIndex(tempIndex)) {
+			assertEquals(0, index.getJournalReplayStatistics().getEntriesRead());
+			assertEquals(2, index.search("test", "replay", 0, 10).getResultCount());
+		}
+	}
+
+	@Test
+	public void testSubmitPage() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		LuceneIndexSettings settings = new LuceneIndexSettings()
+				.setExtractionThreads(4)
+				.setExtractionQueueCapacity(2)
+				.setWriterQueueCapacity(2);
+		try (LuceneIndex index = new LuceneIndex(tempIndex, settings)) {
+			List<CompletableFuture<Void>> futures = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				futures.add(index.submitPage("test", "http://does.not.exist.com/" + i, Instant.now(), "Testing stages " + i));
+			}
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+			
+			assertEquals(50, index.search("test", "stages", 0, 10).getResultCount());
+			assertEquals(50, index.getWriterStage().getSubmittedCount());
+			assertEquals(0, index.getExtractionStage().getRejectedCount());
+		}
+	}
+
+	@Test
+	public void testRevisitUpdatesExistingVersion() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		Instant first = Instant.parse("2016-01-01T00:00:00Z");
+		Instant second = Instant.parse("2016-02-01T00:00:00Z");
+		Instant third = Instant.parse("2016-03-01T00:00:00Z");
+
+		try (LuceneIndex index = new LuceneIndex(tempIndex)) {
+			index.indexPage("test", "http://does.not.exist.com", first, "Testing revisits");
+			index.indexPage("test", "http://does.not.exist.com", second, "Testing revisits");
+			index.indexPage("test", "http://does.not.exist.com", first, "Testing revisits");
+			assertEquals(2, index.getRevisitCount());
+
+			SearchResultWrapper wrapper = index.search("test", "revisits", 0, 10);
+			assertEquals(1, wrapper.getResultCount());
+			assertEquals(second.toString(), wrapper.getResults().get(0).getTimestamp());
+
+			index.indexPage("test", "http://does.not.exist.com", second, "Testing changed revisits");
+			assertEquals(2, index.getRevisitCount());
+		}
+
+		try (LuceneIndex index = new LuceneIndex(tempIndex)) {
+			index.indexPage("test", "http://does.not.exist.com", third, "Testing revisits");
+			assertEquals(1, index.getRevisitCount());
+
+			SearchResultWrapper wrapper = index.search("test", "revisits -changed", 0, 10);
+			assertEquals(third.toString(), wrapper.getResults().get(0).getTimestamp());
+		}
+	}
+
+	@Test
+	public void testFilterSeesRevisits() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		Instant first = Instant.parse("2016-01-01T00:00:00Z");
+		Instant second = Instant.parse("2016-02-01T00:00:00Z");
+
+		try (LuceneIndex index = new LuceneIndex(tempIndex)) {
+			index.indexPage("test", "http://does.not.exist.com", first, "Testing revisits");
+			assertEquals(1, index.search("test", "revisits before:2016-01-15", 0, 10).getResultCount());
+			assertEquals(0, index.search("test", "revisits after:2016-01-15", 0, 10).getResultCount());
+			
+			// the revisit updates the timestamp in place, which the cached filters have to notice
+			index.indexPage("test", "http://does.not.exist.com", second, "Testing revisits");
+			assertEquals(0, index.search("test", "revisits before:2016-01-15", 0, 10).getResultCount());
+			assertEquals(1, index.search("test", "revisits after:2016-01-15", 0, 10).getResultCount());
+			assertTrue(index.getFilterCacheStats().hitCount() == 0);
+			
+			assertEquals(1, index.search("test", "testing after:2016-01-15", 0, 10).getResultCount());
+			assertTrue(index.getFilterCacheStats().hitCount() > 0);
+		}
+	}
+
+	@Test
+	public void testExternalBodyStore() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		LuceneIndexSettings settings = new LuceneIndexSettings().setBodyStoreEnabled(true);
+		try (LuceneIndex index = new LuceneIndex(tempIndex, settings)) {
+			index.indexPage("test", "http://does.not.exist.com/1", Instant.now(), "Testing external bodies");
+			index.indexPage("test", "http://does.not.exist.com/2", Instant.now(), "Testing external bodies");
+			assertEquals(1, index.getBodyStoreCount());
+		}
+		
+		try (LuceneIndex index = new LuceneIndex(tempIndex, settings)) {
+			SearchResultWrapper wrapper = index.search("test", "external", 0, 10);
+			assertEquals(2, wrapper.getResultCount());
+			assertTrue(wrapper.getResults().get(0).getSnippet().contains("<b>external</b>"));
+		}
+	}
+
+	@Test
+	public void testResultCache() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		try (LuceneIndex index = new LuceneIndex(tempIndex)) {
+			index.indexPage("test", "http://does.not.exist.com/1", Instant.now(), "Testing cached results");
+			assertEquals(1, index.search("test", "cached", 0, 10).getResultCount());
+			
+			SearchResultWrapper wrapper = index.search("test", "  cached ", 0, 10);
+			assertEquals(1, wrapper.getResultCount());
+			assertEquals("  cached ", wrapper.getQuery());
+			assertEquals(1, index.getResultCacheStats().hitCount());
+			
+			index.indexPage("test", "http://does.not.exist.com/2", Instant.now(), "Testing cached results");
+			assertEquals(2, index.search("test", "cached", 0, 10).getResultCount());
+			assertEquals(1, index.getResultCacheStats().hitCount());
+			assertEquals(2, index.getResultCacheStats().missCount());
+		}
+	}
+
+	@Test
+	public void testLatestVersionMarker() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		String url = "http://does.not.exist.com";
+		Instant first = Instant.parse("2016-01-01T00:00:00Z");
+		Instant second = Instant.parse("2016-02-01T00:00:00Z");
+		Instant third = Instant.parse("2016-03-01T00:00:00Z");
+
+		try (LuceneIndex index = new LuceneIndex(tempIndex)) {
+			index.indexPage("test", url, first, "Testing markers one");
+			index.indexPage("test", url, second, "Testing markers two");
+			assertEquals(1, index.search("test", "markers", 0, 10).getResultCount());
+			assertEquals(0, index.search("test", "one", 0, 10).getResultCount());
+			assertEquals(1, index.search("test", "two", 0, 10).getResultCount());
+			
+			// a capture older than the latest version does not take the marker
+			index.indexPage("test", url, first, "Testing markers three");
+			assertEquals(0, index.search("test", "three", 0, 10).getResultCount());
+			
+			// a revisit of an older version does
+			index.indexPage("test", url, third, "Testing markers one");
+			assertEquals(1, index.search("test", "one", 0, 10).getResultCount());
+			assertEquals(0, index.search("test", "two", 0, 10).getResultCount());
+			
+			SearchResultWrapper versions = index.versions("test", url, 0, 10);
+			assertEquals(3, versions.getResultCount());
+			assertEquals(third.toString(), versions.getResults().get(0).getTimestamp());
+			assertEquals(second.toString(), versions.getResults().get(1).getTimestamp());
+		}
+		
+		try (LuceneIndex index = new LuceneIndex(tempIndex)) {
+			index.indexPages("test", Arrays.asList(
+					new WebPage(url, Instant.now(), "Testing markers four"),
+					new WebPage(url, Instant.now().plusSeconds(1), "Testing markers five")));
+			assertEquals(1, index.search("test", "markers", 0, 10).getResultCount());
+			assertEquals(1, index.search("test", "five", 0, 10).getResultCount());
+			assertEquals(5, index.versions("test", url, 0, 10).getResultCount());
+		}
+	}
+
+	@Test
+	public void testRankingModes() throws Exception {
+		for (RankingMode mode : RankingMode.values()) {
+			Path tempIndex = Files.createTempDirectory("historybook-test-");
+			LuceneIndexSettings settings = new LuceneIndexSettings().setRankingMode(mode);
+			try (LuceneIndex index = new LuceneIndex(tempIndex, settings)) {
+				index.indexPage("test", "http://does.not.exist.com/old", Instant.now().minus(Duration.ofDays(900)), "Testing ranking");
+				index.indexPage("test", "http://does.not.exist.com/new", Instant.now().minus(Duration.ofDays(3)), "Testing ranking");
+				
+				SearchResultWrapper wrapper = index.search("test", "ranking", 0, 10);
+				assertEquals(2, wrapper.getResultCount());
+				assertEquals(mode.name(), "http://does.not.exist.com/new", wrapper.getResults().get(0).getUrl());
+			}
+		}
+	}
+
+	@Test
+	public void testSnippetEngines() throws Exception {
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			body.append("filler words ");
+		}
+		body.append("when x &lt; y the needle is found ");
+		for (int i = 0; i < 500; i++) {
+			body.append("filler words ");
+		}
+		
+		for (SnippetEngine engine : SnippetEngine.values()) {
+			Path tempIndex = Files.createTempDirectory("historybook-test-");
+			LuceneIndexSettings settings = new LuceneIndexSettings()
+					.setSnippetEngine(engine)
+					.setSnippetPassageLength(60)
+					.setBodyStoreEnabled(true);
+			try (LuceneIndex index = new LuceneIndex(tempIndex, settings)) {
+				index.indexPage("test", "http://does.not.exist.com", Instant.now(), body.toString());
+				
+				String snippet = index.search("test", "needle", 0, 10).getResults().get(0).getSnippet();
+				assertTrue(engine.name(), snippet.contains("x &lt; y the"));
+				assertTrue(engine.name(), snippet.contains("<b>needle</b> is found"));
+				assertTrue(engine.name(), snippet.length() < 100);
+				if (engine == SnippetEngine.POSTINGS) {
+					assertTrue(snippet.contains("x &lt; y the <b>needle</b>"));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCursorKeepsSearcher() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		try (LuceneIndex index = new LuceneIndex(tempIndex)) {
+			Instant timestamp = Instant.now().minus(Duration.ofDays(1));
+			for (int i = 0; i < 15; i++) {
+				index.indexPage("test", "http://does.not.exist.com/" + i, timestamp.minus(Duration.ofDays(i)), "Testing cursors");
+			}
+			
+			SearchResultWrapper first = index.search("test", "cursors", 0, 10);
+			assertEquals(10, first.getResults().size());
+			
+			// pages indexed after the first page was fetched do not shift later pages
+			index.indexPage("test", "http://does.not.exist.com/new", Instant.now(), "Testing cursors");
+			SearchResultWrapper second = index.searchAfter("test", "cursors", first.getCursor(), 10, false);
+			assertEquals(15, second.getResultCount());
+			assertEquals(5, second.getResults().size());
+			assertEquals("http://does.not.exist.com/10", second.getResults().get(0).getUrl());
+			assertEquals(null, second.getCursor());
+		}
+	}
+
+	@Test(expected = IndexException.class)
+	public void testInvalidCursor() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		try (LuceneIndex index = new LuceneIndex(tempIndex)) {
+			index.searchAfter("test", "cursors", "not a cursor", 10, false);
+		}
+	}
+
+	@Test
+	public void testStreamedSnippets() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		LuceneIndexSettings settings = new LuceneIndexSettings().setSearchThreads(4);
+		try (LuceneIndex index = new LuceneIndex(tempIndex, settings)) {
+			for (int i = 0; i < 12; i++) {
+				index.indexPage("test", "http://does.not.exist.com/" + i, Instant.now(), "Testing streamed snippets of page " + i);
+			}
+			List<String> keys = new ArrayList<>();
+			for (SearchResult result : index.search("test", "streamed", 0, 20, false, false, false).getResults()) {
+				keys.add(result.getKey());
+			}
+			assertEquals(12, keys.size());
+			
+			// every key is passed on once, from the calling thread, whichever share built it
+			Thread caller = Thread.currentThread();
+			Map<String, String> streamed = new HashMap<>();
+			index.snippets("test", "streamed", keys, (key, snippet) -> {
+				assertEquals(caller, Thread.currentThread());
+				assertNull(streamed.put(key, snippet));
+			});
+			assertEquals(index.snippets("test", "streamed", keys), streamed);
+		}
+	}
+
+	@Test
+	public void testConcurrentSearch() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		LuceneIndexSettings settings = new LuceneIndexSettings().setSearchThreads(4).setMergePolicy(NoMergePolicy.INSTANCE);
+		try (LuceneIndex index = new LuceneIndex(tempIndex, settings)) {
+			// every page is refreshed into a segment of its own, and never merged, so the 20 segments make three slices
+			Instant timestamp = Instant.now();
+			for (int i = 0; i < 20; i++) {
+				index.indexPage("test", "http://does.not.exist.com/" + i, timestamp.minus(Duration.ofDays(i)), "Testing slices");
+			}
+			
+			SearchResultWrapper wrapper = index.search("test", "slices", 0, 10, true);
+			assertEquals(20, wrapper.getResultCount());
+			for (int i = 0; i < 10; i++) {
+				assertEquals("http://does.not.exist.com/" + i, wrapper.getResults().get(i).getUrl());
+			}
+			assertTrue(wrapper.getDebugInfo().contains("slice 1: "));
+			assertTrue(wrapper.getDebugInfo().contains("slice 2: "));
+			assertFalse(wrapper.getDebugInfo().contains("slice 3: "));
+			
+			wrapper = index.searchAfter("test", "slices", wrapper.getCursor(), 10, false);
+			for (int i = 0; i < 10; i++) {
+				assertEquals("http://does.not.exist.com/" + (i + 10), wrapper.getResults().get(i).getUrl());
+			}
+			
+			// facets are counted by each slice and merged
+			wrapper = index.search("test", "slices", 0, 10, false, true);
+			assertEquals(1, wrapper.getFacets().getDomains().size());
+			assertEquals("exist.com", wrapper.getFacets().getDomains().get(0).getValue());
+			assertEquals(20, wrapper.getFacets().getDomains().get(0).getCount());
+			assertEquals(20, wrapper.getFacets().getMonths().stream().mapToInt(FacetCount::getCount).sum());
+		}
+	}
 }
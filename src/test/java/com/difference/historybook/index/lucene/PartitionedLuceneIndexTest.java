@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import org.junit.Test;
+
+import com.difference.historybook.index.Index;
+import com.difference.historybook.index.IndexException;
+import com.difference.historybook.index.IndexTest;
+import com.difference.historybook.index.SearchFacets;
+
+public class PartitionedLuceneIndexTest extends IndexTest {
+	private static final Clock MARCH = Clock.fixed(Instant.parse("2016-03-10T00:00:00Z"), ZoneOffset.UTC);
+	private static final Instant JANUARY = Instant.parse("2016-01-15T00:00:00Z");
+	private static final Instant FEBRUARY = Instant.parse("2016-02-15T00:00:00Z");
+
+	@Override
+	public Index getIndex() throws IndexException {
+		try {
+			Path tempIndex = Files.createTempDirectory("historybook-test-");
+			return new PartitionedLuceneIndex(tempIndex, new LuceneIndexSettings());
+		} catch (IOException e) {
+			throw new IndexException(e);
+		}
+	}
+
+	@Test
+	public void testSearchAcrossPartitions() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		LuceneIndexSettings settings = new LuceneIndexSettings().setHotPartitions(1);
+		try (PartitionedLuceneIndex index = new PartitionedLuceneIndex(tempIndex, settings, MARCH)) {
+			index.indexPage("test", "http://does.not.exist.com/1", JANUARY, "Testing partitions");
+			index.indexPage("test", "http://does.not.exist.com/2", FEBRUARY, "Testing partitions");
+			index.indexPage("test", "http://does.not.exist.com/2", Instant.now(MARCH), "Testing partitions");
+			assertEquals(3, index.getPartitionCount());
+			
+			// the same url in two partitions is still one result
+			assertEquals(2, index.search("test", "partitions", 0, 10).getResultCount());
+			
+			// and is counted once, under the month of its latest visit
+			SearchFacets facets = index.search("test", "partitions", 0, 10, false, true).getFacets();
+			assertEquals(2, facets.getDomains().get(0).getCount());
+			assertEquals(2, facets.getMonths().size());
+			assertEquals("2016-01", facets.getMonths().get(0).getValue());
+			assertEquals("2016-03", facets.getMonths().get(1).getValue());
+			assertEquals(1, facets.getMonths().get(1).getCount());
+		}
+		
+		try (PartitionedLuceneIndex index = new PartitionedLuceneIndex(tempIndex, settings, MARCH)) {
+			assertTrue(Files.exists(tempIndex.resolve("partitions/2016-01/sealed")));
+			assertFalse(Files.exists(tempIndex.resolve("partitions/2016-03/sealed")));
+			assertEquals(2, index.search("test", "partitions", 0, 10).getResultCount());
+		}
+	}
+
+	@Test
+	public void testSealAndReopen() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		LuceneIndexSettings settings = new LuceneIndexSettings().setHotPartitions(1);
+		try (PartitionedLuceneIndex index = new PartitionedLuceneIndex(tempIndex, settings, MARCH)) {
+			index.indexPage("test", "http://does.not.exist.com/1", JANUARY, "Testing sealing");
+			index.maintain();
+			assertTrue(Files.exists(tempIndex.resolve("partitions/2016-01/sealed")));
+			assertEquals(1, index.search("test", "sealing", 0, 10).getResultCount());
+			
+			index.indexPage("test", "http://does.not.exist.com/2", JANUARY, "Testing late sealing");
+			assertFalse(Files.exists(tempIndex.resolve("partitions/2016-01/sealed")));
+			assertEquals(2, index.search("test", "sealing", 0, 10).getResultCount());
+			
+			// kept open while late pages keep arriving, then sealed once they stop
+			index.maintain();
+			assertFalse(Files.exists(tempIndex.resolve("partitions/2016-01/sealed")));
+			assertEquals(2, index.search("test", "sealing", 0, 10).getResultCount());
+			
+			index.maintain();
+			assertTrue(Files.exists(tempIndex.resolve("partitions/2016-01/sealed")));
+			assertEquals(2, index.search("test", "sealing", 0, 10).getResultCount());
+		}
+	}
+
+	@Test
+	public void testRetention() throws Exception {
+		Path tempIndex = Files.createTempDirectory("historybook-test-");
+		LuceneIndexSettings settings = new LuceneIndexSettings().setRetainedPartitions(2);
+		try (PartitionedLuceneIndex index = new PartitionedLuceneIndex(tempIndex, settings)) {
+			index.indexPage("test", "http://does.not.exist.com/1", Instant.now(), "Testing retention");
+			try {
+				index.indexPage("test", "http://does.not.exist.com/2", JANUARY, "Testing retention");
+				fail("Pages older than the retention period should be rejected");
+			} catch (IndexException e) {
+				assertEquals(1, index.getPartitionCount());
+			}
+		}
+		
+		try (PartitionedLuceneIndex index = new PartitionedLuceneIndex(tempIndex, settings.setRetainedPartitions(0))) {
+			index.indexPage("test", "http://does.not.exist.com/2", JANUARY, "Testing retention");
+			assertEquals(2, index.getPartitionCount());
+		}
+		
+		try (PartitionedLuceneIndex index = new PartitionedLuceneIndex(tempIndex, settings.setRetainedPartitions(2))) {
+			assertEquals(1, index.getPartitionCount());
+			assertFalse(Files.exists(tempIndex.resolve("partitions/2016-01")));
+			assertEquals(1, index.search("test", "retention", 0, 10).getResultCount());
+		}
+	}
+}
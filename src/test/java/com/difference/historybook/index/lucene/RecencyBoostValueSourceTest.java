@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RecencyBoostValueSourceTest {
+	private static final long DAY = 60 * 60 * 24;
+	private static final float RECIP = 1F / (DAY * 365);
+
+	@Test
+	public void testBuckets() {
+		assertEquals(0, RecencyBoostValueSource.bucket(-DAY));
+		assertEquals(0, RecencyBoostValueSource.bucket(DAY - 1));
+		assertEquals(1, RecencyBoostValueSource.bucket(DAY));
+		assertEquals(365, RecencyBoostValueSource.bucket(365 * DAY + 1));
+		assertEquals(RecencyBoostValueSource.bucket(Long.MAX_VALUE), RecencyBoostValueSource.bucket(1000000 * DAY));
+	}
+
+	@Test
+	public void testBoosts() {
+		RecencyBoostValueSource vs = new RecencyBoostValueSource("timestamp", 0, RECIP);
+		float previous = Float.MAX_VALUE;
+		for (long days = 0; days < 10000; days += 7) {
+			float boost = vs.boostFor(days * DAY);
+			assertTrue(boost < previous);
+			float exact = 1 / (RECIP * days * DAY + 1);
+			assertEquals(exact, boost, 0.01 * exact);
+			previous = boost;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.index.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.junit.Test;
+
+public class SearchFiltersTest {
+
+	@Test
+	public void testNoOperators() throws ParseException {
+		SearchFilters filters = SearchFilters.parse("testing  filters");
+		assertEquals("testing filters", filters.getText());
+		assertFalse(filters.hasFilters());
+		assertEquals(Long.MIN_VALUE, filters.getFrom());
+		assertEquals(Long.MAX_VALUE, filters.getTo());
+		assertEquals(Collections.emptyList(), filters.getDomains());
+	}
+
+	@Test
+	public void testOperators() throws ParseException {
+		SearchFilters filters = SearchFilters.parse(
+				"after:2016-01-01 testing before:2016-02-01T12:00:00Z filters site:WWW.Difference.com:8080/about");
+		assertEquals("testing filters", filters.getText());
+		assertTrue(filters.hasFilters());
+		assertEquals(Instant.parse("2016-01-01T00:00:00Z").getEpochSecond(), filters.getFrom());
+		assertEquals(Instant.parse("2016-02-01T12:00:00Z").getEpochSecond(), filters.getTo());
+		assertEquals(Arrays.asList("difference.com"), filters.getDomains());
+	}
+
+	@Test
+	public void testNarrowestRange() throws ParseException {
+		SearchFilters filters = SearchFilters.parse("after:2016-01-01 after:2016-01-10 before:2016-03-01 before:2016-02-01");
+		assertEquals("", filters.getText());
+		assertEquals(Instant.parse("2016-01-10T00:00:00Z").getEpochSecond(), filters.getFrom());
+		assertEquals(Instant.parse("2016-02-01T00:00:00Z").getEpochSecond(), filters.getTo());
+	}
+
+	@Test
+	public void testOperatorsWithinTerms() throws ParseException {
+		SearchFilters filters = SearchFilters.parse("title:after:2016 localhost site:localhost site:10.0.0.1");
+		assertEquals("title:after:2016 localhost", filters.getText());
+		assertEquals(Arrays.asList("localhost", "10.0.0.1"), filters.getDomains());
+	}
+
+	@Test
+	public void testInvalidDate() {
+		try {
+			SearchFilters.parse("testing after:yesterday");
+			fail("Invalid dates should not be accepted");
+		} catch (ParseException e) {
+			assertTrue(e.getMessage().contains("yesterday"));
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.proxy;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class HostCertificateAuthorityTest {
+	private static final String PASSWORD = "password";
+
+	@Test
+	public void testIssue() throws Exception {
+		Path directory = Files.createTempDirectory("historybook-test-");
+		HostCertificateAuthority authority = getAuthority(directory);
+		assertTrue(Files.exists(authority.getCertificatePath()));
+
+		assertNotNull(authority.prepare("Www.Example.com").get());
+		X509Certificate[] chain = loadChain(authority, "www.example.com");
+		assertEquals("EC", chain[0].getPublicKey().getAlgorithm());
+		assertEquals(authority.getCertificate(), chain[1]);
+		chain[0].verify(authority.getCertificate().getPublicKey());
+		chain[0].checkValidity();
+		assertEquals("www.example.com", subjectAlternativeNames(chain[0]).get(0).get(1));
+		assertEquals(-1, chain[0].getBasicConstraints());
+		assertTrue(authority.getCertificate().getBasicConstraints() >= 0);
+	}
+
+	@Test
+	public void testIpAddress() throws Exception {
+		HostCertificateAuthority authority = getAuthority(Files.createTempDirectory("historybook-test-"));
+		authority.prepare("127.0.0.1").get();
+
+		List<?> name = subjectAlternativeNames(loadChain(authority, "127.0.0.1")[0]).get(0);
+		assertEquals(7, name.get(0)); // iPAddress
+		assertEquals("127.0.0.1", name.get(1));
+	}
+
+	@Test
+	public void testCached() throws Exception {
+		HostCertificateAuthority authority = getAuthority(Files.createTempDirectory("historybook-test-"));
+		CompletableFuture<SSLContext> first = authority.prepare("example.com");
+		assertSame(first, authority.prepare("EXAMPLE.COM"));
+		assertEquals(1, authority.getCachedHostCount());
+
+		authority.prepare("example.org");
+		assertEquals(2, authority.getCachedHostCount());
+	}
+
+	@Test
+	public void testPersisted() throws Exception {
+		Path directory = Files.createTempDirectory("historybook-test-");
+		HostCertificateAuthority authority = getAuthority(directory);
+		authority.prepare("example.com").get();
+		X509Certificate issued = loadChain(authority, "example.com")[0];
+
+		// a restart loads both the authority and the host certificate rather than making new ones
+		HostCertificateAuthority restarted = getAuthority(directory);
+		assertEquals(authority.getCertificate(), restarted.getCertificate());
+		restarted.prepare("example.com").get();
+		assertEquals(issued, loadChain(restarted, "example.com")[0]);
+	}
+
+	@Test
+	public void testRejected() throws Exception {
+		ExecutorService executor = mock(ExecutorService.class);
+		doThrow(new RejectedExecutionException()).when(executor).execute(any(Runnable.class));
+		HostCertificateAuthority authority = new HostCertificateAuthority(Files.createTempDirectory("historybook-test-"),
+				PASSWORD, "Test Authority", "HistoryBook", 3600, 10, executor);
+
+		CompletableFuture<SSLContext> future = authority.prepare("example.com");
+		try {
+			future.get();
+			fail("Expected the certificate to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		// not cached, so the next visit tries again
+		assertEquals(0, authority.getCachedHostCount());
+		assertNotSame(future, authority.prepare("example.com"));
+	}
+
+	@Test
+	public void testHandshake() throws Exception {
+		HostCertificateAuthority authority = getAuthority(Files.createTempDirectory("historybook-test-"));
+		SSLContext serverContext = authority.prepare("localhost").get();
+
+		// a client trusting the authority accepts the certificate for the host, as a browser would
+		KeyStore trusted = KeyStore.getInstance(KeyStore.getDefaultType());
+		trusted.load(null, null);
+		trusted.setCertificateEntry("authority", authority.getCertificate());
+		TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagerFactory.init(trusted);
+		SSLContext clientContext = SSLContext.getInstance("TLS");
+		clientContext.init(null, trustManagerFactory.getTrustManagers(), null);
+
+		try (SSLServerSocket server = (SSLServerSocket) serverContext.getServerSocketFactory()
+				.createServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			CompletableFuture<Integer> received = CompletableFuture.supplyAsync(() -> {
+				try (SSLSocket socket = (SSLSocket) server.accept(); InputStream in = socket.getInputStream()) {
+					return in.read();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+
+			try (SSLSocket client = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", server.getLocalPort())) {
+				SSLParameters parameters = client.getSSLParameters();
+				parameters.setEndpointIdentificationAlgorithm("HTTPS");
+				client.setSSLParameters(parameters);
+				OutputStream out = client.getOutputStream();
+				out.write(42);
+				out.flush();
+				assertEquals(42, received.get().intValue());
+			}
+		}
+	}
+
+	private static HostCertificateAuthority getAuthority(Path directory) {
+		return new HostCertificateAuthority(directory, PASSWORD, "Test Authority", "HistoryBook", 3600 * 24 * 30,
+				10, MoreExecutors.newDirectExecutorService());
+	}
+
+	private static X509Certificate[] loadChain(HostCertificateAuthority authority, String host) throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		try (InputStream in = Files.newInputStream(authority.getHostPath(host))) {
+			keyStore.load(in, PASSWORD.toCharArray());
+		}
+		Certificate[] chain = keyStore.getCertificateChain("host");
+		X509Certificate[] certificates = new X509Certificate[chain.length];
+		for (int i = 0; i < chain.length; i++) {
+			certificates[i] = (X509Certificate) chain[i];
+		}
+		return certificates;
+	}
+
+	private static List<List<?>> subjectAlternativeNames(X509Certificate certificate) throws Exception {
+		Collection<List<?>> names = certificate.getSubjectAlternativeNames();
+		assertNotNull(names);
+		return new ArrayList<>(names);
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.proxy;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ProxyStatisticsTest {
+
+	@Test
+	public void testFilterBusyShare() {
+		ProxyStatistics stats = new ProxyStatistics(4);
+		long start = System.nanoTime();
+		stats.sample(start);
+		assertEquals(0, stats.getFilterBusyShare(), 0);
+
+		// one of four threads busy for the whole window
+		long window = TimeUnit.SECONDS.toNanos(10);
+		stats.filterTime(window);
+		stats.sample(start + window);
+		assertEquals(0.25, stats.getFilterBusyShare(), 0.0001);
+
+		// reading does not start a new window
+		assertEquals(0.25, stats.getFilterBusyShare(), 0.0001);
+
+		stats.sample(start + 2 * window);
+		assertEquals(0, stats.getFilterBusyShare(), 0);
+
+		stats.filterTime(8 * window);
+		stats.sample(start + 3 * window);
+		assertEquals(1.0, stats.getFilterBusyShare(), 0);
+	}
+}
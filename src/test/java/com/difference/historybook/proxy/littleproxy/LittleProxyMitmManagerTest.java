@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.proxy.littleproxy;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import javax.net.ssl.SSLSession;
+
+import org.junit.Test;
+
+import com.difference.historybook.proxy.HostCertificateAuthority;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class LittleProxyMitmManagerTest {
+	private static final long TIMEOUT_MILLIS = 200;
+
+	@Test
+	public void testClientEngine() throws Exception {
+		LittleProxyMitmManager manager = new LittleProxyMitmManager(
+				getAuthority(MoreExecutors.newDirectExecutorService()), TIMEOUT_MILLIS);
+		assertNotNull(manager.clientSslEngineFor(session("example.com")));
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		// an issuer that never gets to the work
+		LittleProxyMitmManager manager = new LittleProxyMitmManager(getAuthority(mock(ExecutorService.class)), TIMEOUT_MILLIS);
+		long start = System.nanoTime();
+		try {
+			manager.clientSslEngineFor(session("example.com"));
+			fail("Expected the handshake to time out");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertTrue(System.nanoTime() - start >= TIMEOUT_MILLIS * 1000 * 1000);
+	}
+
+	@Test
+	public void testRejectedFailsAtOnce() throws Exception {
+		ExecutorService executor = mock(ExecutorService.class);
+		doThrow(new RejectedExecutionException()).when(executor).execute(any(Runnable.class));
+		LittleProxyMitmManager manager = new LittleProxyMitmManager(getAuthority(executor), 60 * 1000);
+		try {
+			manager.clientSslEngineFor(session("example.com"));
+			fail("Expected the handshake to fail");
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+
+	private static HostCertificateAuthority getAuthority(ExecutorService executor) throws Exception {
+		return new HostCertificateAuthority(Files.createTempDirectory("historybook-test-"), "password",
+				"Test Authority", "HistoryBook", 3600, 10, executor);
+	}
+
+	private static SSLSession session(String host) {
+		SSLSession session = mock(SSLSession.class);
+		when(session.getPeerHost()).thenReturn(host);
+		return session;
+	}
+}
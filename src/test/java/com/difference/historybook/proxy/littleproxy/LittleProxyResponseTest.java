@@ -19,21 +19,38 @@ package com.difference.historybook.proxy.littleproxy;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Map;
 
+import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.difference.historybook.proxy.ProxyContent;
+import com.difference.historybook.proxy.ProxyHeaders;
+import com.difference.historybook.textutils.HtmlCharsetDecoder;
 import com.google.common.base.Charsets;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ResourceLeakDetector;
 
 public class LittleProxyResponseTest {
 
+	@BeforeClass
+	public static void detectLeaks() {
+		// report any buffer garbage collected without being released
+		ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+	}
+
 	@Test
 	public void testGetStatus() {
 		FullHttpResponse response = mock(FullHttpResponse.class);
@@ -59,6 +76,27 @@ public class LittleProxyResponseTest {
 		assertEquals("value2", responseHeaders.get("header2"));
 	}
 
+	@Test
+	public void testGetHeaderView() {
+		DefaultHttpHeaders headers = new DefaultHttpHeaders();
+		headers.add("Content-Type", "text/html");
+		headers.add("Set-Cookie", "a=1");
+		headers.add("Set-Cookie", "b=2");
+		
+		FullHttpResponse response = mock(FullHttpResponse.class);
+		when(response.headers()).thenReturn(headers);
+		
+		LittleProxyResponse lpr = new LittleProxyResponse(response);
+		ProxyHeaders view = lpr.getHeaderView();
+		assertEquals("text/html", view.get("content-type"));
+		assertEquals("text/html", lpr.getContentType());
+		assertEquals(Arrays.asList("a=1", "b=2"), view.getAll("SET-COOKIE"));
+		assertTrue(view.contains("set-cookie"));
+		assertFalse(view.contains("Content-Encoding"));
+		assertTrue(view.getAll("Content-Encoding").isEmpty());
+		assertEquals(2, view.names().size());
+	}
+
 	@Test
 	public void testGetContent() {
 		String msg = "This is a test";
@@ -70,6 +108,75 @@ public class LittleProxyResponseTest {
 		testGetContent("This is a test", PooledByteBufAllocator.DEFAULT.compositeBuffer());
 	}
 	
+	@Test
+	public void testGetContentAsText() {
+		String msg = "Caf\u00e9 cr\u00e8me";
+		byte[] bytes = msg.getBytes(Charsets.ISO_8859_1);
+		CompositeByteBuf buffer = UnpooledByteBufAllocator.DEFAULT.compositeBuffer();
+		buffer.addComponent(Unpooled.wrappedBuffer(bytes, 0, 4));
+		buffer.addComponent(Unpooled.wrappedBuffer(bytes, 4, bytes.length - 4));
+		buffer.writerIndex(bytes.length);
+		
+		DefaultHttpHeaders headers = new DefaultHttpHeaders();
+		headers.add("content-type", "text/html; charset=ISO-8859-1");
+		FullHttpResponse response = mock(FullHttpResponse.class);
+		when(response.headers()).thenReturn(headers);
+		when(response.content()).thenReturn(buffer);
+		
+		LittleProxyResponse lpr = new LittleProxyResponse(response);
+		assertEquals(msg, lpr.getContentAsText().toString());
+		// the response is left for the proxy to release
+		assertEquals(1, buffer.refCnt());
+		buffer.release();
+	}
+	
+	@Test
+	public void testGetContentOfSharedArray() {
+		String msg = "This is a test";
+		byte[] bytes = msg.getBytes(Charsets.UTF_8);
+		ByteBuf buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(1024);
+		buffer.writeBytes(new byte[] {1, 2, 3});
+		buffer.writeBytes(bytes);
+		buffer.readerIndex(3);
+		
+		FullHttpResponse response = mock(FullHttpResponse.class);
+		when(response.content()).thenReturn(buffer);
+		
+		LittleProxyResponse lpr = new LittleProxyResponse(response);
+		assertArrayEquals(bytes, lpr.getContent());
+		assertEquals(1, buffer.refCnt());
+		buffer.release();
+	}
+	
+	@Test
+	public void testRetainContent() {
+		testRetainContent(PooledByteBufAllocator.DEFAULT.directBuffer());
+		testRetainContent(PooledByteBufAllocator.DEFAULT.heapBuffer());
+	}
+	
+	private void testRetainContent(ByteBuf buffer) {
+		String msg = "Caf\u00e9 cr\u00e8me";
+		buffer.writeBytes(msg.getBytes(Charsets.UTF_8));
+		FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, buffer);
+		response.headers().add("Content-Type", "text/html; charset=UTF-8");
+		
+		LittleProxyResponse lpr = new LittleProxyResponse(response);
+		ProxyContent content = lpr.retainContent();
+		assertEquals(2, buffer.refCnt());
+		
+		// the proxy is done with the response, but the retained content can still be read
+		response.release();
+		assertEquals(1, buffer.refCnt());
+		ByteBuffer[] buffers = content.getBuffers();
+		assertEquals(msg, HtmlCharsetDecoder.decode(lpr.getContentType(), buffers).toString());
+		assertEquals(msg, HtmlCharsetDecoder.decode(lpr.getContentType(), content.getBuffers()).toString());
+		
+		content.release();
+		assertEquals(0, buffer.refCnt());
+		content.release();
+		assertEquals(0, buffer.refCnt());
+	}
+	
 	private void testGetContent(String msg, ByteBuf buffer) {
 		FullHttpResponse response = mock(FullHttpResponse.class);
 		byte[] bytes = msg.getBytes(Charsets.UTF_8);
@@ -78,5 +185,7 @@ public class LittleProxyResponseTest {
 		
 		LittleProxyResponse lpr = new LittleProxyResponse(response);
 		assertArrayEquals(bytes, lpr.getContent());
+		assertEquals(1, buffer.refCnt());
+		buffer.release();
 	}
 }
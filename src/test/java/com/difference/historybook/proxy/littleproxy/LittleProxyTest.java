@@ -16,14 +16,151 @@
 
 package com.difference.historybook.proxy.littleproxy;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.difference.historybook.proxy.HostCertificateAuthority;
 import com.difference.historybook.proxy.Proxy;
+import com.difference.historybook.proxy.ProxyFilter;
+import com.difference.historybook.proxy.ProxyFilterFactory;
+import com.difference.historybook.proxy.ProxyResponse;
+import com.difference.historybook.proxy.ProxyStatistics;
 import com.difference.historybook.proxy.ProxyTest;
+import com.difference.historybook.textutils.HtmlTextExtractor;
+import com.google.common.base.Charsets;
+
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
 
 public class LittleProxyTest extends ProxyTest {
+	private static final int PROXY_PORT = 8082;
+	private static final int DUMMY_SERVER_PORT = 8089;
 
 	@Override
 	public Proxy getProxy() {
 		return new LittleProxy();
 	}
 
+	@Test
+	public void testInterceptedUrl() throws Exception {
+		DefaultHttpRequest intercepted = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/some/page?q=1");
+		intercepted.headers().set(HttpHeaders.Names.HOST, "www.example.com");
+		DefaultHttpRequest proxied = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://www.example.com/some/page");
+		proxied.headers().set(HttpHeaders.Names.HOST, "www.example.com");
+		
+		LittleProxy proxy = new LittleProxy();
+		assertEquals("/some/page?q=1", proxy.getUrl(intercepted));
+		
+		proxy.setCertificateAuthority(mock(HostCertificateAuthority.class));
+		assertEquals("https://www.example.com/some/page?q=1", proxy.getUrl(intercepted));
+		assertEquals("http://www.example.com/some/page", proxy.getUrl(proxied));
+	}
+
+	@Test
+	public void testStreamingCapture() throws Exception {
+		StringBuilder html = new StringBuilder("<html><head><title>Streaming &amp; capture</title>"
+				+ "<script>var skipped = '<p>not text</p>';</script></head><body>");
+		for (int i = 0; i < 5000; i++) {
+			html.append("<p class=\"para\">Paragraph ").append(i).append(" café &lt;text&gt;</p>\n");
+		}
+		html.append("</body></html>");
+		
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+			gzip.write(html.toString().getBytes(Charsets.UTF_8));
+		}
+		byte[] body = compressed.toByteArray();
+		
+		stubFor(get(urlEqualTo("/some/page"))
+				.willReturn(aResponse()
+						.withStatus(200)
+						.withHeader("Content-Type", "text/html; charset=utf-8")
+						.withHeader("Content-Encoding", "gzip")
+						.withBody(body)));
+		
+		ProxyFilter filter = mock(ProxyFilter.class);
+		ProxyFilterFactory factory = mock(ProxyFilterFactory.class);
+		when(factory.getInstance()).thenReturn(filter);
+		// far smaller than the page, which is never buffered whole
+		Proxy proxy = new LittleProxy()
+				.setStreamingCapture(true)
+				.setMaxBufferSize(1024)
+				.setPort(PROXY_PORT)
+				.setFilterFactory(factory)
+				.setResponseFilterSelector(t -> t.getStatus() == 200);
+		try {
+			proxy.start();
+			
+			java.net.Proxy proxyServer = new java.net.Proxy(java.net.Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", PROXY_PORT));
+			HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + DUMMY_SERVER_PORT + "/some/page").openConnection(proxyServer);
+			assertArrayEquals(body, IOUtils.toByteArray(connection.getInputStream()));
+			
+			ArgumentCaptor<ProxyResponse> captured = ArgumentCaptor.forClass(ProxyResponse.class);
+			verify(filter, timeout(5000)).processResponse(captured.capture());
+			ProxyResponse response = captured.getValue();
+			assertEquals(200, response.getStatus());
+			assertEquals("text/html; charset=UTF-8", response.getHeaders().get("Content-Type"));
+			assertFalse(response.getHeaders().containsKey("Content-Encoding"));
+			
+			HtmlTextExtractor expected = new HtmlTextExtractor(html, "http://localhost/some/page");
+			HtmlTextExtractor actual = new HtmlTextExtractor(response.getContentAsText(), "http://localhost/some/page");
+			assertEquals("Streaming & capture", actual.getTitle());
+			assertEquals(expected.getContent(), actual.getContent());
+		} finally {
+			proxy.stop();
+		}
+	}
+
+	@Test
+	public void testStatistics() throws Exception {
+		String body = "<html><head></head><body>Hello World!</body></html>";
+		stubFor(get(urlEqualTo("/some/page"))
+				.willReturn(aResponse()
+						.withStatus(200)
+						.withHeader("Content-Type", "text/html")
+						.withBody(body)));
+		
+		ProxyFilter filter = mock(ProxyFilter.class);
+		ProxyFilterFactory factory = mock(ProxyFilterFactory.class);
+		when(factory.getInstance()).thenReturn(filter);
+		Proxy proxy = new LittleProxy()
+				.setConnectTimeout(5000)
+				.setIdleConnectionTimeout(10)
+				.setThrottling(10 * 1024 * 1024, 10 * 1024 * 1024)
+				.setPort(PROXY_PORT)
+				.setFilterFactory(factory)
+				.setResponseFilterSelector(t -> t.getStatus() == 200);
+		ProxyStatistics stats = proxy.getStatistics();
+		try {
+			proxy.start();
+			
+			java.net.Proxy proxyServer = new java.net.Proxy(java.net.Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", PROXY_PORT));
+			HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + DUMMY_SERVER_PORT + "/some/page").openConnection(proxyServer);
+			assertArrayEquals(body.getBytes(Charsets.UTF_8), IOUtils.toByteArray(connection.getInputStream()));
+			verify(filter, timeout(5000)).processResponse(any(ProxyResponse.class));
+			
+			assertEquals(1, stats.getConnections());
+			assertEquals(1, stats.getRequests());
+			assertTrue(stats.getBytesFromClients() > 0);
+			assertTrue(stats.getBytesToClients() >= body.length());
+			assertTrue(stats.getFilterNanos() > 0);
+			double busyShare = stats.getFilterBusyShare();
+			assertTrue(busyShare >= 0 && busyShare <= 1);
+		} finally {
+			proxy.stop();
+		}
+	}
 }
@@ -16,28 +16,70 @@
 
 package com.difference.historybook.proxyfilter;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
+import com.difference.historybook.concurrent.BoundedExecutor;
+import com.difference.historybook.concurrent.OverflowPolicy;
 import com.difference.historybook.index.IndexException;
 import com.difference.historybook.index.lucene.LuceneIndex;
+import com.difference.historybook.proxy.ProxyContent;
 import com.difference.historybook.proxy.ProxyFilter;
+import com.difference.historybook.proxy.ProxyHeaders;
 import com.difference.historybook.proxy.ProxyRequest;
 import com.difference.historybook.proxy.ProxyResponse;
 import com.difference.historybook.proxyfilter.IndexingProxyFilter;
+import com.difference.historybook.textutils.ExtractedPage;
+import com.difference.historybook.textutils.IncrementalHtmlTextExtractor;
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.MoreExecutors;
 
 public class IndexingProxyFilterTest {
 	private static final String DEFAULT_COLLECTION = "test";
 	
+	/**
+	 * Content that counts its releases, to check it is neither leaked nor released twice
+	 */
+	private static class CountingContent implements ProxyContent {
+		private final byte[] bytes;
+		private final AtomicInteger releases = new AtomicInteger(0);
+		
+		public CountingContent(String content) {
+			this.bytes = content != null ? content.getBytes(Charsets.UTF_8) : new byte[0];
+		}
+
+		@Override
+		public ByteBuffer[] getBuffers() {
+			assertEquals("Content read after release", 0, releases.get());
+			return new ByteBuffer[] { ByteBuffer.wrap(bytes) };
+		}
+
+		@Override
+		public void release() {
+			releases.incrementAndGet();
+		}
+		
+		public int getReleases() {
+			return releases.get();
+		}
+	}
+	
 	private static class RequestResponse {
 		private final ProxyRequest request;
 		private final ProxyResponse response;
+		private final CountingContent content;
 		
 		public RequestResponse(String url, int status, String contentType, String content) {
 			request = mock(ProxyRequest.class);
@@ -45,8 +87,13 @@ public class IndexingProxyFilterTest {
 
 			response = mock(ProxyResponse.class);
 			when(response.getStatus()).thenReturn(status);
-			when(response.getHeaders()).thenReturn(ImmutableMap.of("Content-Type", contentType));
-			when(response.getContentAsString(any(Charset.class))).thenReturn(content);			
+			ImmutableMap<String,String> headers = ImmutableMap.of("Content-Type", contentType);
+			when(response.getHeaders()).thenReturn(headers);
+			when(response.getHeaderView()).thenReturn(ProxyHeaders.of(headers));
+			when(response.getContentType()).thenReturn(contentType);
+			when(response.getContentAsText()).thenReturn(content);			
+			this.content = new CountingContent(content);
+			when(response.retainContent()).thenReturn(this.content);
 		}
 		
 		public ProxyRequest getRequest() {
@@ -56,6 +103,10 @@ public class IndexingProxyFilterTest {
 		public ProxyResponse getResponse() {
 			return response;
 		}
+		
+		public CountingContent getContent() {
+			return content;
+		}
 	}
 
 	@Test
@@ -66,7 +117,58 @@ public class IndexingProxyFilterTest {
 		RequestResponse reqRes = new RequestResponse(url, 200, "text/html", content);
 		LuceneIndex index = processRequestResponse(reqRes, DEFAULT_COLLECTION);
 		
-		verify(index).indexPage(eq(DEFAULT_COLLECTION), eq(url), any(Instant.class), eq(content));
+		ArgumentCaptor<CharSequence> text = ArgumentCaptor.forClass(CharSequence.class);
+		verify(index).submitPage(eq(DEFAULT_COLLECTION), eq(url), any(Instant.class), text.capture());
+		assertEquals(content, text.getValue().toString());
+		assertEquals(1, reqRes.getContent().getReleases());
+	}
+
+	@Test
+	public void testExtractedPagePassed() throws IndexException {
+		String url = "http://does.not.exist.com";
+		RequestResponse reqRes = new RequestResponse(url, 200, "text/html; charset=UTF-8", null);
+		ExtractedPage page = new IncrementalHtmlTextExtractor(0).feed("<title>Title</title>This is the content").finish().getPage();
+		when(reqRes.getResponse().getExtractedPage()).thenReturn(page);
+		LuceneIndex index = processRequestResponse(reqRes, DEFAULT_COLLECTION);
+		
+		// the title and text go to the index as they are, without the entity being read
+		verify(index).submitPage(eq(DEFAULT_COLLECTION), eq(url), any(Instant.class), same(page));
+		verify(reqRes.getResponse(), never()).retainContent();
+		verify(reqRes.getResponse(), never()).getContent();
+	}
+
+	@Test
+	public void testContentReleasedWhenRejected() throws IndexException {
+		RequestResponse reqRes = new RequestResponse("http://does.not.exist.com", 200, "text/html", "This is the content");
+		ExecutorService executor = mock(ExecutorService.class);
+		doThrow(new RejectedExecutionException()).when(executor).execute(any(Runnable.class));
+		LuceneIndex index = processRequestResponse(reqRes, DEFAULT_COLLECTION, executor);
+		
+		verifyZeroInteractions(index);
+		assertEquals(1, reqRes.getContent().getReleases());
+	}
+
+	@Test
+	public void testContentReleasedWhenDropped() throws IndexException, InterruptedException {
+		BoundedExecutor executor = new BoundedExecutor("test", 1, 1, OverflowPolicy.DROP_OLDEST, 0);
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		executor.execute(() -> blocker.join());
+		
+		// the first page waits behind the blocker, then is dropped in favour of the second
+		RequestResponse first = new RequestResponse("http://does.not.exist.com/1", 200, "text/html", "first");
+		String secondUrl = "http://does.not.exist.com/2";
+		RequestResponse second = new RequestResponse(secondUrl, 200, "text/html", "second");
+		LuceneIndex index = processRequestResponse(first, DEFAULT_COLLECTION, executor);
+		assertEquals(0, first.getContent().getReleases());
+		LuceneIndex secondIndex = processRequestResponse(second, DEFAULT_COLLECTION, executor);
+		assertEquals(1, first.getContent().getReleases());
+		
+		blocker.complete(null);
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		verifyZeroInteractions(index);
+		verify(secondIndex).submitPage(eq(DEFAULT_COLLECTION), eq(secondUrl), any(Instant.class), any(CharSequence.class));
+		assertEquals(1, second.getContent().getReleases());
 	}
 
 	@Test
@@ -77,6 +179,7 @@ public class IndexingProxyFilterTest {
 		LuceneIndex index = processRequestResponse(reqRes, DEFAULT_COLLECTION);
 
 		verifyZeroInteractions(index);
+		assertEquals(0, reqRes.getContent().getReleases());
 	}
 
 	@Test
@@ -91,9 +194,15 @@ public class IndexingProxyFilterTest {
 	}
 	
 	private LuceneIndex processRequestResponse(RequestResponse reqRes, String defaultCollection) {
+		return processRequestResponse(reqRes, defaultCollection, MoreExecutors.newDirectExecutorService());
+	}
+	
+	private LuceneIndex processRequestResponse(RequestResponse reqRes, String defaultCollection, ExecutorService executor) {
 		LuceneIndex index = mock(LuceneIndex.class);
+		when(index.submitPage(anyString(), anyString(), any(Instant.class), any(CharSequence.class)))
+			.thenReturn(CompletableFuture.completedFuture(null));
 		
-		ProxyFilter filter = new IndexingProxyFilter(index, defaultCollection, MoreExecutors.newDirectExecutorService());
+		ProxyFilter filter = new IndexingProxyFilter(index, defaultCollection, executor);
 		filter.processRequest(reqRes.getRequest());
 		filter.processResponse(reqRes.getResponse());
 		
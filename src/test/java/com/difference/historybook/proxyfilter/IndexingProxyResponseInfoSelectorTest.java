@@ -1,12 +1,14 @@
 package com.difference.historybook.proxyfilter;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
 import java.util.HashMap;
 import java.util.Map;
 
 import org.junit.Test;
 
+import com.difference.historybook.proxy.ProxyHeaders;
 import com.difference.historybook.proxy.ProxyTransactionInfo;
 
 public class IndexingProxyResponseInfoSelectorTest {
@@ -37,6 +39,31 @@ public class IndexingProxyResponseInfoSelectorTest {
 		assertFalse(selector.test(info2));
 	}
 	
+	@Test
+	public void testHeaderCase() {
+		IndexingProxyResponseInfoSelector selector = new IndexingProxyResponseInfoSelector();
+		Map<String,String> headers = new HashMap<>();
+		headers.put("content-type", "Text/HTML; charset=utf-8");
+		ProxyTransactionInfo info = new ProxyTransactionInfo("http://does.not.exist", 200, headers);
+		assertTrue(selector.test(info));
+		assertEquals("Text/HTML; charset=utf-8", info.getHeaderView().get("Content-Type"));
+	}
+	
+	@Test
+	public void testHeaderView() {
+		IndexingProxyResponseInfoSelector selector = new IndexingProxyResponseInfoSelector();
+		ProxyHeaders view = mock(ProxyHeaders.class);
+		when(view.get("Content-Type")).thenReturn("text/html");
+		assertTrue(selector.test(new ProxyTransactionInfo("http://does.not.exist", 200, view)));
+		
+		// the rest of the headers are never looked at
+		verify(view).get("Content-Type");
+		verifyNoMoreInteractions(view);
+		
+		when(view.get("Content-Type")).thenReturn("text/css");
+		assertFalse(selector.test(new ProxyTransactionInfo("not a url", 200, view)));
+	}
+	
 	@Test
 	public void testHostname() {
 		IndexingProxyResponseInfoSelector selector = new IndexingProxyResponseInfoSelector();
@@ -19,18 +19,35 @@ package com.difference.historybook.resources;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.junit.Test;
 
+import com.difference.historybook.index.BulkIndexItem;
+import com.difference.historybook.index.FacetCount;
+import com.difference.historybook.index.BulkIndexResult;
 import com.difference.historybook.index.Index;
 import com.difference.historybook.index.IndexException;
 import com.difference.historybook.index.SearchResult;
+import com.difference.historybook.index.SearchFacets;
 import com.difference.historybook.index.SearchResultWrapper;
+import com.difference.historybook.index.SnippetConsumer;
+import com.difference.historybook.index.Suggestion;
+import com.difference.historybook.index.WebPage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
 
 public class CollectionResourceTest {
 
@@ -74,13 +91,223 @@ public class CollectionResourceTest {
 		results.add(new SearchResult("key1", "testCollection", "title1", "http://does.not.exist/1", "not.exist", "timestamp1", "snippet1", null, 1.0f));
 		results.add(new SearchResult("key2", "testCollection", "title2", "http://does.not.exist/2", "not.exist", "timestamp2", "snippet2", null, 0.7f));
 		SearchResultWrapper wrapper = new SearchResultWrapper().setResults(results);
-		when(index.search(collection, query, Integer.parseInt(offsetString), Integer.parseInt(sizeString), false)).thenReturn(wrapper);
+		when(index.search(collection, query, Integer.parseInt(offsetString), Integer.parseInt(sizeString), false, false, true)).thenReturn(wrapper);
 		
 		CollectionResource resource = new CollectionResource(index);
 		
-		Response response = resource.getSearchResult(collection, query, offsetString, sizeString, false);
+		Response response = resource.getSearchResult(collection, query, offsetString, sizeString, false, null, null, null, null, false, true);
 		assertEquals(200, response.getStatus());
-		verify(index).search(collection, query, Integer.parseInt(offsetString), Integer.parseInt(sizeString), false);
+		verify(index).search(collection, query, Integer.parseInt(offsetString), Integer.parseInt(sizeString), false, false, true);
 		assertEquals(wrapper, response.getEntity());
 	}
+
+	@Test
+	public void getSearchResultWithCursor() throws NumberFormatException, IndexException {
+		String collection = "testCollection";
+		String query = "testing";
+		String cursor = "cursor";
+
+		Index index = mock(Index.class);
+		SearchResultWrapper wrapper = new SearchResultWrapper().setResults(new LinkedList<>());
+		when(index.searchAfter(collection, query, cursor, 20, false, true)).thenReturn(wrapper);
+		
+		CollectionResource resource = new CollectionResource(index);
+		
+		Response response = resource.getSearchResult(collection, query, "0", "20", false, cursor, null, null, null, false, true);
+		assertEquals(200, response.getStatus());
+		verify(index).searchAfter(collection, query, cursor, 20, false, true);
+		assertEquals(wrapper, response.getEntity());
+	}
+
+	@Test
+	public void getSearchResultWithFilters() throws NumberFormatException, IndexException {
+		String collection = "testCollection";
+
+		Index index = mock(Index.class);
+		SearchResultWrapper wrapper = new SearchResultWrapper().setResults(new LinkedList<>());
+		when(index.search(collection, "testing after:2016-01-01 site:difference.com", 0, 10, false, false, true)).thenReturn(wrapper);
+		when(index.search(collection, "before:2016-02-01", 0, 10, false, false, true)).thenReturn(wrapper);
+		
+		CollectionResource resource = new CollectionResource(index);
+		
+		Response response = resource.getSearchResult(collection, "testing", "0", "10", false, null, "2016-01-01", null, "difference.com", false, true);
+		assertEquals(200, response.getStatus());
+		verify(index).search(collection, "testing after:2016-01-01 site:difference.com", 0, 10, false, false, true);
+		assertEquals(wrapper, response.getEntity());
+		
+		response = resource.getSearchResult(collection, null, "0", "10", false, null, null, "2016-02-01", "", false, true);
+		verify(index).search(collection, "before:2016-02-01", 0, 10, false, false, true);
+		assertEquals(wrapper, response.getEntity());
+	}
+
+	@Test
+	public void getSearchResultWithFacets() throws NumberFormatException, IndexException {
+		String collection = "testCollection";
+
+		Index index = mock(Index.class);
+		SearchResultWrapper wrapper = new SearchResultWrapper().setResults(new LinkedList<>())
+				.setFacets(new SearchFacets()
+						.setDomains(Arrays.asList(new FacetCount("difference.com", 2)))
+						.setMonths(Arrays.asList(new FacetCount("2016-01", 2))));
+		when(index.search(collection, "testing", 0, 10, false, true, true)).thenReturn(wrapper);
+		
+		CollectionResource resource = new CollectionResource(index);
+		
+		Response response = resource.getSearchResult(collection, "testing", "0", "10", false, null, null, null, null, true, true);
+		assertEquals(200, response.getStatus());
+		verify(index).search(collection, "testing", 0, 10, false, true, true);
+		assertEquals(wrapper, response.getEntity());
+	}
+
+	@Test
+	public void getSearchResultWithoutSnippets() throws NumberFormatException, IndexException {
+		String collection = "testCollection";
+
+		Index index = mock(Index.class);
+		SearchResultWrapper wrapper = new SearchResultWrapper().setResults(new LinkedList<>());
+		when(index.search(collection, "testing", 0, 10, false, false, false)).thenReturn(wrapper);
+		when(index.searchAfter(collection, "testing", "cursor", 10, false, false)).thenReturn(wrapper);
+		
+		CollectionResource resource = new CollectionResource(index);
+		
+		Response response = resource.getSearchResult(collection, "testing", "0", "10", false, null, null, null, null, false, false);
+		assertEquals(200, response.getStatus());
+		verify(index).search(collection, "testing", 0, 10, false, false, false);
+		assertEquals(wrapper, response.getEntity());
+		
+		response = resource.getSearchResult(collection, "testing", "0", "10", false, "cursor", null, null, null, false, false);
+		verify(index).searchAfter(collection, "testing", "cursor", 10, false, false);
+		assertEquals(wrapper, response.getEntity());
+	}
+
+	@Test
+	public void getSnippets() throws IndexException {
+		String collection = "testCollection";
+		List<String> keys = Arrays.asList("key1", "key2");
+
+		Index index = mock(Index.class);
+		Map<String, String> snippets = Collections.singletonMap("key1", "a <b>testing</b> snippet");
+		when(index.snippets(collection, "testing", keys)).thenReturn(snippets);
+		
+		CollectionResource resource = new CollectionResource(index);
+		
+		Response response = resource.getSnippets(collection, "testing", keys);
+		assertEquals(200, response.getStatus());
+		verify(index).snippets(collection, "testing", keys);
+		assertEquals(snippets, response.getEntity());
+	}
+
+	@Test
+	public void getSearchResultStream() throws NumberFormatException, IndexException, IOException {
+		String collection = "testCollection";
+
+		Index index = mock(Index.class);
+		List<SearchResult> results = new LinkedList<>();
+		results.add(new SearchResult("key1", "testCollection", "title1", "http://does.not.exist/1", "not.exist", "timestamp1", "", null, 1.0f));
+		results.add(new SearchResult("key1", "testCollection", "title2", "http://does.not.exist/2", "not.exist", "timestamp2", "", null, 0.7f));
+		results.add(new SearchResult("key2", "testCollection", "title3", "http://does.not.exist/3", "not.exist", "timestamp3", "", null, 0.5f));
+		SearchResultWrapper wrapper = new SearchResultWrapper().setQuery("testing site:not.exist").setResultCount(3).setResults(results);
+		when(index.search(collection, "testing site:not.exist", 0, 10, false, false, false)).thenReturn(wrapper);
+		// snippets are written in the order they are built, not the order of the results
+		doAnswer(invocation -> {
+			SnippetConsumer consumer = (SnippetConsumer) invocation.getArguments()[3];
+			consumer.accept("key2", "snippet2");
+			consumer.accept("key1", "snippet1");
+			return null;
+		}).when(index).snippets(eq(collection), eq("testing site:not.exist"), eq(Arrays.asList("key1", "key2")), any(SnippetConsumer.class));
+		
+		CollectionResource resource = new CollectionResource(index);
+		
+		Response response = resource.getSearchResultStream(collection, "testing", "0", "10", null, null, null, "not.exist", false);
+		assertEquals(200, response.getStatus());
+		verify(index).search(collection, "testing site:not.exist", 0, 10, false, false, false);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		((StreamingOutput) response.getEntity()).write(out);
+		String[] lines = new String(out.toByteArray(), Charsets.UTF_8).split("\n");
+		assertEquals(3, lines.length);
+		
+		ObjectMapper mapper = new ObjectMapper();
+		JsonNode first = mapper.readTree(lines[0]);
+		assertEquals(3, first.get("resultCount").asInt());
+		assertEquals("title3", first.get("results").get(2).get("title").asText());
+		assertEquals("key2", mapper.readTree(lines[1]).get("key").asText());
+		assertEquals("snippet2", mapper.readTree(lines[1]).get("snippet").asText());
+		assertEquals("key1", mapper.readTree(lines[2]).get("key").asText());
+		assertEquals("snippet1", mapper.readTree(lines[2]).get("snippet").asText());
+	}
+
+	@Test
+	public void getVersions() throws NumberFormatException, IndexException {
+		String collection = "testCollection";
+		String url = "http://does.not.exist/1";
+
+		Index index = mock(Index.class);
+		List<SearchResult> results = new LinkedList<>();
+		results.add(new SearchResult("key2", "testCollection", "title", url, "not.exist", "timestamp2", "", null, 0));
+		results.add(new SearchResult("key1", "testCollection", "title", url, "not.exist", "timestamp1", "", null, 0));
+		SearchResultWrapper wrapper = new SearchResultWrapper().setResults(results);
+		when(index.versions(collection, url, 0, 10)).thenReturn(wrapper);
+		
+		CollectionResource resource = new CollectionResource(index);
+		
+		Response response = resource.getVersions(collection, url, "0", "10");
+		assertEquals(200, response.getStatus());
+		verify(index).versions(collection, url, 0, 10);
+		assertEquals(wrapper, response.getEntity());
+	}
+
+	@Test
+	public void getSuggestions() throws NumberFormatException, IndexException {
+		String collection = "testCollection";
+
+		Index index = mock(Index.class);
+		List<Suggestion> suggestions = new LinkedList<>();
+		suggestions.add(new Suggestion("Difference Engines", "http://does.not.exist/1", Suggestion.Kind.TITLE, 2000));
+		suggestions.add(new Suggestion("does.not.exist", null, Suggestion.Kind.DOMAIN, 1000));
+		when(index.suggest(collection, "d", 5)).thenReturn(suggestions);
+		
+		CollectionResource resource = new CollectionResource(index);
+		
+		Response response = resource.getSuggestions(collection, "d", "5");
+		assertEquals(200, response.getStatus());
+		verify(index).suggest(collection, "d", 5);
+		assertEquals(suggestions, response.getEntity());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void postBulkContentToCollection() throws IndexException, IOException {
+		String collection = "testCollection";
+		String ndjson = 
+				"{\"url\":\"http://does.not.exist/1\",\"timestamp\":\"2015-12-20T02:57:06Z\",\"body\":\"body1\"}\n" +
+				"this is not json\n" +
+				"\n" +
+				"{\"url\":\"http://does.not.exist/2\",\"body\":\"body2\"}\n" +
+				"{\"url\":\"http://does.not.exist/3\",\"body\":\"body3\"}\n";
+		
+		Index index = mock(Index.class);
+		when(index.indexPages(eq(collection), anyList())).thenAnswer(invocation -> {
+			List<WebPage> pages = (List<WebPage>)invocation.getArguments()[1];
+			List<BulkIndexItem> items = new LinkedList<>();
+			for (WebPage page : pages) {
+				items.add(new BulkIndexItem(page.getUrl(), page.getUrl().endsWith("3") ? "failed" : null));
+			}
+			return items;
+		});
+		
+		CollectionResource resource = new CollectionResource(index, 2);
+		Response response = resource.postBulkContentToCollection(collection, new ByteArrayInputStream(ndjson.getBytes(Charsets.UTF_8)));
+		assertEquals(200, response.getStatus());
+		verify(index, times(2)).indexPages(eq(collection), anyList());
+		
+		BulkIndexResult result = (BulkIndexResult)response.getEntity();
+		assertEquals(4, result.getTotal());
+		assertEquals(2, result.getIndexed());
+		assertEquals(2, result.getFailed());
+		assertEquals(Arrays.asList("indexed", "failed", "indexed", "failed"), 
+				Arrays.asList(result.getResults().stream().map(BulkIndexItem::getStatus).toArray()));
+		assertEquals("http://does.not.exist/1", result.getResults().get(0).getUrl());
+		assertEquals("http://does.not.exist/2", result.getResults().get(2).getUrl());
+	}
 }
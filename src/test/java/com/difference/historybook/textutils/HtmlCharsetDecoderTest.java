@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.textutils;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class HtmlCharsetDecoderTest {
+	private static final String TEXT = "Caf\u00e9 cr\u00e8me \u20ac";
+
+	@Test
+	public void testContentTypeCharset() {
+		String html = "<html><body>" + TEXT + "</body></html>";
+		ByteBuffer bytes = ByteBuffer.wrap(html.getBytes(Charsets.UTF_16LE));
+		assertEquals(html, HtmlCharsetDecoder.decode("text/html; charset=\"UTF-16LE\"", bytes).toString());
+	}
+
+	@Test
+	public void testByteOrderMark() {
+		String html = "<html><body>" + TEXT + "</body></html>";
+		byte[] content = html.getBytes(Charsets.UTF_8);
+		ByteBuffer bytes = ByteBuffer.allocate(content.length + 3);
+		bytes.put((byte) 0xEF).put((byte) 0xBB).put((byte) 0xBF).put(content).flip();
+		assertEquals(html, HtmlCharsetDecoder.decode("text/html", bytes).toString());
+	}
+
+	@Test
+	public void testMetaCharset() {
+		Charset latin1 = Charset.forName("windows-1252");
+		String html = "<html><head><meta charset=\"windows-1252\"></head><body>" + TEXT + "</body></html>";
+		assertEquals(latin1, HtmlCharsetDecoder.detectCharset(null, ByteBuffer.wrap(html.getBytes(latin1))));
+		assertEquals(html, HtmlCharsetDecoder.decode(null, ByteBuffer.wrap(html.getBytes(latin1))).toString());
+
+		String equiv = "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=ISO-8859-1\">";
+		assertEquals(Charsets.ISO_8859_1, HtmlCharsetDecoder.detectCharset("text/html", ByteBuffer.wrap(equiv.getBytes(Charsets.ISO_8859_1))));
+	}
+
+	@Test
+	public void testDefaultsToUtf8() {
+		assertEquals(Charsets.UTF_8, HtmlCharsetDecoder.detectCharset(null, ByteBuffer.wrap("<html></html>".getBytes(Charsets.UTF_8))));
+		assertEquals(Charsets.UTF_8, HtmlCharsetDecoder.detectCharset("text/html; charset=bogus", ByteBuffer.allocate(0)));
+	}
+
+	@Test
+	public void testCharactersSplitAcrossBuffers() {
+		byte[] content = TEXT.getBytes(Charsets.UTF_8);
+		ByteBuffer[] buffers = new ByteBuffer[content.length];
+		for (int i = 0; i < content.length; i++) {
+			buffers[i] = ByteBuffer.wrap(content, i, 1);
+		}
+		assertEquals(TEXT, HtmlCharsetDecoder.decode("text/html; charset=utf-8", buffers).toString());
+	}
+
+	@Test
+	public void testHeadSplitAcrossBuffers() {
+		Charset latin1 = Charset.forName("windows-1252");
+		String html = "<html><head><meta charset=\"windows-1252\"></head><body>" + TEXT + "</body></html>";
+		byte[] content = html.getBytes(latin1);
+		int split = html.indexOf("charset") + 3;
+		assertEquals(html, HtmlCharsetDecoder.decode(null,
+				ByteBuffer.wrap(content, 0, split), ByteBuffer.wrap(content, split, content.length - split)).toString());
+
+		// a byte order mark split across buffers is both recognised and skipped
+		String utf16 = "<html><body>" + TEXT + "</body></html>";
+		byte[] bom = {(byte) 0xFF};
+		byte[] rest = ("\ufeff" + utf16).getBytes(Charsets.UTF_16LE);
+		assertEquals(utf16, HtmlCharsetDecoder.decode("text/html",
+				ByteBuffer.wrap(bom), ByteBuffer.wrap(rest, 1, rest.length - 1)).toString());
+	}
+
+	@Test
+	public void testIncremental() {
+		Charset latin1 = Charset.forName("windows-1252");
+		StringBuilder html = new StringBuilder("<html><head><meta charset=\"windows-1252\"></head><body>");
+		for (int i = 0; i < 1000; i++) {
+			html.append(TEXT);
+		}
+		html.append("</body></html>");
+		assertEquals(html.toString(), decodeIncrementally(null, html.toString().getBytes(latin1), 3));
+
+		byte[] content = html.toString().replace("windows-1252", "utf-8").getBytes(Charsets.UTF_8);
+		byte[] bom = new byte[content.length + 3];
+		bom[0] = (byte) 0xEF;
+		bom[1] = (byte) 0xBB;
+		bom[2] = (byte) 0xBF;
+		System.arraycopy(content, 0, bom, 3, content.length);
+		assertEquals(new String(content, Charsets.UTF_8), decodeIncrementally("text/html", bom, 1));
+		
+		// shorter than the part held back to find the charset from
+		assertEquals(TEXT, decodeIncrementally("text/html; charset=utf-8", TEXT.getBytes(Charsets.UTF_8), 2));
+	}
+
+	private static String decodeIncrementally(String contentType, byte[] bytes, int piece) {
+		HtmlCharsetDecoder.Incremental decoder = new HtmlCharsetDecoder.Incremental(contentType);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < bytes.length; i += piece) {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes, i, Math.min(piece, bytes.length - i));
+			text.append(decoder.decode(buffer));
+			assertFalse(buffer.hasRemaining());
+		}
+		return text.append(decoder.finish()).toString();
+	}
+}
@@ -34,4 +34,32 @@ public class HtmlTextExtractorTest {
 		HtmlTextExtractor extractor = new HtmlTextExtractor(TEST_HTML, "http://does.not.exist.com");
 		assertEquals("This is the title This is the body", extractor.getContent());
 	}
+
+	@Test
+	public void testJsoupEngine() {
+		HtmlTextExtractor extractor = new HtmlTextExtractor(TEST_HTML, "http://does.not.exist.com", ExtractionEngine.JSOUP, 0);
+		assertEquals("This is the title", extractor.getTitle());
+		assertEquals("This is the title This is the body", extractor.getContent());
+	}
+
+	@Test
+	public void testStreamingSkipsInvisibleContent() {
+		String html = "<html><head><title>Title &amp; more</title><style>p { color: red; }</style>"
+				+ "<script type=\"text/javascript\">var x = '</div>';</script></head>"
+				+ "<body><!-- hidden --><p>First&nbsp;para&#x67;raph</p><noscript>enable scripts</noscript>"
+				+ "<div data-x=\"a > b\">Second <b>bold</b>\n\n paragraph &unknown; 1 &lt; 2</div>"
+				+ "<template><p>Not rendered</p></template></body></html>";
+		HtmlTextExtractor extractor = new HtmlTextExtractor(html, "http://does.not.exist.com", ExtractionEngine.STREAMING, 0);
+		assertEquals("Title & more", extractor.getTitle());
+		assertEquals("Title & more First paragraph Second bold paragraph &unknown; 1 < 2", extractor.getContent());
+	}
+
+	@Test
+	public void testMaxChars() {
+		for (ExtractionEngine engine : ExtractionEngine.values()) {
+			HtmlTextExtractor extractor = new HtmlTextExtractor(TEST_HTML, "http://does.not.exist.com", engine, 11);
+			assertEquals("This is the title", extractor.getTitle());
+			assertEquals("This is the", extractor.getContent());
+		}
+	}
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Andrew W. Buchanan (buchanan@difference.com)
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.difference.historybook.textutils;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class IncrementalHtmlTextExtractorTest {
+	private static final List<String> PAGES = Arrays.asList(
+			"<html><head><title>This is the title</title></head><body>This is the body</body></html>",
+			"<html><head><title>Title &amp; more</title><style>p { color: red; }</style>"
+					+ "<script type=\"text/javascript\">var x = '</div>';</script></head>"
+					+ "<body><!-- hidden --><p>First&nbsp;para&#x67;raph</p><noscript>enable scripts</noscript>"
+					+ "<div data-x=\"a > b\">Second <b>bold</b>\n\n paragraph &unknown; 1 &lt; 2</div>"
+					+ "<template><p>Not rendered</p></template></body></html>",
+			"<p>Before the title</p><TITLE> Late  &#233;t&eacute; </TITLE><title>Second</title> a < b && c &amp d <!doctype> <?xml?>",
+			"No markup at all & nothing &#x1F600; more",
+			"<html><head><title>Unclosed title",
+			"<p>Unclosed <script>comment <!-- and script",
+			"<div class='a>b' <!-- not a comment --> text</div><!-- open comment");
+
+	@Test
+	public void testMatchesWholePageExtraction() {
+		for (String page : PAGES) {
+			for (int maxChars : new int[] {0, 12}) {
+				StreamingHtmlTextExtractor whole = new StreamingHtmlTextExtractor(page, maxChars);
+				String content = whole.extract();
+				for (int piece = 1; piece <= page.length(); piece++) {
+					IncrementalHtmlTextExtractor extractor = extract(page, piece, maxChars);
+					String message = page + " in pieces of " + piece + " limited to " + maxChars;
+					assertEquals(message, whole.getTitle(), extractor.getTitle());
+					assertEquals(message, content, extractor.getContent());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRebuiltPageExtractsTheSame() {
+		for (String page : PAGES) {
+			HtmlTextExtractor expected = new HtmlTextExtractor(page, "http://does.not.exist.com");
+			ExtractedPage extracted = extract(page, 7, 0).getPage();
+			String html = extracted.toString();
+			HtmlTextExtractor actual = new HtmlTextExtractor(html, "http://does.not.exist.com");
+			assertEquals(html, expected.getTitle(), actual.getTitle());
+			assertEquals(html, expected.getContent(), actual.getContent());
+			
+			// taken as it is, without extracting it again
+			HtmlTextExtractor taken = new HtmlTextExtractor(extracted, "http://does.not.exist.com", ExtractionEngine.JSOUP, 0);
+			assertEquals(expected.getTitle(), taken.getTitle());
+			assertEquals(expected.getContent(), taken.getContent());
+		}
+	}
+
+	@Test
+	public void testIgnoresPageOnceFull() {
+		IncrementalHtmlTextExtractor extractor = new IncrementalHtmlTextExtractor(11)
+				.feed("<html><head><title>This is the title</title>");
+		assertTrue(extractor.isFull());
+		extractor.feed("<body>This is the body</body></html>").finish();
+		assertEquals("This is the title", extractor.getTitle());
+		assertEquals("This is the", extractor.getContent());
+	}
+
+	@Test
+	public void testLongTitle() {
+		StringBuilder title = new StringBuilder();
+		while (title.length() < 2 * IncrementalHtmlTextExtractor.MAX_TITLE_LENGTH) {
+			title.append("word ");
+		}
+		String expected = title.substring(0, IncrementalHtmlTextExtractor.MAX_TITLE_LENGTH).trim();
+		
+		// the title's markup is kept only up to the limit, and a closed title is followed by the page text
+		String closed = "<html><head><title>" + title + "</title></head><body>The body</body></html>";
+		IncrementalHtmlTextExtractor extractor = extract(closed, 7, 0);
+		assertEquals(expected, extractor.getTitle());
+		assertTrue(extractor.getContent().endsWith("The body"));
+		StreamingHtmlTextExtractor whole = new StreamingHtmlTextExtractor(closed, 0);
+		assertEquals(extractor.getContent(), whole.extract());
+		assertEquals(expected, whole.getTitle());
+		
+		// a title that is never closed fills a limited extractor once past the limit, even if the text does not
+		extractor = new IncrementalHtmlTextExtractor(100000).feed("<html><head><title>");
+		for (int i = 0; i < 10 && !extractor.isFull(); i++) {
+			extractor.feed(title);
+		}
+		assertTrue(extractor.isFull());
+		assertEquals(expected, extractor.finish().getTitle());
+		
+		// and the markup of a title still open counts towards the limit
+		extractor = new IncrementalHtmlTextExtractor(20).feed("<html><head><title>A title that is still being read");
+		assertTrue(extractor.isFull());
+		assertEquals("A title that is still being read", extractor.finish().getTitle());
+	}
+
+	private static IncrementalHtmlTextExtractor extract(String page, int piece, int maxChars) {
+		IncrementalHtmlTextExtractor extractor = new IncrementalHtmlTextExtractor(maxChars);
+		for (int i = 0; i < page.length(); i += piece) {
+			extractor.feed(page.substring(i, Math.min(page.length(), i + piece)));
+		}
+		return extractor.finish();
+	}
+}